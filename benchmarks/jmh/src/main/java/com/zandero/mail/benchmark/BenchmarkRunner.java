@@ -0,0 +1,39 @@
+package com.zandero.mail.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks reporting throughput and allocation rate (GC profiler)
+ *
+ * Accepts standard JMH command line options, for instance a benchmark name regexp:
+ * java -jar target/benchmarks.jar SendGrid
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+		// hide constructor
+	}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+
+		if (commandLine.getIncludes().isEmpty()) {
+			builder.include("com.zandero.mail.*");
+		}
+
+		Options options = builder.addProfiler(GCProfiler.class)
+		                         .build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,92 @@
+package com.zandero.mail.benchmark;
+
+import com.zandero.mail.EmailAddress;
+import com.zandero.mail.MailMessage;
+import com.zandero.utils.extra.ValidatingUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Address validation and normalization: regular expression validator followed by trim and lower case (previous path)
+ * vs. single pass scanner, with and without validation cache, on a mix of normalized, mixed case and padded addresses
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailAddressBenchmark {
+
+	@Param({"0", "65536"})
+	public int cacheSize;
+
+	private String[] emails;
+
+	private List<String> list;
+
+	private int position;
+
+	@Setup
+	public void setup() {
+
+		EmailAddress.setCacheSize(cacheSize);
+
+		emails = new String[1024];
+		for (int i = 0; i < emails.length; i++) {
+			switch (i % 3) {
+				case 0:
+					emails[i] = "user" + i + "@domain" + (i % 100) + ".com";
+					break;
+				case 1:
+					emails[i] = "First.Last" + i + "@Domain" + (i % 100) + ".com";
+					break;
+				default:
+					emails[i] = " user+tag" + i + "@mail.domain" + (i % 100) + ".co.uk ";
+			}
+		}
+
+		list = new ArrayList<>(1000);
+		for (int i = 0; i < 1000; i++) {
+			list.add(emails[i]);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		EmailAddress.setCacheSize(0);
+	}
+
+	@Benchmark
+	public String regex() {
+
+		String email = next();
+		return ValidatingUtils.isEmail(email) ? email.trim().toLowerCase() : null;
+	}
+
+	@Benchmark
+	public String scanner() {
+
+		return EmailAddress.normalize(next());
+	}
+
+	/**
+	 * Bulk add of 1000 recipients, each validated and normalized once
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public MailMessage bulkTo() {
+
+		return new MailMessage().to(list);
+	}
+
+	private String next() {
+
+		position = (position + 1) & (emails.length - 1);
+		return emails[position];
+	}
+}
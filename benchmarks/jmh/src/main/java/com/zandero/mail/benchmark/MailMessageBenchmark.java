@@ -0,0 +1,41 @@
+package com.zandero.mail.benchmark;
+
+import com.zandero.mail.MailMessage;
+import org.openjdk.jmh.annotations.*;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a MimeMessage from MailMessage
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MailMessageBenchmark {
+
+	@Param({Messages.SMALL, Messages.LARGE_HTML, Messages.MANY_RECIPIENTS, Messages.MULTI_ATTACHMENT})
+	public String type;
+
+	private Session session;
+
+	private MailMessage message;
+
+	@Setup
+	public void setup() {
+
+		session = Session.getInstance(new Properties());
+		message = Messages.create(type);
+	}
+
+	@Benchmark
+	public MimeMessage getMessage() {
+
+		return message.getMessage(session);
+	}
+}
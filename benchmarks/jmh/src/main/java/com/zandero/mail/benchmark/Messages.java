@@ -0,0 +1,109 @@
+package com.zandero.mail.benchmark;
+
+import com.zandero.mail.MailAttachment;
+import com.zandero.mail.MailMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mail message fixtures shared by benchmarks
+ */
+public final class Messages {
+
+	/**
+	 * Single recipient, short text and html content
+	 */
+	public static final String SMALL = "small";
+
+	/**
+	 * Single recipient, ~200kB html content
+	 */
+	public static final String LARGE_HTML = "largeHtml";
+
+	/**
+	 * 500 recipients split among TO, CC and BCC
+	 */
+	public static final String MANY_RECIPIENTS = "manyRecipients";
+
+	/**
+	 * Single recipient, five 256kB binary attachments
+	 */
+	public static final String MULTI_ATTACHMENT = "multiAttachment";
+
+	private Messages() {
+		// hide constructor
+	}
+
+	/**
+	 * Creates new message of given type
+	 *
+	 * @param type one of message types
+	 * @return mail message
+	 */
+	public static MailMessage create(String type) {
+
+		MailMessage message = new MailMessage().from("sender@zandero.com", "Sender")
+		                                       .subject("Benchmark message ščž")
+		                                       .content("Hello,\nthis is a benchmark message.");
+
+		switch (type) {
+			case SMALL:
+				return message.to("recipient@zandero.com", "Recipient")
+				              .html("<p>Hello,<br/>this is a benchmark message.</p>");
+
+			case LARGE_HTML:
+				return message.to("recipient@zandero.com", "Recipient")
+				              .html(largeHtml(200 * 1024));
+
+			case MANY_RECIPIENTS:
+				for (int i = 0; i < 500; i++) {
+					String email = "recipient" + i + "@zandero.com";
+					String name = "Recipient " + i;
+
+					if (i % 10 == 0) {
+						message.cc(email, name);
+					}
+					else if (i % 10 == 1) {
+						message.bcc(email, name);
+					}
+					else {
+						message.to(email, name);
+					}
+				}
+
+				return message.html("<p>Hello,<br/>this is a benchmark message.</p>");
+
+			case MULTI_ATTACHMENT:
+				List<MailAttachment> attachments = new ArrayList<>();
+				Random random = new Random(42);
+				for (int i = 0; i < 5; i++) {
+					byte[] content = new byte[256 * 1024];
+					random.nextBytes(content);
+					attachments.add(new MailAttachment("application/pdf", content, "invoice" + i + ".pdf"));
+				}
+
+				return message.to("recipient@zandero.com", "Recipient")
+				              .html("<p>Hello,<br/>invoices are attached.</p>")
+				              .attachments(attachments);
+
+			default:
+				throw new IllegalArgumentException("Unknown message type: " + type);
+		}
+	}
+
+	private static String largeHtml(int size) {
+
+		StringBuilder html = new StringBuilder(size + 64);
+		html.append("<html><body>");
+
+		int row = 0;
+		while (html.length() < size) {
+			html.append("<p class=\"row\">Row ").append(row++).append(": Lorem ipsum dolor sit amet, čćžšđ &amp; consectetur adipiscing elit.</p>\n");
+		}
+
+		html.append("</body></html>");
+		return html.toString();
+	}
+}
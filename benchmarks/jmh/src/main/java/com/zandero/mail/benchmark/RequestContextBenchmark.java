@@ -0,0 +1,119 @@
+package com.zandero.mail.benchmark;
+
+import com.zandero.http.Http;
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.MailSendStats;
+import com.zandero.mail.service.http.HttpTransport;
+import com.zandero.mail.service.http.RequestBody;
+import com.zandero.mail.service.http.RequestContext;
+import com.zandero.mail.service.mailgun.MailGunMailService;
+import com.zandero.mail.service.sendgrid.SendGridMailService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per send cost of provider request constants (endpoint, auth headers): rebuilt on each send vs. precomputed request context,
+ * compare gc.alloc.rate.norm (bytes allocated per send) reported by GC profiler
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestContextBenchmark {
+
+	private static final String API_KEY = "key-benchmark0000000000";
+
+	private static final String DOMAIN = "zandero.com";
+
+	private RequestContext context;
+
+	private MailGunMailService mailGun;
+
+	private SendGridMailService sendGrid;
+
+	private MailMessage message;
+
+	@Setup
+	public void setup() {
+
+		context = new RequestContext("https://api.mailgun.net/v3/" + DOMAIN + "/messages",
+		                             Collections.singletonMap("Authorization", "Basic " + encode(API_KEY)),
+		                             "application/x-www-form-urlencoded");
+
+		// requests are not send ... only request preparation is measured
+		HttpTransport transport = new NoopTransport();
+		mailGun = new MailGunMailService(API_KEY, DOMAIN, "sender@zandero.com", "Sender", transport);
+		sendGrid = new SendGridMailService(API_KEY, "sender@zandero.com", "Sender", transport);
+
+		message = Messages.create(Messages.SMALL);
+	}
+
+	/**
+	 * Endpoint and headers as previously built for each send
+	 */
+	@Benchmark
+	public void rebuiltPerSend(Blackhole blackhole) {
+
+		blackhole.consume("https://api.mailgun.net/v3/" + DOMAIN + "/messages");
+
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Authorization", "Basic " + encode(API_KEY));
+		blackhole.consume(headers);
+	}
+
+	@Benchmark
+	public void precomputed(Blackhole blackhole) {
+
+		blackhole.consume(context.getUrl());
+		blackhole.consume(context.getHeaders());
+	}
+
+	@Benchmark
+	public MailSendResult mailGunSend() {
+
+		return mailGun.send(message);
+	}
+
+	@Benchmark
+	public MailSendResult sendGridSendAsync() {
+
+		return sendGrid.sendAsync(message, Runnable::run).join();
+	}
+
+	private static String encode(String apiKey) {
+
+		return Base64.getEncoder().encodeToString(("api:" + apiKey).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Accepts every request without sending it
+	 */
+	private static final class NoopTransport implements HttpTransport {
+
+		private static final Http.Response ACCEPTED = new Http.Response(202, "{\"id\":\"1\",\"message\":\"Queued\"}", Collections.emptyMap());
+
+		@Override
+		public Http.Response post(String url, RequestBody body, Map<String, String> headers, MailSendStats stats) {
+
+			return ACCEPTED;
+		}
+
+		@Override
+		public CompletableFuture<Http.Response> postAsync(String url, RequestBody body, Map<String, String> headers, Executor executor) {
+
+			return CompletableFuture.completedFuture(ACCEPTED);
+		}
+	}
+}
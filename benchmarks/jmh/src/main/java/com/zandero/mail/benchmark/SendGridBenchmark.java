@@ -0,0 +1,46 @@
+package com.zandero.mail.benchmark;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.sendgrid.Mail;
+import com.zandero.mail.service.sendgrid.MailBody;
+import com.zandero.utils.extra.JsonUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing MailMessage into SendGrid API request body (in memory vs. streamed)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendGridBenchmark {
+
+	@Param({Messages.SMALL, Messages.LARGE_HTML, Messages.MANY_RECIPIENTS, Messages.MULTI_ATTACHMENT})
+	public String type;
+
+	private MailMessage message;
+
+	@Setup
+	public void setup() {
+
+		message = Messages.create(type);
+	}
+
+	@Benchmark
+	public String toJson() {
+
+		return JsonUtils.toJson(new Mail(message));
+	}
+
+	@Benchmark
+	public void writeBody() throws IOException {
+
+		new MailBody(message).writeTo(OutputStream.nullOutputStream());
+	}
+}
@@ -0,0 +1,57 @@
+package com.zandero.mail.benchmark;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.spool.SpoolingMailService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Latency of appending a message to the disk spool (delivery is a no-op)
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpoolBenchmark {
+
+	@Param({Messages.SMALL, Messages.LARGE_HTML})
+	public String type;
+
+	private Path directory;
+
+	private SpoolingMailService service;
+
+	private MailMessage message;
+
+	@Setup
+	public void setup() throws IOException {
+
+		directory = Files.createTempDirectory("mail-spool");
+		service = new SpoolingMailService(mail -> MailSendResult.ok(), directory);
+		message = Messages.create(type);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+
+		service.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public MailSendResult enqueue() {
+
+		return service.send(message);
+	}
+}
@@ -0,0 +1,70 @@
+package com.zandero.mail.benchmark;
+
+import com.zandero.mail.ExclusionList;
+import com.zandero.mail.service.suppression.SuppressionList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suppression lookup of a million addresses: compact hash index (8 bytes per address) vs. hash set of strings (exclusion list)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SuppressionBenchmark {
+
+	@Param({"1000000"})
+	public int size;
+
+	private SuppressionList index;
+
+	private ExclusionList set;
+
+	private String[] lookups;
+
+	private int position;
+
+	@Setup
+	public void setup() {
+
+		List<String> emails = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			emails.add("user" + i + "@domain" + (i % 1000) + ".com");
+		}
+
+		index = new SuppressionList().addAll(emails);
+		index.compact();
+
+		set = new ExclusionList().addAll(emails);
+
+		// half of lookups are suppressed
+		lookups = new String[1024];
+		for (int i = 0; i < lookups.length; i++) {
+			lookups[i] = i % 2 == 0 ? emails.get(i * 977 % size) : "other" + i + "@domain.com";
+		}
+	}
+
+	@Benchmark
+	public boolean index() {
+
+		return index.contains(next());
+	}
+
+	@Benchmark
+	public boolean hashSet() {
+
+		return set.contains(next());
+	}
+
+	private String next() {
+
+		position = (position + 1) & (lookups.length - 1);
+		return lookups[position];
+	}
+}
@@ -0,0 +1,48 @@
+package com.zandero.mail.service.mailgun;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.benchmark.Messages;
+import com.zandero.utils.extra.UrlUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of composing MailMessage into MailGun API request body (url encoded form vs. streamed multipart)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MailGunBenchmark {
+
+	@Param({Messages.SMALL, Messages.LARGE_HTML, Messages.MANY_RECIPIENTS, Messages.MULTI_ATTACHMENT})
+	public String type;
+
+	private MailGunMailService service;
+
+	private MailMessage message;
+
+	@Setup
+	public void setup() {
+
+		service = new MailGunMailService("key-benchmark0000000000", "zandero.com", "sender@zandero.com", "Sender");
+		message = Messages.create(type);
+	}
+
+	@Benchmark
+	public String composeQuery() {
+
+		return UrlUtils.composeQuery(service.getFormParams(message));
+	}
+
+	@Benchmark
+	public void writeMultipart() throws IOException {
+
+		service.getBody(message).writeTo(OutputStream.nullOutputStream());
+	}
+}
@@ -0,0 +1,63 @@
+package com.zandero.mail;
+
+import javax.activation.*;
+import javax.mail.*;
+import java.io.*;
+
+/**
+ * Data source streaming attachment content into the MIME part when message is written out
+ *
+ * Transfer encoding is given up front so content is not scanned before it is written
+ */
+class AttachmentDataSource implements DataSource, EncodingAware {
+
+    private static final String DEFAULT_TYPE = "application/octet-stream";
+
+    private final AttachmentSource source;
+
+    private final String type;
+
+    private final String name;
+
+    AttachmentDataSource(MailAttachment attachment) {
+
+        source = attachment.getSource();
+        type = attachment.type == null ? DEFAULT_TYPE : attachment.type;
+        name = attachment.fileName;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+
+        return source.open();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+
+        throw new IOException("Attachment data source is read only!");
+    }
+
+    @Override
+    public String getContentType() {
+
+        return type;
+    }
+
+    @Override
+    public String getName() {
+
+        return name;
+    }
+
+    /**
+     * Text content is left to be checked by java mail, anything else is base64 encoded
+     *
+     * @return transfer encoding or null to let java mail decide
+     */
+    @Override
+    public String getEncoding() {
+
+        return type.regionMatches(true, 0, "text/", 0, 5) ? null : "base64";
+    }
+}
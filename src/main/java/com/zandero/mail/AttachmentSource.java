@@ -0,0 +1,178 @@
+package com.zandero.mail;
+
+import com.zandero.utils.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+
+/**
+ * Source of attachment content, opened each time content is read (streamed)
+ * so the content doesn't need to be held in memory
+ */
+@FunctionalInterface
+public interface AttachmentSource {
+
+    /**
+     * Opens a new stream of attachment content, caller is responsible to close the stream
+     *
+     * @return attachment content stream
+     * @throws IOException in case content can't be read
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * @return content length in bytes or -1 if not known in advance
+     */
+    default long length() {
+
+        return -1;
+    }
+
+    /**
+     * Attachment content read from file when needed
+     *
+     * @param path to file
+     * @return attachment source
+     */
+    static AttachmentSource of(Path path) {
+
+        Assert.notNull(path, "Missing attachment path!");
+        return new PathSource(path);
+    }
+
+    /**
+     * Attachment content read from buffer (heap or direct), buffer is not copied
+     *
+     * @param buffer holding content between position and limit, buffer must not be changed afterwards
+     * @return attachment source
+     */
+    static AttachmentSource of(ByteBuffer buffer) {
+
+        Assert.notNull(buffer, "Missing attachment buffer!");
+        return new ByteBufferSource(buffer);
+    }
+
+    /**
+     * Attachment content held in byte array, array is not copied
+     *
+     * @param content attachment content
+     * @return attachment source
+     */
+    static AttachmentSource of(byte[] content) {
+
+        Assert.notNull(content, "Missing attachment content!");
+        return new ByteBufferSource(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * File backed attachment content
+     */
+    final class PathSource implements AttachmentSource {
+
+        private final Path path;
+
+        private PathSource(Path file) {
+
+            path = file;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+
+            return Files.newInputStream(path);
+        }
+
+        @Override
+        public long length() {
+
+            try {
+                return Files.size(path);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * @return path to file
+         */
+        public Path getPath() {
+
+            return path;
+        }
+    }
+
+    /**
+     * Buffer backed attachment content
+     */
+    final class ByteBufferSource implements AttachmentSource {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferSource(ByteBuffer content) {
+
+            buffer = content.asReadOnlyBuffer();
+        }
+
+        @Override
+        public InputStream open() {
+
+            return new ByteBufferInputStream(buffer.duplicate());
+        }
+
+        @Override
+        public long length() {
+
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Reads buffer from position to limit without copying it
+     */
+    final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer content) {
+
+            buffer = content;
+        }
+
+        @Override
+        public int read() {
+
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+
+            if (length == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) {
+
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package com.zandero.mail;
+
+import com.zandero.utils.*;
+
+import java.net.*;
+
+/**
+ * Email address validation and normalization (RFC 5321 mailbox) with a hand written scanner instead of regular expressions
+ *
+ * Local part is a dot-string or quoted string of ASCII characters, domain is a host name of at least two labels
+ * with an alphabetic (or punycode) top level domain, or an IPv4 address literal (i.e. [127.0.0.1]).
+ * Internationalized domain names are converted to punycode.
+ *
+ * Normalized address is trimmed and lower cased, addresses already in normal form are returned as they are,
+ * so validation and normalization of such addresses allocates nothing.
+ * Optional bounded cache keeps normalized form of recently seen addresses (i.e. when importing lists with repeated addresses).
+ */
+public final class EmailAddress {
+
+    /**
+     * Max length of address
+     */
+    public static final int MAX_LENGTH = 254;
+
+    private static final int MAX_LOCAL_LENGTH = 64;
+
+    private static final int MAX_DOMAIN_LENGTH = 253;
+
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    private static final int INVALID = -1;
+
+    /**
+     * Address contains upper case ASCII letters
+     */
+    private static final int UPPER_CASE = 1;
+
+    /**
+     * Domain contains non ASCII characters
+     */
+    private static final int INTERNATIONAL = 2;
+
+    /**
+     * Characters allowed in dot-string local part besides dots
+     */
+    private static final boolean[] ATOM = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ATOM[c] = true;
+            ATOM[Character.toUpperCase(c)] = true;
+        }
+
+        for (char c = '0'; c <= '9'; c++) {
+            ATOM[c] = true;
+        }
+
+        for (char c : "!#$%&'*+-/=?^_`{|}~".toCharArray()) {
+            ATOM[c] = true;
+        }
+    }
+
+    private static volatile Cache cache;
+
+    private EmailAddress() {
+        // utility class
+    }
+
+    /**
+     * @param email address
+     * @return true if address is valid, surrounding white space is ignored
+     */
+    public static boolean isValid(String email) {
+
+        if (email == null) {
+            return false;
+        }
+
+        int start = start(email);
+        int end = end(email, start);
+        if (start == end) {
+            return false;
+        }
+
+        int flags = scan(email, start, end);
+        if (flags == INVALID) {
+            return false;
+        }
+
+        return (flags & INTERNATIONAL) == 0 || normalize(email) != null;
+    }
+
+    /**
+     * Validates and normalizes address in a single pass
+     *
+     * @param email address
+     * @return trimmed and lower cased address with punycode domain (same instance if already normalized) or null if address is invalid
+     */
+    public static String normalize(String email) {
+
+        if (email == null) {
+            return null;
+        }
+
+        Cache current = cache;
+        if (current == null) {
+            return scanAndNormalize(email);
+        }
+
+        String normalized = current.get(email);
+        if (normalized == null) {
+            normalized = scanAndNormalize(email);
+            if (normalized != null) {
+                current.put(email, normalized);
+            }
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Enables or disables cache of normalized addresses, used by all messages
+     *
+     * @param entries max number of cached addresses (rounded up to power of two, at most 2^30), 0 to disable cache
+     */
+    public static void setCacheSize(int entries) {
+
+        Assert.isTrue(entries >= 0 && entries <= 1 << 30, "Cache size must be between 0 and 2^30!");
+        cache = entries == 0 ? null : new Cache(entries);
+    }
+
+    /**
+     * @return max number of cached addresses or 0 if cache is disabled
+     */
+    public static int getCacheSize() {
+
+        Cache current = cache;
+        return current == null ? 0 : current.entries.length;
+    }
+
+    private static String scanAndNormalize(String email) {
+
+        int start = start(email);
+        int end = end(email, start);
+        if (start == end) {
+            return null;
+        }
+
+        int flags = scan(email, start, end);
+        if (flags == INVALID) {
+            return null;
+        }
+
+        if ((flags & INTERNATIONAL) != 0) {
+            return international(email.substring(start, end));
+        }
+
+        if (flags == 0 && start == 0 && end == email.length()) {
+            return email;
+        }
+
+        return lowerCase(email, start, end);
+    }
+
+    /**
+     * Converts domain to punycode and scans address again
+     */
+    private static String international(String email) {
+
+        int at = email.lastIndexOf('@');
+        String domain;
+        try {
+            domain = IDN.toASCII(email.substring(at + 1));
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        String converted = email.substring(0, at + 1) + domain;
+        int flags = scan(converted, 0, converted.length());
+        if (flags == INVALID || (flags & INTERNATIONAL) != 0) {
+            return null;
+        }
+
+        return flags == 0 ? converted : lowerCase(converted, 0, converted.length());
+    }
+
+    /**
+     * @return flags of valid address or {@link #INVALID}
+     */
+    private static int scan(String email, int start, int end) {
+
+        int flags = 0;
+        int index = start;
+
+        // local part
+        if (email.charAt(index) == '"') {
+            index++;
+            while (true) {
+                if (index >= end) {
+                    return INVALID;
+                }
+
+                char c = email.charAt(index);
+                if (c == '"') {
+                    break;
+                }
+
+                if (c == '\\' && ++index < end) {
+                    c = email.charAt(index);
+                }
+
+                if (c < ' ' || c > '~') {
+                    return INVALID;
+                }
+
+                if (c >= 'A' && c <= 'Z') {
+                    flags |= UPPER_CASE;
+                }
+
+                index++;
+            }
+
+            index++;
+            if (index >= end || email.charAt(index) != '@') {
+                return INVALID;
+            }
+        }
+        else {
+            boolean dot = true;
+            while (index < end) {
+
+                char c = email.charAt(index);
+                if (c == '@') {
+                    break;
+                }
+
+                if (c == '.') {
+                    if (dot) {
+                        return INVALID;
+                    }
+                    dot = true;
+                }
+                else if (c < 128 && ATOM[c]) {
+                    dot = false;
+                    if (c >= 'A' && c <= 'Z') {
+                        flags |= UPPER_CASE;
+                    }
+                }
+                else {
+                    return INVALID;
+                }
+
+                index++;
+            }
+
+            // no @, empty local part or ending with a dot
+            if (index >= end || dot) {
+                return INVALID;
+            }
+        }
+
+        if (index - start > MAX_LOCAL_LENGTH || index + 1 >= end) {
+            return INVALID;
+        }
+
+        int domain = index + 1;
+        if (email.charAt(domain) == '[') {
+            return end - start <= MAX_LENGTH && isAddressLiteral(email, domain + 1, end) ? flags : INVALID;
+        }
+
+        int labels = 0;
+        int label = domain;
+        int last = domain;
+
+        for (index = domain; index <= end; index++) {
+
+            char c = index < end ? email.charAt(index) : '.';
+            if (c == '.') {
+                int length = index - label;
+                if (length == 0 || length > MAX_LABEL_LENGTH || email.charAt(label) == '-' || email.charAt(index - 1) == '-') {
+                    return INVALID;
+                }
+
+                labels++;
+                last = label;
+                label = index + 1;
+            }
+            else if (c >= 128) {
+                // validated once converted to punycode
+                flags |= INTERNATIONAL;
+            }
+            else if (c >= 'A' && c <= 'Z') {
+                flags |= UPPER_CASE;
+            }
+            else if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '-') {
+                return INVALID;
+            }
+        }
+
+        if (labels < 2) {
+            return INVALID;
+        }
+
+        if ((flags & INTERNATIONAL) != 0) {
+            return flags;
+        }
+
+        if (end - domain > MAX_DOMAIN_LENGTH || end - start > MAX_LENGTH || !isTopLevelDomain(email, last, end)) {
+            return INVALID;
+        }
+
+        return flags;
+    }
+
+    /**
+     * Alphabetic top level domain of at least two letters or punycode (xn--)
+     */
+    private static boolean isTopLevelDomain(String email, int start, int end) {
+
+        if (end - start < 2) {
+            return false;
+        }
+
+        if (email.regionMatches(true, start, "xn--", 0, 4)) {
+            return end - start > 4;
+        }
+
+        for (int index = start; index < end; index++) {
+            char c = email.charAt(index);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Dotted IPv4 address followed by closing bracket
+     */
+    private static boolean isAddressLiteral(String email, int start, int end) {
+
+        if (email.charAt(end - 1) != ']') {
+            return false;
+        }
+
+        int octets = 0;
+        int value = -1;
+
+        for (int index = start; index < end; index++) {
+
+            char c = email.charAt(index);
+            if (c >= '0' && c <= '9') {
+                value = value < 0 ? c - '0' : value * 10 + c - '0';
+                if (value > 255) {
+                    return false;
+                }
+            }
+            else if ((c == '.' || index == end - 1) && value >= 0) {
+                octets++;
+                value = -1;
+            }
+            else {
+                return false;
+            }
+        }
+
+        return octets == 4;
+    }
+
+    private static String lowerCase(String email, int start, int end) {
+
+        char[] chars = new char[end - start];
+        for (int index = start; index < end; index++) {
+            char c = email.charAt(index);
+            chars[index - start] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+
+        return new String(chars);
+    }
+
+    private static int start(String email) {
+
+        int start = 0;
+        while (start < email.length() && email.charAt(start) <= ' ') {
+            start++;
+        }
+
+        return start;
+    }
+
+    private static int end(String email, int start) {
+
+        int end = email.length();
+        while (end > start && email.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        return end;
+    }
+
+    /**
+     * Direct mapped cache, entries are immutable so they can be shared between threads without locking
+     */
+    private static final class Cache {
+
+        private final Entry[] entries;
+
+        private Cache(int size) {
+
+            int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+            entries = new Entry[size == 1 ? 1 : capacity];
+        }
+
+        private String get(String email) {
+
+            Entry entry = entries[index(email)];
+            return entry != null && entry.email.equals(email) ? entry.normalized : null;
+        }
+
+        private void put(String email, String normalized) {
+
+            entries[index(email)] = new Entry(email, normalized);
+        }
+
+        private int index(String email) {
+
+            int hash = email.hashCode();
+            return (hash ^ (hash >>> 16)) & (entries.length - 1);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String email;
+
+        private final String normalized;
+
+        private Entry(String email, String normalized) {
+
+            this.email = email;
+            this.normalized = normalized;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.zandero.mail;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Emails excluded by a single message: kept in order they were given, looked up by hash,
+ * serialized as a plain list
+ */
+final class ExcludedEmails extends AbstractList<String> implements Serializable {
+
+    private static final long serialVersionUID = -6457893186740052370L;
+
+    private final List<String> emails = new ArrayList<>();
+
+    private final Set<String> index = new HashSet<>();
+
+    /**
+     * @param email normalized address
+     * @return true if added, false if already excluded
+     */
+    boolean put(String email) {
+
+        if (index.add(email)) {
+            emails.add(email);
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object email) {
+
+        return index.contains(email);
+    }
+
+    @Override
+    public String get(int position) {
+
+        return emails.get(position);
+    }
+
+    @Override
+    public int size() {
+
+        return emails.size();
+    }
+
+    private Object writeReplace() {
+
+        return new ArrayList<>(emails);
+    }
+}
@@ -0,0 +1,138 @@
+package com.zandero.mail;
+
+import com.zandero.utils.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Hashed set of email addresses excluded from sending (i.e. bounced or unsubscribed addresses)
+ *
+ * List is thread safe and meant to be shared: messages reference it with {@link MailMessage#exclude(Exclusions)}
+ * instead of copying it, changes to the list apply to all messages referencing it.
+ * Addresses are trimmed and lower cased (as recipients are).
+ */
+public class ExclusionList implements Exclusions {
+
+    private final Set<String> emails = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Empty list
+     */
+    public ExclusionList() {
+    }
+
+    /**
+     * List of given addresses
+     *
+     * @param list of addresses to exclude
+     */
+    public ExclusionList(Collection<String> list) {
+
+        addAll(list);
+    }
+
+    /**
+     * Loads list from text file with an address per line, empty lines and lines starting with # are skipped
+     *
+     * @param file to load
+     * @return loaded list
+     * @throws IOException in case file could not be read
+     */
+    public static ExclusionList load(Path file) throws IOException {
+
+        Assert.notNull(file, "Missing exclusion list file!");
+
+        ExclusionList list = new ExclusionList();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().startsWith("#")) {
+                    list.put(line);
+                }
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Adds address to list
+     *
+     * @param email address to exclude
+     * @return list (self)
+     */
+    public ExclusionList add(String email) {
+
+        Assert.notNullOrEmptyTrimmed(email, "Missing excluded email address!");
+        String normalized = EmailAddress.normalize(email);
+        Assert.notNull(normalized, "Invalid excluded email address: '" + email + "'!");
+
+        emails.add(normalized);
+        return this;
+    }
+
+    /**
+     * Adds addresses in bulk, addresses are not validated and empty ones are skipped
+     *
+     * @param list of addresses to exclude
+     * @return list (self)
+     */
+    public ExclusionList addAll(Collection<String> list) {
+
+        if (list != null) {
+            for (String email : list) {
+                put(email);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Removes address from list
+     *
+     * @param email address to remove
+     * @return true if removed, false if not on list
+     */
+    public boolean remove(String email) {
+
+        return email != null && emails.remove(Exclusions.normalize(email));
+    }
+
+    /**
+     * @param email address
+     * @return true if address is on list
+     */
+    @Override
+    public boolean contains(String email) {
+
+        return email != null && emails.contains(Exclusions.normalize(email));
+    }
+
+    /**
+     * @return number of addresses on list
+     */
+    public int size() {
+
+        return emails.size();
+    }
+
+    /**
+     * @return read-only view of addresses on list
+     */
+    public Set<String> getEmails() {
+
+        return Collections.unmodifiableSet(emails);
+    }
+
+    private void put(String email) {
+
+        if (!StringUtils.isNullOrEmptyTrimmed(email)) {
+            emails.add(Exclusions.normalize(email));
+        }
+    }
+}
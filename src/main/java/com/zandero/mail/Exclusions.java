@@ -0,0 +1,42 @@
+package com.zandero.mail;
+
+/**
+ * Set of email addresses excluded from sending, consulted by {@link MailMessage} for each recipient
+ */
+public interface Exclusions {
+
+    /**
+     * @param email recipient address (trimmed and lower cased)
+     * @return true if address is excluded
+     */
+    boolean contains(String email);
+
+    /**
+     * Trims and lower cases address, already normalized addresses (i.e. recipients) are returned as they are,
+     * international domains are converted to punycode as with recipients (see {@link EmailAddress#normalize(String)})
+     *
+     * @param email address
+     * @return normalized address
+     */
+    static String normalize(String email) {
+
+        int length = email.length();
+        if (length > 0 && !Character.isWhitespace(email.charAt(0)) && !Character.isWhitespace(email.charAt(length - 1))) {
+
+            boolean lower = true;
+            boolean ascii = true;
+            for (int index = 0; index < length && lower && ascii; index++) {
+                char c = email.charAt(index);
+                lower = !Character.isUpperCase(c);
+                ascii = c < 128;
+            }
+
+            if (lower && ascii) {
+                return email;
+            }
+        }
+
+        String normalized = EmailAddress.normalize(email);
+        return normalized != null ? normalized : email.trim().toLowerCase();
+    }
+}
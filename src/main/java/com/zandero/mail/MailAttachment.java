@@ -1,9 +1,31 @@
 package com.zandero.mail;
 
+import com.zandero.utils.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
 /**
  * Mail attachemnt to be added to email message
+ *
+ * Content is either held in memory ({@link #content}) or streamed from a {@link #source} when message is send
+ *
+ * When serialized, file sources are written as a reference to the file (file must still exist when message is send),
+ * any other source is copied into the serialized form.
+ * Streams implementing {@link ContentStore} (i.e. mail spool) store content of any source on their own and serialize just a reference to it.
  */
-public class MailAttachment {
+public class MailAttachment implements Serializable {
+
+    private static final long serialVersionUID = -2417355302436150723L;
+
+    private static final int NO_SOURCE = 0;
+    private static final int FILE_SOURCE = 1;
+    private static final int CONTENT_SOURCE = 2;
+    private static final int STORED_SOURCE = 3;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
 
     /**
      * Attachment type
@@ -11,10 +33,15 @@ public class MailAttachment {
     public String type;
 
     /**
-     * Attachment content
+     * Attachment content, null if attachment is streamed from source
      */
     public byte[] content;
 
+    /**
+     * Attachment content source, null if content is held in memory
+     */
+    public transient AttachmentSource source;
+
     /**
      * Attachment file name
      */
@@ -40,12 +67,164 @@ public class MailAttachment {
      * Creates new mail attachment
      *
      * @param type     mime type of attachment
-     * @param content  to be attached
+     * @param content  to be attached (UTF-8 encoded)
      * @param fileName file name
      */
     public MailAttachment(String type, String content, String fileName) {
         this.type = type;
-        this.content = content.getBytes();
+        this.content = content.getBytes(StandardCharsets.UTF_8);
         this.fileName = fileName;
     }
+
+    /**
+     * Creates new mail attachment streamed from source when message is send
+     *
+     * @param type     mime type of attachment
+     * @param source   of content, opened each time content is needed
+     * @param fileName file name
+     */
+    public MailAttachment(String type, AttachmentSource source, String fileName) {
+
+        Assert.notNull(source, "Missing attachment source!");
+
+        this.type = type;
+        this.source = source;
+        this.fileName = fileName;
+    }
+
+    /**
+     * Creates new mail attachment streamed from file when message is send
+     *
+     * @param type     mime type of attachment
+     * @param file     to be attached
+     * @param fileName file name, if null name of file is taken
+     */
+    public MailAttachment(String type, Path file, String fileName) {
+
+        this(type, AttachmentSource.of(file), fileName != null || file.getFileName() == null ? fileName : file.getFileName().toString());
+    }
+
+    /**
+     * Creates new mail attachment streamed from buffer (buffer is not copied)
+     *
+     * @param type     mime type of attachment
+     * @param content  to be attached (between buffer position and limit)
+     * @param fileName file name
+     */
+    public MailAttachment(String type, ByteBuffer content, String fileName) {
+
+        this(type, AttachmentSource.of(content), fileName);
+    }
+
+    /**
+     * @return source of attachment content (in memory content is wrapped without copying)
+     */
+    public AttachmentSource getSource() {
+
+        if (source != null) {
+            return source;
+        }
+
+        return AttachmentSource.of(content == null ? new byte[0] : content);
+    }
+
+    /**
+     * @return content length in bytes or -1 if not known in advance
+     */
+    public long getLength() {
+
+        if (source != null) {
+            return source.length();
+        }
+
+        return content == null ? 0 : content.length;
+    }
+
+    /**
+     * @return true if attachment is streamed from source, false if held in memory
+     */
+    public boolean isStreamed() {
+
+        return source != null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+
+        out.defaultWriteObject();
+
+        if (source == null) {
+            out.writeByte(NO_SOURCE);
+        } else if (out instanceof ContentStore) {
+            out.writeByte(STORED_SOURCE);
+            out.writeObject(((ContentStore) out).store(source));
+        } else if (source instanceof AttachmentSource.PathSource) {
+            out.writeByte(FILE_SOURCE);
+            out.writeUTF(((AttachmentSource.PathSource) source).getPath().toAbsolutePath().toString());
+        } else {
+            // copied in chunks, terminated with an empty chunk
+            out.writeByte(CONTENT_SOURCE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = source.open()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (read > 0) {
+                        out.writeInt(read);
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+
+            out.writeInt(0);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+        in.defaultReadObject();
+
+        int kind = in.readByte();
+        if (kind == FILE_SOURCE) {
+            source = AttachmentSource.of(Paths.get(in.readUTF()));
+        } else if (kind == CONTENT_SOURCE) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.readInt()) > 0) {
+                while (length > 0) {
+                    int read = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of attachment content!");
+                    }
+
+                    out.write(buffer, 0, read);
+                    length -= read;
+                }
+            }
+
+            source = AttachmentSource.of(out.toByteArray());
+        } else if (kind == STORED_SOURCE) {
+            Object stored = in.readObject();
+            if (!(stored instanceof AttachmentSource)) {
+                throw new InvalidObjectException("Attachment content is stored outside of serialized message!");
+            }
+
+            source = (AttachmentSource) stored;
+        }
+    }
+
+    /**
+     * Object output stream storing attachment content outside of the serialized form,
+     * matching object input stream must resolve returned references back into an {@link AttachmentSource}
+     */
+    public interface ContentStore {
+
+        /**
+         * Stores content of source (content might be read later, once message is serialized)
+         *
+         * @param source attachment content
+         * @return serializable reference to stored content
+         * @throws IOException in case content could not be stored
+         */
+        Serializable store(AttachmentSource source) throws IOException;
+    }
 }
@@ -1,7 +1,6 @@
 package com.zandero.mail;
 
 import com.zandero.utils.*;
-import com.zandero.utils.extra.*;
 import org.slf4j.*;
 
 import javax.activation.*;
@@ -9,8 +8,10 @@ import javax.mail.*;
 import javax.mail.internet.*;
 import javax.mail.util.*;
 import java.io.*;
+import java.nio.file.*;
 import java.time.*;
 import java.util.*;
+import java.util.function.*;
 
 /**
  * MailMassage builder for creating a new email massage
@@ -23,9 +24,15 @@ public class MailMessage implements Serializable {
     private static final String UTF_8 = "UTF-8";
 
     /**
-     * email addresses storage
+     * Read-only view of email addresses by type / email-name (pairs), null until first recipient is added.
+     * Recipients are held in flat storage, subclasses add them with to(), cc() and bcc() instead of changing this map.
      */
-    protected Map<Message.RecipientType, Map<String, String>> emails; // type / email-name (pairs)
+    protected Map<Message.RecipientType, Map<String, String>> emails;
+
+    /**
+     * Recipients storage (rebuilt from emails when deserialized)
+     */
+    private transient Recipients recipients;
 
     /**
      * Email subject (title)
@@ -63,10 +70,20 @@ public class MailMessage implements Serializable {
     private String fromName;
 
     /**
-     * List of emails to exclude in TO, CC, BCC list
+     * List of emails to exclude in TO, CC, BCC list (hashed, rebuilt when deserialized)
      */
     private List<String> excludeEmails;
 
+    /**
+     * Shared exclusion lists referenced by this message (not serialized, recipients they exclude are serialized as own exclusions)
+     */
+    private transient List<Exclusions> exclusionLists;
+
+    /**
+     * Exclusions consulted by all messages (i.e. global suppression list)
+     */
+    private static volatile Exclusions defaultExclusions;
+
     /**
      * timestamp when message should be send out
      * in case mail system allows for this
@@ -88,20 +105,68 @@ public class MailMessage implements Serializable {
      */
     public MimeMessage getMessage(Session session) {
 
-        Assert.notNull(emails, "No email address given!");
+        checkRecipients();
+        checkContent();
 
-        Map<String, String> recipients = emails.get(Message.RecipientType.TO);
-        Assert.isTrue(recipients != null && recipients.size() > 0, "Missing to email address(es)!");
+        MimeMessage msg = new MimeMessage(session);
 
-        boolean found = false;
-        for (String email : recipients.keySet()) {
-            if (!excluded(email)) { // at least one address is not excluded
-                found = true;
-                break;
-            }
+        // FROM:
+        try {
+            msg.setFrom(new InternetAddress(fromEmail, fromName, UTF_8));
+
+            // TO:
+            addRecipients(Message.RecipientType.TO, msg);
+            // CC:
+            addRecipients(Message.RecipientType.CC, msg);
+            // BCC:
+            addRecipients(Message.RecipientType.BCC, msg);
+
+            setContent(msg);
+
+        } catch (MessagingException | UnsupportedEncodingException e) {
+            log.error("Mail massage build failed!", e);
+            throw new IllegalArgumentException(e.getMessage(), e);
         }
 
-        Assert.isTrue(found, "All to email address(es) are excluded!");
+        return msg;
+    }
+
+    /**
+     * Pre-renders message (sender, subject, headers, content and attachments) into a template,
+     * recipients of this message are ignored and set for each message produced by the template
+     *
+     * @param session mail session
+     * @return template to produce messages for different recipients
+     * @throws IllegalArgumentException in case massage could not be build up, wraps MessagingException and IOException
+     */
+    public MailTemplate getTemplate(Session session) {
+
+        checkContent();
+
+        MimeMessage msg = new MimeMessage(session);
+
+        try {
+            msg.setFrom(new InternetAddress(fromEmail, fromName, UTF_8));
+            setContent(msg);
+
+            return new MailTemplate(session, msg);
+
+        } catch (MessagingException | IOException e) {
+            log.error("Mail massage template build failed!", e);
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private void checkRecipients() {
+
+        Assert.notNull(recipients, "No email address given!");
+        Assert.isTrue(recipients.size(Message.RecipientType.TO) > 0, "Missing to email address(es)!");
+
+        // at least one address is not excluded
+        Assert.isFalse(recipients.view(Message.RecipientType.TO, this::excluded).isEmpty(), "All to email address(es) are excluded!");
+    }
+
+    private void checkContent() {
 
         if (StringUtils.isNullOrEmptyTrimmed(fromName)) {
             fromName = fromEmail;
@@ -115,115 +180,113 @@ public class MailMessage implements Serializable {
         subject = subject.trim();
         content = content != null ? content.trim() : null;
         htmlContent = htmlContent != null ? htmlContent.trim() : null;
+    }
 
-        log.info("Sending from: " + fromEmail + " (" + fromName + ")");
+    /**
+     * Sets TO, CC and BCC recipients of this message not on excluded list
+     *
+     * @param msg to set recipients to
+     * @throws UnsupportedEncodingException in case recipient name can't be encoded
+     * @throws MessagingException           in case recipient can't be set
+     * @throws IllegalArgumentException     in case there is no TO recipient to send message to
+     */
+    void setRecipients(MimeMessage msg) throws UnsupportedEncodingException, MessagingException {
 
-        MimeMessage msg = new MimeMessage(session);
+        checkRecipients();
 
-        // FROM:
-        try {
-            msg.setFrom(new InternetAddress(fromEmail, fromName, UTF_8));
+        addRecipients(Message.RecipientType.TO, msg);
+        addRecipients(Message.RecipientType.CC, msg);
+        addRecipients(Message.RecipientType.BCC, msg);
+    }
 
-            // TO:
-            addRecipients(Message.RecipientType.TO, msg);
-            // CC:
-            addRecipients(Message.RecipientType.CC, msg);
-            // BCC:
-            addRecipients(Message.RecipientType.BCC, msg);
+    private void setContent(MimeMessage msg) throws MessagingException, UnsupportedEncodingException {
 
-            //msg.setSubject(subject, UTF_8);
-            msg.setSubject(MimeUtility.encodeText(subject, UTF_8, "Q"));
+        //msg.setSubject(subject, UTF_8);
+        msg.setSubject(MimeUtility.encodeText(subject, UTF_8, "Q"));
 
-            // add headers
-            if (headers != null && headers.size() > 0) {
-                for (String name : headers.keySet()) {
-                    msg.addHeader(name, headers.get(name));
+        // add headers
+        if (headers != null && headers.size() > 0) {
+            for (String name : headers.keySet()) {
+                msg.addHeader(name, headers.get(name));
+            }
+        }
+
+        try {
+            // simple message .. no attachment and only content or html content
+            if ((attachments == null || attachments.size() == 0) &&
+                    ((htmlContent == null && content != null) ||
+                         (htmlContent != null && content == null))) {
+
+                if (StringUtils.isNullOrEmptyTrimmed(content)) {
+                    msg.addHeader("Content-Type", "text/html");
+                    msg.setContent(htmlContent, "text/html; charset=" + UTF_8);
+                } else {
+                    msg.setContent(content, "text/plain; charset=" + UTF_8);
                 }
             }
+            // Compose multipart message
+            else {
+                // must be in correct order from lower fidelity to higher
+                Multipart multipart = new MimeMultipart();
+
+                if (!StringUtils.isNullOrEmptyTrimmed(content)) {
+                    MimeBodyPart contentPart = new MimeBodyPart();
+                    contentPart.setContent(content, "text/plain; charset=" + UTF_8);
+                    multipart.addBodyPart(contentPart);
+                }
 
-            try {
-                // simple message .. no attachment and only content or html content
-                if ((attachments == null || attachments.size() == 0) &&
-                        ((htmlContent == null && content != null) ||
-                             (htmlContent != null && content == null))) {
-
-                    if (StringUtils.isNullOrEmptyTrimmed(content)) {
-                        msg.addHeader("Content-Type", "text/html");
-                        msg.setContent(htmlContent, "text/html; charset=" + UTF_8);
-                    } else {
-                        msg.setContent(content, "text/plain; charset=" + UTF_8);
-                    }
+                if (!StringUtils.isNullOrEmptyTrimmed(htmlContent)) {
+                    MimeBodyPart htmlPart = new MimeBodyPart();
+                    htmlPart.setContent(htmlContent, "text/html; charset=" + UTF_8);
+                    multipart.addBodyPart(htmlPart);
                 }
-                // Compose multipart message
-                else {
-                    // must be in correct order from lower fidelity to higher
-                    Multipart multipart = new MimeMultipart();
-
-                    if (!StringUtils.isNullOrEmptyTrimmed(content)) {
-                        MimeBodyPart contentPart = new MimeBodyPart();
-                        contentPart.setContent(content, "text/plain; charset=" + UTF_8);
-                        multipart.addBodyPart(contentPart);
-                    }
 
-                    if (!StringUtils.isNullOrEmptyTrimmed(htmlContent)) {
-                        MimeBodyPart htmlPart = new MimeBodyPart();
-                        htmlPart.setContent(htmlContent, "text/html; charset=" + UTF_8);
-                        multipart.addBodyPart(htmlPart);
-                    }
+                if (attachments != null && attachments.size() > 0) {
+                    for (MailAttachment attachment : attachments) {
 
-                    if (attachments != null && attachments.size() > 0) {
-                        for (MailAttachment attachment : attachments) {
-
-                            // add attachment
-                            MimeBodyPart part = new MimeBodyPart();
-                            if (attachment.fileName != null) {
-                                part.setFileName(attachment.fileName);
-                            }
-                            DataSource src = new ByteArrayDataSource(attachment.content, attachment.type);
-                            part.setDataHandler(new DataHandler(src));
-                            multipart.addBodyPart(part);
+                        // add attachment
+                        MimeBodyPart part = new MimeBodyPart();
+                        if (attachment.fileName != null) {
+                            part.setFileName(attachment.fileName);
                         }
+                        // streamed attachments are read only when message is written out
+                        DataSource src = attachment.isStreamed() ? new AttachmentDataSource(attachment)
+                                                                 : new ByteArrayDataSource(attachment.content, attachment.type);
+                        part.setDataHandler(new DataHandler(src));
+                        multipart.addBodyPart(part);
                     }
-
-                    msg.setContent(multipart);
                 }
 
-                // if save is not called mime part headers are not updated
-                msg.saveChanges();
-                // see: http://stackoverflow.com/questions/5028670/how-to-set-mimebodypart-contenttype-to-text-html
-            } catch (Exception e) {
-                log.error("Failed to add attachment to mail message: ", e);
-                throw new IllegalArgumentException(e.getMessage(), e);
+                msg.setContent(multipart);
             }
 
-        } catch (MessagingException | UnsupportedEncodingException e) {
-            log.error("Mail massage build failed!", e);
+            // if save is not called mime part headers are not updated
+            msg.saveChanges();
+            // see: http://stackoverflow.com/questions/5028670/how-to-set-mimebodypart-contenttype-to-text-html
+        } catch (Exception e) {
+            log.error("Failed to add attachment to mail message: ", e);
             throw new IllegalArgumentException(e.getMessage(), e);
         }
-
-        return msg;
     }
 
     private void addRecipients(Message.RecipientType type, MimeMessage msg) throws UnsupportedEncodingException, MessagingException {
 
-        Map<String, String> emailsAndNames = emails.get(type);
-
-        if (emailsAndNames != null && emailsAndNames.size() > 0) {
+        int size = recipients.size(type);
+        if (size == 0) {
+            return;
+        }
 
-            for (String email : emailsAndNames.keySet()) {
+        List<Address> addresses = new ArrayList<>(size);
+        for (Map.Entry<String, String> recipient : recipients.view(type, this::excluded).entrySet()) {
 
-                String name = emailsAndNames.get(email);
-                if (StringUtils.isNullOrEmptyTrimmed(name)) {
-                    name = email;
-                }
+            String email = recipient.getKey();
+            String name = StringUtils.isNullOrEmptyTrimmed(recipient.getValue()) ? email : recipient.getValue();
+            addresses.add(new InternetAddress(email, name, UTF_8));
+        }
 
-                if (!excluded(email)) {
-                    msg.addRecipient(type, new InternetAddress(email, name, UTF_8));
-                    log.info("Sending: " + type + ": " + email + " (" + name + ")");
-                } else {
-                    log.info("Excluding: " + type + ": " + email + " (" + name + ")");
-                }
-            }
+        // set at once ... adding one by one re-parses the header for every recipient
+        if (addresses.size() > 0) {
+            msg.addRecipients(type, addresses.toArray(new Address[0]));
         }
     }
 
@@ -235,7 +298,38 @@ public class MailMessage implements Serializable {
      */
     boolean excluded(String email) {
 
-        return (excludeEmails != null && excludeEmails.contains(email));
+        if (excludeEmails != null && excludeEmails.contains(email)) {
+            return true;
+        }
+
+        if (exclusionLists != null) {
+            for (Exclusions list : exclusionLists) {
+                if (list.contains(email)) {
+                    return true;
+                }
+            }
+        }
+
+        Exclusions global = defaultExclusions;
+        return global != null && global.contains(email);
+    }
+
+    /**
+     * Sets exclusions consulted by all messages in addition to their own, i.e. an application wide suppression list
+     *
+     * @param exclusions global exclusions or null to remove them
+     */
+    public static void setDefaultExclusions(Exclusions exclusions) {
+
+        defaultExclusions = exclusions;
+    }
+
+    /**
+     * @return global exclusions or null if not set
+     */
+    public static Exclusions getDefaultExclusions() {
+
+        return defaultExclusions;
     }
 
     /**
@@ -281,10 +375,8 @@ public class MailMessage implements Serializable {
      */
     public MailMessage from(String email, String name) {
 
-        checkEmailAddress(email, "from");
-
         // only set sender if not already set
-        fromEmail = email.trim().toLowerCase();
+        fromEmail = normalizeEmailAddress(email, "from");
 
         if (StringUtils.isNullOrEmptyTrimmed(name)) {
             fromName = null;
@@ -480,19 +572,21 @@ public class MailMessage implements Serializable {
     private MailMessage add(Message.RecipientType recipientType, String email, String name) {
 
         Assert.notNull(recipientType, "Missing recipient type!");
-        checkEmailAddress(email, recipientType.toString());
+        email = normalizeEmailAddress(email, recipientType.toString()); // by default convert email to lowercase
+        name = StringUtils.trimToNull(name); // trim down ... or null if empty
 
-        if (emails == null) {
-            emails = new LinkedHashMap<>();
-        }
+        getRecipients().put(recipientType, email, name);
+        return this;
+    }
 
-        emails.putIfAbsent(recipientType, new LinkedHashMap<>());
+    private Recipients getRecipients() {
 
-        email = email.trim().toLowerCase();  // by default convert email to lowercase
-        name = StringUtils.trimToNull(name); // trim down ... or null if empty
+        if (recipients == null) {
+            recipients = new Recipients();
+            emails = recipients.view();
+        }
 
-        emails.get(recipientType).put(email, name);
-        return this;
+        return recipients;
     }
 
     private MailMessage add(Message.RecipientType recipientType, String email) {
@@ -636,20 +730,64 @@ public class MailMessage implements Serializable {
      */
     public MailMessage exclude(String email) {
 
-        checkEmailAddress(email, "excluded");
+        getExcludeEmails().put(normalizeEmailAddress(email, "excluded"));
+        return this;
+    }
 
-        if (excludeEmails == null) {
-            excludeEmails = new ArrayList<>();
+    /**
+     * Sets email addresses to be excluded in bulk, addresses are not validated and empty ones are skipped
+     *
+     * @param emails to exclude
+     * @return mail message (self)
+     */
+    public MailMessage exclude(Collection<String> emails) {
+
+        if (emails == null || emails.size() == 0) {
+            return this;
+        }
+
+        ExcludedEmails excluded = getExcludeEmails();
+        for (String email : emails) {
+            if (!StringUtils.isNullOrEmptyTrimmed(email)) {
+                excluded.put(Exclusions.normalize(email));
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Excludes all email addresses on given (shared) list, list is referenced not copied
+     * so later changes to the list apply to this message too.
+     * Shared lists are not serialized with message (i.e. when spooled), recipients excluded by them at that time are serialized as excluded emails.
+     *
+     * @param list of addresses to exclude
+     * @return mail message (self)
+     */
+    public MailMessage exclude(Exclusions list) {
+
+        Assert.notNull(list, "Missing exclusion list!");
+
+        if (exclusionLists == null) {
+            exclusionLists = new ArrayList<>(1);
         }
 
-        email = email.trim();
-        if (!excludeEmails.contains(email)) {
-            excludeEmails.add(email);
+        if (!exclusionLists.contains(list)) {
+            exclusionLists.add(list);
         }
 
         return this;
     }
 
+    private ExcludedEmails getExcludeEmails() {
+
+        if (excludeEmails == null) {
+            excludeEmails = new ExcludedEmails();
+        }
+
+        return (ExcludedEmails) excludeEmails;
+    }
+
     /**
      * Adds attachment
      *
@@ -676,6 +814,45 @@ public class MailMessage implements Serializable {
         return this;
     }
 
+    /**
+     * Adds attachment streamed from file when message is send
+     *
+     * @param file     to be attached
+     * @param fileName file name or null to use name of file
+     * @param mimeType mime type
+     * @return mail message (self)
+     */
+    public MailMessage attachment(Path file,
+                                  String fileName,
+                                  String mimeType) {
+
+        Assert.notNull(file, "Missing attachment file!");
+        Assert.isTrue(Files.isReadable(file), "Attachment file is not readable: " + file);
+        Assert.notNullOrEmptyTrimmed(mimeType, "Missing attachment mime type!");
+
+        return attachment(new MailAttachment(mimeType.trim(),
+                                             file,
+                                             StringUtils.trimToNull(fileName)));
+    }
+
+    /**
+     * Adds attachment
+     *
+     * @param attachment to be added
+     * @return mail message (self)
+     */
+    public MailMessage attachment(MailAttachment attachment) {
+
+        Assert.notNull(attachment, "Missing attachment!");
+
+        if (attachments == null) {
+            attachments = new ArrayList<>();
+        }
+
+        attachments.add(attachment);
+        return this;
+    }
+
     /**
      * Adds attachments
      *
@@ -733,102 +910,104 @@ public class MailMessage implements Serializable {
     /**
      * List of TO email addresses (as email=name) pairs
      *
-     * @return list of TO emails with names (if given) where email is key
+     * @return read-only view of TO emails with names (if given) where email is key, excluded emails are left out (empty if all are excluded), null if none given
      */
     public Map<String, String> getToEmails() {
 
-        if (emails != null) {
-            return getEmails(emails.get(Message.RecipientType.TO));
-        }
-
-        return null;
+        return getEmails(Message.RecipientType.TO);
     }
 
 
     /**
      * List of CC email addresses (as email=name) pairs
      *
-     * @return list of CC emails with names (if given) where email is key
+     * @return read-only view of CC emails with names (if given) where email is key, excluded emails are left out (empty if all are excluded), null if none given
      */
     public Map<String, String> getCcEmails() {
 
-        if (emails != null) {
-            return getEmails(emails.get(Message.RecipientType.CC));
-        }
-
-        return null;
+        return getEmails(Message.RecipientType.CC);
     }
 
     /**
      * List of BCC email addresses (as email=name) pairs
      *
-     * @return list of BCC emails with names (if given) where email is key
+     * @return read-only view of BCC emails with names (if given) where email is key, excluded emails are left out (empty if all are excluded), null if none given
      */
     public Map<String, String> getBccEmails() {
 
-        if (emails != null) {
-            return getEmails(emails.get(Message.RecipientType.BCC));
-        }
+        return getEmails(Message.RecipientType.BCC);
+    }
+
+    /**
+     * Number of TO, CC and BCC recipients given
+     *
+     * @return number of recipients including excluded ones
+     */
+    public int getRecipientCount() {
 
-        return null;
+        return recipients == null ? 0 : recipients.size();
     }
 
     /**
-     * Filters out excluded emails if any
+     * Filters out excluded emails if any (without copying)
      *
-     * @param emails to be inspeced
-     * @return map without excluded emails
+     * @param type recipient type
+     * @return view without excluded emails (empty if all are excluded) or null if none were given
      */
-    private Map<String, String> getEmails(Map<String, String> emails) {
+    private Map<String, String> getEmails(Message.RecipientType type) {
 
-        if (emails == null || emails.size() == 0) {
+        if (recipients == null || recipients.size(type) == 0) {
             return null;
         }
 
-        Map<String, String> out = new HashMap<>();
+        return recipients.view(type, this::excluded);
+    }
 
-        for (String email : emails.keySet()) {
-            if (excluded(email)) {
-                continue;
-            }
+    /**
+     * Iterates recipients of given type in order they were added, excluded emails are skipped
+     *
+     * @param type     recipient type
+     * @param consumer receiving email and name (or null if not given)
+     */
+    public void forEachRecipient(Message.RecipientType type, BiConsumer<String, String> consumer) {
 
-            out.put(email, emails.get(email));
-        }
+        Assert.notNull(type, "Missing recipient type!");
+        Assert.notNull(consumer, "Missing consumer!");
 
-        return out;
+        if (recipients != null) {
+            recipients.forEach(type, this::excluded, consumer);
+        }
     }
 
     /**
      * Get emails as string
      *
      * @param type recipient type
-     * @return emails formated as Bob &lt;bob@email.com&gt; separated with commas or null if empty
+     * @return emails (excluded emails are left out) formated as Bob &lt;bob@email.com&gt; separated with commas or null if empty
      */
     public String getEmailsAsString(Message.RecipientType type) {
 
         Assert.notNull(type, "Missing recipient type!");
-        Map<String, String> emailNames = emails.get(type);
-        if (emailNames == null) {
+        if (recipients == null || recipients.size(type) == 0) {
             return null;
         }
 
-        List<String> items = new ArrayList<>();
-        for (String email : emailNames.keySet()) {
+        StringBuilder out = new StringBuilder();
+        recipients.forEach(type, this::excluded, (email, name) -> {
+
+            if (out.length() > 0) {
+                out.append(", ");
+            }
 
-            String name = emailNames.get(email);
             if (StringUtils.isNullOrEmptyTrimmed(name) ||
                     StringUtils.equals(email, name, true)) {
-                items.add(email);
+                out.append(email);
             } else {
-                items.add(name + " <" + email + ">");
+                out.append(name).append(" <").append(email).append(">");
             }
-        }
+        });
 
-        if (items.size() == 0) {
-            return null;
-        }
-
-        return StringUtils.join(items, ", ");
+        return out.length() > 0 ? out.toString() : null;
     }
 
     /**
@@ -872,9 +1051,9 @@ public class MailMessage implements Serializable {
     }
 
     /**
-     * List of excluded email addresses
+     * List of excluded email addresses (given to this message, shared exclusion lists are not included)
      *
-     * @return list of emails to exclude when sending out message
+     * @return read-only list of emails to exclude when sending out message
      */
     public List<String> getExcludedEmails() {
 
@@ -901,10 +1080,76 @@ public class MailMessage implements Serializable {
         return emailSendAt;
     }
 
-    private void checkEmailAddress(String email, String type) {
+    /**
+     * Snapshots recipients excluded by shared exclusion lists into excluded emails, so they stay excluded once deserialized
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+
+        List<String> own = excludeEmails;
+        if (exclusionLists != null && recipients != null) {
+
+            ExcludedEmails snapshot = new ExcludedEmails();
+            if (own != null) {
+                own.forEach(snapshot::put);
+            }
+
+            for (Message.RecipientType type : Recipients.TYPES) {
+                recipients.forEach(type, null, (email, name) -> {
+                    for (Exclusions list : exclusionLists) {
+                        if (list.contains(email)) {
+                            snapshot.put(email);
+                            break;
+                        }
+                    }
+                });
+            }
+
+            excludeEmails = snapshot;
+        }
+
+        try {
+            out.defaultWriteObject();
+        }
+        finally {
+            excludeEmails = own;
+        }
+    }
+
+    /**
+     * Rebuilds recipients storage and excluded emails from (copied) email addresses
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+        in.defaultReadObject();
+
+        List<String> excluded = excludeEmails;
+        excludeEmails = null;
+        exclude(excluded);
+
+        Map<Message.RecipientType, Map<String, String>> stored = emails;
+        emails = null;
+
+        if (stored != null) {
+            for (Map.Entry<Message.RecipientType, Map<String, String>> type : stored.entrySet()) {
+                for (Map.Entry<String, String> recipient : type.getValue().entrySet()) {
+                    getRecipients().put(type.getKey(), recipient.getKey(), recipient.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Validates and normalizes address in a single pass (see {@link EmailAddress}), failure messages are only built for invalid addresses
+     */
+    private static String normalizeEmailAddress(String email, String type) {
+
+        String normalized = EmailAddress.normalize(email);
+        if (normalized == null) {
+            String description = type == null ? "" : type.toLowerCase();
+            Assert.notNullOrEmptyTrimmed(email, "Missing " + description + " email address!");
+            throw new IllegalArgumentException("Invalid " + description + " email address: '" + email + "'!");
+        }
 
-        String description = type == null ? "" : type.toLowerCase();
-        Assert.notNullOrEmptyTrimmed(email, "Missing " + description + " email address!");
-        Assert.isTrue(ValidatingUtils.isEmail(email), "Invalid " + description + " email address: '" + email + "'!");
+        return normalized;
     }
 }
\ No newline at end of file
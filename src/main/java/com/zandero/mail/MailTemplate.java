@@ -0,0 +1,158 @@
+package com.zandero.mail;
+
+import com.zandero.utils.*;
+
+import javax.mail.*;
+import javax.mail.internet.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Pre-rendered (frozen) mail message without recipients
+ *
+ * Subject, headers, body parts and transfer-encoded attachments are rendered only once,
+ * messages produced by the template only get their own address headers, date and message id
+ */
+public class MailTemplate {
+
+    /**
+     * Headers set per produced message and therefore not part of the template
+     */
+    private static final String[] PER_MESSAGE_HEADERS = {"Message-ID", "Date", "To", "Cc", "Bcc"};
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private final Session session;
+
+    /**
+     * Rendered header lines (without address headers)
+     */
+    private final List<String> headerLines;
+
+    /**
+     * Rendered and transfer-encoded body, shared by all produced messages
+     */
+    private final byte[] body;
+
+    /**
+     * Freezes given message into a template
+     *
+     * @param session   mail session
+     * @param prototype message with all changes saved
+     * @throws MessagingException in case message can't be rendered
+     * @throws IOException        in case message can't be rendered
+     */
+    MailTemplate(Session session, MimeMessage prototype) throws MessagingException, IOException {
+
+        this.session = session;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        prototype.writeTo(out, PER_MESSAGE_HEADERS);
+        byte[] rendered = out.toByteArray();
+
+        int split = indexOf(rendered, HEADER_END);
+        Assert.isTrue(split >= 0, "Invalid rendered message, missing header end!");
+
+        InternetHeaders headers = new InternetHeaders(new ByteArrayInputStream(rendered, 0, split + HEADER_END.length));
+        List<String> lines = new ArrayList<>();
+        Enumeration<String> enumeration = headers.getAllHeaderLines();
+        while (enumeration.hasMoreElements()) {
+            lines.add(enumeration.nextElement());
+        }
+
+        headerLines = Collections.unmodifiableList(lines);
+        body = Arrays.copyOfRange(rendered, split + HEADER_END.length, rendered.length);
+    }
+
+    /**
+     * Produces message for recipients (TO, CC and BCC) of given mail message,
+     * any other data of given message is ignored
+     *
+     * @param recipients message holding recipients
+     * @return message ready to be send
+     * @throws IllegalArgumentException in case there are no TO recipients or message could not be build
+     */
+    public MimeMessage getMessage(MailMessage recipients) {
+
+        Assert.notNull(recipients, "Missing recipients!");
+
+        try {
+            MimeMessage msg = newMessage();
+            recipients.setRecipients(msg);
+            return msg;
+        } catch (MessagingException | UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Produces message for a single TO recipient
+     *
+     * @param email recipient email address
+     * @param name  recipient name or null
+     * @return message ready to be send
+     * @throws IllegalArgumentException in case message could not be build
+     */
+    public MimeMessage getMessage(String email, String name) {
+
+        return getMessage(new MailMessage().to(email, name));
+    }
+
+    /**
+     * @return size of pre-rendered body in bytes
+     */
+    public int getBodySize() {
+
+        return body.length;
+    }
+
+    private MimeMessage newMessage() throws MessagingException {
+
+        MimeMessage msg = new TemplateMimeMessage(session, headerLines, body);
+        msg.setSentDate(new Date());
+        msg.saveChanges(); // sets message id
+        return msg;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Message backed by pre-rendered headers and body,
+     * saving changes only updates message id so body is never rendered again
+     */
+    private static final class TemplateMimeMessage extends MimeMessage {
+
+        TemplateMimeMessage(Session session, List<String> headerLines, byte[] body) {
+
+            super(session);
+
+            for (String line : headerLines) {
+                headers.addHeaderLine(line);
+            }
+
+            content = body;
+            modified = false;
+            saved = true;
+        }
+
+        @Override
+        public void saveChanges() throws MessagingException {
+
+            updateMessageID();
+            saved = true;
+        }
+    }
+}
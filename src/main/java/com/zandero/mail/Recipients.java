@@ -0,0 +1,357 @@
+package com.zandero.mail;
+
+import javax.mail.*;
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Flat recipient storage: address, name and type of each recipient are held in parallel arrays in insertion order,
+ * addresses are indexed by a single hash map (an address given as more than one recipient type is chained).
+ * Recipients are exposed through read-only map views, nothing is copied when recipients are read.
+ */
+final class Recipients {
+
+    static final Message.RecipientType[] TYPES = {Message.RecipientType.TO,
+                                                  Message.RecipientType.CC,
+                                                  Message.RecipientType.BCC};
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private String[] emails = new String[INITIAL_CAPACITY];
+
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    private byte[] types = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Previous slot of same address (of another type) or -1
+     */
+    private int[] next = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    private final int[] counts = new int[TYPES.length];
+
+    /**
+     * Address to last slot holding it
+     */
+    private final Map<String, Integer> index = new HashMap<>();
+
+    /**
+     * Adds recipient or replaces name of recipient already given with same type
+     *
+     * @param type  recipient type
+     * @param email address (normalized)
+     * @param name  name or null
+     */
+    void put(Message.RecipientType type, String email, String name) {
+
+        int typeIndex = indexOf(type);
+        Integer head = index.get(email);
+
+        int slot = find(head, typeIndex);
+        if (slot >= 0) {
+            names[slot] = name;
+            return;
+        }
+
+        if (size == emails.length) {
+            int capacity = size * 2;
+            emails = Arrays.copyOf(emails, capacity);
+            names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+
+        emails[size] = email;
+        names[size] = name;
+        types[size] = (byte) typeIndex;
+        next[size] = head == null ? -1 : head;
+
+        index.put(email, size);
+        counts[typeIndex]++;
+        size++;
+    }
+
+    /**
+     * @param type recipient type
+     * @return number of recipients of given type
+     */
+    int size(Message.RecipientType type) {
+
+        return counts[indexOf(type)];
+    }
+
+    /**
+     * @return number of recipients of all types
+     */
+    int size() {
+
+        return size;
+    }
+
+    /**
+     * @param type  recipient type
+     * @param email address
+     * @return true if address is a recipient of given type
+     */
+    boolean contains(Message.RecipientType type, Object email) {
+
+        return find(index.get(email), indexOf(type)) >= 0;
+    }
+
+    /**
+     * @param type  recipient type
+     * @param email address
+     * @return name of recipient or null if not given (or not a recipient)
+     */
+    String getName(Message.RecipientType type, Object email) {
+
+        int slot = find(index.get(email), indexOf(type));
+        return slot >= 0 ? names[slot] : null;
+    }
+
+    /**
+     * Iterates recipients of given type in order they were added
+     *
+     * @param type     recipient type
+     * @param excluded filter of excluded addresses (or null)
+     * @param consumer receiving address and name
+     */
+    void forEach(Message.RecipientType type, Predicate<String> excluded, BiConsumer<String, String> consumer) {
+
+        int typeIndex = indexOf(type);
+        if (counts[typeIndex] == 0) {
+            return;
+        }
+
+        for (int slot = 0; slot < size; slot++) {
+            if (types[slot] == typeIndex && (excluded == null || !excluded.test(emails[slot]))) {
+                consumer.accept(emails[slot], names[slot]);
+            }
+        }
+    }
+
+    /**
+     * @param type     recipient type
+     * @param excluded filter of excluded addresses (or null)
+     * @return read-only view of recipients of given type (email=name) skipping excluded addresses
+     */
+    Map<String, String> view(Message.RecipientType type, Predicate<String> excluded) {
+
+        return new TypeView(indexOf(type), excluded);
+    }
+
+    /**
+     * @return read-only view of all recipients by type (types without recipients are left out)
+     */
+    Map<Message.RecipientType, Map<String, String>> view() {
+
+        return new RecipientsView();
+    }
+
+    private int find(Integer head, int typeIndex) {
+
+        if (head != null) {
+            for (int slot = head; slot >= 0; slot = next[slot]) {
+                if (types[slot] == typeIndex) {
+                    return slot;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private static int indexOf(Message.RecipientType type) {
+
+        for (int typeIndex = 0; typeIndex < TYPES.length; typeIndex++) {
+            if (TYPES[typeIndex].equals(type)) {
+                return typeIndex;
+            }
+        }
+
+        throw new IllegalArgumentException("Unsupported recipient type: " + type);
+    }
+
+    /**
+     * Recipients of single type, serialized as a copy
+     */
+    private final class TypeView extends AbstractMap<String, String> implements Serializable {
+
+        private static final long serialVersionUID = -3165290815424418734L;
+
+        private final int typeIndex;
+
+        private final Predicate<String> excluded;
+
+        private TypeView(int type, Predicate<String> filter) {
+
+            typeIndex = type;
+            excluded = filter;
+        }
+
+        @Override
+        public int size() {
+
+            if (excluded == null) {
+                return counts[typeIndex];
+            }
+
+            int count = 0;
+            for (int slot = 0; slot < Recipients.this.size; slot++) {
+                if (types[slot] == typeIndex && !excluded.test(emails[slot])) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+
+            if (excluded == null) {
+                return counts[typeIndex] == 0;
+            }
+
+            for (int slot = 0; slot < Recipients.this.size; slot++) {
+                if (types[slot] == typeIndex && !excluded.test(emails[slot])) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+
+            int slot = find(index.get(key), typeIndex);
+            return slot >= 0 && (excluded == null || !excluded.test(emails[slot]));
+        }
+
+        @Override
+        public String get(Object key) {
+
+            int slot = find(index.get(key), typeIndex);
+            return slot >= 0 && (excluded == null || !excluded.test(emails[slot])) ? names[slot] : null;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new SlotIterator(typeIndex, excluded);
+                }
+
+                @Override
+                public int size() {
+                    return TypeView.this.size();
+                }
+            };
+        }
+
+        private Object writeReplace() {
+
+            return new LinkedHashMap<>(this);
+        }
+    }
+
+    /**
+     * Iterates slots of given type in insertion order
+     */
+    private final class SlotIterator implements Iterator<Map.Entry<String, String>> {
+
+        private final int typeIndex;
+
+        private final Predicate<String> excluded;
+
+        private int slot = -1;
+
+        private SlotIterator(int type, Predicate<String> filter) {
+
+            typeIndex = type;
+            excluded = filter;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            return slot < size;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+
+            if (slot >= size) {
+                throw new NoSuchElementException();
+            }
+
+            Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(emails[slot], names[slot]);
+            advance();
+            return entry;
+        }
+
+        private void advance() {
+
+            do {
+                slot++;
+            }
+            while (slot < size && (types[slot] != typeIndex || (excluded != null && excluded.test(emails[slot]))));
+        }
+    }
+
+    /**
+     * All recipients by type, serialized as a copy
+     */
+    private final class RecipientsView extends AbstractMap<Message.RecipientType, Map<String, String>> implements Serializable {
+
+        private static final long serialVersionUID = 4209183518376516209L;
+
+        @Override
+        public Map<String, String> get(Object key) {
+
+            for (int typeIndex = 0; typeIndex < TYPES.length; typeIndex++) {
+                if (TYPES[typeIndex].equals(key)) {
+                    return counts[typeIndex] > 0 ? new TypeView(typeIndex, null) : null;
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<Message.RecipientType, Map<String, String>>> entrySet() {
+
+            Set<Entry<Message.RecipientType, Map<String, String>>> entries = new LinkedHashSet<>();
+            for (int typeIndex = 0; typeIndex < TYPES.length; typeIndex++) {
+                if (counts[typeIndex] > 0) {
+                    entries.add(new SimpleImmutableEntry<>(TYPES[typeIndex], new TypeView(typeIndex, null)));
+                }
+            }
+
+            return Collections.unmodifiableSet(entries);
+        }
+
+        private Object writeReplace() {
+
+            Map<Message.RecipientType, Map<String, String>> copy = new LinkedHashMap<>();
+            for (Entry<Message.RecipientType, Map<String, String>> entry : entrySet()) {
+                copy.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+            }
+
+            return copy;
+        }
+    }
+}
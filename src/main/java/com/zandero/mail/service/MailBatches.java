@@ -0,0 +1,155 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailAttachment;
+import com.zandero.mail.MailMessage;
+import com.zandero.utils.Assert;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Groups mail messages with same content so they can be send out in a single provider request
+ */
+public final class MailBatches {
+
+	private MailBatches() {
+		// hide constructor
+	}
+
+	/**
+	 * Groups messages by content (from, subject, text, html, headers, attachments and send at time),
+	 * messages differing only in recipients end up in the same group
+	 *
+	 * @param messages     to be grouped
+	 * @param maxGroupSize max number of messages in a single group
+	 * @param batchable    messages not matching predicate are put into a group of their own
+	 * @return list of groups holding indexes of messages in given list, groups are ordered by first occurrence
+	 */
+	public static List<List<Integer>> group(List<MailMessage> messages, int maxGroupSize, Predicate<MailMessage> batchable) {
+
+		return group(messages, maxGroupSize, message -> 1, batchable);
+	}
+
+	/**
+	 * Groups messages by content where size of group is the sum of message sizes (i.e. number of recipients)
+	 *
+	 * @param messages     to be grouped
+	 * @param maxGroupSize max size of a single group, a message bigger than max size is put into a group of its own
+	 * @param size         size of message in group
+	 * @param batchable    messages not matching predicate are put into a group of their own
+	 * @return list of groups holding indexes of messages in given list, groups are ordered by first occurrence
+	 */
+	public static List<List<Integer>> group(List<MailMessage> messages, int maxGroupSize, ToIntFunction<MailMessage> size,
+	                                        Predicate<MailMessage> batchable) {
+
+		Assert.notNull(messages, "Missing messages!");
+		Assert.isTrue(maxGroupSize > 0, "Max group size must be greater than 0!");
+		Assert.notNull(size, "Missing message size!");
+
+		List<List<Integer>> groups = new ArrayList<>();
+		Map<ContentKey, List<Integer>> open = new HashMap<>();
+		Map<ContentKey, Integer> sizes = new HashMap<>();
+
+		for (int index = 0; index < messages.size(); index++) {
+
+			MailMessage message = messages.get(index);
+			if (batchable != null && !batchable.test(message)) {
+				groups.add(Collections.singletonList(index));
+				continue;
+			}
+
+			ContentKey key = new ContentKey(message);
+			int messageSize = size.applyAsInt(message);
+
+			List<Integer> group = open.get(key);
+			if (group == null || sizes.get(key) + messageSize > maxGroupSize) {
+				group = new ArrayList<>();
+				open.put(key, group);
+				groups.add(group);
+				sizes.put(key, 0);
+			}
+
+			group.add(index);
+			sizes.put(key, sizes.get(key) + messageSize);
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Message content without recipients, attachments are compared by reference
+	 */
+	private static final class ContentKey {
+
+		private final String fromEmail;
+		private final String fromName;
+		private final String subject;
+		private final String content;
+		private final String htmlContent;
+		private final Map<String, String> headers;
+		private final List<MailAttachment> attachments;
+		private final Instant sendAt;
+
+		private final int hash;
+
+		ContentKey(MailMessage message) {
+
+			fromEmail = message.getFromEmail();
+			fromName = message.getFromName();
+			subject = message.getSubject();
+			content = message.getContent();
+			htmlContent = message.getHtmlContent();
+			headers = message.getHeaders();
+			attachments = message.getAttachments();
+			sendAt = message.getSendAt();
+
+			hash = Objects.hash(fromEmail, fromName, subject, content, htmlContent, headers, sendAt);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+
+			if (this == o) {
+				return true;
+			}
+
+			if (!(o instanceof ContentKey)) {
+				return false;
+			}
+
+			ContentKey other = (ContentKey) o;
+			return hash == other.hash &&
+			       Objects.equals(fromEmail, other.fromEmail) &&
+			       Objects.equals(fromName, other.fromName) &&
+			       Objects.equals(subject, other.subject) &&
+			       Objects.equals(content, other.content) &&
+			       Objects.equals(htmlContent, other.htmlContent) &&
+			       Objects.equals(headers, other.headers) &&
+			       Objects.equals(sendAt, other.sendAt) &&
+			       sameAttachments(attachments, other.attachments);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		private static boolean sameAttachments(List<MailAttachment> one, List<MailAttachment> two) {
+
+			int size = one == null ? 0 : one.size();
+			if (size != (two == null ? 0 : two.size())) {
+				return false;
+			}
+
+			for (int index = 0; index < size; index++) {
+				if (one.get(index) != two.get(index)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package com.zandero.mail.service;
+
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Executors used to send out mail asynchronously
+ */
+public final class MailExecutors {
+
+	private static final Logger log = LoggerFactory.getLogger(MailExecutors.class);
+
+	/**
+	 * Default max number of threads of a bounded send executor
+	 */
+	public static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 4);
+
+	/**
+	 * Default number of queued sends of a bounded send executor
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 10_000;
+
+	private static volatile Executor defaultExecutor;
+
+	private static volatile ScheduledExecutorService scheduler;
+
+	private MailExecutors() {
+		// hide constructor
+	}
+
+	/**
+	 * Executor used when no executor is given explicitly,
+	 * virtual thread per task executor when running on a JDK that supports virtual threads or a bounded thread pool otherwise
+	 *
+	 * @return default send executor
+	 */
+	public static Executor getDefault() {
+
+		Executor executor = defaultExecutor;
+		if (executor == null) {
+			synchronized (MailExecutors.class) {
+				if (defaultExecutor == null) {
+					defaultExecutor = newExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+				}
+
+				executor = defaultExecutor;
+			}
+		}
+
+		return executor;
+	}
+
+	/**
+	 * Replaces default executor
+	 *
+	 * @param executor to be used by default
+	 */
+	public static void setDefault(Executor executor) {
+
+		Assert.notNull(executor, "Missing executor!");
+		defaultExecutor = executor;
+	}
+
+	/**
+	 * Shared scheduler to delay sends (rate limiting, retries) without blocking caller threads,
+	 * scheduled tasks must be short and hand work over to a send executor
+	 *
+	 * @return shared scheduler with a single daemon thread
+	 */
+	public static ScheduledExecutorService getScheduler() {
+
+		ScheduledExecutorService current = scheduler;
+		if (current == null) {
+			synchronized (MailExecutors.class) {
+				if (scheduler == null) {
+					ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new MailThreadFactory("mail-scheduler"));
+					executor.setRemoveOnCancelPolicy(true);
+					scheduler = executor;
+				}
+
+				current = scheduler;
+			}
+		}
+
+		return current;
+	}
+
+	/**
+	 * Creates new send executor, a virtual thread per task executor if supported by JDK or a bounded pool otherwise
+	 *
+	 * @param maxThreads max number of threads in case a bounded pool is created
+	 * @param queueSize  max number of waiting tasks in case a bounded pool is created, when queue is full task is rejected
+	 * @return send executor
+	 */
+	public static ExecutorService newExecutor(int maxThreads, int queueSize) {
+
+		ExecutorService virtual = newVirtualThreadExecutor();
+		if (virtual != null) {
+			return virtual;
+		}
+
+		return newBoundedExecutor(maxThreads, queueSize);
+	}
+
+	/**
+	 * Creates bounded thread pool with daemon threads
+	 *
+	 * @param maxThreads max number of threads
+	 * @param queueSize  max number of waiting tasks, when queue is full task is rejected
+	 * @return bounded send executor
+	 * @see #supplyAsync(Supplier, Executor)
+	 */
+	public static ExecutorService newBoundedExecutor(int maxThreads, int queueSize) {
+
+		Assert.isTrue(maxThreads > 0, "Max threads must be greater than 0!");
+		Assert.isTrue(queueSize > 0, "Queue size must be greater than 0!");
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+		                                                     60L, TimeUnit.SECONDS,
+		                                                     new LinkedBlockingQueue<>(queueSize),
+		                                                     new MailThreadFactory("mail-send"),
+		                                                     new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Executes send with executor, send is never run on calling thread
+	 *
+	 * @param send     blocking send
+	 * @param executor to execute send with
+	 * @return future completed with send result or throttled result if executor rejected send (i.e. queue is full)
+	 */
+	public static CompletableFuture<MailSendResult> supplyAsync(Supplier<MailSendResult> send, Executor executor) {
+
+		try {
+			return CompletableFuture.supplyAsync(send, executor);
+		}
+		catch (RejectedExecutionException e) {
+			return CompletableFuture.completedFuture(MailFailures.getFailure(e));
+		}
+	}
+
+	/**
+	 * Creates factory of named daemon threads
+	 *
+	 * @param name thread name prefix
+	 * @return thread factory
+	 */
+	public static ThreadFactory newThreadFactory(String name) {
+
+		Assert.notNullOrEmptyTrimmed(name, "Missing thread name!");
+		return new MailThreadFactory(name);
+	}
+
+	/**
+	 * @return virtual thread per task executor or null if not supported by JDK
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		}
+		catch (NoSuchMethodException e) {
+			return null;
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			log.debug("Virtual threads not available: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Creates named daemon threads
+	 */
+	static final class MailThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		private final String prefix;
+
+		MailThreadFactory(String name) {
+			prefix = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+
+			Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
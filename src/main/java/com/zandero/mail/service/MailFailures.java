@@ -0,0 +1,112 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Classifies send failures as transient (might succeed when send again) or permanent
+ */
+public final class MailFailures {
+
+	private MailFailures() {
+		// hide constructor
+	}
+
+	/**
+	 * Request timeout (408), too many requests (429) and server errors (5xx) except not implemented (501)
+	 * and version not supported (505) are transient
+	 *
+	 * @param httpStatus HTTP status code of failed request
+	 * @return true if failure is transient, false if permanent
+	 */
+	public static boolean isTransient(int httpStatus) {
+
+		if (httpStatus == HttpURLConnection.HTTP_CLIENT_TIMEOUT || httpStatus == MailSendResult.THROTTLED) {
+			return true;
+		}
+
+		return httpStatus >= 500 && httpStatus != HttpURLConnection.HTTP_NOT_IMPLEMENTED && httpStatus != HttpURLConnection.HTTP_VERSION;
+	}
+
+	/**
+	 * Connection failures (refused, reset or closed by peer, unknown host), timeouts and interrupted IO anywhere in the cause chain are transient,
+	 * as is a plain IOException (HTTP client reports dropped connections with it).
+	 * Other IO failures (missing attachment file, unsupported encoding, JSON serialization ...) are failures to build the message and are permanent.
+	 *
+	 * @param e send failure
+	 * @return true if failure is transient, false if permanent
+	 */
+	public static boolean isTransient(Throwable e) {
+
+		int depth = 0;
+		while (e != null && depth++ < 10) {
+
+			if (e instanceof SocketException ||
+			    e instanceof InterruptedIOException ||
+			    e instanceof HttpTimeoutException ||
+			    e instanceof UnknownHostException ||
+			    e instanceof EOFException ||
+			    e.getClass() == IOException.class) {
+				return true;
+			}
+
+			e = e.getCause();
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param httpStatus HTTP status code of failed request
+	 * @param message    error message
+	 * @return transient failure holding given status or failure
+	 */
+	public static MailSendResult getFailure(int httpStatus, String message) {
+
+		return isTransient(httpStatus) ? new MailSendResult(httpStatus, message) : MailSendResult.fail(message);
+	}
+
+	/**
+	 * @param e send failure
+	 * @return throttled result if send was rejected by executor, unavailable (transient) result or failure
+	 */
+	public static MailSendResult getFailure(Throwable e) {
+
+		if (e instanceof RejectedExecutionException || e != null && e.getCause() instanceof RejectedExecutionException) {
+			return MailSendResult.throttled("Send rejected, executor queue is full", null);
+		}
+
+		return isTransient(e) ? MailSendResult.unavailable(e.getMessage()) : MailSendResult.fail(e.getMessage());
+	}
+
+	/**
+	 * @param message to be send
+	 * @return true if message has no recipients left, i.e. all were excluded or suppressed
+	 */
+	public static boolean allExcluded(MailMessage message) {
+
+		return isEmpty(message.getToEmails()) && isEmpty(message.getCcEmails()) && isEmpty(message.getBccEmails());
+	}
+
+	private static boolean isEmpty(Map<String, String> emails) {
+
+		return emails == null || emails.isEmpty();
+	}
+
+	/**
+	 * @return permanent failure for messages with all recipients excluded
+	 */
+	public static MailSendResult getExcludedFailure() {
+
+		return MailSendResult.fail("No recipients, all recipients are excluded!");
+	}
+}
@@ -1,5 +1,9 @@
 package com.zandero.mail.service;
 
+import com.zandero.utils.Assert;
+
+import java.time.Duration;
+
 /**
  * Mail message send status indicator
  */
@@ -11,12 +15,31 @@ public class MailSendResult {
 	private MailSendResult() {
 		status = 0;
 		message = "";
+		retryAfter = null;
+		attempts = 1;
+		stats = null;
 	}
 
+	/**
+	 * Too many requests status code
+	 */
+	public static final int THROTTLED = 429;
+
+	/**
+	 * Service unavailable status code (temporary failure)
+	 */
+	public static final int UNAVAILABLE = 503;
+
 	private final int status;
 
 	private final String message;
 
+	private final Duration retryAfter;
+
+	private final int attempts;
+
+	private final MailSendStats stats;
+
 	/**
 	 * Set status and message id manually
 	 * @param statusCode http status code
@@ -24,8 +47,27 @@ public class MailSendResult {
 	 */
 	public MailSendResult(int statusCode, String text) {
 
+		this(statusCode, text, null);
+	}
+
+	/**
+	 * Set status, message id and rate limit back off manually
+	 * @param statusCode http status code
+	 * @param text message
+	 * @param wait time provider asked us to wait before sending again or null if no limit was reported
+	 */
+	public MailSendResult(int statusCode, String text, Duration wait) {
+
+		this(statusCode, text, wait, 1, null);
+	}
+
+	private MailSendResult(int statusCode, String text, Duration wait, int sendAttempts, MailSendStats sendStats) {
+
 		status = statusCode;
 		message = text;
+		retryAfter = wait;
+		attempts = sendAttempts;
+		stats = sendStats;
 	}
 
 	/**
@@ -47,6 +89,17 @@ public class MailSendResult {
 		return new MailSendResult(200, message);
 	}
 
+	/**
+	 * Mail was send out successfully, but provider reported rate limit was reached
+	 * @param message success info if any
+	 * @param retryAfter time to wait before sending again or null if no limit was reported
+	 * @return mail success
+	 */
+	public static MailSendResult ok(String message, Duration retryAfter) {
+
+		return new MailSendResult(200, message, retryAfter);
+	}
+
 	/**
 	 * Mail was not send out
 	 * @return mail send failure
@@ -66,6 +119,49 @@ public class MailSendResult {
 		return new MailSendResult(400, message); // bad request
 	}
 
+	/**
+	 * Mail was not send out as provider is throttling (rate limiting) us
+	 * @param message error message
+	 * @param retryAfter time to wait before sending again or null if not known
+	 * @return mail send throttled
+	 */
+	public static MailSendResult throttled(String message, Duration retryAfter) {
+
+		return new MailSendResult(THROTTLED, message, retryAfter);
+	}
+
+	/**
+	 * Mail was not send out due to a temporary failure (connection problem, provider unavailable),
+	 * sending again later might succeed
+	 * @param message error message
+	 * @return mail send temporary failure
+	 */
+	public static MailSendResult unavailable(String message) {
+
+		return new MailSendResult(UNAVAILABLE, message);
+	}
+
+	/**
+	 * Copy of result with number of send attempts it took
+	 * @param sendAttempts number of attempts, must be greater than 0
+	 * @return mail send result
+	 */
+	public MailSendResult withAttempts(int sendAttempts) {
+
+		Assert.isTrue(sendAttempts > 0, "Attempts must be greater than 0!");
+		return new MailSendResult(status, message, retryAfter, sendAttempts, stats);
+	}
+
+	/**
+	 * Copy of result with timings and provider details of send
+	 * @param sendStats send stats
+	 * @return mail send result
+	 */
+	public MailSendResult withStats(MailSendStats sendStats) {
+
+		return new MailSendResult(status, message, retryAfter, attempts, sendStats);
+	}
+
 	/**
 	 * Http status code
 	 *
@@ -96,9 +192,71 @@ public class MailSendResult {
 		return status >= 200 && status < 300;
 	}
 
+	/**
+	 * Throttled flag
+	 *
+	 * @return true if mail was not send out due to rate limiting
+	 */
+	public boolean isThrottled() {
+
+		return status == THROTTLED;
+	}
+
+	/**
+	 * Transient failure flag
+	 *
+	 * @return true if mail was not send out due to a temporary failure (throttled, timeout, provider unavailable) and might succeed if send again
+	 */
+	public boolean isTransient() {
+
+		return MailFailures.isTransient(status);
+	}
+
+	/**
+	 * Number of send attempts
+	 *
+	 * @return number of times mail was send until this result was given (1 if mail was not retried)
+	 */
+	public int getAttempts() {
+
+		return attempts;
+	}
+
+	/**
+	 * Number of retries
+	 *
+	 * @return number of times mail was send again after first attempt
+	 */
+	public int getRetries() {
+
+		return attempts - 1;
+	}
+
+	/**
+	 * Timings, bytes send and provider status of (last attempt of) send
+	 *
+	 * @return send stats, empty if service doesn't provide them
+	 */
+	public MailSendStats getStats() {
+
+		return stats != null ? stats : new MailSendStats();
+	}
+
+	/**
+	 * Time provider asked us to wait before sending again,
+	 * might also be given with successful result in case provider reported rate limit was reached
+	 *
+	 * @return time to wait or null if no rate limit was reported
+	 */
+	public Duration getRetryAfter() {
+
+		return retryAfter;
+	}
+
 	@Override
 	public String toString() {
 
-		return status + " [" + (message == null ? "> no message id <" : message) + "]";
+		String text = status + " [" + (message == null ? "> no message id <" : message) + "]";
+		return attempts > 1 ? text + " after " + attempts + " attempts" : text;
 	}
 }
@@ -0,0 +1,167 @@
+package com.zandero.mail.service;
+
+import java.time.Duration;
+
+/**
+ * Where time of a send went and what was send, filled in by mail service while sending
+ *
+ * Times not measured by a service are zero, bytes and provider status are -1 if not known.
+ */
+public class MailSendStats {
+
+	private long buildTime;
+
+	private long serializationTime;
+
+	private long connectTime;
+
+	private long responseTime;
+
+	private long totalTime;
+
+	private long bytesSent = -1;
+
+	private int providerStatus = -1;
+
+	/**
+	 * Empty stats
+	 */
+	public MailSendStats() {
+	}
+
+	/**
+	 * @param nanos time taken to build provider request or MIME message from mail message
+	 * @return stats (self)
+	 */
+	public MailSendStats buildTime(long nanos) {
+
+		buildTime = nanos;
+		return this;
+	}
+
+	/**
+	 * @param nanos time taken to serialize and write request or message to the connection
+	 * @return stats (self)
+	 */
+	public MailSendStats serializationTime(long nanos) {
+
+		serializationTime = nanos;
+		return this;
+	}
+
+	/**
+	 * @param nanos time taken to obtain a connection (connect or take one from pool)
+	 * @return stats (self)
+	 */
+	public MailSendStats connectTime(long nanos) {
+
+		connectTime = nanos;
+		return this;
+	}
+
+	/**
+	 * @param nanos time spent waiting for and reading provider response
+	 * @return stats (self)
+	 */
+	public MailSendStats responseTime(long nanos) {
+
+		responseTime = nanos;
+		return this;
+	}
+
+	/**
+	 * @param nanos total time of send
+	 * @return stats (self)
+	 */
+	public MailSendStats totalTime(long nanos) {
+
+		totalTime = nanos;
+		return this;
+	}
+
+	/**
+	 * @param bytes number of bytes of request or message written to the connection
+	 * @return stats (self)
+	 */
+	public MailSendStats bytesSent(long bytes) {
+
+		bytesSent = bytes;
+		return this;
+	}
+
+	/**
+	 * @param status status code as returned by provider (HTTP status or SMTP reply code)
+	 * @return stats (self)
+	 */
+	public MailSendStats providerStatus(int status) {
+
+		providerStatus = status;
+		return this;
+	}
+
+	/**
+	 * @return time taken to build request or MIME message
+	 */
+	public Duration getBuildTime() {
+		return Duration.ofNanos(buildTime);
+	}
+
+	/**
+	 * @return time taken to serialize and write request or message
+	 */
+	public Duration getSerializationTime() {
+		return Duration.ofNanos(serializationTime);
+	}
+
+	/**
+	 * @return time taken to obtain a connection
+	 */
+	public Duration getConnectTime() {
+		return Duration.ofNanos(connectTime);
+	}
+
+	/**
+	 * @return time spent waiting for and reading provider response
+	 */
+	public Duration getResponseTime() {
+		return Duration.ofNanos(responseTime);
+	}
+
+	/**
+	 * @return total time of send
+	 */
+	public Duration getTotalTime() {
+		return Duration.ofNanos(totalTime);
+	}
+
+	/**
+	 * @return number of bytes written or -1 if not known
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return status code returned by provider or -1 if provider was not reached
+	 */
+	public int getProviderStatus() {
+		return providerStatus;
+	}
+
+	@Override
+	public String toString() {
+
+		return "build: " + toMillis(buildTime) +
+		       " ms, serialization: " + toMillis(serializationTime) +
+		       " ms, connect: " + toMillis(connectTime) +
+		       " ms, response: " + toMillis(responseTime) +
+		       " ms, total: " + toMillis(totalTime) +
+		       " ms, bytes: " + bytesSent +
+		       ", status: " + providerStatus;
+	}
+
+	private static double toMillis(long nanos) {
+
+		return Math.round(nanos / 1_000.0) / 1_000.0;
+	}
+}
@@ -4,14 +4,17 @@ import com.zandero.mail.MailAttachment;
 import com.zandero.mail.MailMessage;
 import com.zandero.utils.Assert;
 import com.zandero.utils.StringUtils;
-import com.zandero.utils.extra.ValidatingUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Mail service to be implemented
  */
-public interface MailService {
+public interface MailService extends AutoCloseable {
 
 	/**
 	 * Send message out
@@ -21,6 +24,51 @@ public interface MailService {
 	 */
 	MailSendResult send(MailMessage builder);
 
+	/**
+	 * Send message out asynchronously using default executor
+	 *
+	 * @param builder to build mail message
+	 * @return future completed with mail send out result
+	 * @see MailExecutors#getDefault()
+	 */
+	default CompletableFuture<MailSendResult> sendAsync(MailMessage builder) {
+
+		return sendAsync(builder, MailExecutors.getDefault());
+	}
+
+	/**
+	 * Send message out asynchronously,
+	 * by default blocking send is executed with given executor (never on calling thread), services should provide a native implementation
+	 *
+	 * @param builder  to build mail message
+	 * @param executor to execute send with
+	 * @return future completed with mail send out result
+	 */
+	default CompletableFuture<MailSendResult> sendAsync(MailMessage builder, Executor executor) {
+
+		Assert.notNull(executor, "Missing executor!");
+		return MailExecutors.supplyAsync(() -> send(builder), executor);
+	}
+
+	/**
+	 * Sends out a batch of messages,
+	 * by default messages are send one by one, services should batch messages natively where possible
+	 *
+	 * @param messages to be send
+	 * @return list of send out results in same order as given messages
+	 */
+	default List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+		Assert.notNull(messages, "Missing mail messages!");
+
+		List<MailSendResult> results = new ArrayList<>(messages.size());
+		for (MailMessage message : messages) {
+			results.add(send(message));
+		}
+
+		return results;
+	}
+
 	/**
 	 * Default way to build up massage with all options available
 	 *
@@ -57,9 +105,6 @@ public interface MailService {
 	default MailSendResult send(String fromName, String fromEmail, String toName, String toEmail, String subject, String msgText, String msgHTML,
 	                            List<MailAttachment> attachments) {
 
-		Assert.isTrue(ValidatingUtils.isEmail(fromEmail),  "Invalid email address given: '" + fromEmail + "'");
-		Assert.isTrue(ValidatingUtils.isEmail(toEmail), "Invalid email address given: '" + toEmail + "'");
-
 		MailMessage mail = new MailMessage()
 			.from(fromEmail, fromName)
 			.to(toEmail, toName)
@@ -98,8 +143,6 @@ public interface MailService {
 	 */
 	default MailSendResult send(String fromEmail, String fromName, String toEmail, String toName, String subject, String htmlContent) {
 
-		Assert.isTrue(ValidatingUtils.isEmail(toEmail), "Invalid email address given: '" + toEmail + "'");
-
 		MailMessage mail = new MailMessage()
 			.to(toEmail)
 			.subject(subject)
@@ -115,4 +158,12 @@ public interface MailService {
 
 		return send(mail);
 	}
+
+	/**
+	 * Releases resources held by service (open connections, threads ...)
+	 * does nothing by default
+	 */
+	@Override
+	default void close() {
+	}
 }
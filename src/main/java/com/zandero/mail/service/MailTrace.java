@@ -0,0 +1,264 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.Address;
+import javax.mail.Header;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import java.util.Enumeration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Send trace of a mail service, logged at DEBUG level to logger {@code com.zandero.mail.trace.<name>}
+ *
+ * Trace can be switched on/off, sampled and its detail changed per service at runtime,
+ * when disabled (or DEBUG level is off) tracing costs a single check. Email addresses are masked by default.
+ */
+public class MailTrace {
+
+	/**
+	 * Prefix of trace logger names
+	 */
+	public static final String LOGGER_PREFIX = "com.zandero.mail.trace.";
+
+	/**
+	 * What is traced for each send
+	 */
+	public enum Detail {
+		/**
+		 * Single line per message: message id, sender and number of recipients
+		 */
+		SUMMARY,
+		/**
+		 * Summary and a line per recipient
+		 */
+		RECIPIENTS,
+		/**
+		 * Summary, recipients and a line per MIME header
+		 */
+		HEADERS
+	}
+
+	private static final String[] ADDRESS_HEADERS = {"From", "To", "Cc", "Bcc", "Reply-To", "Sender"};
+
+	private final Logger log;
+
+	private volatile boolean enabled = true;
+
+	private volatile Detail detail = Detail.SUMMARY;
+
+	private volatile double sampleRate = 1;
+
+	private volatile boolean maskAddresses = true;
+
+	/**
+	 * Creates trace logging to {@code com.zandero.mail.trace.<name>}
+	 *
+	 * @param name trace name, i.e. "smtp"
+	 */
+	public MailTrace(String name) {
+
+		Assert.notNullOrEmptyTrimmed(name, "Missing trace name!");
+		log = LoggerFactory.getLogger(LOGGER_PREFIX + name);
+	}
+
+	/**
+	 * @param value true to trace sends (when DEBUG level is enabled), false to switch tracing off
+	 * @return trace (self)
+	 */
+	public MailTrace enabled(boolean value) {
+
+		enabled = value;
+		return this;
+	}
+
+	/**
+	 * @param value detail of trace
+	 * @return trace (self)
+	 */
+	public MailTrace detail(Detail value) {
+
+		Assert.notNull(value, "Missing trace detail!");
+		detail = value;
+		return this;
+	}
+
+	/**
+	 * @param value share of sends traced, between 0 (none) and 1 (all)
+	 * @return trace (self)
+	 */
+	public MailTrace sampleRate(double value) {
+
+		Assert.isTrue(value >= 0 && value <= 1, "Sample rate must be between 0 and 1!");
+		sampleRate = value;
+		return this;
+	}
+
+	/**
+	 * @param value true to mask email addresses (default), false to trace them as they are
+	 * @return trace (self)
+	 */
+	public MailTrace maskAddresses(boolean value) {
+
+		maskAddresses = value;
+		return this;
+	}
+
+	/**
+	 * @return true if sends are traced
+	 */
+	public boolean isEnabled() {
+
+		return enabled && log.isDebugEnabled();
+	}
+
+	/**
+	 * @return trace detail
+	 */
+	public Detail getDetail() {
+
+		return detail;
+	}
+
+	/**
+	 * Traces message about to be send (if enabled and sampled)
+	 *
+	 * @param message source mail message
+	 * @param msg     MIME message build from source
+	 */
+	public void trace(MailMessage message, Message msg) {
+
+		if (!enabled || !log.isDebugEnabled() || !sample()) {
+			return;
+		}
+
+		try {
+			Address[] to = msg.getRecipients(Message.RecipientType.TO);
+			Address[] cc = msg.getRecipients(Message.RecipientType.CC);
+			Address[] bcc = msg.getRecipients(Message.RecipientType.BCC);
+			int excluded = message != null ? message.getRecipientCount() - count(to) - count(cc) - count(bcc) : 0;
+
+			Address[] from = msg.getFrom();
+			log.debug("Sending message: {}, from: {}, to: {}, cc: {}, bcc: {}, excluded: {}",
+			          getMessageId(msg),
+			          from != null && from.length > 0 ? mask(from[0]) : null,
+			          count(to), count(cc), count(bcc),
+			          Math.max(0, excluded));
+
+			Detail current = detail;
+			if (current == Detail.SUMMARY) {
+				return;
+			}
+
+			traceRecipients(Message.RecipientType.TO, to);
+			traceRecipients(Message.RecipientType.CC, cc);
+			traceRecipients(Message.RecipientType.BCC, bcc);
+
+			if (current == Detail.HEADERS) {
+				Enumeration<?> headers = msg.getAllHeaders();
+				while (headers.hasMoreElements()) {
+					Header header = (Header) headers.nextElement();
+					log.debug("Header: {}: {}", header.getName(), isAddressHeader(header.getName()) ? mask(header.getValue()) : header.getValue());
+				}
+			}
+		}
+		catch (MessagingException | RuntimeException e) {
+			log.debug("Failed to trace message: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Masks local part of email address keeping first character, i.e. j***@email.com
+	 *
+	 * @param email address
+	 * @return masked address
+	 */
+	public static String maskEmail(String email) {
+
+		if (email == null) {
+			return null;
+		}
+
+		int at = email.lastIndexOf('@');
+		if (at <= 0) {
+			return "***";
+		}
+
+		return email.charAt(0) + "***" + email.substring(at);
+	}
+
+	private void traceRecipients(Message.RecipientType type, Address[] addresses) {
+
+		if (addresses == null) {
+			return;
+		}
+
+		for (Address address : addresses) {
+			log.debug("Recipient: {}: {}", type, mask(address));
+		}
+	}
+
+	private boolean sample() {
+
+		double rate = sampleRate;
+		return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+	}
+
+	private String mask(Address address) {
+
+		String email = address instanceof InternetAddress ? ((InternetAddress) address).getAddress() : address.toString();
+		return maskAddresses ? maskEmail(email) : email;
+	}
+
+	private String mask(String header) {
+
+		if (!maskAddresses || header == null) {
+			return header;
+		}
+
+		// header holds one or more (possibly named) addresses ... trace only masked addresses
+		try {
+			InternetAddress[] addresses = InternetAddress.parseHeader(header, false);
+			StringBuilder masked = new StringBuilder();
+			for (InternetAddress address : addresses) {
+				if (masked.length() > 0) {
+					masked.append(", ");
+				}
+
+				masked.append(maskEmail(address.getAddress()));
+			}
+
+			return masked.toString();
+		}
+		catch (MessagingException e) {
+			return "***";
+		}
+	}
+
+	private static boolean isAddressHeader(String name) {
+
+		for (String header : ADDRESS_HEADERS) {
+			if (header.equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static String getMessageId(Message msg) throws MessagingException {
+
+		String[] id = msg.getHeader("Message-ID");
+		return id != null && id.length > 0 ? id[0] : null;
+	}
+
+	private static int count(Address[] addresses) {
+
+		return addresses == null ? 0 : addresses.length;
+	}
+}
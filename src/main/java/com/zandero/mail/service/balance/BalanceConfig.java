@@ -0,0 +1,230 @@
+package com.zandero.mail.service.balance;
+
+import com.zandero.utils.Assert;
+
+import java.time.Duration;
+
+/**
+ * Backend selection and circuit breaker settings of a balanced mail service
+ */
+public class BalanceConfig {
+
+	/**
+	 * How backend is selected for a send
+	 */
+	public enum Strategy {
+		/**
+		 * Backends take turns in proportion to their weight
+		 */
+		WEIGHTED_ROUND_ROBIN,
+		/**
+		 * Backend with fewest sends in flight (relative to its weight) is taken
+		 */
+		LEAST_OUTSTANDING
+	}
+
+	/**
+	 * Default number of last sends breaker decides on
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 100;
+
+	/**
+	 * Default number of sends in window needed before breaker might trip
+	 */
+	public static final int DEFAULT_MIN_CALLS = 20;
+
+	/**
+	 * Default failure rate tripping the breaker
+	 */
+	public static final double DEFAULT_FAILURE_RATE = 0.5;
+
+	/**
+	 * Default latency percentile observed
+	 */
+	public static final double DEFAULT_LATENCY_PERCENTILE = 0.99;
+
+	/**
+	 * Default latency tripping the breaker when exceeded at observed percentile
+	 */
+	public static final Duration DEFAULT_LATENCY_THRESHOLD = Duration.ofSeconds(10);
+
+	/**
+	 * Default time breaker stays open before trial sends are let through
+	 */
+	public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+	private Strategy strategy = Strategy.WEIGHTED_ROUND_ROBIN;
+
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+
+	private int minCalls = DEFAULT_MIN_CALLS;
+
+	private double failureRate = DEFAULT_FAILURE_RATE;
+
+	private double latencyPercentile = DEFAULT_LATENCY_PERCENTILE;
+
+	private Duration latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+
+	private Duration openDuration = DEFAULT_OPEN_DURATION;
+
+	private boolean failover = true;
+
+	/**
+	 * Balance settings with defaults
+	 */
+	public BalanceConfig() {
+	}
+
+	/**
+	 * Sets backend selection strategy
+	 *
+	 * @param value strategy
+	 * @return config (self)
+	 */
+	public BalanceConfig strategy(Strategy value) {
+
+		Assert.notNull(value, "Missing strategy!");
+		strategy = value;
+		return this;
+	}
+
+	/**
+	 * Sets number of last sends circuit breaker decides on
+	 *
+	 * @param value window size, must be greater than 0
+	 * @return config (self)
+	 */
+	public BalanceConfig windowSize(int value) {
+
+		Assert.isTrue(value > 0, "Window size must be greater than 0!");
+		windowSize = value;
+		return this;
+	}
+
+	/**
+	 * Sets number of sends in window needed before circuit breaker might trip
+	 *
+	 * @param value min calls, must be greater than 0
+	 * @return config (self)
+	 */
+	public BalanceConfig minCalls(int value) {
+
+		Assert.isTrue(value > 0, "Min calls must be greater than 0!");
+		minCalls = value;
+		return this;
+	}
+
+	/**
+	 * Sets rate of transient failures tripping the circuit breaker
+	 *
+	 * @param value failure rate between 0 (exclusive) and 1
+	 * @return config (self)
+	 */
+	public BalanceConfig failureRate(double value) {
+
+		Assert.isTrue(value > 0 && value <= 1, "Failure rate must be between 0 and 1!");
+		failureRate = value;
+		return this;
+	}
+
+	/**
+	 * Sets latency tripping the circuit breaker when exceeded at given percentile,
+	 * i.e. 0.99 and 5 seconds trips breaker once 1% of sends or more take longer than 5 seconds
+	 *
+	 * @param percentile latency percentile between 0 and 1 (exclusive)
+	 * @param threshold  max latency at percentile
+	 * @return config (self)
+	 */
+	public BalanceConfig latency(double percentile, Duration threshold) {
+
+		Assert.isTrue(percentile > 0 && percentile < 1, "Latency percentile must be between 0 and 1!");
+		Assert.notNull(threshold, "Missing latency threshold!");
+		Assert.isTrue(threshold.toNanos() > 0, "Latency threshold must be greater than 0!");
+
+		latencyPercentile = percentile;
+		latencyThreshold = threshold;
+		return this;
+	}
+
+	/**
+	 * Sets time circuit breaker stays open before a trial send is let through
+	 *
+	 * @param value open duration, must not be negative
+	 * @return config (self)
+	 */
+	public BalanceConfig openDuration(Duration value) {
+
+		Assert.notNull(value, "Missing open duration!");
+		Assert.isFalse(value.isNegative(), "Open duration must not be negative!");
+		openDuration = value;
+		return this;
+	}
+
+	/**
+	 * When enabled sends failing with a transient failure are send again with next available backend
+	 *
+	 * @param value true to fail over, false to return failure
+	 * @return config (self)
+	 */
+	public BalanceConfig failover(boolean value) {
+
+		failover = value;
+		return this;
+	}
+
+	/**
+	 * @return backend selection strategy
+	 */
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * @return number of last sends circuit breaker decides on
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @return number of sends needed before circuit breaker might trip
+	 */
+	public int getMinCalls() {
+		return Math.min(minCalls, windowSize);
+	}
+
+	/**
+	 * @return failure rate tripping circuit breaker
+	 */
+	public double getFailureRate() {
+		return failureRate;
+	}
+
+	/**
+	 * @return observed latency percentile
+	 */
+	public double getLatencyPercentile() {
+		return latencyPercentile;
+	}
+
+	/**
+	 * @return latency tripping circuit breaker at observed percentile
+	 */
+	public Duration getLatencyThreshold() {
+		return latencyThreshold;
+	}
+
+	/**
+	 * @return time circuit breaker stays open
+	 */
+	public Duration getOpenDuration() {
+		return openDuration;
+	}
+
+	/**
+	 * @return true if failed sends are send again with next backend
+	 */
+	public boolean isFailover() {
+		return failover;
+	}
+}
@@ -0,0 +1,421 @@
+package com.zandero.mail.service.balance;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.MailService;
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Composite mail service spreading sends across several backends (providers),
+ * by weighted round robin or least outstanding sends selection
+ *
+ * Each backend is guarded by a {@link CircuitBreaker} tripping on transient failure rate or latency percentile,
+ * backends with open breaker are skipped. With failover enabled a send failing with a transient failure
+ * is send again with next available backend.
+ */
+public class BalancedMailService implements MailService {
+
+	private static final Logger log = LoggerFactory.getLogger(BalancedMailService.class);
+
+	private final BalanceConfig config;
+
+	private final List<Backend> backends = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Balances sends with default settings
+	 */
+	public BalancedMailService() {
+
+		this(new BalanceConfig());
+	}
+
+	/**
+	 * Balances sends
+	 *
+	 * @param balanceConfig selection and circuit breaker settings
+	 */
+	public BalancedMailService(BalanceConfig balanceConfig) {
+
+		Assert.notNull(balanceConfig, "Missing balance config!");
+		config = balanceConfig;
+	}
+
+	/**
+	 * Adds backend with weight 1
+	 *
+	 * @param mailService backend
+	 * @return balanced service (self)
+	 */
+	public BalancedMailService add(MailService mailService) {
+
+		return add(mailService, 1);
+	}
+
+	/**
+	 * Adds backend
+	 *
+	 * @param mailService backend
+	 * @param weight      share of sends relative to other backends, must be greater than 0
+	 * @return balanced service (self)
+	 */
+	public BalancedMailService add(MailService mailService, int weight) {
+
+		Assert.notNull(mailService, "Missing mail service!");
+		Assert.isTrue(weight > 0, "Weight must be greater than 0!");
+		Assert.isFalse(mailService == this, "Can't add balanced service to itself!");
+
+		backends.add(new Backend(mailService, weight, new CircuitBreaker(config)));
+		return this;
+	}
+
+	@Override
+	public MailSendResult send(MailMessage message) {
+
+		Assert.notNull(message, "Missing mail message!");
+
+		Set<Backend> tried = new HashSet<>();
+		MailSendResult result = null;
+
+		Backend backend;
+		while ((backend = select(tried)) != null) {
+
+			tried.add(backend);
+
+			long start = System.nanoTime();
+			backend.outstanding.incrementAndGet();
+			try {
+				result = backend.service.send(message);
+				backend.record(result, System.nanoTime() - start);
+			}
+			catch (RuntimeException e) {
+				// failed attempt ... ends a trial send of half open breaker too
+				backend.record(null, System.nanoTime() - start);
+				if (!config.isFailover()) {
+					throw e;
+				}
+
+				result = MailSendResult.unavailable(e.getMessage());
+			}
+			finally {
+				backend.outstanding.decrementAndGet();
+			}
+
+			if (!retry(result)) {
+				return result;
+			}
+
+			log.warn("Mail service: {} failed: {}, failing over", backend, result);
+		}
+
+		return result != null ? result : noBackend();
+	}
+
+	@Override
+	public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+		Assert.notNull(message, "Missing mail message!");
+		Assert.notNull(executor, "Missing executor!");
+
+		CompletableFuture<MailSendResult> future = new CompletableFuture<>();
+		sendAsync(message, executor, new HashSet<>(), null, future);
+		return future;
+	}
+
+	/**
+	 * Sends batch with a single backend (keeping provider batching), failed part of batch is failed over to next backend
+	 *
+	 * @param messages to be send
+	 * @return list of send out results in same order as given messages
+	 */
+	@Override
+	public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+		Assert.notNull(messages, "Missing mail messages!");
+
+		List<MailMessage> list = new ArrayList<>(messages);
+		MailSendResult[] results = new MailSendResult[list.size()];
+
+		List<Integer> pending = new ArrayList<>(list.size());
+		for (int index = 0; index < list.size(); index++) {
+			pending.add(index);
+		}
+
+		Set<Backend> tried = new HashSet<>();
+		Backend backend;
+		while (!pending.isEmpty() && (backend = select(tried)) != null) {
+
+			tried.add(backend);
+
+			List<MailMessage> batch = new ArrayList<>(pending.size());
+			for (Integer index : pending) {
+				batch.add(list.get(index));
+			}
+
+			long start = System.nanoTime();
+			backend.outstanding.incrementAndGet();
+			List<MailSendResult> sent;
+			try {
+				sent = backend.service.sendAll(batch);
+			}
+			catch (RuntimeException e) {
+				backend.record(null, (System.nanoTime() - start) / batch.size());
+				if (!config.isFailover()) {
+					throw e;
+				}
+
+				sent = Collections.nCopies(batch.size(), MailSendResult.unavailable(e.getMessage()));
+			}
+			finally {
+				backend.outstanding.decrementAndGet();
+			}
+
+			// latency threshold applies to a single send
+			long latency = (System.nanoTime() - start) / batch.size();
+
+			List<Integer> failed = new ArrayList<>();
+			MailSendResult last = null;
+			for (int i = 0; i < pending.size(); i++) {
+
+				MailSendResult result = sent.get(i);
+				results[pending.get(i)] = result;
+
+				if (result != last) { // batched messages share result ... record once
+					backend.record(result, latency);
+					last = result;
+				}
+
+				if (retry(result)) {
+					failed.add(pending.get(i));
+				}
+			}
+
+			if (!failed.isEmpty()) {
+				log.warn("Mail service: {} failed to send: {} of {} messages, failing over", backend, failed.size(), pending.size());
+			}
+
+			pending = failed;
+		}
+
+		for (int index = 0; index < results.length; index++) {
+			if (results[index] == null) {
+				results[index] = noBackend();
+			}
+		}
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * @param mailService backend
+	 * @return circuit breaker of backend or null if service is not a backend of this service
+	 */
+	public CircuitBreaker getCircuitBreaker(MailService mailService) {
+
+		for (Backend backend : backends) {
+			if (backend.service == mailService) {
+				return backend.breaker;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Closes all backends
+	 */
+	@Override
+	public void close() {
+
+		for (Backend backend : backends) {
+			try {
+				backend.service.close();
+			}
+			catch (RuntimeException e) {
+				log.error("Failed to close mail service: {}", backend, e);
+			}
+		}
+	}
+
+	private void sendAsync(MailMessage message, Executor executor, Set<Backend> tried, MailSendResult last, CompletableFuture<MailSendResult> future) {
+
+		Backend backend = select(tried);
+		if (backend == null) {
+			future.complete(last != null ? last : noBackend());
+			return;
+		}
+
+		tried.add(backend);
+
+		long start = System.nanoTime();
+		backend.outstanding.incrementAndGet();
+
+		CompletableFuture<MailSendResult> send;
+		try {
+			send = backend.service.sendAsync(message, executor);
+		}
+		catch (RuntimeException e) {
+			backend.outstanding.decrementAndGet();
+			backend.record(null, System.nanoTime() - start);
+
+			if (config.isFailover()) {
+				log.warn("Mail service: {} failed: {}, failing over", backend, e.getMessage());
+				sendAsync(message, executor, tried, MailSendResult.unavailable(e.getMessage()), future);
+			}
+			else {
+				future.completeExceptionally(e);
+			}
+
+			return;
+		}
+
+		send.whenComplete((response, error) -> {
+
+			backend.outstanding.decrementAndGet();
+
+			MailSendResult result = error != null ? MailSendResult.unavailable(error.getMessage()) : response;
+			backend.record(result, System.nanoTime() - start);
+
+			if (retry(result)) {
+				log.warn("Mail service: {} failed: {}, failing over", backend, result);
+				sendAsync(message, executor, tried, result, future);
+			}
+			else {
+				future.complete(result);
+			}
+		});
+	}
+
+	/**
+	 * Selects next backend with closed (or half open) circuit breaker
+	 *
+	 * @param tried backends already tried for this send
+	 * @return selected backend or null if none is available
+	 */
+	private Backend select(Set<Backend> tried) {
+
+		if (tried.size() > 0 && !config.isFailover()) {
+			return null;
+		}
+
+		List<Backend> available = new ArrayList<>(backends.size());
+		for (Backend backend : backends) {
+			if (!tried.contains(backend) && backend.breaker.getState() != CircuitBreaker.State.OPEN) {
+				available.add(backend);
+			}
+		}
+
+		while (!available.isEmpty()) {
+
+			Backend selected = config.getStrategy() == BalanceConfig.Strategy.LEAST_OUTSTANDING ?
+			                   leastOutstanding(available) :
+			                   roundRobin(available);
+
+			// half open breaker lets a single trial send through
+			if (selected.breaker.allow()) {
+				return selected;
+			}
+
+			available.remove(selected);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Smooth weighted round robin: each backend gains its weight on every pick, the richest is picked and pays total weight
+	 */
+	private synchronized Backend roundRobin(List<Backend> available) {
+
+		int total = 0;
+		Backend selected = null;
+		for (Backend backend : available) {
+			backend.current += backend.weight;
+			total += backend.weight;
+
+			if (selected == null || backend.current > selected.current) {
+				selected = backend;
+			}
+		}
+
+		selected.current -= total;
+		return selected;
+	}
+
+	private static Backend leastOutstanding(List<Backend> available) {
+
+		Backend selected = null;
+		double min = Double.MAX_VALUE;
+		for (Backend backend : available) {
+			double load = (backend.outstanding.get() + 1) / (double) backend.weight;
+			if (load < min) {
+				min = load;
+				selected = backend;
+			}
+		}
+
+		return selected;
+	}
+
+	private boolean retry(MailSendResult result) {
+
+		return config.isFailover() && result != null && !result.isSuccessful() && result.isTransient();
+	}
+
+	private static MailSendResult noBackend() {
+
+		return MailSendResult.unavailable("No mail service available!");
+	}
+
+	/**
+	 * Backend mail service with its selection and breaker state
+	 */
+	private static final class Backend {
+
+		private final MailService service;
+
+		private final int weight;
+
+		private final CircuitBreaker breaker;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		/**
+		 * Current weight of smooth weighted round robin, guarded by balanced service
+		 */
+		private int current;
+
+		private Backend(MailService mailService, int backendWeight, CircuitBreaker circuitBreaker) {
+
+			service = mailService;
+			weight = backendWeight;
+			breaker = circuitBreaker;
+		}
+
+		private void record(MailSendResult result, long latency) {
+
+			// permanent failures (invalid message, rejected recipient) are not the provider's fault
+			boolean failed = result == null || (!result.isSuccessful() && result.isTransient());
+			breaker.record(failed, latency);
+		}
+
+		@Override
+		public String toString() {
+
+			return service.getClass().getSimpleName();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package com.zandero.mail.service.balance;
+
+/**
+ * Count based circuit breaker over a sliding window of last sends
+ *
+ * Breaker opens (trips) once failure rate or share of sends slower than latency threshold is reached,
+ * while open no sends are let through. After open duration a single trial send is let through (half open),
+ * if it succeeds breaker closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+	/**
+	 * Circuit breaker state
+	 */
+	public enum State {
+		/**
+		 * Sends are let through
+		 */
+		CLOSED,
+		/**
+		 * No sends are let through
+		 */
+		OPEN,
+		/**
+		 * Single trial send is let through
+		 */
+		HALF_OPEN
+	}
+
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+
+	private final int minCalls;
+
+	private final double failureRate;
+
+	/**
+	 * Share of sends allowed to be slower than latency threshold
+	 */
+	private final double slowRate;
+
+	private final long latencyThreshold;
+
+	private final long openDuration;
+
+	/**
+	 * Outcomes of last sends (failed and/or slow flags)
+	 */
+	private final byte[] window;
+
+	private int position;
+
+	private int calls;
+
+	private int failures;
+
+	private int slow;
+
+	private State state = State.CLOSED;
+
+	private long openedAt;
+
+	private boolean trial;
+
+	CircuitBreaker(BalanceConfig config) {
+
+		minCalls = config.getMinCalls();
+		failureRate = config.getFailureRate();
+		slowRate = 1 - config.getLatencyPercentile();
+		latencyThreshold = config.getLatencyThreshold().toNanos();
+		openDuration = config.getOpenDuration().toNanos();
+		window = new byte[config.getWindowSize()];
+	}
+
+	/**
+	 * @return true if send is let through, false if breaker is open
+	 */
+	synchronized boolean allow() {
+
+		if (state == State.CLOSED) {
+			return true;
+		}
+
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openDuration) {
+			state = State.HALF_OPEN;
+			trial = false;
+		}
+
+		if (state == State.HALF_OPEN && !trial) {
+			trial = true;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Records outcome of a send
+	 *
+	 * @param failed  true if send failed with a transient failure
+	 * @param latency send duration in nanoseconds
+	 */
+	synchronized void record(boolean failed, long latency) {
+
+		if (state == State.HALF_OPEN) {
+			if (failed || latency > latencyThreshold) {
+				open();
+			}
+			else {
+				close();
+			}
+
+			return;
+		}
+
+		if (state == State.OPEN) {
+			return; // send started before breaker opened
+		}
+
+		byte outcome = (byte) ((failed ? FAILED : 0) | (latency > latencyThreshold ? SLOW : 0));
+
+		if (calls == window.length) {
+			byte oldest = window[position];
+			failures -= oldest & FAILED;
+			slow -= (oldest & SLOW) >> 1;
+		}
+		else {
+			calls++;
+		}
+
+		window[position] = outcome;
+		position = (position + 1) % window.length;
+		failures += outcome & FAILED;
+		slow += (outcome & SLOW) >> 1;
+
+		if (calls >= minCalls && (failures >= failureRate * calls || slow >= slowRate * calls)) {
+			open();
+		}
+	}
+
+	/**
+	 * @return breaker state
+	 */
+	public synchronized State getState() {
+
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openDuration) {
+			return State.HALF_OPEN;
+		}
+
+		return state;
+	}
+
+	/**
+	 * @return share of failed sends in window
+	 */
+	public synchronized double getFailureRate() {
+
+		return calls == 0 ? 0 : (double) failures / calls;
+	}
+
+	/**
+	 * @return share of sends in window slower than latency threshold
+	 */
+	public synchronized double getSlowRate() {
+
+		return calls == 0 ? 0 : (double) slow / calls;
+	}
+
+	private void open() {
+
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+		reset();
+	}
+
+	private void close() {
+
+		state = State.CLOSED;
+		reset();
+	}
+
+	private void reset() {
+
+		position = 0;
+		calls = 0;
+		failures = 0;
+		slow = 0;
+		trial = false;
+	}
+}
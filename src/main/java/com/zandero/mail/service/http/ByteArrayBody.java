@@ -0,0 +1,48 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.utils.Assert;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Request body of bytes held in memory, transports can hand content over as is
+ */
+final class ByteArrayBody implements RequestBody {
+
+	private final byte[] content;
+
+	private final String contentType;
+
+	ByteArrayBody(byte[] bytes, String type) {
+
+		Assert.notNull(bytes, "Missing content!");
+		Assert.notNullOrEmptyTrimmed(type, "Missing content type!");
+
+		content = bytes;
+		contentType = type;
+	}
+
+	@Override
+	public String getContentType() {
+
+		return contentType;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+
+		out.write(content);
+	}
+
+	@Override
+	public long length() {
+
+		return content.length;
+	}
+
+	byte[] getContent() {
+
+		return content;
+	}
+}
@@ -0,0 +1,236 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.http.Http;
+import com.zandero.mail.service.MailExecutors;
+import com.zandero.mail.service.MailSendStats;
+import com.zandero.utils.Assert;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Default transport based on JDK HTTP client
+ *
+ * Requests to the same provider are multiplexed over a single HTTP/2 connection (if supported by provider)
+ * or use pooled keep-alive HTTP/1.1 connections. Streamed bodies are written on a transport thread
+ * while client sends them, so posting never blocks client threads.
+ * Connections are pooled per transport, so a transport should be shared ({@link #getDefault()}).
+ * Closing a transport stops its threads, the default transport is never closed.
+ */
+public class HttpClientTransport implements HttpTransport {
+
+	private static volatile HttpClientTransport defaultTransport;
+
+	private final HttpTransportConfig config;
+
+	private final ExecutorService executor;
+
+	private final HttpClient client;
+
+	/**
+	 * Transport with default settings
+	 */
+	public HttpClientTransport() {
+
+		this(new HttpTransportConfig());
+	}
+
+	/**
+	 * Transport with given settings
+	 *
+	 * @param transportConfig transport settings
+	 */
+	public HttpClientTransport(HttpTransportConfig transportConfig) {
+
+		Assert.notNull(transportConfig, "Missing transport config!");
+		config = transportConfig;
+
+		executor = Executors.newCachedThreadPool(MailExecutors.newThreadFactory("mail-http"));
+		client = HttpClient.newBuilder()
+		                   .version(config.getVersion())
+		                   .connectTimeout(config.getConnectTimeout())
+		                   .executor(executor)
+		                   .build();
+	}
+
+	/**
+	 * Transport shared by provider services when no transport is given explicitly
+	 *
+	 * @return default transport
+	 */
+	public static HttpClientTransport getDefault() {
+
+		HttpClientTransport transport = defaultTransport;
+		if (transport == null) {
+			synchronized (HttpClientTransport.class) {
+				if (defaultTransport == null) {
+					defaultTransport = new HttpClientTransport();
+				}
+
+				transport = defaultTransport;
+			}
+		}
+
+		return transport;
+	}
+
+	/**
+	 * Posts body to given url, connect time is not recorded as connections are pooled (or multiplexed) by client
+	 *
+	 * @param url     to post to
+	 * @param body    request body
+	 * @param headers request headers, content type is taken from body if not given
+	 * @param stats   to record serialization and response time, bytes send and response status in (optional)
+	 * @return response
+	 * @throws IOException in case request failed
+	 */
+	@Override
+	public Http.Response post(String url, RequestBody body, Map<String, String> headers, MailSendStats stats) throws IOException {
+
+		Assert.notNullOrEmptyTrimmed(url, "Missing url!");
+		return post(URI.create(url), body, headers, stats);
+	}
+
+	@Override
+	public Http.Response post(RequestContext context, RequestBody body, MailSendStats stats) throws IOException {
+
+		Assert.notNull(context, "Missing request context!");
+		return post(context.getUri(), body, context.getHeaders(), stats);
+	}
+
+	@Override
+	public CompletableFuture<Http.Response> postAsync(String url, RequestBody body, Map<String, String> headers, Executor responseExecutor) {
+
+		Assert.notNullOrEmptyTrimmed(url, "Missing url!");
+		return postAsync(URI.create(url), body, headers, null, responseExecutor);
+	}
+
+	@Override
+	public CompletableFuture<Http.Response> postAsync(RequestContext context, RequestBody body, Executor responseExecutor) {
+
+		Assert.notNull(context, "Missing request context!");
+		return postAsync(context.getUri(), body, context.getHeaders(), null, responseExecutor);
+	}
+
+	@Override
+	public CompletableFuture<Http.Response> postAsync(RequestContext context, RequestBody body, MailSendStats stats, Executor responseExecutor) {
+
+		Assert.notNull(context, "Missing request context!");
+		return postAsync(context.getUri(), body, context.getHeaders(), stats, responseExecutor);
+	}
+
+	/**
+	 * @return preferred protocol version
+	 */
+	public HttpClient.Version getVersion() {
+
+		return client.version();
+	}
+
+	private Http.Response post(URI uri, RequestBody body, Map<String, String> headers, MailSendStats stats) throws IOException {
+
+		Assert.notNull(body, "Missing request body!");
+
+		long start = System.nanoTime();
+
+		RequestBodyPublisher publisher = body instanceof ByteArrayBody ? null : new RequestBodyPublisher(body, executor, config.getReadTimeout().toNanos());
+		HttpRequest request = getRequest(uri, body, headers, publisher);
+
+		HttpResponse<String> response;
+		try {
+			response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for response!");
+		}
+
+		record(stats, body, publisher, start, response);
+		return getResponse(response);
+	}
+
+	private CompletableFuture<Http.Response> postAsync(URI uri, RequestBody body, Map<String, String> headers, MailSendStats stats, Executor responseExecutor) {
+
+		Assert.notNull(body, "Missing request body!");
+		Assert.notNull(responseExecutor, "Missing executor!");
+
+		long start = System.nanoTime();
+
+		RequestBodyPublisher publisher = body instanceof ByteArrayBody ? null : new RequestBodyPublisher(body, executor, config.getReadTimeout().toNanos());
+		return client.sendAsync(getRequest(uri, body, headers, publisher), HttpResponse.BodyHandlers.ofString())
+		             .thenApplyAsync(response -> {
+			             record(stats, body, publisher, start, response);
+			             return getResponse(response);
+		             }, responseExecutor);
+	}
+
+	private static void record(MailSendStats stats, RequestBody body, RequestBodyPublisher publisher, long start, HttpResponse<String> response) {
+
+		if (stats == null) {
+			return;
+		}
+
+		long end = System.nanoTime();
+		if (publisher != null && publisher.getWrittenAt() > 0) {
+			stats.serializationTime(publisher.getWriteTime())
+			     .responseTime(Math.max(0, end - publisher.getWrittenAt()))
+			     .bytesSent(publisher.getBytesWritten());
+		}
+		else {
+			stats.responseTime(end - start)
+			     .bytesSent(body.length());
+		}
+
+		stats.providerStatus(response.statusCode());
+	}
+
+	private HttpRequest getRequest(URI uri, RequestBody body, Map<String, String> headers, RequestBodyPublisher publisher) {
+
+		HttpRequest.BodyPublisher bodyPublisher = publisher != null ?
+		                                          publisher :
+		                                          HttpRequest.BodyPublishers.ofByteArray(((ByteArrayBody) body).getContent());
+
+		HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+		                                         .timeout(config.getReadTimeout())
+		                                         .POST(bodyPublisher);
+
+		boolean contentType = false;
+		if (headers != null) {
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				builder.header(header.getKey(), header.getValue());
+				contentType |= "Content-Type".equalsIgnoreCase(header.getKey());
+			}
+		}
+
+		if (!contentType) {
+			builder.header("Content-Type", body.getContentType());
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Stops transport threads once pending requests are done, ignored for the default (shared) transport
+	 */
+	@Override
+	public void close() {
+
+		if (this != defaultTransport) {
+			executor.shutdown();
+		}
+	}
+
+	private static Http.Response getResponse(HttpResponse<String> response) {
+
+		return new Http.Response(response.statusCode(), response.body(), response.headers().map());
+	}
+}
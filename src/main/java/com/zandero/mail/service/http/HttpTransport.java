@@ -0,0 +1,91 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.http.Http;
+import com.zandero.mail.service.MailSendStats;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * HTTP transport used by provider (API) mail services to post requests
+ *
+ * {@link HttpClientTransport} (JDK HTTP client, HTTP/2) is used by default,
+ * {@link UrlConnectionTransport} (HttpURLConnection) is available as fallback.
+ */
+public interface HttpTransport extends AutoCloseable {
+
+	/**
+	 * Posts body to given url blocking calling thread until response is received
+	 *
+	 * @param url     to post to
+	 * @param body    request body
+	 * @param headers request headers, content type is taken from body if not given
+	 * @param stats   to record connect, serialization and response time, bytes send and response status in (optional)
+	 * @return response
+	 * @throws IOException in case request failed
+	 */
+	Http.Response post(String url, RequestBody body, Map<String, String> headers, MailSendStats stats) throws IOException;
+
+	/**
+	 * Posts body to given url without waiting for response on calling thread
+	 *
+	 * @param url      to post to
+	 * @param body     request body
+	 * @param headers  request headers, content type is taken from body if not given
+	 * @param executor executor to complete response with (blocking transports post with it)
+	 * @return future completed with response or exceptionally in case request failed
+	 */
+	CompletableFuture<Http.Response> postAsync(String url, RequestBody body, Map<String, String> headers, Executor executor);
+
+	/**
+	 * Posts body to context endpoint with context headers, blocking calling thread until response is received
+	 *
+	 * @param context endpoint and headers
+	 * @param body    request body
+	 * @param stats   to record connect, serialization and response time, bytes send and response status in (optional)
+	 * @return response
+	 * @throws IOException in case request failed
+	 */
+	default Http.Response post(RequestContext context, RequestBody body, MailSendStats stats) throws IOException {
+
+		return post(context.getUrl(), body, context.getHeaders(), stats);
+	}
+
+	/**
+	 * Posts body to context endpoint with context headers without waiting for response on calling thread
+	 *
+	 * @param context  endpoint and headers
+	 * @param body     request body
+	 * @param executor executor to complete response with (blocking transports post with it)
+	 * @return future completed with response or exceptionally in case request failed
+	 */
+	default CompletableFuture<Http.Response> postAsync(RequestContext context, RequestBody body, Executor executor) {
+
+		return postAsync(context.getUrl(), body, context.getHeaders(), executor);
+	}
+
+	/**
+	 * Posts body to context endpoint with context headers without waiting for response on calling thread,
+	 * stats are recorded once response is received (not recorded by default)
+	 *
+	 * @param context  endpoint and headers
+	 * @param body     request body
+	 * @param stats    to record serialization and response time, bytes send and response status in
+	 * @param executor executor to complete response with (blocking transports post with it)
+	 * @return future completed with response or exceptionally in case request failed
+	 */
+	default CompletableFuture<Http.Response> postAsync(RequestContext context, RequestBody body, MailSendStats stats, Executor executor) {
+
+		return postAsync(context, body, executor);
+	}
+
+	/**
+	 * Releases resources held by transport (threads, pooled connections ...)
+	 * does nothing by default
+	 */
+	@Override
+	default void close() {
+	}
+}
@@ -0,0 +1,99 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.utils.Assert;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * HTTP transport settings: timeouts and protocol version
+ */
+public class HttpTransportConfig {
+
+	/**
+	 * Default connect timeout
+	 */
+	public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+	/**
+	 * Default read timeout (time to wait for response once request is send)
+	 */
+	public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(60);
+
+	private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+	private Duration readTimeout = DEFAULT_READ_TIMEOUT;
+
+	private HttpClient.Version version = HttpClient.Version.HTTP_2;
+
+	/**
+	 * Transport settings with defaults
+	 */
+	public HttpTransportConfig() {
+	}
+
+	/**
+	 * Sets connect timeout
+	 *
+	 * @param value connect timeout, must be greater than 0
+	 * @return config (self)
+	 */
+	public HttpTransportConfig connectTimeout(Duration value) {
+
+		Assert.notNull(value, "Missing connect timeout!");
+		Assert.isTrue(!value.isNegative() && !value.isZero(), "Connect timeout must be greater than 0!");
+		connectTimeout = value;
+		return this;
+	}
+
+	/**
+	 * Sets read timeout
+	 *
+	 * @param value time to wait for response, must be greater than 0
+	 * @return config (self)
+	 */
+	public HttpTransportConfig readTimeout(Duration value) {
+
+		Assert.notNull(value, "Missing read timeout!");
+		Assert.isTrue(!value.isNegative() && !value.isZero(), "Read timeout must be greater than 0!");
+		readTimeout = value;
+		return this;
+	}
+
+	/**
+	 * Sets preferred protocol version, HTTP/2 (default) falls back to HTTP/1.1 if not supported by server
+	 *
+	 * @param value protocol version
+	 * @return config (self)
+	 */
+	public HttpTransportConfig version(HttpClient.Version value) {
+
+		Assert.notNull(value, "Missing HTTP version!");
+		version = value;
+		return this;
+	}
+
+	/**
+	 * @return connect timeout
+	 */
+	public Duration getConnectTimeout() {
+
+		return connectTimeout;
+	}
+
+	/**
+	 * @return read timeout
+	 */
+	public Duration getReadTimeout() {
+
+		return readTimeout;
+	}
+
+	/**
+	 * @return preferred protocol version
+	 */
+	public HttpClient.Version getVersion() {
+
+		return version;
+	}
+}
@@ -0,0 +1,186 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.mail.MailAttachment;
+import com.zandero.utils.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * multipart/form-data request body, fields are written as UTF-8 text and files are copied
+ * from their source straight to the output stream without being encoded or buffered as a whole
+ */
+public class MultipartBody implements RequestBody {
+
+	private static final byte[] CRLF = {'\r', '\n'};
+
+	private static final byte[] DASHES = {'-', '-'};
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final String boundary;
+
+	private final List<Part> parts = new ArrayList<>();
+
+	/**
+	 * Creates empty body with random boundary
+	 */
+	public MultipartBody() {
+
+		boundary = "zandero-" + UUID.randomUUID().toString().replace("-", "");
+	}
+
+	/**
+	 * Adds text field
+	 *
+	 * @param name  of field
+	 * @param value of field, fields with null value are skipped
+	 * @return body (self)
+	 */
+	public MultipartBody field(String name, String value) {
+
+		Assert.notNullOrEmptyTrimmed(name, "Missing field name!");
+
+		if (value != null) {
+			parts.add(new Part(name, value, null));
+		}
+
+		return this;
+	}
+
+	/**
+	 * Adds text fields
+	 *
+	 * @param fields name value pairs
+	 * @return body (self)
+	 */
+	public MultipartBody fields(Map<String, String> fields) {
+
+		if (fields != null) {
+			fields.forEach(this::field);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Adds file streamed from attachment source
+	 *
+	 * @param name       of field
+	 * @param attachment to be streamed
+	 * @return body (self)
+	 */
+	public MultipartBody file(String name, MailAttachment attachment) {
+
+		Assert.notNullOrEmptyTrimmed(name, "Missing field name!");
+		Assert.notNull(attachment, "Missing attachment!");
+
+		parts.add(new Part(name, null, attachment));
+		return this;
+	}
+
+	/**
+	 * @return part boundary
+	 */
+	public String getBoundary() {
+		return boundary;
+	}
+
+	@Override
+	public String getContentType() {
+		return "multipart/form-data; boundary=" + boundary;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+
+		byte[] separator = boundary.getBytes(StandardCharsets.US_ASCII);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		char[] chars = new char[BUFFER_SIZE];
+
+		for (Part part : parts) {
+
+			out.write(DASHES);
+			out.write(separator);
+			out.write(CRLF);
+
+			StringBuilder header = new StringBuilder("Content-Disposition: form-data; name=\"").append(escape(part.name)).append('"');
+			if (part.file != null) {
+				if (part.file.fileName != null) {
+					header.append("; filename=\"").append(escape(part.file.fileName)).append('"');
+				}
+
+				String type = part.file.type == null ? "application/octet-stream" : part.file.type;
+				header.append("\r\nContent-Type: ").append(type);
+			}
+			else {
+				header.append("\r\nContent-Type: text/plain; charset=UTF-8");
+			}
+
+			header.append("\r\n\r\n");
+			out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+
+			if (part.file != null) {
+				try (InputStream content = part.file.getSource().open()) {
+					int read;
+					while ((read = content.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+					}
+				}
+			}
+			else {
+				// encoded in small chunks ... no byte copy of (large) text is made, writer is flushed but not closed
+				Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+				int length = part.value.length();
+				for (int start = 0; start < length; start += chars.length) {
+					int end = Math.min(length, start + chars.length);
+					part.value.getChars(start, end, chars, 0);
+					writer.write(chars, 0, end - start);
+				}
+
+				writer.flush();
+			}
+
+			out.write(CRLF);
+		}
+
+		out.write(DASHES);
+		out.write(separator);
+		out.write(DASHES);
+		out.write(CRLF);
+	}
+
+	/**
+	 * Quotes and line breaks are percent encoded as browsers do
+	 */
+	private static String escape(String value) {
+
+		return value.replace("\"", "%22")
+		            .replace("\r", "%0D")
+		            .replace("\n", "%0A");
+	}
+
+	private static final class Part {
+
+		private final String name;
+
+		private final String value;
+
+		private final MailAttachment file;
+
+		private Part(String name, String value, MailAttachment file) {
+
+			this.name = name;
+			this.value = value;
+			this.file = file;
+		}
+	}
+}
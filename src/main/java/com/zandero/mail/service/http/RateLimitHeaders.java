@@ -0,0 +1,100 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.http.Http;
+import com.zandero.utils.StringUtils;
+
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Reads rate limit back off from provider response headers
+ */
+public final class RateLimitHeaders {
+
+	/**
+	 * Too many requests
+	 */
+	public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * Reset values above are epoch seconds, below are seconds from now
+	 */
+	private static final long EPOCH_THRESHOLD = 1_000_000_000L;
+
+	private RateLimitHeaders() {
+		// hide constructor
+	}
+
+	/**
+	 * Time to wait before sending again as reported by provider,
+	 * taken from Retry-After header (seconds or HTTP date) or from X-RateLimit-Reset once X-RateLimit-Remaining reaches 0
+	 *
+	 * @param response provider response
+	 * @return time to wait or null if no limit is reported
+	 */
+	public static Duration getRetryAfter(Http.Response response) {
+
+		if (response == null) {
+			return null;
+		}
+
+		Duration retryAfter = parse(response.getHeader("Retry-After"));
+		if (retryAfter != null) {
+			return retryAfter;
+		}
+
+		String remaining = StringUtils.trimToNull(response.getHeader("X-RateLimit-Remaining"));
+		if ("0".equals(remaining) || response.getCode() == HTTP_TOO_MANY_REQUESTS) {
+			return parse(response.getHeader("X-RateLimit-Reset"));
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param response provider response
+	 * @return true if provider is throttling us
+	 */
+	public static boolean isThrottled(Http.Response response) {
+
+		return response != null &&
+		       (response.getCode() == HTTP_TOO_MANY_REQUESTS || response.getCode() == HttpURLConnection.HTTP_UNAVAILABLE && getRetryAfter(response) != null);
+	}
+
+	/**
+	 * @param value delay in seconds, epoch seconds or HTTP date
+	 * @return time to wait from now or null if value is not given or can't be parsed
+	 */
+	static Duration parse(String value) {
+
+		value = StringUtils.trimToNull(value);
+		if (value == null) {
+			return null;
+		}
+
+		try {
+			long seconds = Long.parseLong(value);
+			if (seconds > EPOCH_THRESHOLD) {
+				seconds = seconds - Instant.now().getEpochSecond();
+			}
+
+			return Duration.ofSeconds(Math.max(0, seconds));
+		}
+		catch (NumberFormatException e) {
+			// try with date
+		}
+
+		try {
+			Instant time = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+			Duration wait = Duration.between(Instant.now(), time);
+			return wait.isNegative() ? Duration.ZERO : wait;
+		}
+		catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+}
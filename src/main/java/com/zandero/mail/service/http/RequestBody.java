@@ -0,0 +1,43 @@
+package com.zandero.mail.service.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * HTTP request body written directly to the connection output stream,
+ * so large bodies never need to be held in memory as a whole
+ */
+public interface RequestBody {
+
+	/**
+	 * @return content type of body
+	 */
+	String getContentType();
+
+	/**
+	 * Writes body to output stream, might be called more than once (each call must produce the same body)
+	 *
+	 * @param out to write body to, should not be closed by body
+	 * @throws IOException in case body could not be written
+	 */
+	void writeTo(OutputStream out) throws IOException;
+
+	/**
+	 * @return body length in bytes or -1 if not known in advance (body is send chunked)
+	 */
+	default long length() {
+		return -1;
+	}
+
+	/**
+	 * Body of bytes already held in memory (known length)
+	 *
+	 * @param content     body content
+	 * @param contentType content type
+	 * @return request body
+	 */
+	static RequestBody of(byte[] content, String contentType) {
+
+		return new ByteArrayBody(content, contentType);
+	}
+}
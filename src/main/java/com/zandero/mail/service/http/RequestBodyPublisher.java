@@ -0,0 +1,284 @@
+package com.zandero.mail.service.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes request body to the JDK HTTP client while body is being written,
+ * writer is blocked while client has no demand, so only a few chunks are held in memory
+ */
+final class RequestBodyPublisher implements HttpRequest.BodyPublisher {
+
+	/**
+	 * Size of published chunks
+	 */
+	static final int CHUNK_SIZE = 16 * 1024;
+
+	private final RequestBody body;
+
+	private final Executor executor;
+
+	private final long timeout;
+
+	private volatile long bytesWritten;
+
+	private volatile long writeStart;
+
+	private volatile long writeEnd;
+
+	/**
+	 * @param requestBody body to publish
+	 * @param writer      executor to write body with (must not block on client threads)
+	 * @param demandTimeout max time in nanoseconds to wait for client demand
+	 */
+	RequestBodyPublisher(RequestBody requestBody, Executor writer, long demandTimeout) {
+
+		body = requestBody;
+		executor = writer;
+		timeout = demandTimeout;
+	}
+
+	@Override
+	public long contentLength() {
+
+		return body.length();
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+
+		BodyWriter writer = new BodyWriter(subscriber);
+		subscriber.onSubscribe(writer);
+
+		try {
+			executor.execute(writer);
+		}
+		catch (RuntimeException e) {
+			writer.cancel();
+			subscriber.onError(e);
+		}
+	}
+
+	/**
+	 * @return number of bytes written by last subscription
+	 */
+	long getBytesWritten() {
+
+		return bytesWritten;
+	}
+
+	/**
+	 * @return time in nanoseconds it took to write body or 0 if not written
+	 */
+	long getWriteTime() {
+
+		long end = writeEnd;
+		return end == 0 ? 0 : end - writeStart;
+	}
+
+	/**
+	 * @return nano time body was written or 0 if not written
+	 */
+	long getWrittenAt() {
+
+		return writeEnd;
+	}
+
+	/**
+	 * Subscription writing body in chunks, a chunk is published once client requested it
+	 */
+	private final class BodyWriter extends OutputStream implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final Condition demanded = lock.newCondition();
+
+		private long demand;
+
+		private boolean cancelled;
+
+		private Throwable failure;
+
+		private byte[] buffer;
+
+		private int count;
+
+		private long written;
+
+		private BodyWriter(Flow.Subscriber<? super ByteBuffer> bodySubscriber) {
+
+			subscriber = bodySubscriber;
+		}
+
+		@Override
+		public void request(long n) {
+
+			lock.lock();
+			try {
+				if (n <= 0) {
+					failure = new IllegalArgumentException("Requested: " + n + " chunks, must be greater than 0!");
+					cancelled = true;
+				}
+				else {
+					demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				}
+
+				demanded.signalAll();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void cancel() {
+
+			lock.lock();
+			try {
+				cancelled = true;
+				demanded.signalAll();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void run() {
+
+			writeStart = System.nanoTime();
+			writeEnd = 0;
+
+			try {
+				body.writeTo(this);
+				publish();
+			}
+			catch (IOException | RuntimeException e) {
+				finish();
+
+				Throwable error = getFailure(e);
+				if (error != null) {
+					subscriber.onError(error);
+				}
+
+				return;
+			}
+
+			finish();
+			subscriber.onComplete();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+
+			if (buffer == null || count == buffer.length) {
+				publish();
+			}
+
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+
+			Objects.checkFromIndexSize(off, len, b.length);
+
+			while (len > 0) {
+				if (buffer == null || count == buffer.length) {
+					publish();
+				}
+
+				int size = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, size);
+				count += size;
+				off += size;
+				len -= size;
+			}
+		}
+
+		/**
+		 * Publishes buffered chunk (if any) once client has demand and starts a new one,
+		 * published chunk is handed over to client as is
+		 */
+		private void publish() throws IOException {
+
+			if (count > 0) {
+				await();
+
+				ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, count);
+				written += count;
+				buffer = null;
+				count = 0;
+
+				subscriber.onNext(chunk);
+			}
+
+			if (buffer == null) {
+				buffer = new byte[CHUNK_SIZE];
+			}
+		}
+
+		private void await() throws IOException {
+
+			lock.lock();
+			try {
+				long wait = timeout;
+				while (demand == 0 && !cancelled) {
+					if (wait <= 0) {
+						throw new IOException("Timed out writing request body!");
+					}
+
+					wait = demanded.awaitNanos(wait);
+				}
+
+				if (cancelled) {
+					throw new IOException("Request body cancelled!");
+				}
+
+				demand--;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while writing request body!");
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return error to signal to client or null if client cancelled subscription
+		 */
+		private Throwable getFailure(Throwable error) {
+
+			lock.lock();
+			try {
+				if (failure != null) {
+					return failure;
+				}
+
+				return cancelled ? null : error;
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		private void finish() {
+
+			bytesWritten = written;
+			writeEnd = System.nanoTime();
+		}
+	}
+}
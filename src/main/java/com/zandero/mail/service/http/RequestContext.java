@@ -0,0 +1,86 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.utils.Assert;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable per service request constants: endpoint, (auth) headers and content type of in memory bodies,
+ * computed once so sending a message doesn't rebuild them
+ */
+public final class RequestContext {
+
+	private final String url;
+
+	private final URI uri;
+
+	private final Map<String, String> headers;
+
+	private final String contentType;
+
+	/**
+	 * @param endpoint       url requests are posted to
+	 * @param requestHeaders headers send with each request (copied)
+	 * @param bodyType       content type of bodies held in memory ({@link #body(byte[])})
+	 */
+	public RequestContext(String endpoint, Map<String, String> requestHeaders, String bodyType) {
+
+		Assert.notNullOrEmptyTrimmed(endpoint, "Missing url!");
+		Assert.notNullOrEmptyTrimmed(bodyType, "Missing content type!");
+
+		uri = URI.create(endpoint);
+		url = endpoint;
+		headers = requestHeaders == null ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(requestHeaders));
+		contentType = bodyType;
+	}
+
+	/**
+	 * @return endpoint url
+	 */
+	public String getUrl() {
+
+		return url;
+	}
+
+	/**
+	 * @return endpoint uri
+	 */
+	public URI getUri() {
+
+		return uri;
+	}
+
+	/**
+	 * @return unmodifiable request headers
+	 */
+	public Map<String, String> getHeaders() {
+
+		return headers;
+	}
+
+	/**
+	 * @return content type of bodies held in memory
+	 */
+	public String getContentType() {
+
+		return contentType;
+	}
+
+	/**
+	 * @param content body content
+	 * @return request body of given content with context content type
+	 */
+	public RequestBody body(byte[] content) {
+
+		return RequestBody.of(content, contentType);
+	}
+
+	@Override
+	public String toString() {
+
+		return url;
+	}
+}
@@ -0,0 +1,206 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.http.Http;
+import com.zandero.mail.service.MailSendStats;
+import com.zandero.utils.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Blocking HTTP calls streaming request body directly to the connection
+ */
+public final class StreamingHttp {
+
+	/**
+	 * Size of chunks in case body length is not known in advance
+	 */
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private StreamingHttp() {
+		// hide constructor
+	}
+
+	/**
+	 * Posts body to given url, body is written straight to the connection (chunked if length is not known)
+	 *
+	 * @param url     to post to
+	 * @param body    request body
+	 * @param headers request headers, content type is taken from body if not given
+	 * @return response
+	 * @throws IOException in case request failed
+	 */
+	public static Http.Response post(String url, RequestBody body, Map<String, String> headers) throws IOException {
+
+		return post(url, body, headers, null);
+	}
+
+	/**
+	 * Posts body to given url, body is written straight to the connection (chunked if length is not known)
+	 *
+	 * @param url     to post to
+	 * @param body    request body
+	 * @param headers request headers, content type is taken from body if not given
+	 * @param stats   to record connect, serialization and response time, bytes send and response status in (optional)
+	 * @return response
+	 * @throws IOException in case request failed
+	 */
+	public static Http.Response post(String url, RequestBody body, Map<String, String> headers, MailSendStats stats) throws IOException {
+
+		return post(url, body, headers, stats, HttpTransportConfig.DEFAULT_CONNECT_TIMEOUT, HttpTransportConfig.DEFAULT_READ_TIMEOUT);
+	}
+
+	/**
+	 * Posts body to given url, body is written straight to the connection (chunked if length is not known)
+	 *
+	 * @param url            to post to
+	 * @param body           request body
+	 * @param headers        request headers, content type is taken from body if not given
+	 * @param stats          to record connect, serialization and response time, bytes send and response status in (optional)
+	 * @param connectTimeout connect timeout
+	 * @param readTimeout    time to wait for response
+	 * @return response
+	 * @throws IOException in case request failed
+	 */
+	public static Http.Response post(String url,
+	                                 RequestBody body,
+	                                 Map<String, String> headers,
+	                                 MailSendStats stats,
+	                                 Duration connectTimeout,
+	                                 Duration readTimeout) throws IOException {
+
+		Assert.notNullOrEmptyTrimmed(url, "Missing url!");
+		Assert.notNull(body, "Missing request body!");
+		Assert.notNull(connectTimeout, "Missing connect timeout!");
+		Assert.notNull(readTimeout, "Missing read timeout!");
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setConnectTimeout((int) connectTimeout.toMillis());
+			connection.setReadTimeout((int) readTimeout.toMillis());
+
+			long length = body.length();
+			if (length >= 0) {
+				connection.setFixedLengthStreamingMode(length);
+			} else {
+				connection.setChunkedStreamingMode(CHUNK_SIZE);
+			}
+
+			if (headers != null) {
+				headers.forEach(connection::setRequestProperty);
+			}
+
+			if (connection.getRequestProperty("Content-Type") == null) {
+				connection.setRequestProperty("Content-Type", body.getContentType());
+			}
+
+			long start = System.nanoTime();
+			connection.connect(); // reused if a kept alive connection is available
+
+			long connected = System.nanoTime();
+			CountingOutputStream counter;
+			try (OutputStream out = connection.getOutputStream()) {
+				counter = new CountingOutputStream(out);
+				body.writeTo(counter);
+			}
+
+			long written = System.nanoTime();
+			int code = connection.getResponseCode();
+			String response = read(code >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream());
+
+			if (stats != null) {
+				stats.connectTime(connected - start)
+				     .serializationTime(written - connected)
+				     .responseTime(System.nanoTime() - written)
+				     .bytesSent(counter.getCount())
+				     .providerStatus(code);
+			}
+
+			// response is fully read so connection is kept alive for reuse
+			return new Http.Response(code, response, getHeaders(connection));
+		}
+		catch (IOException | RuntimeException e) {
+			connection.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Counts bytes written to the connection
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		private CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void close() {
+			// closed by connection owner
+		}
+
+		private long getCount() {
+			return count;
+		}
+	}
+
+	private static Map<String, List<String>> getHeaders(HttpURLConnection connection) {
+
+		Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		connection.getHeaderFields().forEach((name, values) -> {
+			if (name != null) { // status line
+				headers.put(name, values);
+			}
+		});
+
+		return headers;
+	}
+
+	private static String read(InputStream in) throws IOException {
+
+		if (in == null) {
+			return null;
+		}
+
+		try (InputStream input = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
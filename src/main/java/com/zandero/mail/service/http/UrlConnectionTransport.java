@@ -0,0 +1,76 @@
+package com.zandero.mail.service.http;
+
+import com.zandero.http.Http;
+import com.zandero.mail.service.MailSendStats;
+import com.zandero.utils.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Fallback transport based on HttpURLConnection (HTTP/1.1, JDK keep-alive cache),
+ * asynchronous posts block a thread of given executor
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+	private final HttpTransportConfig config;
+
+	/**
+	 * Transport with default settings
+	 */
+	public UrlConnectionTransport() {
+
+		this(new HttpTransportConfig());
+	}
+
+	/**
+	 * Transport with given timeouts (protocol version is ignored)
+	 *
+	 * @param transportConfig transport settings
+	 */
+	public UrlConnectionTransport(HttpTransportConfig transportConfig) {
+
+		Assert.notNull(transportConfig, "Missing transport config!");
+		config = transportConfig;
+	}
+
+	@Override
+	public Http.Response post(String url, RequestBody body, Map<String, String> headers, MailSendStats stats) throws IOException {
+
+		return StreamingHttp.post(url, body, headers, stats, config.getConnectTimeout(), config.getReadTimeout());
+	}
+
+	@Override
+	public CompletableFuture<Http.Response> postAsync(String url, RequestBody body, Map<String, String> headers, Executor executor) {
+
+		Assert.notNull(executor, "Missing executor!");
+
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return post(url, body, headers, null);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, executor);
+	}
+
+	@Override
+	public CompletableFuture<Http.Response> postAsync(RequestContext context, RequestBody body, MailSendStats stats, Executor executor) {
+
+		Assert.notNull(context, "Missing request context!");
+		Assert.notNull(executor, "Missing executor!");
+
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return post(context, body, stats);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, executor);
+	}
+}
@@ -0,0 +1,132 @@
+package com.zandero.mail.service.limit;
+
+import com.zandero.mail.service.MailExecutors;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits number of requests in flight,
+ * blocking callers wait for a permit while asynchronous callers are queued and started once a permit is released
+ * (or given up once their timeout expires)
+ */
+final class InFlightLimit {
+
+	private final int size;
+
+	private final Semaphore permits;
+
+	private final Queue<Waiting> waiting = new ConcurrentLinkedQueue<>();
+
+	InFlightLimit(int maxInFlight) {
+
+		size = maxInFlight;
+		permits = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Waits for a permit
+	 *
+	 * @param timeout max nanoseconds to wait
+	 * @return true if permit was acquired, false if timed out
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	boolean acquire(long timeout) throws InterruptedException {
+
+		return permits.tryAcquire(Math.max(0, timeout), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Runs task once a permit is acquired, task must not block as it might be run by thread releasing a permit
+	 *
+	 * @param task     to run holding a permit
+	 * @param timeout  max nanoseconds to wait
+	 * @param timedOut to run (without permit) in case no permit was acquired within timeout
+	 */
+	void whenAvailable(Runnable task, long timeout, Runnable timedOut) {
+
+		Waiting next = new Waiting(task);
+		waiting.add(next);
+		drain();
+
+		if (next.started.get()) {
+			return;
+		}
+
+		next.timeout = MailExecutors.getScheduler().schedule(() -> {
+			if (next.started.compareAndSet(false, true)) {
+				waiting.remove(next);
+				timedOut.run();
+			}
+		}, Math.max(0, timeout), TimeUnit.NANOSECONDS);
+
+		if (next.started.get()) {
+			next.timeout.cancel(false);
+		}
+	}
+
+	/**
+	 * Gives permit back or hands it over to a waiting task
+	 */
+	void release() {
+
+		permits.release();
+		drain();
+	}
+
+	/**
+	 * @return number of permits in use
+	 */
+	int getInFlight() {
+
+		return size - permits.availablePermits();
+	}
+
+	/**
+	 * @return number of tasks waiting for a permit
+	 */
+	int getWaiting() {
+
+		return waiting.size();
+	}
+
+	private void drain() {
+
+		while (!waiting.isEmpty() && permits.tryAcquire()) {
+
+			Waiting next = waiting.poll();
+			if (next == null || !next.started.compareAndSet(false, true)) {
+				// timed out in the meantime
+				permits.release();
+				continue;
+			}
+
+			ScheduledFuture<?> timeout = next.timeout;
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+
+			next.task.run();
+		}
+	}
+
+	/**
+	 * Task waiting for a permit, started either with permit or by timeout
+	 */
+	private static final class Waiting {
+
+		private final Runnable task;
+
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		private volatile ScheduledFuture<?> timeout;
+
+		private Waiting(Runnable task) {
+			this.task = task;
+		}
+	}
+}
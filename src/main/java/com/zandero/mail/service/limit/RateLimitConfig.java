@@ -0,0 +1,225 @@
+package com.zandero.mail.service.limit;
+
+import com.zandero.utils.Assert;
+
+import java.time.Duration;
+
+/**
+ * Rate limit and concurrency settings of a single provider
+ */
+public class RateLimitConfig {
+
+	/**
+	 * Default number of requests per second
+	 */
+	public static final double DEFAULT_RATE = 10;
+
+	/**
+	 * Default number of requests send out at once after an idle period
+	 */
+	public static final int DEFAULT_BURST = 10;
+
+	/**
+	 * Default max number of requests in flight
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 10;
+
+	/**
+	 * Default max time a send waits for rate limit or in flight permit
+	 */
+	public static final Duration DEFAULT_ACQUIRE_TIMEOUT = Duration.ofSeconds(30);
+
+	/**
+	 * Default pause when provider throttles without telling us how long to wait
+	 */
+	public static final Duration DEFAULT_THROTTLE_PAUSE = Duration.ofSeconds(1);
+
+	/**
+	 * Default max number of messages in a single request, provider sends each message on its own
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1;
+
+	private double rate = DEFAULT_RATE;
+
+	private int burst = DEFAULT_BURST;
+
+	private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+	private Duration acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+	private Duration throttlePause = DEFAULT_THROTTLE_PAUSE;
+
+	private boolean adaptive = true;
+
+	private double minRate = 1;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * Rate limit settings with defaults
+	 */
+	public RateLimitConfig() {
+	}
+
+	/**
+	 * Sets max (sustained) rate of requests
+	 *
+	 * @param requestsPerSecond max rate, must be greater than 0
+	 * @return config (self)
+	 */
+	public RateLimitConfig rate(double requestsPerSecond) {
+
+		Assert.isTrue(requestsPerSecond > 0, "Rate must be greater than 0!");
+		rate = requestsPerSecond;
+		return this;
+	}
+
+	/**
+	 * Sets number of requests allowed at once after an idle period
+	 *
+	 * @param value burst size, must be greater than 0
+	 * @return config (self)
+	 */
+	public RateLimitConfig burst(int value) {
+
+		Assert.isTrue(value > 0, "Burst must be greater than 0!");
+		burst = value;
+		return this;
+	}
+
+	/**
+	 * Sets max number of requests send out at the same time
+	 *
+	 * @param value max requests in flight, must be greater than 0
+	 * @return config (self)
+	 */
+	public RateLimitConfig maxInFlight(int value) {
+
+		Assert.isTrue(value > 0, "Max in flight must be greater than 0!");
+		maxInFlight = value;
+		return this;
+	}
+
+	/**
+	 * Sets max time a send waits for its turn, if exceeded send is rejected as throttled without calling provider
+	 *
+	 * @param value acquire timeout, must not be negative
+	 * @return config (self)
+	 */
+	public RateLimitConfig acquireTimeout(Duration value) {
+
+		Assert.notNull(value, "Missing acquire timeout!");
+		Assert.isFalse(value.isNegative(), "Acquire timeout must not be negative!");
+		acquireTimeout = value;
+		return this;
+	}
+
+	/**
+	 * Sets pause when provider throttles requests without a Retry-After hint
+	 *
+	 * @param value pause, must not be negative
+	 * @return config (self)
+	 */
+	public RateLimitConfig throttlePause(Duration value) {
+
+		Assert.notNull(value, "Missing throttle pause!");
+		Assert.isFalse(value.isNegative(), "Throttle pause must not be negative!");
+		throttlePause = value;
+		return this;
+	}
+
+	/**
+	 * When adaptive, rate is halved each time provider throttles us and increased step by step up to max rate on success
+	 *
+	 * @param value true to adapt rate, false to keep it fixed
+	 * @return config (self)
+	 */
+	public RateLimitConfig adaptive(boolean value) {
+
+		adaptive = value;
+		return this;
+	}
+
+	/**
+	 * Sets rate adaptive limiter never goes below
+	 *
+	 * @param requestsPerSecond min rate, must be greater than 0
+	 * @return config (self)
+	 */
+	public RateLimitConfig minRate(double requestsPerSecond) {
+
+		Assert.isTrue(requestsPerSecond > 0, "Min rate must be greater than 0!");
+		minRate = requestsPerSecond;
+		return this;
+	}
+
+	/**
+	 * Sets max number of messages (with same content) provider sends out in a single request when sending a batch,
+	 * each request of a batch waits for its own rate limit token and in flight permit
+	 *
+	 * @param value batch size (i.e. 1000 for SendGrid and single recipient messages), 1 if provider sends each message on its own
+	 * @return config (self)
+	 */
+	public RateLimitConfig batchSize(int value) {
+
+		Assert.isTrue(value > 0, "Batch size must be greater than 0!");
+		batchSize = value;
+		return this;
+	}
+
+	/**
+	 * @return max requests per second
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * @return burst size
+	 */
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @return max requests in flight
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @return max time send waits for its turn
+	 */
+	public Duration getAcquireTimeout() {
+		return acquireTimeout;
+	}
+
+	/**
+	 * @return pause when throttled without Retry-After hint
+	 */
+	public Duration getThrottlePause() {
+		return throttlePause;
+	}
+
+	/**
+	 * @return true if rate adapts to throttling
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @return max number of messages in a single request
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return min rate of adaptive limiter
+	 */
+	public double getMinRate() {
+		return Math.min(minRate, rate);
+	}
+}
@@ -0,0 +1,330 @@
+package com.zandero.mail.service.limit;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailBatches;
+import com.zandero.mail.service.MailExecutors;
+import com.zandero.mail.service.MailFailures;
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.MailService;
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mail service decorator limiting rate (token bucket) and number of requests in flight (concurrency governor)
+ *
+ * When provider throttles a request (or reports its rate limit was reached) sending is paused for the time
+ * given by the provider, with adaptive limiting the rate is also halved and then increased step by step up to max rate.
+ * Sends waiting longer than the acquire timeout are rejected as throttled without calling the provider.
+ */
+public class RateLimitedMailService implements MailService {
+
+	private static final Logger log = LoggerFactory.getLogger(RateLimitedMailService.class);
+
+	/**
+	 * Fraction of max rate rate is increased by on each successful send
+	 */
+	private static final double RATE_INCREASE = 0.05;
+
+	private final MailService service;
+
+	private final RateLimitConfig config;
+
+	private final TokenBucket bucket;
+
+	private final InFlightLimit inFlight;
+
+	/**
+	 * Limits given mail service with default settings
+	 *
+	 * @param mailService to be limited
+	 */
+	public RateLimitedMailService(MailService mailService) {
+
+		this(mailService, new RateLimitConfig());
+	}
+
+	/**
+	 * Limits given mail service
+	 *
+	 * @param mailService     to be limited
+	 * @param rateLimitConfig provider limits
+	 */
+	public RateLimitedMailService(MailService mailService, RateLimitConfig rateLimitConfig) {
+
+		Assert.notNull(mailService, "Missing mail service!");
+		Assert.notNull(rateLimitConfig, "Missing rate limit config!");
+
+		service = mailService;
+		config = rateLimitConfig;
+
+		bucket = new TokenBucket(config.getRate(), config.getBurst());
+		inFlight = new InFlightLimit(config.getMaxInFlight());
+	}
+
+	/**
+	 * Waits for its turn on calling thread and sends message out
+	 *
+	 * @param message to be send
+	 * @return send result or throttled result if send could not be started within acquire timeout
+	 */
+	@Override
+	public MailSendResult send(MailMessage message) {
+
+		Assert.notNull(message, "Missing mail message!");
+
+		long start = System.nanoTime();
+		long timeout = config.getAcquireTimeout().toNanos();
+
+		long wait = bucket.reserve();
+		if (wait > timeout) {
+			bucket.refund();
+			return MailSendResult.throttled("Rate limit exceeded", Duration.ofNanos(wait));
+		}
+
+		try {
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+
+			if (!inFlight.acquire(timeout - (System.nanoTime() - start))) {
+				bucket.refund();
+				return MailSendResult.throttled("Too many messages in flight", null);
+			}
+		}
+		catch (InterruptedException e) {
+			bucket.refund(); // send is not made ... token is not used
+			Thread.currentThread().interrupt();
+			return MailSendResult.fail("Interrupted while waiting for rate limit");
+		}
+
+		try {
+			return adapt(service.send(message));
+		}
+		finally {
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * Waits for its turn without blocking calling thread (delayed on shared scheduler and queued for in flight permit),
+	 * both waits together are limited by acquire timeout
+	 *
+	 * @param message  to be send
+	 * @param executor to execute send with
+	 * @return future completed with send result or throttled result if rate limit is exceeded
+	 */
+	@Override
+	public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+		Assert.notNull(message, "Missing mail message!");
+		Assert.notNull(executor, "Missing executor!");
+
+		long timeout = config.getAcquireTimeout().toNanos();
+
+		long wait = bucket.reserve();
+		if (wait > timeout) {
+			bucket.refund();
+			return CompletableFuture.completedFuture(MailSendResult.throttled("Rate limit exceeded", Duration.ofNanos(wait)));
+		}
+
+		CompletableFuture<MailSendResult> result = new CompletableFuture<>();
+
+		// permit is acquired on scheduler or releasing thread ... send itself is started on executor
+		Runnable start = () -> inFlight.whenAvailable(() -> {
+			try {
+				executor.execute(() -> sendAsync(message, executor, result));
+			}
+			catch (RuntimeException e) {
+				inFlight.release();
+				result.complete(MailFailures.getFailure(e));
+			}
+		}, timeout - wait, () -> {
+			bucket.refund();
+			result.complete(MailSendResult.throttled("Too many messages in flight", null));
+		});
+
+		if (wait > 0) {
+			MailExecutors.getScheduler().schedule(start, wait, TimeUnit.NANOSECONDS);
+		}
+		else {
+			start.run();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sends messages in requests of up to batch size messages with same content (see {@link RateLimitConfig#batchSize(int)}),
+	 * each request waits for its own rate limit token and in flight permit so provider native batching is kept
+	 *
+	 * @param messages to be send
+	 * @return list of send out results in same order as given messages
+	 */
+	@Override
+	public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+		Assert.notNull(messages, "Missing mail messages!");
+
+		List<MailMessage> list = new ArrayList<>(messages);
+		for (MailMessage message : list) {
+			Assert.notNull(message, "Missing mail message!");
+		}
+
+		MailSendResult[] results = new MailSendResult[list.size()];
+		for (List<Integer> group : MailBatches.group(list, config.getBatchSize(), null)) {
+
+			List<MailMessage> batch = new ArrayList<>(group.size());
+			for (Integer index : group) {
+				batch.add(list.get(index));
+			}
+
+			List<MailSendResult> batchResults = sendBatch(batch);
+			for (int index = 0; index < group.size(); index++) {
+				results[group.get(index)] = batchResults.get(index);
+			}
+		}
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Sends batch as a single request holding one rate limit token and one in flight permit
+	 */
+	private List<MailSendResult> sendBatch(List<MailMessage> batch) {
+
+		long start = System.nanoTime();
+		long timeout = config.getAcquireTimeout().toNanos();
+
+		long wait = bucket.reserve();
+		try {
+			if (wait > timeout) {
+				bucket.refund();
+				return throttled(batch.size(), "Rate limit exceeded", Duration.ofNanos(wait));
+			}
+
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+
+			if (!inFlight.acquire(timeout - (System.nanoTime() - start))) {
+				bucket.refund();
+				return throttled(batch.size(), "Too many messages in flight", null);
+			}
+		}
+		catch (InterruptedException e) {
+			bucket.refund(); // request is not made ... token is not used
+			Thread.currentThread().interrupt();
+			return Collections.nCopies(batch.size(), MailSendResult.fail("Interrupted while waiting for rate limit"));
+		}
+
+		try {
+			List<MailSendResult> results = service.sendAll(batch);
+
+			List<MailSendResult> adapted = new ArrayList<>(results.size());
+			MailSendResult last = null;
+			for (MailSendResult result : results) {
+				// batched messages share result ... adapt only once per result
+				adapted.add(result == last ? result : adapt(result));
+				last = result;
+			}
+
+			return adapted;
+		}
+		finally {
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * @return current rate in requests per second
+	 */
+	public double getRate() {
+
+		return bucket.getRate();
+	}
+
+	/**
+	 * @return number of requests in flight
+	 */
+	public int getInFlight() {
+
+		return inFlight.getInFlight();
+	}
+
+	/**
+	 * Closes underlying mail service
+	 */
+	@Override
+	public void close() {
+
+		service.close();
+	}
+
+	private void sendAsync(MailMessage message, Executor executor, CompletableFuture<MailSendResult> result) {
+
+		CompletableFuture<MailSendResult> future;
+		try {
+			future = service.sendAsync(message, executor);
+		}
+		catch (RuntimeException e) {
+			inFlight.release();
+			result.complete(MailFailures.getFailure(e));
+			return;
+		}
+
+		future.whenComplete((response, error) -> {
+			inFlight.release();
+			result.complete(error != null ? MailFailures.getFailure(error) : adapt(response));
+		});
+	}
+
+	private MailSendResult adapt(MailSendResult result) {
+
+		if (result == null) {
+			return null;
+		}
+
+		if (result.isThrottled()) {
+
+			Duration pause = result.getRetryAfter() != null ? result.getRetryAfter() : config.getThrottlePause();
+			bucket.pause(pause);
+
+			if (config.isAdaptive()) {
+				double rate = Math.max(config.getMinRate(), bucket.getRate() / 2);
+				bucket.setRate(rate);
+				log.warn("Throttled by provider, pausing for: {} ms, lowering rate to: {}/s", pause.toMillis(), rate);
+			}
+			else {
+				log.warn("Throttled by provider, pausing for: {} ms", pause.toMillis());
+			}
+
+			return result;
+		}
+
+		if (result.getRetryAfter() != null) {
+			// rate limit reached ... wait for reset
+			bucket.pause(result.getRetryAfter());
+		}
+		else if (config.isAdaptive() && result.isSuccessful() && bucket.getRate() < config.getRate()) {
+			bucket.setRate(Math.min(config.getRate(), bucket.getRate() + config.getRate() * RATE_INCREASE));
+		}
+
+		return result;
+	}
+
+	private static List<MailSendResult> throttled(int size, String message, Duration retryAfter) {
+
+		return Collections.nCopies(size, MailSendResult.throttled(message, retryAfter));
+	}
+}
@@ -0,0 +1,122 @@
+package com.zandero.mail.service.limit;
+
+import com.zandero.utils.Assert;
+
+import java.time.Duration;
+
+/**
+ * Token bucket rate limiter handing out reservations,
+ * caller waits for the returned time instead of the bucket blocking the caller
+ */
+public class TokenBucket {
+
+	private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+	private final int capacity;
+
+	private double rate;
+
+	private double tokens;
+
+	/**
+	 * Time tokens were last refilled, might be in the future while paused
+	 */
+	private long refilled;
+
+	/**
+	 * Creates full bucket
+	 *
+	 * @param tokensPerSecond refill rate
+	 * @param burst           bucket capacity
+	 */
+	public TokenBucket(double tokensPerSecond, int burst) {
+
+		Assert.isTrue(tokensPerSecond > 0, "Rate must be greater than 0!");
+		Assert.isTrue(burst > 0, "Burst must be greater than 0!");
+
+		capacity = burst;
+		rate = tokensPerSecond;
+		tokens = burst;
+		refilled = System.nanoTime();
+	}
+
+	/**
+	 * Takes a token, if none is available token is reserved in advance
+	 *
+	 * @return nanoseconds to wait before reserved token may be used, 0 if token is available now
+	 */
+	public synchronized long reserve() {
+
+		long now = System.nanoTime();
+		refill(now);
+
+		tokens -= 1;
+
+		long wait = Math.max(0, refilled - now);
+		if (tokens < 0) {
+			wait += (long) (-tokens / rate * NANOS_PER_SECOND);
+		}
+
+		return wait;
+	}
+
+	/**
+	 * Gives back a reserved token that was not used
+	 */
+	public synchronized void refund() {
+
+		tokens = Math.min(capacity, tokens + 1);
+	}
+
+	/**
+	 * Stops handing out tokens for given time, afterwards only a single request is let through
+	 * before tokens are refilled with current rate
+	 *
+	 * @param duration pause
+	 */
+	public synchronized void pause(Duration duration) {
+
+		long now = System.nanoTime();
+		refill(now);
+
+		refilled = Math.max(refilled, now + duration.toNanos());
+		tokens = Math.min(tokens, 1);
+	}
+
+	/**
+	 * Changes refill rate
+	 *
+	 * @param tokensPerSecond new rate
+	 */
+	public synchronized void setRate(double tokensPerSecond) {
+
+		Assert.isTrue(tokensPerSecond > 0, "Rate must be greater than 0!");
+
+		refill(System.nanoTime());
+		rate = tokensPerSecond;
+	}
+
+	/**
+	 * @return true if bucket is paused and hands out no tokens
+	 */
+	public synchronized boolean isPaused() {
+
+		return refilled > System.nanoTime();
+	}
+
+	/**
+	 * @return current refill rate in tokens per second
+	 */
+	public synchronized double getRate() {
+
+		return rate;
+	}
+
+	private void refill(long now) {
+
+		if (now > refilled) {
+			tokens = Math.min(capacity, tokens + (now - refilled) * rate / NANOS_PER_SECOND);
+			refilled = now;
+		}
+	}
+}
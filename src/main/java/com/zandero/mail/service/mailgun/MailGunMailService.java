@@ -1,27 +1,37 @@
 package com.zandero.mail.service.mailgun;
 
 import com.zandero.http.Http;
-import com.zandero.http.HttpUtils;
+import com.zandero.mail.EmailAddress;
+import com.zandero.mail.MailAttachment;
 import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailBatches;
+import com.zandero.mail.service.MailFailures;
 import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.MailSendStats;
 import com.zandero.mail.service.MailService;
+import com.zandero.mail.service.http.HttpClientTransport;
+import com.zandero.mail.service.http.HttpTransport;
+import com.zandero.mail.service.http.MultipartBody;
+import com.zandero.mail.service.http.RateLimitHeaders;
+import com.zandero.mail.service.http.RequestContext;
 import com.zandero.utils.Assert;
 import com.zandero.utils.InstantTimeUtils;
 import com.zandero.utils.StringUtils;
 import com.zandero.utils.extra.JsonUtils;
-import com.zandero.utils.extra.UrlUtils;
 import com.zandero.utils.extra.ValidatingUtils;
 import org.slf4j.LoggerFactory;
 
 import javax.mail.Message;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Mail gun mail API integration with MailMessage support
@@ -33,6 +43,13 @@ public class MailGunMailService implements MailService {
 	 */
 	public static final DateTimeFormatter SEND_AT_FORMAT = InstantTimeUtils.RFC_2822_DATE_TIME_FORMAT;
 
+	/**
+	 * Max number of recipients in a single MailGun batch send
+	 */
+	public static final int MAX_BATCH_RECIPIENTS = 1000;
+
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
 	private static final org.slf4j.Logger log = LoggerFactory.getLogger(MailGunMailService.class);
 
 	private final String domain;
@@ -41,8 +58,12 @@ public class MailGunMailService implements MailService {
 	private final String defaultFrom;
 	private final String defaultFromName;
 
+	private final HttpTransport transport;
+
+	private final RequestContext context;
+
 	/**
-	 * Initializes MailGun mailing service (API wrapper)
+	 * Initializes MailGun mailing service (API wrapper) using default HTTP transport
 	 * @param mailGunApiKey api key
 	 * @param domainName domain name
 	 * @param defaultEmail default from email if not from email is given in message
@@ -50,25 +71,45 @@ public class MailGunMailService implements MailService {
 	 */
 	public MailGunMailService(String mailGunApiKey, String domainName, String defaultEmail, String defaultName) {
 
+		this(mailGunApiKey, domainName, defaultEmail, defaultName, HttpClientTransport.getDefault());
+	}
+
+	/**
+	 * Initializes MailGun mailing service (API wrapper)
+	 * @param mailGunApiKey api key
+	 * @param domainName domain name
+	 * @param defaultEmail default from email if not from email is given in message
+	 * @param defaultName default from name if no from name is given in message
+	 * @param httpTransport transport to post requests with, closed when service is closed
+	 */
+	public MailGunMailService(String mailGunApiKey, String domainName, String defaultEmail, String defaultName, HttpTransport httpTransport) {
+
 		Assert.notNullOrEmptyTrimmed(mailGunApiKey, "Missing api key!");
+		Assert.notNull(httpTransport, "Missing HTTP transport!");
 
 		Assert.notNullOrEmptyTrimmed(domainName, "Missing mail domain name!");
 		Assert.isTrue(ValidatingUtils.isDomain(domainName), "Invalid domain name!");
 
 		Assert.notNullOrEmptyTrimmed(defaultEmail, "Missing default from email!");
-		Assert.isTrue(ValidatingUtils.isEmail(defaultEmail), "Invalid default from email!");
+		Assert.isTrue(EmailAddress.isValid(defaultEmail), "Invalid default from email!");
 
 		domain = StringUtils.trim(domainName);
 		apiKey = StringUtils.trim(mailGunApiKey);
 
 		defaultFrom = StringUtils.trim(defaultEmail).toLowerCase();
 		defaultFromName = StringUtils.trimToNull(defaultName);
+		transport = httpTransport;
+
+		String auth = Base64.getEncoder().encodeToString(("api:" + apiKey).getBytes(StandardCharsets.UTF_8));
+		context = new RequestContext("https://api.mailgun.net/v3/" + domain + "/messages",
+		                             Collections.singletonMap("Authorization", "Basic " + auth),
+		                             FORM_CONTENT_TYPE);
 
 		log.info("Initializing MailGun with key: " + StringUtils.trimTextDown(apiKey, 9, "***"));
 	}
 
 	/**
-	 * Sends mail via MailGun service
+	 * Sends mail via MailGun service as multipart/form-data request streamed to the connection
 	 * @param message to be send
 	 * @return mail gun send result
 	 */
@@ -76,6 +117,179 @@ public class MailGunMailService implements MailService {
 	public MailSendResult send(MailMessage message) {
 
 		Assert.notNull(message, "Missing mail message!");
+
+		if (MailFailures.allExcluded(message)) {
+			return MailFailures.getExcludedFailure();
+		}
+
+		return send(() -> getBody(message), System.nanoTime());
+	}
+
+	/**
+	 * Sends mail via MailGun service without blocking calling thread,
+	 * as multipart/form-data request (attachments included) streamed to the connection
+	 * @param message to be send
+	 * @param executor to complete result with
+	 * @return future completed with mail gun send result
+	 */
+	@Override
+	public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+		Assert.notNull(message, "Missing mail message!");
+		Assert.notNull(executor, "Missing executor!");
+
+		if (MailFailures.allExcluded(message)) {
+			return CompletableFuture.completedFuture(MailFailures.getExcludedFailure());
+		}
+
+		long start = System.nanoTime();
+		MailSendStats stats = new MailSendStats();
+		try {
+			MultipartBody body = getBody(message);
+			stats.buildTime(System.nanoTime() - start);
+
+			return transport.postAsync(context, body, stats, executor)
+			                .thenApply(response -> getResult(response).withStats(stats.totalTime(System.nanoTime() - start)))
+			                .exceptionally(e -> {
+				                log.error("Failed to send out mail!", e);
+				                return MailFailures.getFailure(e).withStats(stats.totalTime(System.nanoTime() - start));
+			                });
+		}
+		catch (Exception e) {
+			log.error("Failed to send out mail!", e);
+			return CompletableFuture.completedFuture(MailFailures.getFailure(e));
+		}
+	}
+
+	/**
+	 * Sends out messages with same content and a single TO recipient as MailGun batch send,
+	 * using recipient variables each recipient receives an individual copy of the message
+	 * @param messages to be send
+	 * @return list of send out results in same order as given messages, batched messages share the result
+	 */
+	@Override
+	public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+		Assert.notNull(messages, "Missing mail messages!");
+
+		List<MailMessage> list = new ArrayList<>(messages);
+		for (MailMessage message : list) {
+			Assert.notNull(message, "Missing mail message!");
+			message.defaultFrom(defaultFrom, defaultFromName); // if from is set then this is ignored
+		}
+
+		MailSendResult[] results = new MailSendResult[list.size()];
+		for (List<Integer> group : MailBatches.group(list, MAX_BATCH_RECIPIENTS, MailGunMailService::isBatchable)) {
+
+			MailSendResult result;
+			if (group.size() == 1) {
+				result = send(list.get(group.get(0)));
+			}
+			else {
+				List<MailMessage> batch = new ArrayList<>(group.size());
+				for (Integer index : group) {
+					batch.add(list.get(index));
+				}
+
+				result = sendBatch(batch);
+			}
+
+			for (Integer index : group) {
+				results[index] = result;
+			}
+		}
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Only messages with a single TO and no CC or BCC recipients can be batched,
+	 * as batched recipients don't see each other
+	 */
+	private static boolean isBatchable(MailMessage message) {
+
+		Map<String, String> to = message.getToEmails();
+		Map<String, String> cc = message.getCcEmails();
+		Map<String, String> bcc = message.getBccEmails();
+		return to != null && to.size() == 1 &&
+		       (cc == null || cc.isEmpty()) &&
+		       (bcc == null || bcc.isEmpty());
+	}
+
+	private MailSendResult sendBatch(List<MailMessage> batch) {
+
+		return send(() -> {
+			Map<String, String> formParams = getFormParams(batch.get(0));
+
+			List<String> recipients = new ArrayList<>(batch.size());
+			Map<String, Map<String, String>> variables = new LinkedHashMap<>();
+
+			for (MailMessage message : batch) {
+				for (Map.Entry<String, String> recipient : message.getToEmails().entrySet()) {
+
+					String email = recipient.getKey();
+					String name = StringUtils.isNullOrEmptyTrimmed(recipient.getValue()) ? email : recipient.getValue();
+
+					recipients.add(email);
+					variables.put(email, Collections.singletonMap("name", name));
+				}
+			}
+
+			formParams.put("to", StringUtils.join(recipients, ", "));
+			formParams.put("recipient-variables", JsonUtils.toJson(variables));
+
+			return getBody(formParams, batch.get(0).getAttachments());
+		}, System.nanoTime());
+	}
+
+	private MailSendResult send(Callable<MultipartBody> builder, long start) {
+
+		MailSendStats stats = new MailSendStats();
+		MailSendResult result;
+		try {
+			MultipartBody body = builder.call();
+			stats.buildTime(System.nanoTime() - start);
+
+			Http.Response response = transport.post(context, body, stats);
+			result = getResult(response);
+		}
+		catch (Exception e) {
+			log.error("Failed to send out mail!", e);
+			result = MailFailures.getFailure(e);
+		}
+
+		return result.withStats(stats.totalTime(System.nanoTime() - start));
+	}
+
+	/**
+	 * Composes MailMessage into MailGun API multipart/form-data request body, attachments are streamed when body is written
+	 * @param message to be send
+	 * @return request body
+	 */
+	MultipartBody getBody(MailMessage message) {
+
+		return getBody(getFormParams(message), message.getAttachments());
+	}
+
+	private static MultipartBody getBody(Map<String, String> formParams, List<MailAttachment> attachments) {
+
+		MultipartBody body = new MultipartBody().fields(formParams);
+		if (attachments != null) {
+			for (MailAttachment attachment : attachments) {
+				body.file("attachment", attachment);
+			}
+		}
+
+		return body;
+	}
+
+	/**
+	 * Composes MailMessage into MailGun API form parameters
+	 * @param message to be send
+	 * @return form parameters
+	 */
+	Map<String, String> getFormParams(MailMessage message) {
+
 		message.defaultFrom(defaultFrom, defaultFromName); // if from is set then this is ignored
 
 		// format to name <email>
@@ -88,62 +302,64 @@ public class MailGunMailService implements MailService {
 		String ccRecipients = message.getEmailsAsString(Message.RecipientType.CC);
 		String bccRecipients = message.getEmailsAsString(Message.RecipientType.BCC);
 
-		try {
-			String url = "https://api.mailgun.net/v3/" + domain + "/messages";
-
-			Map<String, String> formParams = new HashMap<>();
-			formParams.put("from", from);
-			formParams.put("to", recipients);
-			if (ccRecipients != null) {
-				formParams.put("cc", recipients);
-			}
+		Map<String, String> formParams = new HashMap<>();
+		formParams.put("from", from);
+		formParams.put("to", recipients);
+		if (ccRecipients != null) {
+			formParams.put("cc", ccRecipients);
+		}
 
-			if (bccRecipients != null) {
-				formParams.put("bcc", recipients);
-			}
+		if (bccRecipients != null) {
+			formParams.put("bcc", bccRecipients);
+		}
 
-			formParams.put("subject", message.getSubject());
+		formParams.put("subject", message.getSubject());
 
-			String content = message.getContent();
-			if (!StringUtils.isNullOrEmptyTrimmed(content)) {
-				formParams.put("text", content);
-			}
+		String content = message.getContent();
+		if (!StringUtils.isNullOrEmptyTrimmed(content)) {
+			formParams.put("text", content);
+		}
 
-			String htmlContent = message.getHtmlContent();
-			if (!StringUtils.isNullOrEmptyTrimmed(htmlContent)) {
-				formParams.put("html", htmlContent);
-			}
+		String htmlContent = message.getHtmlContent();
+		if (!StringUtils.isNullOrEmptyTrimmed(htmlContent)) {
+			formParams.put("html", htmlContent);
+		}
 
-			if (message.getSendAt() != null &&
-			    message.getSendAt().isBefore(Instant.now().plus(72, ChronoUnit.HOURS))) { // send in the future
+		if (message.getSendAt() != null &&
+		    message.getSendAt().isBefore(Instant.now().plus(72, ChronoUnit.HOURS))) { // send in the future
 
-				//TODO: update to RFC_2822_DATE_TIME_FORMAT when new release of zandero.utils lib
-				formParams.put("o:deliverytime", InstantTimeUtils.format(message.getSendAt(), SEND_AT_FORMAT));  // "Fri, 25 May 2020 23:10:10 -0000"
-			}
+			//TODO: update to RFC_2822_DATE_TIME_FORMAT when new release of zandero.utils lib
+			formParams.put("o:deliverytime", InstantTimeUtils.format(message.getSendAt(), SEND_AT_FORMAT));  // "Fri, 25 May 2020 23:10:10 -0000"
+		}
 
-			// TODO: implement attachments
+		// attachments are added as files to multipart body
+		return formParams;
+	}
 
-			Map<String, String> headers = new HashMap<>();
-			String encoded = Base64.getEncoder().encodeToString(("api:" + apiKey).getBytes(HttpUtils.UTF_8));
-			headers.put("Authorization", "Basic " + encoded);
-			headers.put("Content-Type", "application/x-www-form-urlencoded");
+	/**
+	 * Closes HTTP transport
+	 */
+	@Override
+	public void close() {
 
-			String body = UrlUtils.composeQuery(formParams);
-			Http.Response response = Http.post(url, body, null, headers);
+		transport.close();
+	}
 
-			if (response.not(HttpURLConnection.HTTP_OK)) {
-				log.error("Failed to send out mail: ({}) {}", response.getCode(), response.getResponse());
-				return MailSendResult.fail();
-			}
+	private MailSendResult getResult(Http.Response response) {
 
-			// get tracking id
-			String messageId = getMessageId(response.getResponse());
-			return MailSendResult.ok(messageId);
+		if (RateLimitHeaders.isThrottled(response)) {
+			log.warn("MailGun is throttling requests: ({}) {}", response.getCode(), response.getResponse());
+			return MailSendResult.throttled(response.getResponse(), RateLimitHeaders.getRetryAfter(response));
 		}
-		catch (Exception e) {
-			log.error("Failed to send out mail!", e);
-			return MailSendResult.fail();
+
+		if (response.not(HttpURLConnection.HTTP_OK)) {
+			log.error("Failed to send out mail: ({}) {}", response.getCode(), response.getResponse());
+			return MailFailures.getFailure(response.getCode(), response.getResponse());
 		}
+
+		// get tracking id
+		String messageId = getMessageId(response.getResponse());
+		return MailSendResult.ok(messageId, RateLimitHeaders.getRetryAfter(response));
 	}
 
 	// {  "id": "<20180611195133.1.10869F48B8AD29FF@yourdomain.com>",  "message": "Queued. Thank you."}
@@ -0,0 +1,141 @@
+package com.zandero.mail.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non negative values with log-linear buckets (4 buckets per power of 2, ~25% precision)
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKETS = 4;
+
+	private static final int BUCKETS = 62 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records value
+	 *
+	 * @param value to record, negative values are recorded as 0
+	 */
+	public void record(long value) {
+
+		long recorded = Math.max(0, value);
+
+		counts.incrementAndGet(getIndex(recorded));
+		count.increment();
+		sum.add(recorded);
+		max.accumulateAndGet(recorded, Math::max);
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return sum of recorded values
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return largest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return mean of recorded values or 0 if none were recorded
+	 */
+	public double getMean() {
+
+		long total = getCount();
+		return total == 0 ? 0 : (double) getSum() / total;
+	}
+
+	/**
+	 * @param percentile between 0 and 1, i.e. 0.99 for 99th percentile
+	 * @return upper bound of bucket holding given percentile or 0 if no values were recorded
+	 */
+	public long getPercentile(double percentile) {
+
+		return getPercentile(percentile, this);
+	}
+
+	/**
+	 * Percentile over values recorded in all given histograms
+	 *
+	 * @param percentile between 0 and 1, i.e. 0.99 for 99th percentile
+	 * @param histograms to merge
+	 * @return upper bound of bucket holding given percentile or 0 if no values were recorded
+	 */
+	public static long getPercentile(double percentile, Histogram... histograms) {
+
+		long[] merged = new long[BUCKETS];
+		long total = 0;
+		long largest = 0;
+		for (Histogram histogram : histograms) {
+			for (int index = 0; index < BUCKETS; index++) {
+				long value = histogram.counts.get(index);
+				merged[index] += value;
+				total += value;
+			}
+
+			largest = Math.max(largest, histogram.getMax());
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, percentile)) * total));
+		long seen = 0;
+		for (int index = 0; index < BUCKETS; index++) {
+			seen += merged[index];
+			if (seen >= rank) {
+				return Math.min(getUpperBound(index), largest);
+			}
+		}
+
+		return largest;
+	}
+
+	/**
+	 * Values below 4 get own bucket, larger values are split into 4 buckets per power of 2
+	 */
+	static int getIndex(long value) {
+
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 2
+		int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+		return Math.min(BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + sub);
+	}
+
+	static long getUpperBound(int index) {
+
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int exponent = index / SUB_BUCKETS + 1;
+		int sub = index % SUB_BUCKETS;
+		long width = 1L << (exponent - 2);
+		return (SUB_BUCKETS + sub) * width + width - 1;
+	}
+}
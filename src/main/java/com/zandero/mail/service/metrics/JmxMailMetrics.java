@@ -0,0 +1,144 @@
+package com.zandero.mail.service.metrics;
+
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Mail metrics kept in memory and exposed over JMX (no dependencies), one MXBean per provider:
+ * {@code com.zandero.mail:type=MailService,provider=<name>}
+ */
+public class JmxMailMetrics implements MailMetrics {
+
+	private static final Logger log = LoggerFactory.getLogger(JmxMailMetrics.class);
+
+	/**
+	 * JMX domain metrics are registered in
+	 */
+	public static final String DOMAIN = "com.zandero.mail";
+
+	/**
+	 * Default window of rate, latency and payload metrics
+	 */
+	public static final Duration DEFAULT_WINDOW = Duration.ofMinutes(1);
+
+	private static final JmxMailMetrics DEFAULT = new JmxMailMetrics(DEFAULT_WINDOW, true);
+
+	private final long window;
+
+	private final boolean register;
+
+	private final Map<String, ProviderMetrics> providers = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates metrics registering provider MXBeans with platform MBean server
+	 *
+	 * @param recentWindow window of rate, latency and payload metrics
+	 */
+	public JmxMailMetrics(Duration recentWindow) {
+
+		this(recentWindow, true);
+	}
+
+	/**
+	 * Creates metrics
+	 *
+	 * @param recentWindow window of rate, latency and payload metrics
+	 * @param registerMBeans true to register provider MXBeans with platform MBean server, false to keep metrics in memory only
+	 */
+	public JmxMailMetrics(Duration recentWindow, boolean registerMBeans) {
+
+		Assert.notNull(recentWindow, "Missing metrics window!");
+		Assert.isTrue(recentWindow.toNanos() > 0, "Metrics window must be greater than 0!");
+
+		window = recentWindow.toNanos();
+		register = registerMBeans;
+	}
+
+	/**
+	 * @return shared metrics used when no metrics are given explicitly
+	 */
+	public static JmxMailMetrics getDefault() {
+
+		return DEFAULT;
+	}
+
+	@Override
+	public void record(String provider, MailSendResult result, long latency) {
+
+		getProvider(provider).record(result, latency);
+	}
+
+	@Override
+	public void gauge(String provider, String name, Supplier<Number> value) {
+
+		Assert.notNullOrEmptyTrimmed(name, "Missing gauge name!");
+		Assert.notNull(value, "Missing gauge value!");
+
+		getProvider(provider).gauge(name, value);
+	}
+
+	@Override
+	public void remove(String provider) {
+
+		if (providers.remove(provider) != null && register) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(getName(provider));
+			}
+			catch (JMException e) {
+				log.debug("Failed to unregister mail metrics of: {}, {}", provider, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @param provider name of mail service (provider)
+	 * @return metrics of provider or null if none were recorded
+	 */
+	public ProviderMetricsMXBean get(String provider) {
+
+		return providers.get(provider);
+	}
+
+	private ProviderMetrics getProvider(String provider) {
+
+		Assert.notNullOrEmptyTrimmed(provider, "Missing provider name!");
+		return providers.computeIfAbsent(provider, this::create);
+	}
+
+	private ProviderMetrics create(String provider) {
+
+		ProviderMetrics metrics = new ProviderMetrics(window);
+		if (register) {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = getName(provider);
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+
+				server.registerMBean(metrics, name);
+			}
+			catch (JMException e) {
+				log.warn("Failed to register mail metrics of: {}, {}", provider, e.getMessage());
+			}
+		}
+
+		return metrics;
+	}
+
+	private static ObjectName getName(String provider) throws JMException {
+
+		return new ObjectName(DOMAIN + ":type=MailService,provider=" + ObjectName.quote(provider));
+	}
+}
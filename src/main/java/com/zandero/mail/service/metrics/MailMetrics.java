@@ -0,0 +1,40 @@
+package com.zandero.mail.service.metrics;
+
+import com.zandero.mail.service.MailSendResult;
+
+import java.util.function.Supplier;
+
+/**
+ * Metrics registry mail sends are recorded to
+ *
+ * {@link JmxMailMetrics} is used by default, implement this interface to bridge to other registries (Micrometer, Dropwizard ...),
+ * i.e. as a counter tagged with provider and {@link SendOutcome}, a timer for latency and a distribution summary for payload size.
+ */
+public interface MailMetrics {
+
+	/**
+	 * Records finished send
+	 *
+	 * @param provider name of mail service (provider) message was send with
+	 * @param result   send result, with {@link MailSendResult#getStats()} holding payload size and provider status
+	 * @param latency  duration of send in nanoseconds
+	 */
+	void record(String provider, MailSendResult result, long latency);
+
+	/**
+	 * Registers value sampled when metrics are read (in flight sends, pool utilization ...)
+	 *
+	 * @param provider name of mail service (provider)
+	 * @param name     gauge name
+	 * @param value    supplier of current value
+	 */
+	void gauge(String provider, String name, Supplier<Number> value);
+
+	/**
+	 * Removes all metrics of provider (mail service was closed)
+	 *
+	 * @param provider name of mail service (provider)
+	 */
+	default void remove(String provider) {
+	}
+}
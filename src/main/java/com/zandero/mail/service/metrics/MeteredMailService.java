@@ -0,0 +1,189 @@
+package com.zandero.mail.service.metrics;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.MailService;
+import com.zandero.mail.service.smtp.SmtpConnections;
+import com.zandero.mail.service.smtp.SmtpMailService;
+import com.zandero.utils.Assert;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mail service decorator recording sends of underlying service:
+ * outcome counts, latency, payload size and sends in flight (and connection pool utilization of SMTP services)
+ */
+public class MeteredMailService implements MailService {
+
+	/**
+	 * Gauge of sends in flight
+	 */
+	public static final String IN_FLIGHT = "inFlight";
+
+	/**
+	 * Gauge of SMTP connections in use
+	 */
+	public static final String POOL_ACTIVE = "pool.active";
+
+	/**
+	 * Gauge of idle SMTP connections
+	 */
+	public static final String POOL_IDLE = "pool.idle";
+
+	/**
+	 * Gauge of share of SMTP connections in use
+	 */
+	public static final String POOL_UTILIZATION = "pool.utilization";
+
+	private final MailService service;
+
+	private final String provider;
+
+	private final MailMetrics metrics;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * Records sends to default (JMX) metrics
+	 *
+	 * @param mailService  to be metered
+	 * @param providerName name sends are recorded under (i.e. "sendgrid")
+	 */
+	public MeteredMailService(MailService mailService, String providerName) {
+
+		this(mailService, providerName, JmxMailMetrics.getDefault());
+	}
+
+	/**
+	 * Records sends to given metrics
+	 *
+	 * @param mailService  to be metered
+	 * @param providerName name sends are recorded under (i.e. "sendgrid")
+	 * @param mailMetrics  metrics registry
+	 */
+	public MeteredMailService(MailService mailService, String providerName, MailMetrics mailMetrics) {
+
+		Assert.notNull(mailService, "Missing mail service!");
+		Assert.notNullOrEmptyTrimmed(providerName, "Missing provider name!");
+		Assert.notNull(mailMetrics, "Missing mail metrics!");
+
+		service = mailService;
+		provider = providerName;
+		metrics = mailMetrics;
+
+		metrics.gauge(provider, IN_FLIGHT, inFlight::get);
+
+		if (service instanceof SmtpMailService) {
+			SmtpConnections pool = ((SmtpMailService) service).getConnections();
+			metrics.gauge(provider, POOL_ACTIVE, pool::getActive);
+			metrics.gauge(provider, POOL_IDLE, pool::getIdle);
+			metrics.gauge(provider, POOL_UTILIZATION, () -> (double) pool.getActive() / pool.getSize());
+		}
+	}
+
+	@Override
+	public MailSendResult send(MailMessage message) {
+
+		long start = System.nanoTime();
+		inFlight.incrementAndGet();
+		MailSendResult result = null;
+		try {
+			result = service.send(message);
+			return result;
+		}
+		finally {
+			inFlight.decrementAndGet();
+			metrics.record(provider, result, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+		long start = System.nanoTime();
+		inFlight.incrementAndGet();
+
+		CompletableFuture<MailSendResult> future;
+		try {
+			future = service.sendAsync(message, executor);
+		}
+		catch (RuntimeException e) {
+			inFlight.decrementAndGet();
+			metrics.record(provider, null, System.nanoTime() - start);
+			throw e;
+		}
+
+		return future.whenComplete((result, error) -> {
+			inFlight.decrementAndGet();
+			metrics.record(provider, result, System.nanoTime() - start);
+		});
+	}
+
+	/**
+	 * Records a send for each message, with latency of the provider request the message was send with.
+	 * Batched messages share the result (and thus the request), its payload size is recorded once.
+	 * Requests without send stats are timed as an equal share of the whole call.
+	 *
+	 * @param messages to be send
+	 * @return list of send out results in same order as given messages
+	 */
+	@Override
+	public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+		long start = System.nanoTime();
+		inFlight.incrementAndGet();
+		List<MailSendResult> results;
+		try {
+			results = service.sendAll(messages);
+		}
+		finally {
+			inFlight.decrementAndGet();
+		}
+
+		long latency = System.nanoTime() - start;
+
+		int requests = 0;
+		MailSendResult last = null;
+		for (MailSendResult result : results) {
+			if (requests == 0 || result != last) {
+				requests++;
+				last = result;
+			}
+		}
+
+		last = null;
+		for (MailSendResult result : results) {
+
+			long total = result != null ? result.getStats().getTotalTime().toNanos() : 0;
+			long requestLatency = total > 0 ? total : latency / requests;
+
+			if (result == null || result != last) {
+				metrics.record(provider, result, requestLatency);
+				last = result;
+			}
+			else { // same request ... payload already recorded
+				metrics.record(provider, result.withStats(null), requestLatency);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Closes underlying service and removes its metrics
+	 */
+	@Override
+	public void close() {
+
+		try {
+			service.close();
+		}
+		finally {
+			metrics.remove(provider);
+		}
+	}
+}
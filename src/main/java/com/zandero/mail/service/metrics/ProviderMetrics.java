@@ -0,0 +1,207 @@
+package com.zandero.mail.service.metrics;
+
+import com.zandero.mail.service.MailSendResult;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Send metrics of a single provider, latency and payload histograms are rotated each window
+ * so percentiles reflect recent sends (current and previous window)
+ */
+final class ProviderMetrics implements ProviderMetricsMXBean {
+
+	private final long window;
+
+	private final LongAdder[] outcomes = new LongAdder[SendOutcome.values().length];
+
+	private final LongAdder bytes = new LongAdder();
+
+	private final Map<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+
+	private volatile Window current;
+
+	private volatile Window previous;
+
+	ProviderMetrics(long windowNanos) {
+
+		window = windowNanos;
+
+		for (int i = 0; i < outcomes.length; i++) {
+			outcomes[i] = new LongAdder();
+		}
+
+		current = new Window(System.nanoTime());
+		previous = new Window(current.start - window);
+	}
+
+	void record(MailSendResult result, long latency) {
+
+		SendOutcome outcome = SendOutcome.of(result);
+		outcomes[outcome.ordinal()].increment();
+
+		Window recent = getCurrent();
+		recent.latency.record(TimeUnit.NANOSECONDS.toMicros(latency));
+		if (outcome != SendOutcome.SUCCESS) {
+			recent.failures.increment();
+		}
+
+		long sent = result != null ? result.getStats().getBytesSent() : -1;
+		if (sent >= 0) {
+			recent.payload.record(sent);
+			bytes.add(sent);
+		}
+	}
+
+	void gauge(String name, Supplier<Number> value) {
+
+		gauges.put(name, value);
+	}
+
+	@Override
+	public long getSent() {
+
+		long total = 0;
+		for (LongAdder outcome : outcomes) {
+			total += outcome.sum();
+		}
+
+		return total;
+	}
+
+	@Override
+	public long getSucceeded() {
+		return outcomes[SendOutcome.SUCCESS.ordinal()].sum();
+	}
+
+	@Override
+	public long getThrottled() {
+		return outcomes[SendOutcome.THROTTLED.ordinal()].sum();
+	}
+
+	@Override
+	public long getTransientFailures() {
+		return outcomes[SendOutcome.TRANSIENT_FAILURE.ordinal()].sum();
+	}
+
+	@Override
+	public long getPermanentFailures() {
+		return outcomes[SendOutcome.PERMANENT_FAILURE.ordinal()].sum();
+	}
+
+	@Override
+	public double getSendRate() {
+
+		Window recent = getCurrent();
+		long sends = recent.latency.getCount() + previous.latency.getCount();
+		double seconds = (System.nanoTime() - recent.start + window) / 1e9;
+		return sends / seconds;
+	}
+
+	@Override
+	public double getFailureRate() {
+
+		Window recent = getCurrent();
+		long sends = recent.latency.getCount() + previous.latency.getCount();
+		return sends == 0 ? 0 : (double) (recent.failures.sum() + previous.failures.sum()) / sends;
+	}
+
+	@Override
+	public double getLatencyP50() {
+		return getLatency(0.5);
+	}
+
+	@Override
+	public double getLatencyP95() {
+		return getLatency(0.95);
+	}
+
+	@Override
+	public double getLatencyP99() {
+		return getLatency(0.99);
+	}
+
+	@Override
+	public double getLatencyMax() {
+
+		Window recent = getCurrent();
+		return Math.max(recent.latency.getMax(), previous.latency.getMax()) / 1000.0;
+	}
+
+	@Override
+	public double getPayloadMean() {
+
+		Window recent = getCurrent();
+		long count = recent.payload.getCount() + previous.payload.getCount();
+		return count == 0 ? 0 : (double) (recent.payload.getSum() + previous.payload.getSum()) / count;
+	}
+
+	@Override
+	public long getPayloadP99() {
+
+		Window recent = getCurrent();
+		return Histogram.getPercentile(0.99, recent.payload, previous.payload);
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytes.sum();
+	}
+
+	@Override
+	public Map<String, Double> getGauges() {
+
+		Map<String, Double> values = new TreeMap<>();
+		gauges.forEach((name, supplier) -> {
+			Number value = supplier.get();
+			values.put(name, value == null ? Double.NaN : value.doubleValue());
+		});
+
+		return values;
+	}
+
+	private double getLatency(double percentile) {
+
+		Window recent = getCurrent();
+		return Histogram.getPercentile(percentile, recent.latency, previous.latency) / 1000.0;
+	}
+
+	private Window getCurrent() {
+
+		Window recent = current;
+		long now = System.nanoTime();
+		if (now - recent.start < window) {
+			return recent;
+		}
+
+		synchronized (this) {
+			recent = current;
+			if (now - recent.start >= window) {
+				// an idle period longer than a window leaves nothing recent
+				previous = now - recent.start < 2 * window ? recent : new Window(now - window);
+				current = recent = new Window(now);
+			}
+
+			return recent;
+		}
+	}
+
+	private static final class Window {
+
+		private final long start;
+
+		private final Histogram latency = new Histogram();
+
+		private final Histogram payload = new Histogram();
+
+		private final LongAdder failures = new LongAdder();
+
+		private Window(long startNanos) {
+			start = startNanos;
+		}
+	}
+}
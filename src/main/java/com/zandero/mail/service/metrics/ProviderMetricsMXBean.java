@@ -0,0 +1,85 @@
+package com.zandero.mail.service.metrics;
+
+import java.util.Map;
+
+/**
+ * Send metrics of a single mail service (provider) exposed over JMX,
+ * rate, latency and payload values are computed over the recent window (last one to two minutes)
+ */
+public interface ProviderMetricsMXBean {
+
+	/**
+	 * @return total number of sends
+	 */
+	long getSent();
+
+	/**
+	 * @return number of successful sends
+	 */
+	long getSucceeded();
+
+	/**
+	 * @return number of throttled sends
+	 */
+	long getThrottled();
+
+	/**
+	 * @return number of sends failed with a transient failure
+	 */
+	long getTransientFailures();
+
+	/**
+	 * @return number of rejected sends
+	 */
+	long getPermanentFailures();
+
+	/**
+	 * @return sends per second over recent window
+	 */
+	double getSendRate();
+
+	/**
+	 * @return share of failed (not successful) sends over recent window
+	 */
+	double getFailureRate();
+
+	/**
+	 * @return median send latency in milliseconds over recent window
+	 */
+	double getLatencyP50();
+
+	/**
+	 * @return 95th percentile of send latency in milliseconds over recent window
+	 */
+	double getLatencyP95();
+
+	/**
+	 * @return 99th percentile of send latency in milliseconds over recent window
+	 */
+	double getLatencyP99();
+
+	/**
+	 * @return max send latency in milliseconds over recent window
+	 */
+	double getLatencyMax();
+
+	/**
+	 * @return mean payload size in bytes over recent window
+	 */
+	double getPayloadMean();
+
+	/**
+	 * @return 99th percentile of payload size in bytes over recent window
+	 */
+	long getPayloadP99();
+
+	/**
+	 * @return total number of bytes send
+	 */
+	long getBytesSent();
+
+	/**
+	 * @return current values of registered gauges (in flight sends, pool utilization ...)
+	 */
+	Map<String, Double> getGauges();
+}
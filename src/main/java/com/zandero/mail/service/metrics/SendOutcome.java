@@ -0,0 +1,50 @@
+package com.zandero.mail.service.metrics;
+
+import com.zandero.mail.service.MailSendResult;
+
+/**
+ * Outcome (reason) of a send as recorded by metrics
+ */
+public enum SendOutcome {
+
+	/**
+	 * Mail was send out
+	 */
+	SUCCESS,
+
+	/**
+	 * Provider throttled (rate limited) the send
+	 */
+	THROTTLED,
+
+	/**
+	 * Send failed with a temporary failure (timeout, connection failure, provider unavailable)
+	 */
+	TRANSIENT_FAILURE,
+
+	/**
+	 * Send was rejected (invalid message, recipient or credentials)
+	 */
+	PERMANENT_FAILURE;
+
+	/**
+	 * @param result send result
+	 * @return outcome of send
+	 */
+	public static SendOutcome of(MailSendResult result) {
+
+		if (result == null) {
+			return PERMANENT_FAILURE;
+		}
+
+		if (result.isSuccessful()) {
+			return SUCCESS;
+		}
+
+		if (result.isThrottled()) {
+			return THROTTLED;
+		}
+
+		return result.isTransient() ? TRANSIENT_FAILURE : PERMANENT_FAILURE;
+	}
+}
@@ -0,0 +1,179 @@
+package com.zandero.mail.service.retry;
+
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.utils.Assert;
+
+import java.time.Duration;
+import java.util.function.Predicate;
+
+/**
+ * Retry settings: number of attempts, exponential back off with jitter and failures to retry
+ */
+public class RetryConfig {
+
+	/**
+	 * Default max number of send attempts (including first one)
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	/**
+	 * Default delay before first retry
+	 */
+	public static final Duration DEFAULT_INITIAL_DELAY = Duration.ofMillis(500);
+
+	/**
+	 * Default max delay between two attempts
+	 */
+	public static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(30);
+
+	/**
+	 * Default factor delay is multiplied with on each retry
+	 */
+	public static final double DEFAULT_MULTIPLIER = 2;
+
+	/**
+	 * Default fraction of delay randomly taken away
+	 */
+	public static final double DEFAULT_JITTER = 0.5;
+
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	private Duration initialDelay = DEFAULT_INITIAL_DELAY;
+
+	private Duration maxDelay = DEFAULT_MAX_DELAY;
+
+	private double multiplier = DEFAULT_MULTIPLIER;
+
+	private double jitter = DEFAULT_JITTER;
+
+	private Predicate<MailSendResult> retryOn = MailSendResult::isTransient;
+
+	/**
+	 * Retry settings with defaults
+	 */
+	public RetryConfig() {
+	}
+
+	/**
+	 * Sets max number of send attempts
+	 *
+	 * @param value max attempts including first one, must be greater than 0 (1 = no retries)
+	 * @return config (self)
+	 */
+	public RetryConfig maxAttempts(int value) {
+
+		Assert.isTrue(value > 0, "Max attempts must be greater than 0!");
+		maxAttempts = value;
+		return this;
+	}
+
+	/**
+	 * Sets delay before first retry
+	 *
+	 * @param value initial delay, must not be negative
+	 * @return config (self)
+	 */
+	public RetryConfig initialDelay(Duration value) {
+
+		Assert.notNull(value, "Missing initial delay!");
+		Assert.isFalse(value.isNegative(), "Initial delay must not be negative!");
+		initialDelay = value;
+		return this;
+	}
+
+	/**
+	 * Sets max delay between two attempts, failures with a longer Retry-After hint are not retried
+	 *
+	 * @param value max delay, must not be negative
+	 * @return config (self)
+	 */
+	public RetryConfig maxDelay(Duration value) {
+
+		Assert.notNull(value, "Missing max delay!");
+		Assert.isFalse(value.isNegative(), "Max delay must not be negative!");
+		maxDelay = value;
+		return this;
+	}
+
+	/**
+	 * Sets factor delay is multiplied with on each retry
+	 *
+	 * @param value multiplier, must be 1 or more
+	 * @return config (self)
+	 */
+	public RetryConfig multiplier(double value) {
+
+		Assert.isTrue(value >= 1, "Multiplier must be 1 or more!");
+		multiplier = value;
+		return this;
+	}
+
+	/**
+	 * Sets fraction of delay randomly taken away, so clients failing at the same time don't retry at the same time
+	 *
+	 * @param value jitter between 0 (no jitter) and 1 (delay anywhere between 0 and computed delay)
+	 * @return config (self)
+	 */
+	public RetryConfig jitter(double value) {
+
+		Assert.isTrue(value >= 0 && value <= 1, "Jitter must be between 0 and 1!");
+		jitter = value;
+		return this;
+	}
+
+	/**
+	 * Sets which failed results are retried, by default transient failures are retried
+	 *
+	 * @param predicate returning true if result should be retried
+	 * @return config (self)
+	 * @see MailSendResult#isTransient()
+	 */
+	public RetryConfig retryOn(Predicate<MailSendResult> predicate) {
+
+		Assert.notNull(predicate, "Missing retry predicate!");
+		retryOn = predicate;
+		return this;
+	}
+
+	/**
+	 * @return max number of send attempts
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @return delay before first retry
+	 */
+	public Duration getInitialDelay() {
+		return initialDelay;
+	}
+
+	/**
+	 * @return max delay between two attempts
+	 */
+	public Duration getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @return delay multiplier
+	 */
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	/**
+	 * @return fraction of delay randomly taken away
+	 */
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * @return predicate selecting results to be retried
+	 */
+	public Predicate<MailSendResult> getRetryOn() {
+		return retryOn;
+	}
+}
@@ -0,0 +1,271 @@
+package com.zandero.mail.service.retry;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailExecutors;
+import com.zandero.mail.service.MailFailures;
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.MailService;
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mail service decorator retrying transient send failures (timeouts, connection failures, HTTP 5xx, SMTP 4xx, throttling)
+ * with exponential back off and jitter, permanent failures are returned right away
+ *
+ * Retries are delayed on the shared mail scheduler and send with an executor, threads are not put to sleep while waiting.
+ * Each result holds the number of attempts it took ({@link MailSendResult#getAttempts()}).
+ */
+public class RetryingMailService implements MailService {
+
+	private static final Logger log = LoggerFactory.getLogger(RetryingMailService.class);
+
+	private final MailService service;
+
+	private final RetryConfig config;
+
+	/**
+	 * Retries sends of given mail service with default settings
+	 *
+	 * @param mailService to be retried
+	 */
+	public RetryingMailService(MailService mailService) {
+
+		this(mailService, new RetryConfig());
+	}
+
+	/**
+	 * Retries sends of given mail service
+	 *
+	 * @param mailService to be retried
+	 * @param retryConfig retry settings
+	 */
+	public RetryingMailService(MailService mailService, RetryConfig retryConfig) {
+
+		Assert.notNull(mailService, "Missing mail service!");
+		Assert.notNull(retryConfig, "Missing retry config!");
+
+		service = mailService;
+		config = retryConfig;
+	}
+
+	/**
+	 * First attempt is made on calling thread, retries are made with default executor while caller waits for final result
+	 *
+	 * @param message to be send
+	 * @return result of last attempt
+	 */
+	@Override
+	public MailSendResult send(MailMessage message) {
+
+		Assert.notNull(message, "Missing mail message!");
+
+		MailSendResult result = service.send(message);
+
+		long delay = getDelay(1, result);
+		if (delay < 0) {
+			return result;
+		}
+
+		CompletableFuture<MailSendResult> future = new CompletableFuture<>();
+		retry(message, MailExecutors.getDefault(), 1, result, delay, future);
+		return future.join();
+	}
+
+	/**
+	 * @param message  to be send
+	 * @param executor to send message and retries with
+	 * @return future completed with result of last attempt
+	 */
+	@Override
+	public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+		Assert.notNull(message, "Missing mail message!");
+		Assert.notNull(executor, "Missing executor!");
+
+		CompletableFuture<MailSendResult> future = new CompletableFuture<>();
+		attempt(message, executor, 1, future);
+		return future;
+	}
+
+	/**
+	 * Sends messages as a batch, messages failing with a transient failure are send again as a (smaller) batch
+	 *
+	 * @param messages to be send
+	 * @return list of send out results in same order as given messages
+	 */
+	@Override
+	public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+		Assert.notNull(messages, "Missing mail messages!");
+
+		List<MailMessage> list = new ArrayList<>(messages);
+		MailSendResult[] results = service.sendAll(list).toArray(new MailSendResult[0]);
+
+		for (int attempt = 1; attempt < config.getMaxAttempts(); attempt++) {
+
+			List<Integer> failed = new ArrayList<>();
+			long delay = -1;
+			for (int index = 0; index < results.length; index++) {
+				long wait = getDelay(attempt, results[index]);
+				if (wait >= 0) {
+					failed.add(index);
+					delay = Math.max(delay, wait);
+				}
+			}
+
+			if (failed.isEmpty()) {
+				break;
+			}
+
+			List<MailMessage> batch = new ArrayList<>(failed.size());
+			for (Integer index : failed) {
+				batch.add(list.get(index));
+			}
+
+			log.warn("Failed to send: {} of {} messages, retrying in: {} ms", failed.size(), list.size(), TimeUnit.NANOSECONDS.toMillis(delay));
+
+			List<MailSendResult> retried;
+			try {
+				retried = retryAll(batch, delay).join();
+			}
+			catch (RuntimeException e) {
+				log.error("Failed to retry sending messages!", e);
+				break;
+			}
+
+			for (int i = 0; i < failed.size(); i++) {
+				results[failed.get(i)] = i < retried.size() ? withAttempts(retried.get(i), attempt + 1) : results[failed.get(i)];
+			}
+		}
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Closes underlying mail service
+	 */
+	@Override
+	public void close() {
+
+		service.close();
+	}
+
+	/**
+	 * Exponential back off with jitter, a longer Retry-After hint given by provider is respected
+	 *
+	 * @param attempt number of attempts made
+	 * @param result  of last attempt
+	 * @return delay in nanoseconds before next attempt or -1 if result should not be retried
+	 */
+	long getDelay(int attempt, MailSendResult result) {
+
+		if (result == null ||
+		    result.isSuccessful() ||
+		    attempt >= config.getMaxAttempts() ||
+		    !config.getRetryOn().test(result)) {
+			return -1;
+		}
+
+		long max = config.getMaxDelay().toNanos();
+		double base = Math.min(max, config.getInitialDelay().toNanos() * Math.pow(config.getMultiplier(), attempt - 1));
+		long delay = (long) (base - base * config.getJitter() * ThreadLocalRandom.current().nextDouble());
+
+		if (result.getRetryAfter() != null) {
+			long retryAfter = result.getRetryAfter().toNanos();
+			if (retryAfter > max) {
+				return -1; // provider asks us to wait longer than we are willing to
+			}
+
+			delay = Math.max(delay, retryAfter);
+		}
+
+		return delay;
+	}
+
+	private CompletableFuture<List<MailSendResult>> retryAll(List<MailMessage> messages, long delay) {
+
+		Executor executor = MailExecutors.getDefault();
+		CompletableFuture<List<MailSendResult>> future = new CompletableFuture<>();
+
+		Runnable next = () -> {
+			try {
+				executor.execute(() -> {
+					try {
+						future.complete(service.sendAll(messages));
+					}
+					catch (RuntimeException e) {
+						future.completeExceptionally(e);
+					}
+				});
+			}
+			catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		};
+
+		MailExecutors.getScheduler().schedule(next, delay, TimeUnit.NANOSECONDS);
+		return future;
+	}
+
+	private void attempt(MailMessage message, Executor executor, int attempt, CompletableFuture<MailSendResult> future) {
+
+		CompletableFuture<MailSendResult> send;
+		try {
+			send = service.sendAsync(message, executor);
+		}
+		catch (RuntimeException e) {
+			log.error("Failed to send out mail!", e);
+			send = CompletableFuture.completedFuture(MailFailures.getFailure(e));
+		}
+
+		send.whenComplete((response, error) -> {
+
+			MailSendResult result = error != null ? MailFailures.getFailure(error) : response;
+			long delay = getDelay(attempt, result);
+			if (delay < 0) {
+				future.complete(withAttempts(result, attempt));
+			}
+			else {
+				retry(message, executor, attempt, result, delay, future);
+			}
+		});
+	}
+
+	private void retry(MailMessage message, Executor executor, int attempt, MailSendResult result, long delay, CompletableFuture<MailSendResult> future) {
+
+		log.warn("Failed to send out mail, attempt {}: {}, retrying in: {} ms", attempt, result, TimeUnit.NANOSECONDS.toMillis(delay));
+
+		Runnable next = () -> {
+			try {
+				executor.execute(() -> attempt(message, executor, attempt + 1, future));
+			}
+			catch (RuntimeException e) {
+				log.error("Failed to execute retry!", e);
+				future.complete(withAttempts(result, attempt));
+			}
+		};
+
+		try {
+			MailExecutors.getScheduler().schedule(next, delay, TimeUnit.NANOSECONDS);
+		}
+		catch (RuntimeException e) {
+			log.error("Failed to schedule retry!", e);
+			future.complete(withAttempts(result, attempt));
+		}
+	}
+
+	private static MailSendResult withAttempts(MailSendResult result, int attempt) {
+
+		return result == null || attempt == 1 ? result : result.withAttempts(attempt);
+	}
+}
@@ -4,11 +4,13 @@ import com.fasterxml.jackson.annotation.JsonIgnoreType;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.commons.codec.binary.Base64;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 
 /**
  * An attachment object.
@@ -194,15 +196,17 @@ public class Attachments {
     private String encodeToBase64(InputStream content) {
       int read = 0;
       byte[] bytes = new byte[BYTE_BUFFER_SIZE];
-      try(ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      // encode while reading ... raw content is never buffered as a whole
+      try (OutputStream encoder = Base64.getEncoder().wrap(baos)) {
         while ((read = content.read(bytes)) != -1) {
-          baos.write(bytes, 0, read);
+          encoder.write(bytes, 0, read);
         }
-
-        return Base64.encodeBase64String(baos.toByteArray());
       } catch (IOException e) {
         throw new RuntimeException("Unable to convert content stream to base 64 encoded string", e);
       }
+
+      return new String(baos.toByteArray(), StandardCharsets.US_ASCII);
     }
 
     /**
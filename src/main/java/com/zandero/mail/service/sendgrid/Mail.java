@@ -14,10 +14,12 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.zandero.mail.MailMessage;
 import com.zandero.utils.StringUtils;
 
+import javax.mail.Message;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +37,18 @@ public class Mail {
 	 */
 	public Mail(MailMessage message) {
 
+		this(Collections.singletonList(message));
+	}
+
+	/**
+	 * Send grid mail message with a personalization for each given message,
+	 * content is taken from first message, all messages should have the same content and differ only in recipients
+	 * @param messages to be send in a single request
+	 */
+	public Mail(List<MailMessage> messages) {
+
+		MailMessage message = messages.get(0);
+
 		from = new Email(message.getFromEmail(), message.getFromName());
 		subject = message.getSubject();
 		content = new ArrayList<>();
@@ -49,36 +63,28 @@ public class Mail {
 			content.add(new Content("text/html", text));
 		}
 
-		personalization = new ArrayList<>();
-
-		Personalization sendTo = new Personalization();
-
-		if (message.getToEmails() != null) {
-			for (String email : message.getToEmails().keySet()) {
-				sendTo.addTo(new Email(email, message.getToEmails().get(email)));
-			}
-		}
-
-		if (message.getCcEmails() != null) {
-			for (String email : message.getCcEmails().keySet()) {
-				sendTo.addCc(new Email(email, message.getCcEmails().get(email)));
-			}
-		}
-
-		if (message.getBccEmails() != null) {
-			for (String email : message.getBccEmails().keySet()) {
-				sendTo.addBcc(new Email(email, message.getBccEmails().get(email)));
-			}
+		personalization = new ArrayList<>(messages.size());
+		for (MailMessage item : messages) {
+			personalization.add(getPersonalization(item));
 		}
 
-		personalization.add(sendTo);
-
 		if (message.getSendAt() != null &&
 			message.getSendAt().isBefore(Instant.now().plus(72, ChronoUnit.HOURS))) { // send in the future
 			sendAt = message.getSendAt().getEpochSecond();
 		}
 	}
 
+	private static Personalization getPersonalization(MailMessage message) {
+
+		Personalization sendTo = new Personalization();
+
+		message.forEachRecipient(Message.RecipientType.TO, (email, name) -> sendTo.addTo(new Email(email, name)));
+		message.forEachRecipient(Message.RecipientType.CC, (email, name) -> sendTo.addCc(new Email(email, name)));
+		message.forEachRecipient(Message.RecipientType.BCC, (email, name) -> sendTo.addBcc(new Email(email, name)));
+
+		return sendTo;
+	}
+
 	/**
 	 * The email's from field.
 	 */
@@ -0,0 +1,131 @@
+package com.zandero.mail.service.sendgrid;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.zandero.mail.MailAttachment;
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.http.RequestBody;
+import com.zandero.utils.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SendGrid request body written straight to the output stream,
+ * attachment content is base64 encoded in chunks while it is read from the attachment source
+ */
+public class MailBody implements RequestBody {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final String ATTACHMENTS = "attachments";
+
+	private final Mail mail;
+
+	private final List<MailAttachment> attachments;
+
+	/**
+	 * Request body for single message
+	 * @param message to be send
+	 */
+	public MailBody(MailMessage message) {
+
+		this(Collections.singletonList(message));
+	}
+
+	/**
+	 * Request body with a personalization for each message, content and attachments are taken from first message
+	 * @param messages to be send in a single request
+	 */
+	public MailBody(List<MailMessage> messages) {
+
+		this(new Mail(messages), messages.get(0).getAttachments());
+	}
+
+	/**
+	 * Request body for given mail with streamed attachments
+	 * @param mail to be send
+	 * @param attachments to be streamed along with any attachments already added to mail, or null if none
+	 */
+	public MailBody(Mail mail, List<MailAttachment> attachments) {
+
+		Assert.notNull(mail, "Missing mail!");
+
+		this.mail = mail;
+		this.attachments = attachments == null ? Collections.emptyList() : attachments;
+	}
+
+	@Override
+	public String getContentType() {
+		return "application/json";
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+
+		// mail without attachments is small ... serialized as is
+		ObjectNode node = MAPPER.valueToTree(mail);
+		JsonNode added = node.remove(ATTACHMENTS);
+
+		try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			generator.writeStartObject();
+
+			Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				generator.writeFieldName(field.getKey());
+				generator.writeTree(field.getValue());
+			}
+
+			if (added != null || attachments.size() > 0) {
+				generator.writeArrayFieldStart(ATTACHMENTS);
+
+				if (added != null) {
+					for (JsonNode attachment : added) {
+						generator.writeTree(attachment);
+					}
+				}
+
+				for (MailAttachment attachment : attachments) {
+					write(generator, attachment);
+				}
+
+				generator.writeEndArray();
+			}
+
+			generator.writeEndObject();
+		}
+	}
+
+	private static void write(JsonGenerator generator, MailAttachment attachment) throws IOException {
+
+		generator.writeStartObject();
+
+		if (attachment.type != null) {
+			generator.writeStringField("type", attachment.type);
+		}
+
+		if (attachment.fileName != null) {
+			generator.writeStringField("filename", attachment.fileName);
+		}
+
+		long length = attachment.getLength();
+		generator.writeFieldName("content");
+		try (InputStream content = attachment.getSource().open()) {
+			generator.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, content, length >= 0 && length <= Integer.MAX_VALUE ? (int) length : -1);
+		}
+
+		generator.writeEndObject();
+	}
+}
@@ -1,19 +1,32 @@
 package com.zandero.mail.service.sendgrid;
 
 import com.zandero.http.Http;
+import com.zandero.mail.EmailAddress;
 import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailBatches;
+import com.zandero.mail.service.MailFailures;
 import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.MailSendStats;
 import com.zandero.mail.service.MailService;
+import com.zandero.mail.service.http.HttpClientTransport;
+import com.zandero.mail.service.http.HttpTransport;
+import com.zandero.mail.service.http.RequestContext;
+import com.zandero.mail.service.http.RateLimitHeaders;
 import com.zandero.utils.Assert;
 import com.zandero.utils.StringUtils;
-import com.zandero.utils.extra.JsonUtils;
-import com.zandero.utils.extra.ValidatingUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.HttpURLConnection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * SendGrid mail service integration (API V3 usage with API key)
@@ -23,27 +36,60 @@ public class SendGridMailService implements MailService {
 
 	private static final Logger log = LoggerFactory.getLogger(SendGridMailService.class);
 
+	private static final String URL = "https://api.sendgrid.com/v3/mail/send";
+
+	private static final String CONTENT_TYPE = "application/json";
+
+	/**
+	 * Max number of personalizations in a single SendGrid request
+	 */
+	public static final int MAX_PERSONALIZATIONS = 1000;
+
+	/**
+	 * Max number of recipients (to, cc and bcc of all personalizations) in a single SendGrid request
+	 */
+	public static final int MAX_RECIPIENTS = 1000;
+
 	private final String apiKey;
 
 	private final String defaultFrom;
 	private final String defaultFromName;
 
+	private final HttpTransport transport;
+
+	private final RequestContext context;
+
 	/**
-	 * Initializes SendGrid mailing service (API wrapper)
+	 * Initializes SendGrid mailing service (API wrapper) using default HTTP transport
 	 * @param sendGridApiKey api key
 	 * @param defaultEmail default from email if not from email is given in message
 	 * @param defaultName default from name if no from name is given in message
 	 */
 	public SendGridMailService(String sendGridApiKey, String defaultEmail, String defaultName) {
 
+		this(sendGridApiKey, defaultEmail, defaultName, HttpClientTransport.getDefault());
+	}
+
+	/**
+	 * Initializes SendGrid mailing service (API wrapper)
+	 * @param sendGridApiKey api key
+	 * @param defaultEmail default from email if not from email is given in message
+	 * @param defaultName default from name if no from name is given in message
+	 * @param httpTransport transport to post requests with, closed when service is closed
+	 */
+	public SendGridMailService(String sendGridApiKey, String defaultEmail, String defaultName, HttpTransport httpTransport) {
+
 		Assert.notNullOrEmptyTrimmed(sendGridApiKey, "Missing api key!");
+		Assert.notNull(httpTransport, "Missing HTTP transport!");
 
 		Assert.notNullOrEmptyTrimmed(defaultEmail, "Missing default from email!");
-		Assert.isTrue(ValidatingUtils.isEmail(defaultEmail), "Invalid default from email!");
+		Assert.isTrue(EmailAddress.isValid(defaultEmail), "Invalid default from email!");
 
 		apiKey = StringUtils.trim(sendGridApiKey);
 		defaultFrom = StringUtils.trim(defaultEmail).toLowerCase();
 		defaultFromName = StringUtils.trimToNull(defaultName);
+		transport = httpTransport;
+		context = new RequestContext(URL, Collections.singletonMap("Authorization", "Bearer " + apiKey), CONTENT_TYPE);
 
 		// log only first characters of key ... should be enough to see that everything is OK
 		log.info("Initializing SendGrid with key: " + StringUtils.trimTextDown(apiKey, 9, "***"));
@@ -53,30 +99,155 @@ public class SendGridMailService implements MailService {
 	public MailSendResult send(MailMessage message) {
 
 		Assert.notNull(message, "Missing mail message!");
+
+		if (MailFailures.allExcluded(message)) {
+			return MailFailures.getExcludedFailure();
+		}
+
+		long start = System.nanoTime();
 		message.defaultFrom(defaultFrom, defaultFromName); // if from is set then this is ignored
+		return send(() -> new MailBody(message), start);
+	}
+
+	/**
+	 * Sends mail via SendGrid without blocking calling thread,
+	 * JSON request (attachments included) is streamed to the connection
+	 * @param message to be send
+	 * @param executor to complete result with
+	 * @return future completed with send grid send result
+	 */
+	@Override
+	public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+		Assert.notNull(message, "Missing mail message!");
+		Assert.notNull(executor, "Missing executor!");
 
+		if (MailFailures.allExcluded(message)) {
+			return CompletableFuture.completedFuture(MailFailures.getExcludedFailure());
+		}
+
+		long start = System.nanoTime();
+		MailSendStats stats = new MailSendStats();
 		try {
-			String url = "https://api.sendgrid.com/v3/mail/send";
+			message.defaultFrom(defaultFrom, defaultFromName); // if from is set then this is ignored
+
+			MailBody body = new MailBody(message);
+			stats.buildTime(System.nanoTime() - start);
+
+			return transport.postAsync(context, body, stats, executor)
+			                .thenApply(response -> getResult(response).withStats(stats.totalTime(System.nanoTime() - start)))
+			                .exceptionally(e -> {
+				                log.error("Failed to send out mail!", e);
+				                return MailFailures.getFailure(e).withStats(stats.totalTime(System.nanoTime() - start));
+			                });
+		}
+		catch (Exception e) {
+			log.error("Failed to send out mail!", e);
+			return CompletableFuture.completedFuture(MailFailures.getFailure(e));
+		}
+	}
+
+	/**
+	 * Sends out messages with same content in a single request with a personalization for each message,
+	 * requests are split so none holds more than {@link #MAX_RECIPIENTS} recipients
+	 * @param messages to be send
+	 * @return list of send out results in same order as given messages, batched messages share the result
+	 */
+	@Override
+	public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+		Assert.notNull(messages, "Missing mail messages!");
+
+		List<MailMessage> list = new ArrayList<>(messages);
+		for (MailMessage message : list) {
+			Assert.notNull(message, "Missing mail message!");
+			message.defaultFrom(defaultFrom, defaultFromName); // if from is set then this is ignored
+		}
 
-			Map<String, String> headers = new HashMap<>();
-			headers.put("Authorization", "Bearer " + apiKey);
-			headers.put("Content-Type", "application/json");
+		MailSendResult[] results = new MailSendResult[list.size()];
+		List<List<Integer>> groups = MailBatches.group(list, MAX_RECIPIENTS, SendGridMailService::getRecipientCount,
+		                                               message -> !MailFailures.allExcluded(message));
+		for (List<Integer> group : groups) {
 
-			String body = JsonUtils.toJson(new Mail(message)); //
-			Http.Response response = Http.post(url, body, null, headers);
+			List<MailMessage> batch = new ArrayList<>(group.size());
+			for (Integer index : group) {
+				batch.add(list.get(index));
+			}
 
-			if (response.not(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_CREATED, HttpURLConnection.HTTP_ACCEPTED)) {
-				log.error("Failed to send out mail: ({}) {}", response.getCode(), response.getResponse());
-				return MailSendResult.fail(response.getResponse());
+			MailSendResult result = send(batch);
+			for (Integer index : group) {
+				results[index] = result;
 			}
+		}
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * @param message to be send
+	 * @return number of to, cc and bcc recipients without excluded ones
+	 */
+	static int getRecipientCount(MailMessage message) {
+
+		return size(message.getToEmails()) + size(message.getCcEmails()) + size(message.getBccEmails());
+	}
+
+	private static int size(Map<String, String> emails) {
+
+		return emails == null ? 0 : emails.size();
+	}
+
+	private MailSendResult send(List<MailMessage> batch) {
+
+		if (batch.size() == 1 && MailFailures.allExcluded(batch.get(0))) {
+			return MailFailures.getExcludedFailure();
+		}
+
+		return send(() -> new MailBody(batch), System.nanoTime());
+	}
+
+	private MailSendResult send(Supplier<MailBody> builder, long start) {
+
+		MailSendStats stats = new MailSendStats();
+		MailSendResult result;
+		try {
+			MailBody body = builder.get();
+			stats.buildTime(System.nanoTime() - start);
 
-			// get message id header ... from response
-			String messageId = response.getHeader("X-Message-Id");
-			return MailSendResult.ok(messageId);
+			Http.Response response = transport.post(context, body, stats);
+			result = getResult(response);
 		}
 		catch (Exception e) {
 			log.error("Failed to send out mail!", e);
-			return MailSendResult.fail(e.getMessage());
+			result = MailFailures.getFailure(e);
+		}
+
+		return result.withStats(stats.totalTime(System.nanoTime() - start));
+	}
+
+	/**
+	 * Closes HTTP transport
+	 */
+	@Override
+	public void close() {
+
+		transport.close();
+	}
+
+	private MailSendResult getResult(Http.Response response) {
+
+		if (RateLimitHeaders.isThrottled(response)) {
+			log.warn("SendGrid is throttling requests: ({}) {}", response.getCode(), response.getResponse());
+			return MailSendResult.throttled(response.getResponse(), RateLimitHeaders.getRetryAfter(response));
 		}
+
+		if (response.not(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_CREATED, HttpURLConnection.HTTP_ACCEPTED)) {
+			log.error("Failed to send out mail: ({}) {}", response.getCode(), response.getResponse());
+			return MailFailures.getFailure(response.getCode(), response.getResponse());
+		}
+
+		// get message id header ... from response
+		String messageId = response.getHeader("X-Message-Id");
+		return MailSendResult.ok(messageId, RateLimitHeaders.getRetryAfter(response));
 	}
 }
@@ -0,0 +1,161 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.utils.*;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Caches mail exchangers of a domain for the lowest TTL of its records (bounded by min and max TTL),
+ * domains without mail exchangers are cached for the negative TTL and failed lookups are not cached at all
+ */
+public class CachingMxResolver implements MxResolver {
+
+    /**
+     * Default min time records are cached, regardless of shorter TTL
+     */
+    public static final Duration DEFAULT_MIN_TTL = Duration.ofMinutes(1);
+
+    /**
+     * Default max time records are cached, regardless of longer TTL
+     */
+    public static final Duration DEFAULT_MAX_TTL = Duration.ofDays(1);
+
+    /**
+     * Default time a domain without mail exchangers is cached
+     */
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes(5);
+
+    /**
+     * Default max number of cached domains
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final MxResolver resolver;
+
+    private final long minTtl;
+
+    private final long maxTtl;
+
+    private final long negativeTtl;
+
+    private final int maxEntries;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Caches given resolver with default TTL bounds
+     *
+     * @param resolver to cache
+     */
+    public CachingMxResolver(MxResolver resolver) {
+
+        this(resolver, DEFAULT_MIN_TTL, DEFAULT_MAX_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param resolver    to cache
+     * @param minTtl      min time records are cached
+     * @param maxTtl      max time records are cached
+     * @param negativeTtl time a domain without mail exchangers is cached
+     * @param maxEntries  max number of cached domains, expired entries are dropped once exceeded
+     */
+    public CachingMxResolver(MxResolver resolver, Duration minTtl, Duration maxTtl, Duration negativeTtl, int maxEntries) {
+
+        Assert.notNull(resolver, "Missing MX resolver!");
+        Assert.notNull(minTtl, "Missing min TTL!");
+        Assert.notNull(maxTtl, "Missing max TTL!");
+        Assert.notNull(negativeTtl, "Missing negative TTL!");
+        Assert.isFalse(minTtl.isNegative(), "Min TTL can't be negative!");
+        Assert.isTrue(maxTtl.compareTo(minTtl) >= 0, "Max TTL must be equal or greater than min TTL!");
+        Assert.isFalse(negativeTtl.isNegative(), "Negative TTL can't be negative!");
+        Assert.isTrue(maxEntries > 0, "Max entries must be greater than 0!");
+
+        this.resolver = resolver;
+        this.minTtl = minTtl.toNanos();
+        this.maxTtl = maxTtl.toNanos();
+        this.negativeTtl = negativeTtl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public List<MxRecord> resolve(String domain) throws IOException {
+
+        Assert.notNullOrEmptyTrimmed(domain, "Missing domain!");
+
+        String key = domain.trim().toLowerCase();
+        long now = System.nanoTime();
+
+        Entry entry = cache.get(key);
+        if (entry != null && now - entry.expires < 0) {
+            return entry.records;
+        }
+
+        List<MxRecord> records = Collections.unmodifiableList(new ArrayList<>(resolver.resolve(key)));
+        if (cache.size() >= maxEntries) {
+            evict(now);
+        }
+
+        cache.put(key, new Entry(records, now + getTtl(records)));
+        return records;
+    }
+
+    /**
+     * Drops cached records of domain
+     *
+     * @param domain to drop
+     */
+    public void invalidate(String domain) {
+
+        if (domain != null) {
+            cache.remove(domain.trim().toLowerCase());
+        }
+    }
+
+    /**
+     * @return number of cached domains
+     */
+    public int size() {
+
+        return cache.size();
+    }
+
+    private long getTtl(List<MxRecord> records) {
+
+        if (records.isEmpty()) {
+            return negativeTtl;
+        }
+
+        long ttl = Long.MAX_VALUE;
+        for (MxRecord record : records) {
+            ttl = Math.min(ttl, record.getTtl().toNanos());
+        }
+
+        return Math.max(minTtl, Math.min(maxTtl, ttl));
+    }
+
+    private void evict(long now) {
+
+        cache.values().removeIf(entry -> now - entry.expires >= 0);
+
+        // all entries are still valid ... start over rather than grow
+        if (cache.size() >= maxEntries) {
+            cache.clear();
+        }
+    }
+
+    private static final class Entry {
+
+        private final List<MxRecord> records;
+
+        private final long expires;
+
+        private Entry(List<MxRecord> records, long expires) {
+
+            this.records = records;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.mail.*;
+import com.zandero.mail.service.*;
+import com.zandero.utils.*;
+import org.slf4j.*;
+
+import javax.mail.*;
+import javax.mail.internet.*;
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Delivers mail directly to mail exchangers of recipient domains instead of handing it to a relay
+ *
+ * Recipients of a message are grouped by domain and each domain gets a single transaction with all its recipients,
+ * mail exchangers are tried in order of priority (random among equal priority) and each of them has its own bounded pool of connections
+ *
+ * In case some domains accepted the message and others failed, delivered recipients are excluded from the message
+ * so sending it again (i.e. with a retrying or spooling service) only reaches the failed domains
+ *
+ * With a {@link DomainThrottleConfig} transactions to each domain are limited in rate and concurrency, follow the warm-up schedule
+ * and back off when domain defers them (421 or 451), domains waiting longer than the acquire timeout are throttled without connecting
+ */
+public class DirectSmtpMailService implements MailService {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectSmtpMailService.class);
+
+    private static final int SMTP_SERVICE_NOT_AVAILABLE = 421;
+
+    private final MxResolver resolver;
+
+    private final SmtpPoolConfig poolConfig;
+
+    /**
+     * Per domain limits or null if domains are not throttled
+     */
+    private final DomainThrottle throttle;
+
+    /**
+     * Mail session shared by all sends and connections
+     */
+    private final Session session;
+
+    /**
+     * Connection pool of each mail exchanger (host:port)
+     */
+    private final Map<String, SmtpTransportPool> pools = new ConcurrentHashMap<>();
+
+    private final MailTrace trace = new MailTrace("mx");
+
+    private volatile boolean closed;
+
+    /**
+     * Direct delivery with MX records looked up in DNS and cached, plain text connections and default pool settings
+     *
+     * @param localHost name to introduce with in EHLO (should resolve back to sending address) or null to use local host name
+     */
+    public DirectSmtpMailService(String localHost) {
+
+        this(localHost, new CachingMxResolver(new DnsMxResolver()), new SmtpPoolConfig(), new SmtpTlsConfig());
+    }
+
+    /**
+     * Direct delivery, resolver is used as given so it should be wrapped into {@link CachingMxResolver} unless it caches itself
+     *
+     * @param localHost  name to introduce with in EHLO (should resolve back to sending address) or null to use local host name
+     * @param resolver   to look up mail exchangers of recipient domains
+     * @param poolConfig connection pool settings of each mail exchanger, connections are always made with javax.mail transports
+     * @param tlsConfig  connection security settings
+     */
+    public DirectSmtpMailService(String localHost, MxResolver resolver, SmtpPoolConfig poolConfig, SmtpTlsConfig tlsConfig) {
+
+        this(localHost, resolver, poolConfig, tlsConfig, null);
+    }
+
+    /**
+     * Direct delivery throttled per recipient domain
+     *
+     * @param localHost      name to introduce with in EHLO (should resolve back to sending address) or null to use local host name
+     * @param resolver       to look up mail exchangers of recipient domains
+     * @param poolConfig     connection pool settings of each mail exchanger, connections are always made with javax.mail transports
+     * @param tlsConfig      connection security settings
+     * @param throttleConfig rate, concurrency, warm-up and backoff settings of recipient domains or null to send without limits
+     */
+    public DirectSmtpMailService(String localHost, MxResolver resolver, SmtpPoolConfig poolConfig, SmtpTlsConfig tlsConfig,
+                                 DomainThrottleConfig throttleConfig) {
+
+        Assert.notNull(resolver, "Missing MX resolver!");
+        Assert.notNull(poolConfig, "Missing SMTP pool config!");
+        Assert.notNull(tlsConfig, "Missing SMTP TLS config!");
+        Assert.isFalse(tlsConfig.getMode() == SmtpTlsConfig.Mode.SMTPS, "Mail exchangers don't accept implicit TLS, use STARTTLS!");
+
+        this.resolver = resolver;
+        this.poolConfig = poolConfig;
+        throttle = throttleConfig != null ? new DomainThrottle(throttleConfig) : null;
+
+        Properties props = new Properties();
+        props.put("mail.transport.protocol", "smtp");
+        props.put("mail.smtp.connectiontimeout", String.valueOf(poolConfig.getTimeout().toMillis()));
+        props.put("mail.smtp.timeout", String.valueOf(poolConfig.getTimeout().toMillis()));
+
+        if (!StringUtils.isNullOrEmptyTrimmed(localHost)) {
+            props.put("mail.smtp.localhost", localHost.trim());
+        }
+
+        SmtpMailService.setTls(props, tlsConfig);
+        session = Session.getInstance(props);
+    }
+
+    /**
+     * Sends message to mail exchangers of all recipient domains
+     *
+     * @param message to construct mail message
+     * @return ok if all domains accepted message, otherwise throttled or unavailable if any domain failed temporarily or failed
+     */
+    @Override
+    public MailSendResult send(MailMessage message) {
+
+        Assert.notNull(message, "Missing mail message!");
+        Assert.isFalse(closed, "Mail service is closed!");
+
+        if (MailFailures.allExcluded(message)) {
+            return MailFailures.getExcludedFailure();
+        }
+
+        long start = System.nanoTime();
+        MailSendStats stats = new MailSendStats();
+
+        Message msg;
+        Map<String, List<Address>> domains;
+        try {
+            msg = message.getMessage(session);
+            trace.trace(message, msg);
+            domains = getDomains(msg.getAllRecipients());
+        } catch (Exception e) {
+
+            log.error(e.getMessage(), e);
+            return MailSendResult.fail().withStats(stats.totalTime(System.nanoTime() - start));
+        }
+
+        stats.buildTime(System.nanoTime() - start);
+
+        List<String> delivered = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        MailSendResult failure = null;
+
+        for (Map.Entry<String, List<Address>> domain : domains.entrySet()) {
+
+            MailSendResult result = throttled(domain.getKey(), msg, domain.getValue(), stats);
+            if (result.isSuccessful()) {
+                for (Address address : domain.getValue()) {
+                    delivered.add(((InternetAddress) address).getAddress());
+                }
+                continue;
+            }
+
+            failed.add(domain.getKey() + " (" + result.getMessage() + ")");
+            failure = worse(failure, result);
+        }
+
+        stats.totalTime(System.nanoTime() - start);
+        if (failure == null) {
+            return MailSendResult.ok().withStats(stats);
+        }
+
+        if (!delivered.isEmpty()) {
+            message.exclude(delivered);
+        }
+
+        String text = "Delivery failed for: " + String.join(", ", failed);
+        if (failure.isThrottled()) {
+            return MailSendResult.throttled(text, failure.getRetryAfter()).withStats(stats);
+        }
+
+        return (failure.isTransient() ? MailSendResult.unavailable(text) : MailSendResult.fail(text)).withStats(stats);
+    }
+
+    /**
+     * Waits for domain rate limit and concurrency permit and adapts domain rate to reply of transaction
+     */
+    private MailSendResult throttled(String domain, Message msg, List<Address> recipients, MailSendStats stats) {
+
+        if (throttle == null) {
+            return transmit(domain, msg, recipients, stats);
+        }
+
+        try {
+            Duration wait = throttle.acquire(domain);
+            if (wait != null) {
+                return MailSendResult.throttled("Domain rate limit exceeded", wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return MailSendResult.fail("Interrupted while waiting for domain rate limit");
+        }
+
+        int code = 0;
+        try {
+            stats.providerStatus(0);
+            MailSendResult result = transmit(domain, msg, recipients, stats);
+            code = stats.getProviderStatus();
+            return result;
+        } finally {
+            throttle.release(domain, code);
+        }
+    }
+
+    /**
+     * Single transaction with all recipients of domain, next mail exchanger is only tried if previous could not be connected
+     * or refused service (421), rejection of transaction would be repeated by any other mail exchanger of domain
+     */
+    private MailSendResult transmit(String domain, Message msg, List<Address> recipients, MailSendStats stats) {
+
+        List<MxRecord> records;
+        try {
+            records = resolver.resolve(domain);
+        } catch (IOException e) {
+
+            log.warn("MX lookup of {} failed: {}", domain, e.getMessage());
+            return MailSendResult.unavailable("MX lookup failed: " + e.getMessage());
+        }
+
+        if (records.isEmpty()) {
+            return MailSendResult.fail("Domain does not accept mail");
+        }
+
+        Address[] addresses = recipients.toArray(new Address[0]);
+        Exception failure = null;
+
+        for (MxRecord record : order(records)) {
+
+            SmtpTransportPool pool = getPool(record);
+            SmtpTransportPool.PooledTransport transport = null;
+            boolean failed = true;
+
+            try {
+                long borrow = System.nanoTime();
+                transport = pool.borrow();
+                stats.connectTime(System.nanoTime() - borrow);
+
+                transport.send(msg, addresses, stats);
+                failed = false;
+                return MailSendResult.ok();
+            } catch (Exception e) {
+
+                failure = e;
+                failed = SmtpTransportPool.isConnectionFailure(e);
+                if (transport != null && SmtpMailService.getReturnCode(e) != SMTP_SERVICE_NOT_AVAILABLE) {
+                    break;
+                }
+
+                log.debug("Mail exchanger {} of {} failed: {}", record, domain, e.getMessage());
+            } finally {
+                pool.release(transport, failed);
+            }
+        }
+
+        log.error(failure.getMessage(), failure);
+
+        int code = SmtpMailService.getReturnCode(failure);
+        if (code > 0) {
+            stats.providerStatus(code);
+        }
+
+        MailSendResult result = SmtpMailService.getFailure(failure);
+        return result.getMessage() == null ? MailSendResult.fail(failure.getMessage()) : result;
+    }
+
+    /**
+     * @return recipients grouped by lower case domain, in order of appearance
+     */
+    private static Map<String, List<Address>> getDomains(Address[] recipients) throws MessagingException {
+
+        if (recipients == null || recipients.length == 0) {
+            throw new MessagingException("No recipients given!");
+        }
+
+        Map<String, List<Address>> domains = new LinkedHashMap<>();
+        for (Address recipient : recipients) {
+
+            String email = ((InternetAddress) recipient).getAddress();
+            int at = email == null ? -1 : email.lastIndexOf('@');
+            if (at < 1 || at == email.length() - 1) {
+                throw new MessagingException("Invalid recipient address: " + email);
+            }
+
+            domains.computeIfAbsent(email.substring(at + 1).toLowerCase(), key -> new ArrayList<>()).add(recipient);
+        }
+
+        return domains;
+    }
+
+    /**
+     * @return records by priority, shuffled among equal priority to spread load
+     */
+    private static List<MxRecord> order(List<MxRecord> records) {
+
+        if (records.size() == 1) {
+            return records;
+        }
+
+        List<MxRecord> ordered = new ArrayList<>(records);
+        Collections.shuffle(ordered, ThreadLocalRandom.current());
+        ordered.sort(Comparator.comparingInt(MxRecord::getPriority));
+        return ordered;
+    }
+
+    /**
+     * @return throttled over unavailable over failed
+     */
+    private static MailSendResult worse(MailSendResult current, MailSendResult result) {
+
+        if (current == null || result.isThrottled()) {
+            return result;
+        }
+
+        if (!current.isThrottled() && !current.isTransient() && result.isTransient()) {
+            return result;
+        }
+
+        return current;
+    }
+
+    private SmtpTransportPool getPool(MxRecord record) {
+
+        return pools.computeIfAbsent(record.getHost() + ":" + record.getPort(),
+                                     key -> new SmtpTransportPool(session, record.getHost(), record.getPort(), null, null, poolConfig));
+    }
+
+    /**
+     * Send trace of this service, logged to {@code com.zandero.mail.trace.mx} at DEBUG level
+     *
+     * @return send trace
+     */
+    public MailTrace getTrace() {
+
+        return trace;
+    }
+
+    /**
+     * @return per domain limits or null if domains are not throttled
+     */
+    public DomainThrottle getThrottle() {
+
+        return throttle;
+    }
+
+    /**
+     * @return resolver used to look up mail exchangers
+     */
+    public MxResolver getResolver() {
+
+        return resolver;
+    }
+
+    /**
+     * @return connections of each mail exchanger contacted so far (host:port)
+     */
+    public Map<String, SmtpConnections> getConnections() {
+
+        return Collections.unmodifiableMap(pools);
+    }
+
+    /**
+     * Closes pooled connections of all mail exchangers
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        for (SmtpTransportPool pool : pools.values()) {
+            pool.close();
+        }
+    }
+}
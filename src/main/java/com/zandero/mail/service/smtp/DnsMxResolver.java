@@ -0,0 +1,316 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.utils.*;
+import org.slf4j.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Resolves mail exchangers with MX queries over UDP (TCP if answer is truncated) to configured name servers,
+ * unlike JNDI DNS lookups the TTL of each record is kept so records can be cached as long as allowed
+ *
+ * Domain without MX records is its own mail exchanger (implicit MX), domain that does not exist
+ * or publishes a null MX (RFC 7505) does not accept mail and resolves to an empty list
+ */
+public class DnsMxResolver implements MxResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(DnsMxResolver.class);
+
+    /**
+     * Default time to wait for a name server to answer
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * TTL of implicit MX when domain has no MX records
+     */
+    public static final Duration IMPLICIT_MX_TTL = Duration.ofMinutes(5);
+
+    private static final int DNS_PORT = 53;
+
+    private static final int TYPE_MX = 15;
+
+    private static final int CLASS_IN = 1;
+
+    private static final int RCODE_NAME_ERROR = 3;
+
+    private static final int MAX_UDP_SIZE = 512;
+
+    private static final Path RESOLV_CONF = Paths.get("/etc/resolv.conf");
+
+    private final List<InetSocketAddress> nameServers;
+
+    private final int timeout;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Queries name servers listed in /etc/resolv.conf (localhost if none is found)
+     */
+    public DnsMxResolver() {
+
+        this(getSystemNameServers(), DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param nameServers name servers to query in given order, next one is asked only when previous failed
+     * @param timeout     time to wait for a name server to answer
+     */
+    public DnsMxResolver(List<InetSocketAddress> nameServers, Duration timeout) {
+
+        Assert.notNullOrEmpty(nameServers, "Missing name servers!");
+        Assert.notNull(timeout, "Missing timeout!");
+        Assert.isTrue(timeout.toMillis() > 0 && timeout.toMillis() <= Integer.MAX_VALUE, "Invalid timeout given: " + timeout);
+
+        this.nameServers = Collections.unmodifiableList(new ArrayList<>(nameServers));
+        this.timeout = (int) timeout.toMillis();
+    }
+
+    @Override
+    public List<MxRecord> resolve(String domain) throws IOException {
+
+        Assert.notNullOrEmptyTrimmed(domain, "Missing domain!");
+
+        String name = IDN.toASCII(domain.trim().toLowerCase());
+        IOException failure = null;
+
+        for (InetSocketAddress server : nameServers) {
+            try {
+                int id = random.nextInt(0x10000);
+                byte[] query = getQuery(id, name);
+
+                byte[] answer = queryUdp(server, query, id);
+                if ((answer[2] & 0x02) != 0) {
+                    // truncated ... repeat over TCP
+                    answer = queryTcp(server, query);
+                }
+
+                return parse(answer, id, name);
+            }
+            catch (IOException e) {
+                log.debug("MX lookup of {} at {} failed: {}", name, server, e.getMessage());
+                failure = e;
+            }
+        }
+
+        throw failure;
+    }
+
+    /**
+     * @return name servers queried in given order
+     */
+    public List<InetSocketAddress> getNameServers() {
+
+        return nameServers;
+    }
+
+    private byte[] queryUdp(InetSocketAddress server, byte[] query, int id) throws IOException {
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(timeout);
+            socket.connect(server);
+            socket.send(new DatagramPacket(query, query.length));
+
+            byte[] buffer = new byte[MAX_UDP_SIZE];
+            while (true) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+
+                // ignore stray answers to other queries
+                if (packet.getLength() >= 12 && getShort(buffer, 0) == id) {
+                    return Arrays.copyOf(buffer, packet.getLength());
+                }
+            }
+        }
+    }
+
+    private byte[] queryTcp(InetSocketAddress server, byte[] query) throws IOException {
+
+        try (Socket socket = new Socket()) {
+            socket.connect(server, timeout);
+            socket.setSoTimeout(timeout);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeShort(query.length);
+            out.write(query);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] answer = new byte[in.readUnsignedShort()];
+            in.readFully(answer);
+            return answer;
+        }
+    }
+
+    private static byte[] getQuery(int id, String name) throws IOException {
+
+        ByteArrayOutputStream query = new ByteArrayOutputStream(MAX_UDP_SIZE);
+        DataOutputStream out = new DataOutputStream(query);
+
+        out.writeShort(id);
+        out.writeShort(0x0100); // recursion desired
+        out.writeShort(1); // question
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length == 0 || bytes.length > 63) {
+                throw new IOException("Invalid domain name: " + name);
+            }
+
+            out.writeByte(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeByte(0);
+        out.writeShort(TYPE_MX);
+        out.writeShort(CLASS_IN);
+        return query.toByteArray();
+    }
+
+    private static List<MxRecord> parse(byte[] answer, int id, String domain) throws IOException {
+
+        try {
+            if (getShort(answer, 0) != id || (answer[2] & 0x80) == 0) {
+                throw new IOException("Invalid DNS answer for: " + domain);
+            }
+
+            int code = answer[3] & 0x0F;
+            if (code == RCODE_NAME_ERROR) {
+                return Collections.emptyList();
+            }
+
+            if (code != 0) {
+                throw new IOException("MX lookup of " + domain + " failed with response code: " + code);
+            }
+
+            int questions = getShort(answer, 4);
+            int answers = getShort(answer, 6);
+
+            int[] position = {12};
+            for (int i = 0; i < questions; i++) {
+                readName(answer, position);
+                position[0] += 4;
+            }
+
+            List<MxRecord> records = new ArrayList<>(answers);
+            boolean nullMx = false;
+
+            for (int i = 0; i < answers; i++) {
+                readName(answer, position);
+
+                int type = getShort(answer, position[0]);
+                long ttl = (long) getShort(answer, position[0] + 4) << 16 | getShort(answer, position[0] + 6);
+                int length = getShort(answer, position[0] + 8);
+                position[0] += 10;
+
+                int next = position[0] + length;
+                if (type == TYPE_MX) {
+                    int priority = getShort(answer, position[0]);
+                    position[0] += 2;
+
+                    String host = readName(answer, position);
+                    if (host.isEmpty()) {
+                        nullMx = true;
+                    }
+                    else {
+                        records.add(new MxRecord(host, priority, Duration.ofSeconds(ttl)));
+                    }
+                }
+
+                position[0] = next;
+            }
+
+            if (records.isEmpty() && !nullMx) {
+                return Collections.singletonList(new MxRecord(domain, 0, IMPLICIT_MX_TTL));
+            }
+
+            return records;
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IOException("Malformed DNS answer for: " + domain, e);
+        }
+    }
+
+    /**
+     * Reads (compressed) domain name at position and moves position after it
+     *
+     * @return name without trailing dot, empty for root
+     */
+    private static String readName(byte[] data, int[] position) throws IOException {
+
+        StringBuilder name = new StringBuilder();
+
+        int offset = position[0];
+        int end = -1;
+        int jumps = 0;
+
+        while (true) {
+            int length = data[offset] & 0xFF;
+
+            if (length == 0) {
+                position[0] = end < 0 ? offset + 1 : end;
+                return name.toString();
+            }
+
+            if ((length & 0xC0) == 0xC0) {
+                if (++jumps > 64) {
+                    throw new IOException("DNS name compression loop");
+                }
+
+                if (end < 0) {
+                    end = offset + 2;
+                }
+
+                offset = (length & 0x3F) << 8 | (data[offset + 1] & 0xFF);
+                continue;
+            }
+
+            if (name.length() > 0) {
+                name.append('.');
+            }
+
+            name.append(new String(data, offset + 1, length, StandardCharsets.US_ASCII));
+            offset += length + 1;
+        }
+    }
+
+    private static int getShort(byte[] data, int offset) {
+
+        return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+    }
+
+    private static List<InetSocketAddress> getSystemNameServers() {
+
+        List<InetSocketAddress> servers = new ArrayList<>();
+        try {
+            if (Files.isReadable(RESOLV_CONF)) {
+                for (String line : Files.readAllLines(RESOLV_CONF, StandardCharsets.UTF_8)) {
+
+                    String[] parts = line.trim().split("\\s+");
+                    if (parts.length > 1 && "nameserver".equals(parts[0])) {
+                        // literal address, no lookup is done
+                        servers.add(new InetSocketAddress(InetAddress.getByName(parts[1]), DNS_PORT));
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            log.warn("Failed to read name servers from {}: {}", RESOLV_CONF, e.getMessage());
+        }
+
+        if (servers.isEmpty()) {
+            servers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), DNS_PORT));
+        }
+
+        return servers;
+    }
+}
@@ -0,0 +1,272 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.mail.service.limit.*;
+import com.zandero.utils.*;
+import org.slf4j.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Limits rate (token bucket) and concurrency of transactions per recipient domain
+ *
+ * Rate starts at warm-up rate and follows the warm-up schedule up to max rate. When a domain defers a transaction
+ * (421 or 451) sending to it is paused with exponential backoff and its rate is halved,
+ * each accepted transaction then increases rate step by step up to the current warm-up ceiling.
+ * Limits of domains not sent to for longer than idle timeout are dropped once they are back to their defaults.
+ */
+public class DomainThrottle {
+
+    private static final Logger log = LoggerFactory.getLogger(DomainThrottle.class);
+
+    private static final int SMTP_SERVICE_NOT_AVAILABLE = 421;
+
+    private static final int SMTP_LOCAL_ERROR = 451;
+
+    /**
+     * Fraction of rate ceiling rate is increased by on each accepted transaction
+     */
+    private static final double RATE_INCREASE = 0.05;
+
+    private final DomainThrottleConfig config;
+
+    private final Map<String, DomainLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * Time idle domains were last evicted
+     */
+    private final AtomicLong evicted = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param throttleConfig default and per domain limits
+     */
+    public DomainThrottle(DomainThrottleConfig throttleConfig) {
+
+        Assert.notNull(throttleConfig, "Missing domain throttle config!");
+        config = throttleConfig;
+    }
+
+    /**
+     * Waits on calling thread for domain rate limit and concurrency permit,
+     * once acquired permit must be given back with {@link #release(String, int)}
+     *
+     * @param domain recipient domain
+     * @return null once transaction may start, otherwise time to wait before domain is likely to accept a transaction
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public Duration acquire(String domain) throws InterruptedException {
+
+        DomainLimit limit = getLimit(domain);
+
+        long start = System.nanoTime();
+        long timeout = limit.config.getAcquireTimeout().toNanos();
+
+        limit.warmUp();
+
+        long wait = limit.bucket.reserve();
+        if (wait > timeout) {
+            limit.bucket.refund();
+            return Duration.ofNanos(wait);
+        }
+
+        try {
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+
+            if (!limit.permits.tryAcquire(Math.max(0, timeout - (System.nanoTime() - start)), TimeUnit.NANOSECONDS)) {
+                limit.bucket.refund(); // transaction is not made ... token is not used
+                return Duration.ofNanos(Math.max(1, (long) (1_000_000_000d / limit.bucket.getRate())));
+            }
+        }
+        catch (InterruptedException e) {
+            limit.bucket.refund();
+            throw e;
+        }
+
+        return null;
+    }
+
+    /**
+     * Gives permit back and adapts domain rate to outcome of transaction
+     *
+     * @param domain    recipient domain
+     * @param replyCode SMTP reply code of transaction or 0 if not known (i.e. connection failed)
+     */
+    public void release(String domain, int replyCode) {
+
+        DomainLimit limit = getLimit(domain);
+        try {
+            if (replyCode == SMTP_SERVICE_NOT_AVAILABLE || replyCode == SMTP_LOCAL_ERROR) {
+                limit.deferred(domain, replyCode);
+            }
+            else if (replyCode >= 200 && replyCode < 300) {
+                limit.accepted();
+            }
+        }
+        finally {
+            limit.permits.release();
+        }
+    }
+
+    /**
+     * @param domain recipient domain
+     * @return current transactions per second of domain
+     */
+    public double getRate(String domain) {
+
+        return getLimit(domain).bucket.getRate();
+    }
+
+    /**
+     * @param domain recipient domain
+     * @return number of transactions in flight to domain
+     */
+    public int getInFlight(String domain) {
+
+        DomainLimit limit = getLimit(domain);
+        return limit.config.getMaxConcurrency() - limit.permits.availablePermits();
+    }
+
+    /**
+     * @return number of domains limits are held for
+     */
+    public int getDomainCount() {
+
+        return limits.size();
+    }
+
+    /**
+     * @return throttle settings
+     */
+    public DomainThrottleConfig getConfig() {
+
+        return config;
+    }
+
+    private DomainLimit getLimit(String domain) {
+
+        Assert.notNullOrEmptyTrimmed(domain, "Missing domain!");
+
+        long now = System.nanoTime();
+        evictIdle(now);
+
+        // marked as used while holding the entry, so it can't be evicted in between
+        String key = domain.toLowerCase();
+        return limits.compute(key, (name, limit) -> {
+            DomainLimit current = limit != null ? limit : new DomainLimit(config.getConfig(name));
+            current.used = now;
+            return current;
+        });
+    }
+
+    /**
+     * Drops limits of idle domains, at most once per idle timeout
+     */
+    private void evictIdle(long now) {
+
+        long idleTimeout = config.getIdleTimeout().toNanos();
+        long last = evicted.get();
+        if (now - last < idleTimeout || !evicted.compareAndSet(last, now)) {
+            return;
+        }
+
+        for (String domain : limits.keySet()) {
+            limits.computeIfPresent(domain, (name, limit) -> limit.isIdle(now, idleTimeout) ? null : limit);
+        }
+    }
+
+    /**
+     * Limits of a single domain
+     */
+    private static final class DomainLimit {
+
+        private final DomainThrottleConfig config;
+
+        private final TokenBucket bucket;
+
+        private final Semaphore permits;
+
+        private final Instant warmUpStart;
+
+        /**
+         * Rate ceiling of current warm-up step
+         */
+        private double ceiling;
+
+        private int deferrals;
+
+        /**
+         * Time limit was last used
+         */
+        private volatile long used;
+
+        private DomainLimit(DomainThrottleConfig domainConfig) {
+
+            config = domainConfig;
+            warmUpStart = config.getWarmUpStart() != null ? config.getWarmUpStart() : Instant.now();
+            ceiling = config.getWarmUpRate(Duration.between(warmUpStart, Instant.now()));
+
+            bucket = new TokenBucket(ceiling, config.getBurst());
+            permits = new Semaphore(config.getMaxConcurrency(), true);
+        }
+
+        /**
+         * Moves rate ceiling to current warm-up step, rate follows it unless lowered by deferrals
+         */
+        private synchronized void warmUp() {
+
+            double next = config.getWarmUpRate(Duration.between(warmUpStart, Instant.now()));
+            if (next == ceiling) {
+                return;
+            }
+
+            if (bucket.getRate() >= ceiling || bucket.getRate() > next) {
+                bucket.setRate(next);
+            }
+
+            ceiling = next;
+        }
+
+        private synchronized void deferred(String domain, int replyCode) {
+
+            deferrals++;
+
+            // backoff * 2^(deferrals - 1) capped at max backoff
+            Duration pause = config.getBackoff().multipliedBy(1L << Math.min(deferrals - 1, 20));
+            if (pause.compareTo(config.getMaxBackoff()) > 0) {
+                pause = config.getMaxBackoff();
+            }
+
+            double rate = Math.max(config.getMinRate(), bucket.getRate() / 2);
+            bucket.pause(pause);
+            bucket.setRate(rate);
+
+            log.warn("Deferred by {} ({}), pausing for: {} ms, lowering rate to: {}/s", domain, replyCode, pause.toMillis(), rate);
+        }
+
+        /**
+         * Idle limit holds no state a new limit wouldn't have: no transaction in flight, no pause or deferral,
+         * warm-up is over (or starts at fixed time) and rate is not lowered
+         */
+        private synchronized boolean isIdle(long now, long idleTimeout) {
+
+            return now - used >= idleTimeout &&
+                   permits.availablePermits() == config.getMaxConcurrency() &&
+                   deferrals == 0 &&
+                   !bucket.isPaused() &&
+                   (config.getWarmUpStart() != null || ceiling >= config.getRate()) &&
+                   bucket.getRate() >= ceiling;
+        }
+
+        private synchronized void accepted() {
+
+            deferrals = 0;
+            if (bucket.getRate() < ceiling) {
+                bucket.setRate(Math.min(ceiling, bucket.getRate() + ceiling * RATE_INCREASE));
+            }
+        }
+    }
+}
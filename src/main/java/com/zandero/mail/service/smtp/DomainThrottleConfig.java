@@ -0,0 +1,325 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.utils.*;
+
+import java.time.*;
+import java.util.*;
+
+/**
+ * Rate, concurrency, warm-up and backoff settings of a recipient domain, with overrides for individual domains
+ */
+public class DomainThrottleConfig {
+
+    /**
+     * Default number of transactions per second and domain
+     */
+    public static final double DEFAULT_RATE = 10;
+
+    /**
+     * Default number of transactions started at once after an idle period
+     */
+    public static final int DEFAULT_BURST = 10;
+
+    /**
+     * Default max number of transactions in flight per domain
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 5;
+
+    /**
+     * Default max time a send waits for its turn
+     */
+    public static final Duration DEFAULT_ACQUIRE_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Default pause after first deferral (421 or 451), doubled on each consecutive deferral
+     */
+    public static final Duration DEFAULT_BACKOFF = Duration.ofMinutes(1);
+
+    /**
+     * Default max pause after consecutive deferrals
+     */
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMinutes(30);
+
+    /**
+     * Default time after which limits of a domain no longer sent to are dropped
+     */
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+    private double rate = DEFAULT_RATE;
+
+    private int burst = DEFAULT_BURST;
+
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+    private Duration acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+    private Duration backoff = DEFAULT_BACKOFF;
+
+    private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+
+    private double minRate = 0.1;
+
+    private Duration warmUpStep;
+
+    private double[] warmUpRates;
+
+    private Instant warmUpStart;
+
+    private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private final Map<String, DomainThrottleConfig> domains = new HashMap<>();
+
+    /**
+     * Domain throttle settings with defaults
+     */
+    public DomainThrottleConfig() {
+    }
+
+    /**
+     * Sets max (sustained) rate of transactions to a domain
+     *
+     * @param transactionsPerSecond max rate, must be greater than 0
+     * @return config (self)
+     */
+    public DomainThrottleConfig rate(double transactionsPerSecond) {
+
+        Assert.isTrue(transactionsPerSecond > 0, "Rate must be greater than 0!");
+        rate = transactionsPerSecond;
+        return this;
+    }
+
+    /**
+     * Sets number of transactions started at once after an idle period
+     *
+     * @param value burst, must be greater than 0
+     * @return config (self)
+     */
+    public DomainThrottleConfig burst(int value) {
+
+        Assert.isTrue(value > 0, "Burst must be greater than 0!");
+        burst = value;
+        return this;
+    }
+
+    /**
+     * Sets max number of transactions in flight to a domain
+     *
+     * @param value max concurrency, must be greater than 0
+     * @return config (self)
+     */
+    public DomainThrottleConfig maxConcurrency(int value) {
+
+        Assert.isTrue(value > 0, "Max concurrency must be greater than 0!");
+        maxConcurrency = value;
+        return this;
+    }
+
+    /**
+     * Sets max time a send waits for its turn, sends waiting longer are throttled without connecting
+     *
+     * @param value timeout, must not be negative
+     * @return config (self)
+     */
+    public DomainThrottleConfig acquireTimeout(Duration value) {
+
+        Assert.notNull(value, "Missing acquire timeout!");
+        Assert.isFalse(value.isNegative(), "Acquire timeout must not be negative!");
+        acquireTimeout = value;
+        return this;
+    }
+
+    /**
+     * Sets pause after domain deferred a transaction (421 or 451), pause is doubled on each consecutive deferral up to max
+     *
+     * @param value    first pause, must not be negative
+     * @param maxValue max pause, must be equal or greater than first pause
+     * @return config (self)
+     */
+    public DomainThrottleConfig backoff(Duration value, Duration maxValue) {
+
+        Assert.notNull(value, "Missing backoff!");
+        Assert.notNull(maxValue, "Missing max backoff!");
+        Assert.isFalse(value.isNegative(), "Backoff must not be negative!");
+        Assert.isTrue(maxValue.compareTo(value) >= 0, "Max backoff must be equal or greater than backoff!");
+
+        backoff = value;
+        maxBackoff = maxValue;
+        return this;
+    }
+
+    /**
+     * Sets rate never gone below when deferrals halve the rate
+     *
+     * @param transactionsPerSecond min rate, must be greater than 0
+     * @return config (self)
+     */
+    public DomainThrottleConfig minRate(double transactionsPerSecond) {
+
+        Assert.isTrue(transactionsPerSecond > 0, "Min rate must be greater than 0!");
+        minRate = transactionsPerSecond;
+        return this;
+    }
+
+    /**
+     * Ramps rate up while sending reputation is built, each rate is in effect for one step after warm-up start
+     * and max rate is used once all steps passed
+     *
+     * @param step  time each rate is in effect
+     * @param rates transactions per second of each step (i.e. 0.1, 0.5, 1, 5)
+     * @return config (self)
+     */
+    public DomainThrottleConfig warmUp(Duration step, double... rates) {
+
+        Assert.notNull(step, "Missing warm-up step!");
+        Assert.isTrue(step.toMillis() > 0, "Warm-up step must be at least a millisecond!");
+        Assert.isTrue(rates != null && rates.length > 0, "Missing warm-up rates!");
+
+        for (double value : rates) {
+            Assert.isTrue(value > 0, "Warm-up rate must be greater than 0!");
+        }
+
+        warmUpStep = step;
+        warmUpRates = rates.clone();
+        return this;
+    }
+
+    /**
+     * Sets start of warm-up (i.e. when sending IP was put to use), if not set warm-up starts with first send to a domain
+     *
+     * @param value warm-up start
+     * @return config (self)
+     */
+    public DomainThrottleConfig warmUpStart(Instant value) {
+
+        Assert.notNull(value, "Missing warm-up start!");
+        warmUpStart = value;
+        return this;
+    }
+
+    /**
+     * Sets time after which limits of a domain no longer sent to are dropped (only of top level config),
+     * domains with transactions in flight, paused, lowered rate or warm-up in progress are kept
+     *
+     * @param value idle timeout, must be greater than 0
+     * @return config (self)
+     */
+    public DomainThrottleConfig idleTimeout(Duration value) {
+
+        Assert.notNull(value, "Missing idle timeout!");
+        Assert.isTrue(!value.isNegative() && !value.isZero(), "Idle timeout must be greater than 0!");
+        idleTimeout = value;
+        return this;
+    }
+
+    /**
+     * Sets settings of a single domain (i.e. large mailbox provider with published limits)
+     *
+     * @param domain recipient domain
+     * @param config settings of domain, overrides of given config are ignored
+     * @return config (self)
+     */
+    public DomainThrottleConfig domain(String domain, DomainThrottleConfig config) {
+
+        Assert.notNullOrEmptyTrimmed(domain, "Missing domain!");
+        Assert.notNull(config, "Missing domain throttle config!");
+        Assert.isFalse(config == this, "Domain can't be configured with its parent config!");
+
+        domains.put(domain.trim().toLowerCase(), config);
+        return this;
+    }
+
+    /**
+     * @param domain recipient domain (lower case)
+     * @return settings of domain, this config if domain has no own settings
+     */
+    public DomainThrottleConfig getConfig(String domain) {
+
+        return domains.getOrDefault(domain, this);
+    }
+
+    /**
+     * @return max transactions per second
+     */
+    public double getRate() {
+
+        return rate;
+    }
+
+    /**
+     * @return burst size
+     */
+    public int getBurst() {
+
+        return burst;
+    }
+
+    /**
+     * @return max transactions in flight
+     */
+    public int getMaxConcurrency() {
+
+        return maxConcurrency;
+    }
+
+    /**
+     * @return max time send waits for its turn
+     */
+    public Duration getAcquireTimeout() {
+
+        return acquireTimeout;
+    }
+
+    /**
+     * @return pause after first deferral
+     */
+    public Duration getBackoff() {
+
+        return backoff;
+    }
+
+    /**
+     * @return max pause after consecutive deferrals
+     */
+    public Duration getMaxBackoff() {
+
+        return maxBackoff;
+    }
+
+    /**
+     * @return min rate after deferrals
+     */
+    public double getMinRate() {
+
+        return Math.min(minRate, rate);
+    }
+
+    /**
+     * @return warm-up start or null if warm-up starts with first send to a domain
+     */
+    public Instant getWarmUpStart() {
+
+        return warmUpStart;
+    }
+
+    /**
+     * @return time after which limits of a domain no longer sent to are dropped
+     */
+    public Duration getIdleTimeout() {
+
+        return idleTimeout;
+    }
+
+    /**
+     * @param elapsed time since warm-up start
+     * @return rate ceiling at given time of warm-up, max rate if no warm-up is configured or it is over
+     */
+    public double getWarmUpRate(Duration elapsed) {
+
+        if (warmUpRates == null || elapsed.isNegative()) {
+            return warmUpRates == null ? rate : Math.min(rate, warmUpRates[0]);
+        }
+
+        long step = elapsed.toMillis() / warmUpStep.toMillis();
+        return step < warmUpRates.length ? Math.min(rate, warmUpRates[(int) step]) : rate;
+    }
+}
@@ -0,0 +1,261 @@
+package com.zandero.mail.service.smtp;
+
+import com.sun.mail.util.*;
+
+import javax.mail.*;
+import javax.mail.internet.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes message data (with CRLF line endings) in chunks on a writer thread while connection sends them,
+ * writer is blocked while connection has enough chunks queued, so only a few chunks of a message are held in memory
+ */
+final class MessageWriter extends OutputStream implements Runnable {
+
+    /**
+     * Size of written chunks
+     */
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    /**
+     * Max number of chunks waiting to be send
+     */
+    private static final int MAX_QUEUED = 4;
+
+    /**
+     * Headers not to be send with message data
+     */
+    private static final String[] IGNORE_HEADERS = {"Bcc", "Content-Length"};
+
+    private final Message message;
+
+    private final long timeout;
+
+    private final Runnable written;
+
+    private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(MAX_QUEUED);
+
+    /**
+     * True once all chunks are queued or writer failed
+     */
+    private volatile boolean complete;
+
+    private volatile Throwable failure;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Writer thread state
+     */
+    private byte[] buffer;
+
+    private int count;
+
+    /**
+     * Event loop state: chunk taken last was the last one
+     */
+    private boolean last;
+
+    /**
+     * @param mailMessage  message to write
+     * @param queueTimeout max time in nanoseconds to wait for connection to take a chunk
+     * @param chunkWritten called from writer thread each time a chunk is queued or writer is done
+     */
+    MessageWriter(Message mailMessage, long queueTimeout, Runnable chunkWritten) {
+
+        message = mailMessage;
+        timeout = queueTimeout;
+        written = chunkWritten;
+    }
+
+    /**
+     * Writes message data (without Bcc header) with CRLF line endings
+     *
+     * @param message to write
+     * @param out     to write to
+     * @throws IOException        in case data could not be written
+     * @throws MessagingException in case message could not be serialized
+     */
+    static void writeTo(Message message, OutputStream out) throws IOException, MessagingException {
+
+        OutputStream crlf = new CRLFOutputStream(out);
+        if (message instanceof MimeMessage) {
+            ((MimeMessage) message).writeTo(crlf, IGNORE_HEADERS);
+        }
+        else {
+            message.writeTo(crlf);
+        }
+
+        crlf.flush();
+    }
+
+    /**
+     * Serializes message without holding it in memory to get its size
+     *
+     * @param message to measure
+     * @return number of bytes of message data
+     * @throws IOException        in case data could not be written
+     * @throws MessagingException in case message could not be serialized
+     */
+    static long length(Message message) throws IOException, MessagingException {
+
+        Counter counter = new Counter();
+        writeTo(message, counter);
+        return counter.count;
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            writeTo(message, this);
+            if (count > 0) {
+                queue(ByteBuffer.wrap(buffer, 0, count));
+            }
+        }
+        catch (IOException | MessagingException | RuntimeException e) {
+            failure = e;
+        }
+        finally {
+            buffer = null;
+            complete = true;
+            written.run();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+
+        if (buffer == null || count == buffer.length) {
+            publish();
+        }
+
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        Objects.checkFromIndexSize(off, len, b.length);
+
+        while (len > 0) {
+            if (buffer == null || count == buffer.length) {
+                publish();
+            }
+
+            int size = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, size);
+            count += size;
+            off += size;
+            len -= size;
+        }
+    }
+
+    /**
+     * Takes next chunk, chunk is only given once it is known whether it is the last one
+     *
+     * @return next chunk or null if none is ready yet or writer failed
+     */
+    ByteBuffer poll() {
+
+        boolean done = complete;
+        if (failure != null || (!done && chunks.size() < 2)) {
+            return null;
+        }
+
+        ByteBuffer chunk = chunks.poll();
+        if (chunk == null) {
+            if (last) {
+                return null;
+            }
+
+            chunk = ByteBuffer.allocate(0); // nothing was written
+        }
+
+        last = done && chunks.isEmpty();
+        return chunk;
+    }
+
+    /**
+     * @return true if chunk taken last was the last one
+     */
+    boolean isLast() {
+
+        return last;
+    }
+
+    /**
+     * @return failure of writer or null if none
+     */
+    Throwable getFailure() {
+
+        return failure;
+    }
+
+    /**
+     * Stops writer, queued chunks are dropped
+     */
+    void cancel() {
+
+        cancelled = true;
+        chunks.clear();
+    }
+
+    /**
+     * Queues full chunk (if any) and starts a new one, queued chunk is handed over to connection as is
+     */
+    private void publish() throws IOException {
+
+        if (count > 0) {
+            queue(ByteBuffer.wrap(buffer, 0, count));
+            buffer = null;
+            count = 0;
+        }
+
+        if (buffer == null) {
+            buffer = new byte[CHUNK_SIZE];
+        }
+    }
+
+    private void queue(ByteBuffer chunk) throws IOException {
+
+        if (cancelled) {
+            throw new IOException("Message data cancelled!");
+        }
+
+        try {
+            if (!chunks.offer(chunk, timeout, TimeUnit.NANOSECONDS)) {
+                throw new IOException("Timed out writing message data!");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing message data!");
+        }
+
+        written.run();
+    }
+
+    /**
+     * Counts written bytes
+     */
+    private static final class Counter extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+
+            count += len;
+        }
+    }
+}
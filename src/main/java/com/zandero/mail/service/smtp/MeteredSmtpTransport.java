@@ -0,0 +1,94 @@
+package com.zandero.mail.service.smtp;
+
+import com.sun.mail.smtp.*;
+
+import javax.mail.*;
+import java.io.*;
+
+/**
+ * SMTP transport measuring time and bytes of message data written to the connection
+ */
+class MeteredSmtpTransport extends SMTPTransport {
+
+    private CountingOutputStream data;
+
+    private long dataStarted;
+
+    private long dataTime;
+
+    MeteredSmtpTransport(Session session) {
+
+        super(session, new URLName("smtp", null, -1, null, null, null));
+    }
+
+    /**
+     * Called by {@link SMTPTransport#sendMessage(Message, Address[])} once server accepted recipients,
+     * message is written to returned stream
+     */
+    @Override
+    protected OutputStream data() throws MessagingException {
+
+        dataTime = 0;
+        data = new CountingOutputStream(super.data());
+        dataStarted = System.nanoTime();
+        return data;
+    }
+
+    /**
+     * Called once message was written, waits for server to accept message
+     */
+    @Override
+    protected void finishData() throws IOException, MessagingException {
+
+        dataTime = System.nanoTime() - dataStarted;
+        super.finishData();
+    }
+
+    /**
+     * @return number of bytes of last message written or -1 if no message data was written
+     */
+    long getBytesSent() {
+
+        return data == null ? -1 : data.count;
+    }
+
+    /**
+     * @return time in nanoseconds it took to serialize and write last message
+     */
+    long getDataTime() {
+
+        return dataTime;
+    }
+
+    /**
+     * Resets measurements before next message
+     */
+    void reset() {
+
+        data = null;
+        dataTime = 0;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
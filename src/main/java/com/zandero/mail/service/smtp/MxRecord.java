@@ -0,0 +1,113 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.utils.*;
+
+import java.time.*;
+import java.util.*;
+
+/**
+ * Mail exchanger of a domain
+ */
+public final class MxRecord {
+
+    /**
+     * SMTP port of mail exchangers
+     */
+    public static final int SMTP_PORT = 25;
+
+    private final String host;
+
+    private final int port;
+
+    private final int priority;
+
+    private final Duration ttl;
+
+    /**
+     * @param host     mail exchanger host
+     * @param priority preference, lower is tried first
+     * @param ttl      time record can be cached
+     */
+    public MxRecord(String host, int priority, Duration ttl) {
+
+        this(host, SMTP_PORT, priority, ttl);
+    }
+
+    /**
+     * @param host     mail exchanger host
+     * @param port     SMTP port (i.e. of a local test server)
+     * @param priority preference, lower is tried first
+     * @param ttl      time record can be cached
+     */
+    public MxRecord(String host, int port, int priority, Duration ttl) {
+
+        Assert.notNullOrEmptyTrimmed(host, "Missing mail exchanger host!");
+        Assert.isTrue(port > 0 && port <= 65535, "Invalid SMTP port given: " + port);
+        Assert.notNull(ttl, "Missing TTL!");
+        Assert.isFalse(ttl.isNegative(), "TTL can't be negative!");
+
+        this.host = host.toLowerCase();
+        this.port = port;
+        this.priority = priority;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return mail exchanger host
+     */
+    public String getHost() {
+
+        return host;
+    }
+
+    /**
+     * @return SMTP port
+     */
+    public int getPort() {
+
+        return port;
+    }
+
+    /**
+     * @return preference, lower is tried first
+     */
+    public int getPriority() {
+
+        return priority;
+    }
+
+    /**
+     * @return time record can be cached
+     */
+    public Duration getTtl() {
+
+        return ttl;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        MxRecord record = (MxRecord) o;
+        return port == record.port && priority == record.priority && host.equals(record.host);
+    }
+
+    @Override
+    public int hashCode() {
+
+        return Objects.hash(host, port, priority);
+    }
+
+    @Override
+    public String toString() {
+
+        return priority + " " + host + ":" + port;
+    }
+}
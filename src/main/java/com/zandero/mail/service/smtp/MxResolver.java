@@ -0,0 +1,17 @@
+package com.zandero.mail.service.smtp;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Resolves mail exchangers of a domain
+ */
+public interface MxResolver {
+
+    /**
+     * @param domain recipient domain
+     * @return mail exchangers of domain or empty list if domain does not exist or does not accept mail
+     * @throws IOException in case lookup failed (i.e. timed out) and might succeed later
+     */
+    List<MxRecord> resolve(String domain) throws IOException;
+}
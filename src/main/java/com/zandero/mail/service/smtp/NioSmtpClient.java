@@ -0,0 +1,603 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.mail.service.*;
+import com.zandero.utils.*;
+import org.slf4j.*;
+
+import javax.mail.*;
+import javax.mail.internet.*;
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Non blocking SMTP client: a single event loop thread drives all connections to the SMTP server
+ *
+ * Connections are opened lazily up to pool size, each sends one message at a time and is reused while healthy.
+ * Sends waiting for a free connection are queued, so thousands of concurrent sends don't hold a thread each.
+ * Envelope and message are pipelined when server supports PIPELINING and send as BDAT chunks when server supports CHUNKING.
+ * Message data is written in chunks by a writer thread while it is send, so message is never held in memory as a whole.
+ */
+public class NioSmtpClient implements SmtpConnections, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(NioSmtpClient.class);
+
+    /**
+     * Max time between checks of timeouts and idle connections
+     */
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+
+    private final SmtpTlsConfig tls;
+
+    private final SmtpPoolConfig config;
+
+    private final long timeout;
+
+    private final String localHost;
+
+    private final Selector selector;
+
+    private final Thread loop;
+
+    /**
+     * Writes message data of transactions being send
+     */
+    private final ExecutorService writers;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Event loop state
+     */
+    private final Set<NioSmtpConnection> connections = new HashSet<>();
+
+    /**
+     * Idle connections, most recently used first
+     */
+    private final Deque<NioSmtpConnection> idle = new ArrayDeque<>();
+
+    private final Deque<Transaction> pending = new ArrayDeque<>();
+
+    private volatile int openCount;
+
+    private volatile int idleCount;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates client, event loop thread is started right away
+     *
+     * @param host     SMTP server host
+     * @param port     SMTP server port
+     * @param username username or null if no authentication is needed
+     * @param password password or null
+     * @param config   connection settings
+     * @throws IOException in case selector could not be opened
+     */
+    public NioSmtpClient(String host, int port, String username, String password, SmtpPoolConfig config) throws IOException {
+
+        this(host, port, username, password, config, new SmtpTlsConfig());
+    }
+
+    /**
+     * Creates client, event loop thread is started right away
+     *
+     * @param host       SMTP server host
+     * @param port       SMTP server port
+     * @param username   username or null if no authentication is needed
+     * @param password   password or null
+     * @param config     connection settings
+     * @param tlsConfig  connection security, all connections share SSL context of config (and its TLS sessions)
+     * @throws IOException in case selector could not be opened
+     */
+    public NioSmtpClient(String host, int port, String username, String password, SmtpPoolConfig config, SmtpTlsConfig tlsConfig) throws IOException {
+
+        Assert.notNullOrEmptyTrimmed(host, "Missing SMTP host!");
+        Assert.isTrue(port > 0 && port <= 65535, "Invalid SMTP port given: " + port);
+        Assert.notNull(config, "Missing SMTP pool config!");
+        Assert.notNull(tlsConfig, "Missing SMTP TLS config!");
+
+        this.host = host;
+        this.port = port;
+        this.username = StringUtils.trimToNull(username);
+        this.password = password;
+        this.config = config;
+        tls = tlsConfig;
+
+        if (tls.isSecure()) {
+            tls.getSslContext(); // fail early if context can't be initialized
+        }
+
+        timeout = config.getTimeout().toNanos();
+        localHost = getLocalHostName();
+
+        selector = Selector.open();
+        writers = Executors.newCachedThreadPool(MailExecutors.newThreadFactory("mail-smtp-writer"));
+        loop = new Thread(this::run, "mail-smtp-nio-" + threads.incrementAndGet());
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * Sends message out without blocking, message size is counted on calling thread (without holding message in memory),
+     * message data is written in chunks by a writer thread once connection is ready for it.
+     * Recipients rejected by server are skipped, send fails if all recipients are rejected
+     *
+     * @param message to be send
+     * @param stats   to record send in (time to count message size, response time, time waiting for connection, bytes and SMTP reply)
+     * @return future completed with given stats once server accepted message, or completed exceptionally with
+     * {@link com.sun.mail.smtp.SMTPSendFailedException} (or its siblings) holding SMTP reply or {@link IOException} in case of connection failure
+     */
+    public CompletableFuture<MailSendStats> send(Message message, MailSendStats stats) {
+
+        Assert.notNull(message, "Missing mail message!");
+        Assert.notNull(stats, "Missing send stats!");
+        Assert.isFalse(closed, "SMTP client is closed!");
+
+        Transaction transaction;
+        try {
+            transaction = new Transaction(message, stats);
+        }
+        catch (MessagingException | IOException e) {
+            CompletableFuture<MailSendStats> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        execute(() -> dispatch(transaction));
+        return transaction.future;
+    }
+
+    /**
+     * @return number of connections sending a message or being established
+     */
+    @Override
+    public int getActive() {
+
+        return openCount - idleCount;
+    }
+
+    /**
+     * @return number of idle (open) connections
+     */
+    @Override
+    public int getIdle() {
+
+        return idleCount;
+    }
+
+    /**
+     * @return max number of connections
+     */
+    @Override
+    public int getSize() {
+
+        return config.getSize();
+    }
+
+    /**
+     * Closes all connections, waiting sends fail
+     */
+    @Override
+    public void close() {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        selector.wakeup();
+
+        if (Thread.currentThread() != loop) {
+            try {
+                loop.join(TimeUnit.NANOSECONDS.toMillis(timeout));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    String getHost() {
+
+        return host;
+    }
+
+    int getPort() {
+
+        return port;
+    }
+
+    String getUsername() {
+
+        return username;
+    }
+
+    String getPassword() {
+
+        return password;
+    }
+
+    SmtpTlsConfig getTls() {
+
+        return tls;
+    }
+
+    String getLocalHost() {
+
+        return localHost;
+    }
+
+    /**
+     * @return timeout in nanoseconds
+     */
+    long getTimeout() {
+
+        return timeout;
+    }
+
+    /**
+     * Starts writing message data of a transaction
+     *
+     * @param writer message writer
+     */
+    void write(MessageWriter writer) {
+
+        writers.execute(writer);
+    }
+
+    /**
+     * Resumes connection on event loop thread (i.e. once message writer queued a chunk)
+     *
+     * @param connection to resume
+     */
+    void resume(NioSmtpConnection connection) {
+
+        execute(connection::resume);
+    }
+
+    /**
+     * Connection finished a transaction (or was established) and can be reused
+     */
+    void released(NioSmtpConnection connection) {
+
+        if (closed || connection.getMessages() >= config.getMaxMessages()) {
+            connection.quit();
+            return;
+        }
+
+        Transaction next = pending.pollFirst();
+        if (next != null) {
+            connection.start(next, false);
+        }
+        else {
+            idle.addFirst(connection);
+        }
+
+        updateCounts();
+    }
+
+    /**
+     * Connection was closed
+     *
+     * @param connection  closed connection
+     * @param transaction transaction in progress or null if none
+     * @param cause       failure or null if connection was closed regularly
+     * @param retry       true if transaction was not send yet and can be send through another connection
+     */
+    void closed(NioSmtpConnection connection, Transaction transaction, Throwable cause, boolean retry) {
+
+        connections.remove(connection);
+        idle.remove(connection);
+
+        if (cause != null) {
+            log.debug("SMTP connection to: {}:{} failed: {}", host, port, cause.getMessage());
+        }
+
+        if (transaction != null) {
+            if (retry && !closed) {
+                dispatch(transaction);
+            }
+            else {
+                transaction.fail(cause != null ? cause : new IOException("SMTP connection to: " + host + ":" + port + " closed"));
+            }
+        }
+
+        // replace connection for waiting sends
+        if (!closed && !pending.isEmpty() && connections.size() < config.getSize()) {
+            open(pending.pollFirst());
+        }
+
+        updateCounts();
+    }
+
+    private void dispatch(Transaction transaction) {
+
+        if (closed) {
+            transaction.fail(new IOException("SMTP client is closed"));
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        NioSmtpConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+
+            long idleTime = now - connection.getLastUsed();
+            if (idleTime > config.getIdleTimeout().toNanos()) {
+                connection.quit();
+                continue;
+            }
+
+            boolean check = config.isHealthCheck() && idleTime >= config.getHealthCheckAfter().toNanos();
+            connection.start(transaction, check);
+            updateCounts();
+            return;
+        }
+
+        if (connections.size() < config.getSize()) {
+            open(transaction);
+        }
+        else {
+            pending.addLast(transaction);
+        }
+
+        updateCounts();
+    }
+
+    private void open(Transaction transaction) {
+
+        log.debug("Connecting to SMTP server: {}:{}", host, port);
+
+        NioSmtpConnection connection;
+        try {
+            connection = new NioSmtpConnection(this);
+        }
+        catch (IOException e) {
+            transaction.fail(e);
+            return;
+        }
+
+        connections.add(connection);
+        connection.connect(selector, transaction);
+    }
+
+    private void execute(Runnable task) {
+
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+
+        long lastCheck = System.nanoTime();
+        try {
+            while (!closed) {
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                selector.select(TimeUnit.NANOSECONDS.toMillis(TICK));
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (key.isValid()) {
+                        ((NioSmtpConnection) key.attachment()).handle();
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - lastCheck >= TICK) {
+                    lastCheck = now;
+                    checkTimeouts(now);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("SMTP event loop failed: " + e.getMessage(), e);
+        }
+        finally {
+            shutdown();
+        }
+    }
+
+    private void checkTimeouts(long now) {
+
+        for (NioSmtpConnection connection : new ArrayList<>(connections)) {
+            connection.checkTimeout(now);
+        }
+
+        // least recently used are last
+        NioSmtpConnection connection;
+        while ((connection = idle.peekLast()) != null && now - connection.getLastUsed() > config.getIdleTimeout().toNanos()) {
+            idle.pollLast();
+            connection.quit();
+        }
+
+        long borrowTimeout = config.getBorrowTimeout().toNanos();
+        Transaction transaction;
+        while ((transaction = pending.peekFirst()) != null && now - transaction.submitted > borrowTimeout) {
+            pending.pollFirst();
+            transaction.fail(new IOException("Timed out waiting for SMTP connection to: " + host + ":" + port));
+        }
+
+        updateCounts();
+    }
+
+    private void shutdown() {
+
+        closed = true;
+
+        Transaction transaction;
+        while ((transaction = pending.pollFirst()) != null) {
+            transaction.fail(new IOException("SMTP client is closed"));
+        }
+
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run(); // fails transactions submitted while closing
+        }
+
+        for (NioSmtpConnection connection : new ArrayList<>(connections)) {
+            connection.quit();
+        }
+
+        writers.shutdownNow();
+
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            log.debug("Failed to close selector: {}", e.getMessage());
+        }
+
+        updateCounts();
+    }
+
+    private void updateCounts() {
+
+        openCount = connections.size();
+        idleCount = idle.size();
+    }
+
+    private static String getLocalHostName() {
+
+        try {
+            String name = InetAddress.getLocalHost().getCanonicalHostName();
+            if (!StringUtils.isNullOrEmptyTrimmed(name)) {
+                return name;
+            }
+        }
+        catch (UnknownHostException e) {
+            log.debug("Failed to resolve local host name: {}", e.getMessage());
+        }
+
+        return "localhost";
+    }
+
+    /**
+     * Message to be send with its envelope
+     */
+    static final class Transaction {
+
+        private final InternetAddress from;
+
+        private final InternetAddress[] recipients;
+
+        private final Message message;
+
+        private final long length;
+
+        private final MailSendStats stats;
+
+        private final CompletableFuture<MailSendStats> future = new CompletableFuture<>();
+
+        private final long submitted;
+
+        private long started;
+
+        private Transaction(Message message, MailSendStats sendStats) throws MessagingException, IOException {
+
+            stats = sendStats;
+
+            Address[] senders = message.getFrom();
+            if (senders == null || senders.length == 0 || !(senders[0] instanceof InternetAddress)) {
+                throw new SendFailedException("No sender address");
+            }
+
+            from = (InternetAddress) senders[0];
+
+            Address[] all = message.getAllRecipients();
+            if (all == null || all.length == 0) {
+                throw new SendFailedException("No recipient addresses");
+            }
+
+            recipients = new InternetAddress[all.length];
+            for (int index = 0; index < all.length; index++) {
+                if (!(all[index] instanceof InternetAddress)) {
+                    throw new SendFailedException("Invalid recipient address: " + all[index]);
+                }
+
+                recipients[index] = (InternetAddress) all[index];
+            }
+
+            long start = System.nanoTime();
+
+            this.message = message;
+            length = MessageWriter.length(message);
+            submitted = System.nanoTime();
+
+            stats.serializationTime(submitted - start)
+                 .bytesSent(length);
+        }
+
+        InternetAddress getFrom() {
+
+            return from;
+        }
+
+        InternetAddress[] getRecipients() {
+
+            return recipients;
+        }
+
+        /**
+         * @return message to be send
+         */
+        Message getMessage() {
+
+            return message;
+        }
+
+        /**
+         * @return number of bytes of message data (with CRLF line endings)
+         */
+        long getLength() {
+
+            return length;
+        }
+
+        /**
+         * Transaction was assigned a connection
+         */
+        void started() {
+
+            started = System.nanoTime();
+            stats.connectTime(started - submitted);
+        }
+
+        void complete(int code) {
+
+            stats.responseTime(System.nanoTime() - started)
+                 .providerStatus(code);
+            future.complete(stats);
+        }
+
+        void fail(Throwable e) {
+
+            if (started > 0) {
+                stats.responseTime(System.nanoTime() - started);
+            }
+            else {
+                stats.connectTime(System.nanoTime() - submitted);
+            }
+
+            future.completeExceptionally(e);
+        }
+    }
+}
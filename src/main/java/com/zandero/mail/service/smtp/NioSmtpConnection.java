@@ -0,0 +1,916 @@
+package com.zandero.mail.service.smtp;
+
+import com.sun.mail.smtp.*;
+
+import javax.mail.*;
+import javax.mail.internet.*;
+import javax.net.ssl.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Single non blocking SMTP connection, all methods are called from the event loop thread of {@link NioSmtpClient}
+ *
+ * Commands are queued together with a handler of their reply, so the same flow works lock-step or pipelined:
+ * with PIPELINING (RFC 2920) envelope and data command are written at once, with CHUNKING (RFC 3030) message is send
+ * as BDAT chunks without dot stuffing (pipelined with PIPELINING, otherwise each chunk waits for reply to previous one).
+ * Message data is taken from {@link MessageWriter} chunk by chunk once previous chunk was written to the channel.
+ */
+final class NioSmtpConnection {
+
+    private static final byte[] DATA_END = {'.', '\r', '\n'};
+
+    private static final byte[] CRLF_DATA_END = {'\r', '\n', '.', '\r', '\n'};
+
+    private static final int BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Handles server reply to a command
+     */
+    private interface ReplyHandler {
+
+        void reply(int code, String text) throws IOException, MessagingException;
+    }
+
+    private final NioSmtpClient client;
+
+    private final SocketChannel channel;
+
+    private SelectionKey key;
+
+    private TlsChannel tls;
+
+    private boolean handshaking;
+
+    /**
+     * Received data (write mode)
+     */
+    private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Lines of reply received so far
+     */
+    private final StringBuilder reply = new StringBuilder();
+
+    /**
+     * Commands not yet moved to output
+     */
+    private final StringBuilder commands = new StringBuilder();
+
+    private final Deque<ByteBuffer> out = new ArrayDeque<>();
+
+    private final Deque<ReplyHandler> handlers = new ArrayDeque<>();
+
+    /**
+     * Extensions advertised in EHLO reply (upper case keyword to parameters)
+     */
+    private final Map<String, String> extensions = new HashMap<>();
+
+    private NioSmtpClient.Transaction current;
+
+    /**
+     * True while current transaction waits for NOOP health check, transaction is retried if check fails
+     */
+    private boolean checking;
+
+    private boolean closed;
+
+    private long deadline;
+
+    private int messages;
+
+    private long lastUsed = System.nanoTime();
+
+    /**
+     * Outcome of current transaction: number of accepted recipients, sender and last recipient rejection
+     */
+    private int accepted;
+
+    private MessagingException failure;
+
+    private MessagingException rejected;
+
+    /**
+     * Writer of message data being send or null if data is not being send
+     */
+    private MessageWriter writer;
+
+    /**
+     * Dot stuffing of DATA or null when data is send with BDAT
+     */
+    private DotStuffer stuffer;
+
+    /**
+     * True while BDAT chunk waits for reply before next chunk is send (without PIPELINING)
+     */
+    private boolean awaitingChunk;
+
+    private boolean chunkPipelining;
+
+    NioSmtpConnection(NioSmtpClient smtpClient) throws IOException {
+
+        client = smtpClient;
+
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Starts connecting, given transaction is send once connection is established
+     *
+     * @param selector    event loop selector
+     * @param transaction to send first
+     */
+    void connect(Selector selector, NioSmtpClient.Transaction transaction) {
+
+        current = transaction;
+        handlers.add(this::greeting);
+
+        try {
+            boolean connected = channel.connect(new InetSocketAddress(client.getHost(), client.getPort()));
+            key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+
+            if (connected) {
+                connected();
+            }
+
+            afterEvent();
+        }
+        catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Sends transaction through this (idle) connection
+     *
+     * @param transaction to send
+     * @param check       true to check connection with NOOP first
+     */
+    void start(NioSmtpClient.Transaction transaction, boolean check) {
+
+        current = transaction;
+        checking = check;
+
+        try {
+            if (check) {
+                command("NOOP", (code, text) -> {
+                    if (code != 250) {
+                        throw new SMTPSendFailedException("NOOP", code, text, null, null, null, null);
+                    }
+
+                    checking = false;
+                    send();
+                });
+            }
+            else {
+                send();
+            }
+
+            afterEvent();
+        }
+        catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Handles selected channel event
+     */
+    void handle() {
+
+        try {
+            if (key.isConnectable() && channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                connected();
+            }
+
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+
+            if (!closed && key.isValid() && key.isWritable() && handshaking && handshake()) {
+                read(); // data might already be decrypted
+            }
+
+            if (!closed) {
+                afterEvent();
+            }
+        }
+        catch (IOException | MessagingException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Sends message data queued by message writer
+     */
+    void resume() {
+
+        if (closed) {
+            return;
+        }
+
+        try {
+            afterEvent();
+        }
+        catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Fails connection if server did not reply in time
+     *
+     * @param now current time (nano time)
+     */
+    void checkTimeout(long now) {
+
+        if (!closed && deadline > 0 && now - deadline > 0) {
+            fail(new SocketTimeoutException("SMTP server: " + client.getHost() + ":" + client.getPort() + " did not respond in time"));
+        }
+    }
+
+    /**
+     * Sends QUIT without waiting for reply and closes connection
+     */
+    void quit() {
+
+        if (closed) {
+            return;
+        }
+
+        try {
+            if (!handshaking && key != null && channel.isConnected()) {
+                ByteBuffer[] quit = {ByteBuffer.wrap("QUIT\r\n".getBytes(StandardCharsets.US_ASCII))};
+                if (tls != null) {
+                    tls.write(channel, quit);
+                }
+                else {
+                    channel.write(quit);
+                }
+            }
+        }
+        catch (IOException e) {
+            // closing anyway
+        }
+
+        close(null);
+    }
+
+    /**
+     * @return number of messages send through this connection
+     */
+    int getMessages() {
+
+        return messages;
+    }
+
+    /**
+     * @return time (nano time) connection was last used
+     */
+    long getLastUsed() {
+
+        return lastUsed;
+    }
+
+    /**
+     * With implicit TLS connection is secured before server greeting
+     */
+    private void connected() throws IOException {
+
+        if (client.getTls().getMode() == SmtpTlsConfig.Mode.SMTPS) {
+            startTls();
+            handshake();
+        }
+    }
+
+    private void greeting(int code, String text) throws IOException, MessagingException {
+
+        if (code != 220) {
+            throw new SMTPSendFailedException("CONNECT", code, text, null, null, null, null);
+        }
+
+        ehlo();
+    }
+
+    private void ehlo() {
+
+        extensions.clear();
+        command("EHLO " + client.getLocalHost(), (code, text) -> {
+            if (code == 250) {
+                parseExtensions(text);
+                secure();
+            }
+            else {
+                // not an ESMTP server
+                command("HELO " + client.getLocalHost(), this::helo);
+            }
+        });
+    }
+
+    private void helo(int code, String text) throws IOException, MessagingException {
+
+        if (code != 250) {
+            throw new SMTPSendFailedException("HELO", code, text, null, null, null, null);
+        }
+
+        secure();
+    }
+
+    /**
+     * Upgrades connection with STARTTLS if TLS is required
+     */
+    private void secure() throws IOException, MessagingException {
+
+        if (client.getTls().getMode() != SmtpTlsConfig.Mode.STARTTLS || tls != null) {
+            authenticate();
+            return;
+        }
+
+        if (!extensions.containsKey("STARTTLS")) {
+            throw new MessagingException("SMTP server: " + client.getHost() + " does not support STARTTLS");
+        }
+
+        command("STARTTLS", (code, text) -> {
+            if (code != 220) {
+                throw new SMTPSendFailedException("STARTTLS", code, text, null, null, null, null);
+            }
+
+            startTls();
+        });
+    }
+
+    /**
+     * Engine is created for server host and port, so SSL context can resume a cached session to the same server
+     */
+    private void startTls() throws SSLException {
+
+        SmtpTlsConfig config = client.getTls();
+        SSLEngine engine = config.getSslContext().createSSLEngine(client.getHost(), client.getPort());
+        engine.setUseClientMode(true);
+
+        SSLParameters parameters = engine.getSSLParameters();
+        if (config.isCheckServerIdentity()) {
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        }
+
+        if (config.getProtocols() != null) {
+            parameters.setProtocols(config.getProtocols());
+        }
+
+        engine.setSSLParameters(parameters);
+        engine.beginHandshake();
+
+        tls = new TlsChannel(engine);
+        handshaking = true;
+    }
+
+    private void authenticate() throws MessagingException {
+
+        String username = client.getUsername();
+        if (username == null) {
+            ready();
+            return;
+        }
+
+        String password = client.getPassword() == null ? "" : client.getPassword();
+        String mechanisms = extensions.getOrDefault("AUTH", "").toUpperCase();
+
+        if (mechanisms.contains("PLAIN")) {
+            command("AUTH PLAIN " + base64("\0" + username + "\0" + password), this::authenticated);
+        }
+        else if (mechanisms.contains("LOGIN")) {
+            command("AUTH LOGIN", (code, text) -> {
+                expect(334, "AUTH LOGIN", code, text);
+                command(base64(username), (userCode, userText) -> {
+                    expect(334, "AUTH LOGIN", userCode, userText);
+                    command(base64(password), this::authenticated);
+                });
+            });
+        }
+        else {
+            throw new AuthenticationFailedException("SMTP server: " + client.getHost() + " supports neither AUTH PLAIN nor AUTH LOGIN");
+        }
+    }
+
+    private void authenticated(int code, String text) throws MessagingException {
+
+        expect(235, "AUTH", code, text);
+        ready();
+    }
+
+    /**
+     * Connection is established, sends waiting transaction or gives connection back to client
+     */
+    private void ready() {
+
+        if (current != null) {
+            send();
+        }
+        else {
+            release();
+        }
+    }
+
+    /**
+     * Writes envelope and data of current transaction, when pipelining is not supported commands are written one by one
+     */
+    private void send() {
+
+        NioSmtpClient.Transaction transaction = current;
+        transaction.started();
+
+        accepted = 0;
+        failure = null;
+        rejected = null;
+
+        boolean pipelining = extensions.containsKey("PIPELINING");
+
+        String size = extensions.containsKey("SIZE") ? " SIZE=" + transaction.getLength() : "";
+        command("MAIL FROM:<" + transaction.getFrom().getAddress() + ">" + size, (code, text) -> {
+            if (code != 250) {
+                failure = new SMTPSenderFailedException(transaction.getFrom(), "MAIL FROM", code, text);
+                if (!pipelining) {
+                    finish(code, text);
+                    return;
+                }
+            }
+
+            if (!pipelining) {
+                recipient(0, false);
+            }
+        });
+
+        if (pipelining) {
+            for (int index = 0; index < transaction.getRecipients().length; index++) {
+                recipient(index, true);
+            }
+
+            data(true);
+        }
+    }
+
+    private void recipient(int index, boolean pipelining) {
+
+        InternetAddress recipient = current.getRecipients()[index];
+        command("RCPT TO:<" + recipient.getAddress() + ">", (code, text) -> {
+            if (code == 250 || code == 251) {
+                accepted++;
+            }
+            else {
+                rejected = new SMTPAddressFailedException(recipient, "RCPT TO", code, text);
+            }
+
+            if (pipelining) {
+                return;
+            }
+
+            if (index + 1 < current.getRecipients().length) {
+                recipient(index + 1, false);
+            }
+            else if (accepted == 0) {
+                finish(code, text);
+            }
+            else {
+                data(false);
+            }
+        });
+    }
+
+    private void data(boolean pipelining) {
+
+        if (extensions.containsKey("CHUNKING")) {
+            chunkPipelining = pipelining;
+            startWriter(null);
+            return;
+        }
+
+        command("DATA", (code, text) -> {
+            if (code != 354) {
+                finish(code, text);
+                return;
+            }
+
+            if (pipelining && (failure != null || accepted == 0)) {
+                // server should not accept data without recipients ... end it right away
+                handlers.add(this::finish);
+                write(ByteBuffer.wrap(DATA_END));
+                return;
+            }
+
+            handlers.add(this::finish);
+            startWriter(new DotStuffer());
+        });
+    }
+
+    private void startWriter(DotStuffer dotStuffer) {
+
+        stuffer = dotStuffer;
+        awaitingChunk = false;
+        writer = new MessageWriter(current.getMessage(), client.getTimeout(), () -> client.resume(this));
+        client.write(writer);
+    }
+
+    /**
+     * Moves next chunk of message data to output once previous chunk was written,
+     * with CHUNKING each chunk is send as BDAT command, otherwise data is dot stuffed and terminated with CRLF.CRLF
+     *
+     * @return true if a chunk was moved to output
+     */
+    private boolean pump() {
+
+        if (writer == null || awaitingChunk || !out.isEmpty()) {
+            return false;
+        }
+
+        ByteBuffer chunk = writer.poll();
+        if (chunk == null) {
+            if (writer.getFailure() != null) {
+                fail(writer.getFailure());
+            }
+
+            return false;
+        }
+
+        boolean last = writer.isLast();
+        if (stuffer == null) {
+            command("BDAT " + chunk.remaining() + (last ? " LAST" : ""), last ? this::finish : this::chunked);
+            write(chunk);
+            awaitingChunk = !last && !chunkPipelining;
+        }
+        else {
+            write(stuffer.stuff(chunk));
+            if (last) {
+                write(stuffer.end());
+            }
+        }
+
+        if (last) {
+            writer = null;
+            stuffer = null;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reply to BDAT chunk other than last
+     */
+    private void chunked(int code, String text) {
+
+        awaitingChunk = false;
+        if (code != 250) {
+            // server discards rest of message ... no need to send it
+            finish(code, text);
+        }
+    }
+
+    /**
+     * Completes current transaction with reply to message data,
+     * send succeeds when at least one recipient was accepted (rejected recipients are skipped)
+     */
+    private void finish(int code, String text) {
+
+        NioSmtpClient.Transaction transaction = current;
+        current = null;
+
+        MessagingException e = failure != null ? failure : accepted == 0 ? rejected : null;
+        if (e == null && code == 250) {
+            messages++;
+
+            // connection is given back before sender sees the result
+            release();
+            transaction.complete(code);
+            return;
+        }
+
+        transaction.fail(e != null ? e : new SMTPSendFailedException("DATA", code, text, null, null, null, null));
+
+        // connection is not reused after a failure
+        close(null);
+    }
+
+    private void release() {
+
+        lastUsed = System.nanoTime();
+        client.released(this);
+    }
+
+    private void read() throws IOException, MessagingException {
+
+        if (handshaking && !handshake()) {
+            return;
+        }
+
+        while (!closed) {
+
+            int minimum = tls != null ? tls.getApplicationBufferSize() : 1;
+            if (in.remaining() < minimum) {
+                ByteBuffer larger = ByteBuffer.allocate(in.position() + Math.max(minimum, BUFFER_SIZE));
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+
+            int count = tls != null ? tls.read(channel, in) : channel.read(in);
+            if (count < 0) {
+                throw new EOFException("SMTP server: " + client.getHost() + ":" + client.getPort() + " closed connection");
+            }
+
+            if (count == 0) {
+                return;
+            }
+
+            replies();
+
+            if (handshaking) {
+                // STARTTLS was accepted, server must not send anything before handshake
+                if (in.position() > 0) {
+                    throw new MessagingException("SMTP server: " + client.getHost() + " sent unexpected data after STARTTLS");
+                }
+
+                if (!handshake()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true once handshake is finished
+     */
+    private boolean handshake() throws IOException {
+
+        if (!tls.handshake(channel)) {
+            return false;
+        }
+
+        handshaking = false;
+        if (handlers.isEmpty()) {
+            // after STARTTLS ... with implicit TLS greeting is still expected
+            ehlo();
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses complete reply lines received so far and passes replies to their handlers
+     */
+    private void replies() throws IOException, MessagingException {
+
+        in.flip();
+
+        int start = in.position();
+        for (int index = start; index < in.limit() && !closed && !handshaking; index++) {
+
+            if (in.get(index) != '\n') {
+                continue;
+            }
+
+            int end = index > start && in.get(index - 1) == '\r' ? index - 1 : index;
+            byte[] line = new byte[end - start];
+            in.position(start);
+            in.get(line);
+            start = index + 1;
+
+            line(new String(line, StandardCharsets.UTF_8));
+        }
+
+        in.position(start);
+        in.compact();
+    }
+
+    private void line(String line) throws IOException, MessagingException {
+
+        if (line.length() < 3 || !Character.isDigit(line.charAt(0)) || !Character.isDigit(line.charAt(1)) || !Character.isDigit(line.charAt(2))) {
+            throw new MessagingException("Invalid SMTP reply: " + line);
+        }
+
+        if (reply.length() > 0) {
+            reply.append('\n');
+        }
+
+        reply.append(line);
+        if (line.length() > 3 && line.charAt(3) == '-') {
+            return; // multi line reply continues
+        }
+
+        int code = Integer.parseInt(line.substring(0, 3));
+        String text = reply.toString();
+        reply.setLength(0);
+
+        ReplyHandler handler = handlers.poll();
+        if (handler == null) {
+            // i.e. 421 before server closes connection
+            throw new SMTPSendFailedException(null, code, text, null, null, null, null);
+        }
+
+        handler.reply(code, text);
+    }
+
+    private void parseExtensions(String text) {
+
+        String[] lines = text.split("\n");
+        for (int index = 1; index < lines.length; index++) {
+
+            String line = lines[index].length() > 4 ? lines[index].substring(4).trim() : "";
+            int space = line.indexOf(' ');
+
+            String keyword = (space > 0 ? line.substring(0, space) : line).toUpperCase();
+            extensions.put(keyword, space > 0 ? line.substring(space + 1) : "");
+        }
+    }
+
+    private void command(String command, ReplyHandler handler) {
+
+        commands.append(command).append("\r\n");
+        handlers.add(handler);
+    }
+
+    private void write(ByteBuffer data) {
+
+        moveCommands();
+        out.add(data);
+    }
+
+    private void moveCommands() {
+
+        if (commands.length() > 0) {
+            out.add(ByteBuffer.wrap(commands.toString().getBytes(StandardCharsets.UTF_8)));
+            commands.setLength(0);
+        }
+    }
+
+    /**
+     * Writes pending output and updates interest in channel events and timeout
+     */
+    private void afterEvent() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        if (!handshaking) {
+            boolean pumped;
+            do {
+                moveCommands();
+                pumped = pump();
+                if (closed) {
+                    return;
+                }
+
+                if (!out.isEmpty()) {
+                    ByteBuffer[] buffers = out.toArray(new ByteBuffer[0]);
+                    if (tls != null) {
+                        tls.write(channel, buffers);
+                    }
+                    else {
+                        channel.write(buffers);
+                    }
+
+                    while (!out.isEmpty() && !out.peekFirst().hasRemaining()) {
+                        out.pollFirst();
+                    }
+                }
+            }
+            while (pumped && out.isEmpty()); // next chunk might be ready
+        }
+
+        boolean writing = !out.isEmpty() || (tls != null && tls.hasPendingOutput());
+        if (key.isValid() && (key.interestOps() & SelectionKey.OP_CONNECT) == 0) {
+            key.interestOps(SelectionKey.OP_READ | (writing ? SelectionKey.OP_WRITE : 0));
+        }
+
+        touch();
+    }
+
+    /**
+     * Extends deadline while waiting for server, clears it when idle
+     */
+    private void touch() {
+
+        boolean waiting = !handlers.isEmpty() || handshaking || !out.isEmpty() || current != null;
+        deadline = waiting ? System.nanoTime() + client.getTimeout() : 0;
+    }
+
+    private void fail(Throwable e) {
+
+        close(e);
+    }
+
+    private void close(Throwable e) {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (writer != null) {
+            writer.cancel();
+            writer = null;
+        }
+
+        if (tls != null && !handshaking) {
+            tls.close(channel);
+        }
+
+        if (key != null) {
+            key.cancel();
+        }
+
+        try {
+            channel.close();
+        }
+        catch (IOException ignored) {
+            // closed anyway
+        }
+
+        NioSmtpClient.Transaction transaction = current;
+        current = null;
+
+        client.closed(this, transaction, e, checking);
+    }
+
+    private static void expect(int expected, String command, int code, String text) throws MessagingException {
+
+        if (code != expected) {
+            if (command.startsWith("AUTH") && code >= 500) {
+                throw new AuthenticationFailedException(text);
+            }
+
+            throw new SMTPSendFailedException(command, code, text, null, null, null, null);
+        }
+    }
+
+    private static String base64(String value) {
+
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Doubles leading dots of lines (RFC 5321 4.5.2) across chunks of message data, data is terminated with CRLF.CRLF
+     */
+    static final class DotStuffer {
+
+        private boolean lineStart = true;
+
+        private boolean empty = true;
+
+        /**
+         * @param chunk of message data
+         * @return chunk as is if no line starts with a dot or its stuffed copy
+         */
+        ByteBuffer stuff(ByteBuffer chunk) {
+
+            int dots = 0;
+            boolean start = lineStart;
+            for (int index = chunk.position(); index < chunk.limit(); index++) {
+                byte value = chunk.get(index);
+                if (value == '.' && start) {
+                    dots++;
+                }
+
+                start = value == '\n';
+            }
+
+            if (chunk.hasRemaining()) {
+                empty = false;
+            }
+
+            if (dots == 0) {
+                lineStart = start;
+                return chunk;
+            }
+
+            ByteBuffer stuffed = ByteBuffer.allocate(chunk.remaining() + dots);
+            for (int index = chunk.position(); index < chunk.limit(); index++) {
+                byte value = chunk.get(index);
+                if (value == '.' && lineStart) {
+                    stuffed.put((byte) '.');
+                }
+
+                stuffed.put(value);
+                lineStart = value == '\n';
+            }
+
+            stuffed.flip();
+            return stuffed;
+        }
+
+        /**
+         * @return end of data, last line is terminated first if needed
+         */
+        ByteBuffer end() {
+
+            return ByteBuffer.wrap(lineStart && !empty ? DATA_END : CRLF_DATA_END);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.zandero.mail.service.smtp;
+
+/**
+ * Utilization of SMTP connections held by a service
+ */
+public interface SmtpConnections {
+
+    /**
+     * @return number of connections currently in use
+     */
+    int getActive();
+
+    /**
+     * @return number of idle (open) connections
+     */
+    int getIdle();
+
+    /**
+     * @return max number of connections
+     */
+    int getSize();
+}
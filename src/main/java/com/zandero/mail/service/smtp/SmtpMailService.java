@@ -1,12 +1,16 @@
 package com.zandero.mail.service.smtp;
 
+import com.sun.mail.smtp.*;
 import com.zandero.mail.*;
 import com.zandero.mail.service.*;
 import com.zandero.utils.*;
 import org.slf4j.*;
 
 import javax.mail.*;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
 /**
  * Java general purpose Mail service
@@ -15,6 +19,8 @@ public class SmtpMailService implements MailService {
 
     private static final Logger log = LoggerFactory.getLogger(SmtpMailService.class);
 
+    private static final int SMTP_SERVICE_NOT_AVAILABLE = 421;
+
     private final String smtpHost;
     private final int smtpPort;
 
@@ -22,7 +28,24 @@ public class SmtpMailService implements MailService {
     private final String smtpPassword;
 
     /**
-     * Initialize SMPT service
+     * Mail session shared by all sends
+     */
+    private final Session session;
+
+    /**
+     * Pool of connected transports
+     */
+    private final SmtpTransportPool pool;
+
+    /**
+     * Non blocking client, used instead of pool when {@link SmtpPoolConfig.Engine#NIO} is selected
+     */
+    private final NioSmtpClient client;
+
+    private final MailTrace trace = new MailTrace("smtp");
+
+    /**
+     * Initialize SMPT service with default connection pool settings
      *
      * @param url      SMPT server url
      * @param port     SMPT server port
@@ -31,14 +54,58 @@ public class SmtpMailService implements MailService {
      */
     public SmtpMailService(String url, int port, String username, String password) {
 
+        this(url, port, username, password, new SmtpPoolConfig());
+    }
+
+    /**
+     * Initialize SMPT service
+     *
+     * @param url        SMPT server url
+     * @param port       SMPT server port
+     * @param username   username
+     * @param password   password
+     * @param poolConfig connection pool settings
+     */
+    public SmtpMailService(String url, int port, String username, String password, SmtpPoolConfig poolConfig) {
+
+        this(url, port, username, password, poolConfig, new SmtpTlsConfig());
+    }
+
+    /**
+     * Initialize SMPT service with secured connections,
+     * mail session and SSL context are created once and shared by all connections so TLS sessions can be resumed
+     *
+     * @param url        SMPT server url
+     * @param port       SMPT server port
+     * @param username   username
+     * @param password   password
+     * @param poolConfig connection pool settings
+     * @param tlsConfig  connection security settings
+     */
+    public SmtpMailService(String url, int port, String username, String password, SmtpPoolConfig poolConfig, SmtpTlsConfig tlsConfig) {
+
         Assert.notNullOrEmptyTrimmed(url, "Missing SMPT server url!");
-        Assert.isTrue(port > 0 && port < 10000, "Invalid SMTP port given: " + port);
+        Assert.isTrue(port > 0 && port <= 65535, "Invalid SMTP port given: " + port);
+        Assert.notNull(poolConfig, "Missing SMTP pool config!");
+        Assert.notNull(tlsConfig, "Missing SMTP TLS config!");
 
         smtpHost = url;
         smtpPort = port;
 
         smtpUsername = StringUtils.trimToNull(username);
         smtpPassword = StringUtils.trimToNull(password);
+
+        Properties props = new Properties();
+        props.put("mail.transport.protocol", "smtp");
+        props.put("mail.smtp.host", smtpHost);
+        props.put("mail.smtp.port", smtpPort);
+        props.put("mail.smtp.connectiontimeout", String.valueOf(poolConfig.getTimeout().toMillis()));
+        props.put("mail.smtp.timeout", String.valueOf(poolConfig.getTimeout().toMillis()));
+        setTls(props, tlsConfig);
+
+        session = getSession(props, smtpUsername, smtpPassword);
+        pool = new SmtpTransportPool(session, smtpHost, smtpPort, smtpUsername, smtpPassword, poolConfig);
+        client = poolConfig.getEngine() == SmtpPoolConfig.Engine.NIO ? getClient(poolConfig, tlsConfig) : null;
     }
 
     /**
@@ -52,41 +119,394 @@ public class SmtpMailService implements MailService {
 
         Assert.notNull(message, "Missing mail message!");
 
-        Properties props = new Properties();
-        props.put("mail.transport.protocol", "smtp");
-        props.put("mail.smtp.host", smtpHost);
-        props.put("mail.smtp.port", smtpPort);
+        if (MailFailures.allExcluded(message)) {
+            return MailFailures.getExcludedFailure();
+        }
 
-        Session session = getSession(props, smtpUsername, smtpPassword);
+        long start = System.nanoTime();
+        MailSendStats stats = new MailSendStats();
 
+        Message msg;
         try {
-            // build mime message
-            Message msg = message.getMessage(session);
+            msg = build(message);
+        } catch (Exception e) {
+
+            log.error(e.getMessage(), e);
+            return MailSendResult.fail().withStats(stats.totalTime(System.nanoTime() - start));
+        }
+
+        stats.buildTime(System.nanoTime() - start);
+        return client != null ? deliver(msg, stats, start).join() : transmit(msg, stats, start);
+    }
 
-            Enumeration enumer = msg.getAllHeaders();
-            while (enumer.hasMoreElements()) {
-                Header header = (Header) enumer.nextElement();
-                log.info(header.getName() + ": " + header.getValue());
+    /**
+     * Builds message on calling thread and sends it out via SMTP with given executor,
+     * with {@link SmtpPoolConfig.Engine#NIO} executor only completes the result
+     *
+     * @param message  to construct mail message
+     * @param executor to send message with
+     * @return future completed with result of send
+     */
+    @Override
+    public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+        Assert.notNull(message, "Missing mail message!");
+        Assert.notNull(executor, "Missing executor!");
+
+        if (MailFailures.allExcluded(message)) {
+            return CompletableFuture.completedFuture(MailFailures.getExcludedFailure());
+        }
+
+        long start = System.nanoTime();
+        MailSendStats stats = new MailSendStats();
+
+        Message msg;
+        try {
+            msg = build(message);
+        } catch (Exception e) {
+
+            log.error(e.getMessage(), e);
+            return CompletableFuture.completedFuture(MailSendResult.fail().withStats(stats.totalTime(System.nanoTime() - start)));
+        }
+
+        stats.buildTime(System.nanoTime() - start);
+        if (client != null) {
+            return deliver(msg, stats, start).thenApplyAsync(Function.identity(), executor);
+        }
+
+        return MailExecutors.supplyAsync(() -> transmit(msg, stats, start), executor);
+    }
+
+    /**
+     * Sends out all messages through a single SMTP connection,
+     * a new connection is only opened in case connection fails or reaches max messages limit
+     *
+     * Messages with same content are rendered only once (see {@link MailTemplate}) and then produced for each recipient,
+     * with {@link SmtpPoolConfig.Engine#NIO} all messages are send concurrently
+     *
+     * @param messages to be send
+     * @return list of send out results in same order as given messages
+     */
+    @Override
+    public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+        Assert.notNull(messages, "Missing mail messages!");
+
+        List<MailMessage> list = new ArrayList<>(messages);
+        for (MailMessage message : list) {
+            Assert.notNull(message, "Missing mail message!");
+        }
+
+        MailSendResult[] results = new MailSendResult[list.size()];
+        if (client != null) {
+            deliverAll(list, results);
+            return Arrays.asList(results);
+        }
+
+        SmtpTransportPool.PooledTransport transport = null;
+        try {
+            for (List<Integer> group : MailBatches.group(list, Integer.MAX_VALUE, null)) {
+
+                MailTemplate template = null;
+                if (group.size() > 1) {
+                    try {
+                        template = list.get(group.get(0)).getTemplate(session);
+                    } catch (Exception e) {
+                        log.error(e.getMessage(), e);
+                        for (Integer index : group) {
+                            results[index] = MailSendResult.fail();
+                        }
+                        continue;
+                    }
+                }
+
+                for (Integer index : group) {
+
+                    if (MailFailures.allExcluded(list.get(index))) {
+                        results[index] = MailFailures.getExcludedFailure();
+                        continue;
+                    }
+
+                    long start = System.nanoTime();
+                    MailSendStats stats = new MailSendStats();
+
+                    Message msg;
+                    try {
+                        msg = build(list.get(index), template);
+                    } catch (Exception e) {
+
+                        log.error(e.getMessage(), e);
+                        results[index] = MailSendResult.fail().withStats(stats.totalTime(System.nanoTime() - start));
+                        continue;
+                    }
+
+                    long built = System.nanoTime();
+                    stats.buildTime(built - start);
+
+                    try {
+                        if (transport == null) {
+                            transport = pool.borrow();
+                            stats.connectTime(System.nanoTime() - built);
+                        }
+
+                        transport.send(msg, msg.getAllRecipients(), stats);
+                        results[index] = MailSendResult.ok().withStats(stats.totalTime(System.nanoTime() - start));
+
+                        if (transport.getMessages() >= pool.getMaxMessages()) {
+                            pool.release(transport, false);
+                            transport = null;
+                        }
+                    } catch (Exception e) {
+
+                        log.error(e.getMessage(), e);
+                        results[index] = getFailure(e).withStats(getStats(stats, e).totalTime(System.nanoTime() - start));
+
+                        if (SmtpTransportPool.isConnectionFailure(e)) {
+                            pool.release(transport, true);
+                            transport = null;
+                        }
+                    }
+                }
             }
+        } finally {
+            pool.release(transport, false);
+        }
 
-            log.info("Getting transport...");
+        return Arrays.asList(results);
+    }
+
+    private void deliverAll(List<MailMessage> list, MailSendResult[] results) {
 
-            Transport transport = session.getTransport("smtp");
-            log.info("Connecting to SMTP server: " + smtpHost + ":" + smtpPort);
+        List<CompletableFuture<MailSendResult>> futures = new ArrayList<>(Collections.nCopies(list.size(), null));
+        for (List<Integer> group : MailBatches.group(list, Integer.MAX_VALUE, null)) {
 
-            transport.connect();
-            transport.sendMessage(msg, msg.getAllRecipients());
+            MailTemplate template = null;
+            if (group.size() > 1) {
+                try {
+                    template = list.get(group.get(0)).getTemplate(session);
+                } catch (Exception e) {
+                    log.error(e.getMessage(), e);
+                    for (Integer index : group) {
+                        results[index] = MailSendResult.fail();
+                    }
+                    continue;
+                }
+            }
 
-            log.info("Closing transport...");
-            transport.close();
+            for (Integer index : group) {
+
+                if (MailFailures.allExcluded(list.get(index))) {
+                    results[index] = MailFailures.getExcludedFailure();
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                MailSendStats stats = new MailSendStats();
+
+                try {
+                    Message msg = build(list.get(index), template);
+                    stats.buildTime(System.nanoTime() - start);
+                    futures.set(index, deliver(msg, stats, start));
+                } catch (Exception e) {
+
+                    log.error(e.getMessage(), e);
+                    results[index] = MailSendResult.fail().withStats(stats.totalTime(System.nanoTime() - start));
+                }
+            }
+        }
+
+        for (int index = 0; index < results.length; index++) {
+            if (futures.get(index) != null) {
+                results[index] = futures.get(index).join();
+            }
+        }
+    }
+
+    /**
+     * Sends message with non blocking client
+     */
+    private CompletableFuture<MailSendResult> deliver(Message msg, MailSendStats stats, long start) {
+
+        return client.send(msg, stats).handle((sent, e) -> {
+
+            if (e == null) {
+                return MailSendResult.ok().withStats(stats.totalTime(System.nanoTime() - start));
+            }
+
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            log.error(cause.getMessage(), cause);
+            return getFailure(cause).withStats(getStats(stats, cause).totalTime(System.nanoTime() - start));
+        });
+    }
+
+    private Message build(MailMessage message) {
+
+        return build(message, null);
+    }
+
+    private Message build(MailMessage message, MailTemplate template) {
+
+        // build mime message
+        Message msg = template != null ? template.getMessage(message) : message.getMessage(session);
+        trace.trace(message, msg);
+        return msg;
+    }
+
+    /**
+     * Send trace of this service, logged to {@code com.zandero.mail.trace.smtp} at DEBUG level,
+     * can be switched, sampled or changed in detail at runtime
+     *
+     * @return send trace
+     */
+    public MailTrace getTrace() {
+
+        return trace;
+    }
+
+    private MailSendResult transmit(Message msg, MailSendStats stats, long start) {
+
+        SmtpTransportPool.PooledTransport transport = null;
+        boolean failed = true;
+
+        try {
+            long borrow = System.nanoTime();
+            transport = pool.borrow();
+            stats.connectTime(System.nanoTime() - borrow);
+
+            transport.send(msg, msg.getAllRecipients(), stats);
+            failed = false;
         } catch (Exception e) {
 
+            failed = SmtpTransportPool.isConnectionFailure(e);
             log.error(e.getMessage(), e);
-            return MailSendResult.fail();
+            return getFailure(e).withStats(getStats(stats, e).totalTime(System.nanoTime() - start));
+        } finally {
+            pool.release(transport, failed);
+        }
+
+        return MailSendResult.ok().withStats(stats.totalTime(System.nanoTime() - start));
+    }
+
+    /**
+     * Takes reply code from failure in case send failed before server replied to message data
+     */
+    private static MailSendStats getStats(MailSendStats stats, Throwable e) {
+
+        int code = getReturnCode(e);
+        return code > 0 ? stats.providerStatus(code) : stats;
+    }
+
+    /**
+     * SMTP 421 (service not available) is used by relays to throttle clients,
+     * other 4xx replies (mailbox busy, greylisting ...) and connection failures are transient, 5xx replies are permanent
+     *
+     * @param e send failure
+     * @return throttled, unavailable (transient) or failed result
+     */
+    static MailSendResult getFailure(Throwable e) {
+
+        int code = getReturnCode(e);
+        if (code == SMTP_SERVICE_NOT_AVAILABLE) {
+            return MailSendResult.throttled(e.getMessage(), null);
+        }
+
+        if (code >= 400 && code < 500) {
+            return MailSendResult.unavailable(e.getMessage());
+        }
+
+        if (code < 0 && MailFailures.isTransient(e)) {
+            return MailSendResult.unavailable(e.getMessage());
+        }
+
+        return MailSendResult.fail();
+    }
+
+    /**
+     * @param e send failure
+     * @return SMTP reply code of failure or -1 if not known
+     */
+    static int getReturnCode(Throwable e) {
+
+        while (e != null) {
+
+            if (e instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) e).getReturnCode();
+            }
+
+            if (e instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) e).getReturnCode();
+            }
+
+            if (e instanceof SMTPSenderFailedException) {
+                return ((SMTPSenderFailedException) e).getReturnCode();
+            }
+
+            Throwable next = e instanceof MessagingException ? ((MessagingException) e).getNextException() : null;
+            e = next != null ? next : e.getCause();
         }
 
-        return MailSendResult.ok();
+        return -1;
+    }
+
+    /**
+     * @return pool of javax.mail transports used by this service (not used with {@link SmtpPoolConfig.Engine#NIO})
+     */
+    public SmtpTransportPool getPool() {
+
+        return pool;
+    }
+
+    /**
+     * @return connections used by this service, either transport pool or non blocking client
+     */
+    public SmtpConnections getConnections() {
 
+        return client != null ? client : pool;
+    }
+
+    /**
+     * Closes pooled SMTP connections
+     */
+    @Override
+    public void close() {
+
+        pool.close();
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private NioSmtpClient getClient(SmtpPoolConfig poolConfig, SmtpTlsConfig tlsConfig) {
+
+        try {
+            return new NioSmtpClient(smtpHost, smtpPort, smtpUsername, smtpPassword, poolConfig, tlsConfig);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start non blocking SMTP client: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Transports create sockets with socket factory of shared SSL context, so TLS sessions are cached and resumed
+     */
+    static void setTls(Properties props, SmtpTlsConfig tlsConfig) {
+
+        if (!tlsConfig.isSecure()) {
+            return;
+        }
+
+        if (tlsConfig.getMode() == SmtpTlsConfig.Mode.SMTPS) {
+            props.put("mail.smtp.ssl.enable", "true");
+        } else {
+            props.put("mail.smtp.starttls.enable", "true");
+            props.put("mail.smtp.starttls.required", "true");
+        }
+
+        props.put("mail.smtp.ssl.socketFactory", tlsConfig.getSslContext().getSocketFactory());
+        props.put("mail.smtp.ssl.checkserveridentity", String.valueOf(tlsConfig.isCheckServerIdentity()));
+
+        if (tlsConfig.getProtocols() != null) {
+            props.put("mail.smtp.ssl.protocols", String.join(" ", tlsConfig.getProtocols()));
+        }
     }
 
     private static Session getSession(Properties props, String username, String password) {
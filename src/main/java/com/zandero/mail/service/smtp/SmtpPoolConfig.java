@@ -0,0 +1,248 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.utils.*;
+
+import java.time.*;
+
+/**
+ * SMTP transport (connection) pool settings
+ */
+public class SmtpPoolConfig {
+
+    /**
+     * Default max number of open connections
+     */
+    public static final int DEFAULT_SIZE = 4;
+
+    /**
+     * Default max number of messages send through a single connection before it is recycled
+     */
+    public static final int DEFAULT_MAX_MESSAGES = 100;
+
+    /**
+     * Default time an idle connection is kept open
+     */
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Default idle time after which connection is checked with NOOP before reuse
+     */
+    public static final Duration DEFAULT_HEALTH_CHECK_AFTER = Duration.ofSeconds(5);
+
+    /**
+     * Default time to wait for a free connection
+     */
+    public static final Duration DEFAULT_BORROW_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Default time to wait for connection to be established or server to reply
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60);
+
+    /**
+     * SMTP client implementation
+     */
+    public enum Engine {
+        /**
+         * javax.mail transports, one blocking connection per sending thread
+         */
+        JAVAX_MAIL,
+        /**
+         * non blocking connections driven by a single event loop thread (see {@link NioSmtpClient})
+         */
+        NIO
+    }
+
+    private int size = DEFAULT_SIZE;
+
+    private int maxMessages = DEFAULT_MAX_MESSAGES;
+
+    private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private boolean healthCheck = true;
+
+    private Duration healthCheckAfter = DEFAULT_HEALTH_CHECK_AFTER;
+
+    private Duration borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+
+    private Duration timeout = DEFAULT_TIMEOUT;
+
+    private Engine engine = Engine.JAVAX_MAIL;
+
+    /**
+     * Pool settings with defaults
+     */
+    public SmtpPoolConfig() {
+    }
+
+    /**
+     * Sets max number of connections open at the same time
+     *
+     * @param value max connections, must be greater than 0
+     * @return config (self)
+     */
+    public SmtpPoolConfig size(int value) {
+
+        Assert.isTrue(value > 0, "Pool size must be greater than 0!");
+        size = value;
+        return this;
+    }
+
+    /**
+     * Sets number of messages send through one connection before connection is closed and a new one is opened
+     *
+     * @param value max messages per connection, must be greater than 0
+     * @return config (self)
+     */
+    public SmtpPoolConfig maxMessages(int value) {
+
+        Assert.isTrue(value > 0, "Max messages per connection must be greater than 0!");
+        maxMessages = value;
+        return this;
+    }
+
+    /**
+     * Sets time an unused connection is kept open
+     *
+     * @param value idle timeout
+     * @return config (self)
+     */
+    public SmtpPoolConfig idleTimeout(Duration value) {
+
+        Assert.notNull(value, "Missing idle timeout!");
+        Assert.isFalse(value.isNegative(), "Idle timeout can't be negative!");
+        idleTimeout = value;
+        return this;
+    }
+
+    /**
+     * Enables or disables NOOP health check of idle connections before they are reused
+     *
+     * @param value true to check, false to reuse connections unchecked
+     * @return config (self)
+     */
+    public SmtpPoolConfig healthCheck(boolean value) {
+
+        healthCheck = value;
+        return this;
+    }
+
+    /**
+     * Sets idle time after which a connection is checked with NOOP before reuse
+     *
+     * @param value idle time (zero checks connection on every reuse)
+     * @return config (self)
+     */
+    public SmtpPoolConfig healthCheckAfter(Duration value) {
+
+        Assert.notNull(value, "Missing health check time!");
+        Assert.isFalse(value.isNegative(), "Health check time can't be negative!");
+        healthCheckAfter = value;
+        return this;
+    }
+
+    /**
+     * Sets max time to wait for a free connection when all connections are in use
+     *
+     * @param value borrow timeout
+     * @return config (self)
+     */
+    public SmtpPoolConfig borrowTimeout(Duration value) {
+
+        Assert.notNull(value, "Missing borrow timeout!");
+        Assert.isFalse(value.isNegative(), "Borrow timeout can't be negative!");
+        borrowTimeout = value;
+        return this;
+    }
+
+    /**
+     * Sets max time to wait for connection to be established or for server to reply to a command
+     *
+     * @param value timeout, must be greater than 0
+     * @return config (self)
+     */
+    public SmtpPoolConfig timeout(Duration value) {
+
+        Assert.notNull(value, "Missing timeout!");
+        Assert.isTrue(!value.isNegative() && !value.isZero(), "Timeout must be greater than 0!");
+        timeout = value;
+        return this;
+    }
+
+    /**
+     * Sets SMTP client implementation
+     *
+     * @param value engine, {@link Engine#JAVAX_MAIL} by default
+     * @return config (self)
+     */
+    public SmtpPoolConfig engine(Engine value) {
+
+        Assert.notNull(value, "Missing SMTP engine!");
+        engine = value;
+        return this;
+    }
+
+    /**
+     * @return max number of open connections
+     */
+    public int getSize() {
+
+        return size;
+    }
+
+    /**
+     * @return max messages send through a single connection
+     */
+    public int getMaxMessages() {
+
+        return maxMessages;
+    }
+
+    /**
+     * @return time an unused connection is kept open
+     */
+    public Duration getIdleTimeout() {
+
+        return idleTimeout;
+    }
+
+    /**
+     * @return true if idle connections are checked with NOOP before reuse
+     */
+    public boolean isHealthCheck() {
+
+        return healthCheck;
+    }
+
+    /**
+     * @return idle time after which connection is checked before reuse
+     */
+    public Duration getHealthCheckAfter() {
+
+        return healthCheckAfter;
+    }
+
+    /**
+     * @return max time to wait for a free connection
+     */
+    public Duration getBorrowTimeout() {
+
+        return borrowTimeout;
+    }
+
+    /**
+     * @return max time to wait for connection or server reply
+     */
+    public Duration getTimeout() {
+
+        return timeout;
+    }
+
+    /**
+     * @return SMTP client implementation
+     */
+    public Engine getEngine() {
+
+        return engine;
+    }
+}
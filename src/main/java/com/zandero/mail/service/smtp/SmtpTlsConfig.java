@@ -0,0 +1,228 @@
+package com.zandero.mail.service.smtp;
+
+import com.zandero.utils.*;
+
+import javax.net.ssl.*;
+import java.security.*;
+import java.time.*;
+
+/**
+ * SMTP connection security settings
+ *
+ * SSL context is created once per config and shared by all connections using it, so its client session cache
+ * lets repeated connections to the same server resume the TLS session instead of doing a full handshake.
+ */
+public class SmtpTlsConfig {
+
+    /**
+     * Default number of TLS sessions kept for resumption
+     */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 1000;
+
+    /**
+     * Default time a TLS session can be resumed
+     */
+    public static final Duration DEFAULT_SESSION_TIMEOUT = Duration.ofHours(1);
+
+    /**
+     * How connection is secured
+     */
+    public enum Mode {
+        /**
+         * plain text connection
+         */
+        NONE,
+        /**
+         * plain text connection upgraded with STARTTLS command, send fails if server does not support it (i.e. port 587)
+         */
+        STARTTLS,
+        /**
+         * implicit TLS, connection is secured before server greeting (i.e. port 465)
+         */
+        SMTPS
+    }
+
+    private Mode mode = Mode.NONE;
+
+    private SSLContext sslContext;
+
+    private String[] protocols;
+
+    private boolean checkServerIdentity = true;
+
+    private int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+
+    private Duration sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+    /**
+     * Initialized SSL context (given or default)
+     */
+    private SSLContext context;
+
+    /**
+     * Plain text connection settings
+     */
+    public SmtpTlsConfig() {
+    }
+
+    /**
+     * Sets how connection is secured
+     *
+     * @param value mode
+     * @return config (self)
+     */
+    public SmtpTlsConfig mode(Mode value) {
+
+        Assert.notNull(value, "Missing TLS mode!");
+        mode = value;
+        return this;
+    }
+
+    /**
+     * Sets SSL context to create connections with (i.e. with custom trust store), JVM default is used if not set
+     *
+     * @param value SSL context
+     * @return config (self)
+     */
+    public synchronized SmtpTlsConfig sslContext(SSLContext value) {
+
+        Assert.notNull(value, "Missing SSL context!");
+        sslContext = value;
+        context = null;
+        return this;
+    }
+
+    /**
+     * Restricts enabled protocols
+     *
+     * @param value protocols (i.e. TLSv1.3, TLSv1.2)
+     * @return config (self)
+     */
+    public SmtpTlsConfig protocols(String... value) {
+
+        Assert.notNullOrEmpty(value, "Missing TLS protocols!");
+        protocols = value.clone();
+        return this;
+    }
+
+    /**
+     * Enables or disables check of server host name against its certificate
+     *
+     * @param value true to check (default), false to accept any certificate trusted by SSL context
+     * @return config (self)
+     */
+    public SmtpTlsConfig checkServerIdentity(boolean value) {
+
+        checkServerIdentity = value;
+        return this;
+    }
+
+    /**
+     * Sets number of TLS sessions kept for resumption
+     *
+     * @param value cache size, must be greater than 0
+     * @return config (self)
+     */
+    public synchronized SmtpTlsConfig sessionCacheSize(int value) {
+
+        Assert.isTrue(value > 0, "Session cache size must be greater than 0!");
+        sessionCacheSize = value;
+        context = null;
+        return this;
+    }
+
+    /**
+     * Sets time a TLS session can be resumed after it was established
+     *
+     * @param value session timeout, at least one second
+     * @return config (self)
+     */
+    public synchronized SmtpTlsConfig sessionTimeout(Duration value) {
+
+        Assert.notNull(value, "Missing session timeout!");
+        Assert.isTrue(value.getSeconds() > 0, "Session timeout must be at least one second!");
+        sessionTimeout = value;
+        context = null;
+        return this;
+    }
+
+    /**
+     * @return how connection is secured
+     */
+    public Mode getMode() {
+
+        return mode;
+    }
+
+    /**
+     * @return true if connection is secured with STARTTLS or implicit TLS
+     */
+    public boolean isSecure() {
+
+        return mode != Mode.NONE;
+    }
+
+    /**
+     * Creates SSL context on first call (given or JVM default) with session cache configured, same context is returned afterwards
+     *
+     * @return SSL context
+     * @throws IllegalStateException in case SSL context could not be initialized
+     */
+    public synchronized SSLContext getSslContext() {
+
+        if (context == null) {
+            try {
+                SSLContext created = sslContext;
+                if (created == null) {
+                    created = SSLContext.getInstance("TLS");
+                    created.init(null, null, null);
+                }
+
+                SSLSessionContext sessions = created.getClientSessionContext();
+                if (sessions != null) {
+                    sessions.setSessionCacheSize(sessionCacheSize);
+                    sessions.setSessionTimeout((int) Math.min(Integer.MAX_VALUE, sessionTimeout.getSeconds()));
+                }
+
+                context = created;
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Failed to initialize SSL context: " + e.getMessage(), e);
+            }
+        }
+
+        return context;
+    }
+
+    /**
+     * @return enabled protocols or null if SSL context defaults are used
+     */
+    public String[] getProtocols() {
+
+        return protocols == null ? null : protocols.clone();
+    }
+
+    /**
+     * @return true if server host name is checked against its certificate
+     */
+    public boolean isCheckServerIdentity() {
+
+        return checkServerIdentity;
+    }
+
+    /**
+     * @return number of TLS sessions kept for resumption
+     */
+    public int getSessionCacheSize() {
+
+        return sessionCacheSize;
+    }
+
+    /**
+     * @return time a TLS session can be resumed
+     */
+    public Duration getSessionTimeout() {
+
+        return sessionTimeout;
+    }
+}
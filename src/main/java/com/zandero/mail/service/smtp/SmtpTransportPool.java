@@ -0,0 +1,343 @@
+package com.zandero.mail.service.smtp;
+
+import com.sun.mail.smtp.*;
+import com.zandero.mail.service.*;
+import com.zandero.utils.*;
+import org.slf4j.*;
+
+import javax.mail.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Bounded pool of connected SMTP transports
+ *
+ * Connections are opened lazily, reused while healthy and closed when idle for too long (checked periodically),
+ * after sending configured number of messages or after a connection failure
+ */
+public class SmtpTransportPool implements SmtpConnections, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    private static final int SMTP_OK = 250;
+
+    private static final int SMTP_SERVICE_NOT_AVAILABLE = 421;
+
+    /**
+     * Shortest period idle connections are checked for expiry
+     */
+    private static final long MIN_EVICT_PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+    private final Session session;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+
+    private final SmtpPoolConfig config;
+
+    private final Semaphore permits;
+
+    /**
+     * Idle connections, most recently used first
+     */
+    private final Deque<PooledTransport> idle = new ConcurrentLinkedDeque<>();
+
+    private final ScheduledFuture<?> eviction;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates new pool
+     *
+     * @param session  mail session to get transports from
+     * @param host     SMTP server host
+     * @param port     SMTP server port
+     * @param username username or null if no authentication is needed
+     * @param password password or null
+     * @param config   pool settings
+     */
+    public SmtpTransportPool(Session session, String host, int port, String username, String password, SmtpPoolConfig config) {
+
+        Assert.notNull(session, "Missing mail session!");
+        Assert.notNullOrEmptyTrimmed(host, "Missing SMTP host!");
+        Assert.notNull(config, "Missing pool config!");
+
+        this.session = session;
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.config = config;
+
+        permits = new Semaphore(config.getSize(), true);
+
+        // expired connections are closed even if pool is not used any more
+        long period = Math.max(MIN_EVICT_PERIOD, config.getIdleTimeout().toNanos() / 2);
+        eviction = MailExecutors.getScheduler().scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Takes a connected transport from the pool or opens a new one if none is idle,
+     * blocks when all connections are in use
+     *
+     * @return connected transport, must be given back with {@link #release(PooledTransport, boolean)}
+     * @throws MessagingException in case connection could not be established or no connection became available in time
+     */
+    public PooledTransport borrow() throws MessagingException {
+
+        Assert.isFalse(closed, "SMTP transport pool is closed!");
+
+        try {
+            if (!permits.tryAcquire(config.getBorrowTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new MessagingException("Timed out waiting for SMTP connection to: " + host + ":" + port);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for SMTP connection", e);
+        }
+
+        try {
+            PooledTransport transport;
+            while ((transport = idle.pollFirst()) != null) {
+
+                if (isUsable(transport)) {
+                    return transport;
+                }
+
+                transport.close();
+            }
+
+            return open();
+        }
+        catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives transport back to the pool
+     *
+     * @param transport borrowed transport
+     * @param failed    true if connection failed (see {@link #isConnectionFailure(Throwable)}), transport is closed and not reused
+     */
+    public void release(PooledTransport transport, boolean failed) {
+
+        if (transport == null) {
+            return;
+        }
+
+        try {
+            if (failed || closed || transport.messages >= config.getMaxMessages()) {
+                transport.close();
+            } else {
+                transport.lastUsed = System.nanoTime();
+                idle.offerFirst(transport);
+            }
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all idle connections that exceeded the idle timeout
+     */
+    public void evictIdle() {
+
+        for (PooledTransport transport : idle) {
+            if (isExpired(transport) && idle.remove(transport)) {
+                transport.close();
+            }
+        }
+    }
+
+    /**
+     * Failures without SMTP reply (connection lost, timeout) or with 421 (server closes connection) leave connection unusable,
+     * rejected sender, recipients or message end the transaction only and connection can be reused
+     *
+     * @param e send failure
+     * @return true if connection should be closed
+     */
+    public static boolean isConnectionFailure(Throwable e) {
+
+        int code = SmtpMailService.getReturnCode(e);
+        return code < 0 || code == SMTP_SERVICE_NOT_AVAILABLE;
+    }
+
+    /**
+     * @return number of connections currently in use
+     */
+    @Override
+    public int getActive() {
+
+        return config.getSize() - permits.availablePermits();
+    }
+
+    /**
+     * @return number of idle (open) connections
+     */
+    @Override
+    public int getIdle() {
+
+        return idle.size();
+    }
+
+    /**
+     * @return max number of connections
+     */
+    @Override
+    public int getSize() {
+
+        return config.getSize();
+    }
+
+    /**
+     * @return max number of messages send through a single connection
+     */
+    public int getMaxMessages() {
+
+        return config.getMaxMessages();
+    }
+
+    /**
+     * Closes all idle connections, connections in use are closed once released
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        eviction.cancel(false);
+
+        PooledTransport transport;
+        while ((transport = idle.pollFirst()) != null) {
+            transport.close();
+        }
+    }
+
+    private PooledTransport open() throws MessagingException {
+
+        log.debug("Connecting to SMTP server: {}:{}", host, port);
+
+        Transport transport = new MeteredSmtpTransport(session);
+        transport.connect(host, port, username, password);
+        return new PooledTransport(transport);
+    }
+
+    private boolean isExpired(PooledTransport transport) {
+
+        return System.nanoTime() - transport.lastUsed > config.getIdleTimeout().toNanos();
+    }
+
+    private boolean isUsable(PooledTransport transport) {
+
+        if (isExpired(transport)) {
+            return false;
+        }
+
+        if (!config.isHealthCheck() ||
+            System.nanoTime() - transport.lastUsed < config.getHealthCheckAfter().toNanos()) {
+            return true;
+        }
+
+        try {
+            if (transport.transport instanceof SMTPTransport) {
+                return ((SMTPTransport) transport.transport).simpleCommand("NOOP") == SMTP_OK;
+            }
+
+            return transport.transport.isConnected();
+        }
+        catch (MessagingException e) {
+            log.debug("SMTP connection failed health check: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Connected transport held by the pool
+     */
+    public static final class PooledTransport {
+
+        private final Transport transport;
+
+        private int messages;
+
+        private long lastUsed = System.nanoTime();
+
+        private PooledTransport(Transport transport) {
+
+            this.transport = transport;
+        }
+
+        /**
+         * Sends message through this connection
+         *
+         * @param message    to be send
+         * @param recipients to send message to
+         * @throws MessagingException in case send failed
+         */
+        public void send(Message message, Address[] recipients) throws MessagingException {
+
+            messages++;
+            transport.sendMessage(message, recipients);
+        }
+
+        /**
+         * Sends message through this connection recording serialization and response time, bytes written and SMTP reply code
+         *
+         * @param message    to be send
+         * @param recipients to send message to
+         * @param stats      to record send in
+         * @throws MessagingException in case send failed
+         */
+        public void send(Message message, Address[] recipients, MailSendStats stats) throws MessagingException {
+
+            MeteredSmtpTransport metered = transport instanceof MeteredSmtpTransport ? (MeteredSmtpTransport) transport : null;
+            if (metered != null) {
+                metered.reset();
+            }
+
+            long start = System.nanoTime();
+            try {
+                send(message, recipients);
+            } finally {
+                long serialization = metered != null ? metered.getDataTime() : 0;
+                stats.serializationTime(serialization)
+                     .responseTime(System.nanoTime() - start - serialization);
+
+                if (metered != null) {
+                    stats.bytesSent(metered.getBytesSent())
+                         .providerStatus(metered.getLastReturnCode());
+                }
+            }
+        }
+
+        /**
+         * @return underlying transport
+         */
+        public Transport getTransport() {
+
+            return transport;
+        }
+
+        /**
+         * @return number of messages send through this connection
+         */
+        public int getMessages() {
+
+            return messages;
+        }
+
+        private void close() {
+
+            try {
+                transport.close();
+            }
+            catch (MessagingException e) {
+                log.debug("Failed to close SMTP connection: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.zandero.mail.service.smtp;
+
+import javax.net.ssl.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * TLS on top of a non blocking socket channel driven by {@link SSLEngine},
+ * handshake tasks are run on the calling (event loop) thread
+ */
+final class TlsChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+
+    /**
+     * Encrypted data read from channel (write mode)
+     */
+    private ByteBuffer netIn;
+
+    /**
+     * Encrypted data to be written to channel (read mode)
+     */
+    private final ByteBuffer netOut;
+
+    /**
+     * Handshake output of unwrap, application data is never expected during handshake
+     */
+    private final ByteBuffer handshakeIn;
+
+    TlsChannel(SSLEngine sslEngine) {
+
+        engine = sslEngine;
+
+        SSLSession session = engine.getSession();
+        netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        netOut.flip();
+
+        handshakeIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+    }
+
+    /**
+     * @return max size of decrypted data produced by a single record
+     */
+    int getApplicationBufferSize() {
+
+        return engine.getSession().getApplicationBufferSize();
+    }
+
+    /**
+     * Continues handshake as far as channel allows
+     *
+     * @param channel to read from and write to
+     * @return true once handshake is finished, false if waiting for channel to become readable or writable
+     * @throws IOException in case handshake failed
+     */
+    boolean handshake(SocketChannel channel) throws IOException {
+
+        while (true) {
+
+            if (!flush(channel)) {
+                return false;
+            }
+
+            SSLEngineResult result;
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runTasks();
+                    break;
+
+                case NEED_WRAP:
+                    netOut.clear();
+                    result = engine.wrap(EMPTY, netOut);
+                    netOut.flip();
+                    check(result);
+                    break;
+
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    netIn.flip();
+                    result = engine.unwrap(netIn, handshakeIn);
+                    netIn.compact();
+                    handshakeIn.clear();
+
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW && !fill(channel)) {
+                        return false;
+                    }
+
+                    if (result.getStatus() != SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        check(result);
+                    }
+                    break;
+
+                default:
+                    // finished or not handshaking
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Reads and decrypts data from channel
+     *
+     * @param channel to read from
+     * @param dst     buffer to decrypt into (write mode), must have room for {@link #getApplicationBufferSize()} bytes
+     * @return number of decrypted bytes, 0 if no data is available or -1 once channel is closed
+     * @throws IOException in case read failed
+     */
+    int read(SocketChannel channel, ByteBuffer dst) throws IOException {
+
+        int start = dst.position();
+        while (true) {
+
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, dst);
+            netIn.compact();
+
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+            }
+
+            // post handshake messages (i.e. key update) might need a reply
+            while (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP && flush(channel)) {
+                netOut.clear();
+                check(engine.wrap(EMPTY, netOut));
+                netOut.flip();
+            }
+
+            int read = dst.position() - start;
+            switch (result.getStatus()) {
+                case OK:
+                    break;
+
+                case BUFFER_UNDERFLOW:
+                    int count = channel.read(ensureNetInCapacity());
+                    if (count < 0) {
+                        return read > 0 ? read : -1;
+                    }
+
+                    if (count == 0) {
+                        return read;
+                    }
+                    break;
+
+                case CLOSED:
+                    return read > 0 ? read : -1;
+
+                default:
+                    // buffer overflow ... caller processes what was read so far
+                    return read;
+            }
+        }
+    }
+
+    /**
+     * Encrypts and writes given data
+     *
+     * @param channel to write to
+     * @param srcs    data to write
+     * @return true if all data was written, false if channel is not writable (encrypted data is held until next call)
+     * @throws IOException in case write failed
+     */
+    boolean write(SocketChannel channel, ByteBuffer[] srcs) throws IOException {
+
+        while (true) {
+
+            if (!flush(channel)) {
+                return false;
+            }
+
+            if (!hasRemaining(srcs)) {
+                return true;
+            }
+
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(srcs, netOut);
+            netOut.flip();
+            check(result);
+        }
+    }
+
+    /**
+     * @return true if encrypted data is waiting to be written
+     */
+    boolean hasPendingOutput() {
+
+        return netOut.hasRemaining();
+    }
+
+    /**
+     * Sends close notify without waiting for it to be written or acknowledged
+     *
+     * @param channel to write to
+     */
+    void close(SocketChannel channel) {
+
+        try {
+            engine.closeOutbound();
+            if (flush(channel)) {
+                netOut.clear();
+                engine.wrap(EMPTY, netOut);
+                netOut.flip();
+                flush(channel);
+            }
+        }
+        catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    private boolean flush(SocketChannel channel) throws IOException {
+
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if data was read
+     */
+    private boolean fill(SocketChannel channel) throws IOException {
+
+        int count = channel.read(ensureNetInCapacity());
+        if (count < 0) {
+            throw new EOFException("Connection closed during TLS handshake");
+        }
+
+        return count > 0;
+    }
+
+    private ByteBuffer ensureNetInCapacity() {
+
+        int size = engine.getSession().getPacketBufferSize();
+        if (netIn.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(netIn.position() + size);
+            netIn.flip();
+            larger.put(netIn);
+            netIn = larger;
+        }
+
+        return netIn;
+    }
+
+    private void runTasks() {
+
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static void check(SSLEngineResult result) throws SSLException {
+
+        if (result.getStatus() != SSLEngineResult.Status.OK) {
+            throw new SSLException("TLS failed: " + result.getStatus());
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
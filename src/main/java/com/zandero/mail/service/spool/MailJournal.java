@@ -0,0 +1,443 @@
+package com.zandero.mail.service.spool;
+
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of memory mapped segment files
+ *
+ * Record layout: payload length (int), payload CRC32 (int), state (byte), payload.
+ * Length is written last so a record becomes visible only once complete,
+ * records with invalid checksum (torn writes) end the segment on recovery.
+ * Segment files are deleted once all their records are completed.
+ */
+class MailJournal implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(MailJournal.class);
+
+	static final byte PENDING = 1;
+	static final byte DONE = 2;
+
+	private static final int HEADER_SIZE = 9;
+	private static final int CRC_OFFSET = 4;
+	private static final int STATE_OFFSET = 8;
+
+	private static final String PREFIX = "spool-";
+	private static final String SUFFIX = ".log";
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final Map<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Segment records are appended to, guarded by this
+	 */
+	private Segment active;
+
+	/**
+	 * Sequence of last appended record, guarded by this
+	 */
+	private long appended;
+
+	private volatile long synced;
+
+	private final List<Record> recovered = new ArrayList<>();
+
+	/**
+	 * Opens journal in given directory, pending records of existing segments are recovered
+	 *
+	 * @param directory   to store segment files in
+	 * @param segmentSize size of segment file in bytes
+	 * @throws IOException in case journal could not be opened
+	 */
+	MailJournal(Path directory, int segmentSize) throws IOException {
+
+		Assert.notNull(directory, "Missing spool directory!");
+
+		this.directory = Files.createDirectories(directory);
+		this.segmentSize = segmentSize;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			for (Path file : files) {
+				long id = getId(file);
+				if (id >= 0) {
+					segments.put(id, new Segment(id, file, Math.max(segmentSize, (int) Files.size(file))));
+				}
+			}
+		}
+
+		for (Segment segment : segments.values()) {
+			segment.recover(recovered);
+		}
+
+		// last segment is appended to, all others are complete
+		Segment last = null;
+		for (Segment segment : new ArrayList<>(segments.values())) {
+			if (last != null) {
+				last.seal();
+			}
+
+			last = segment;
+		}
+
+		active = last != null ? last : newSegment(0);
+		synced = appended;
+
+		log.info("Opened mail spool: {}, segments: {}, pending messages: {}", directory, segments.size(), recovered.size());
+	}
+
+	/**
+	 * @return pending records found when journal was opened, in order of appending
+	 */
+	List<Record> getRecovered() {
+		return recovered;
+	}
+
+	/**
+	 * Appends payload to journal, payload is written straight into the segment,
+	 * record is visible after crash of the process, but is only durable after next {@link #sync()}
+	 *
+	 * @param writer of payload, called again with a new segment in case payload doesn't fit into the current one
+	 * @return appended record
+	 * @throws IOException              in case payload could not be written or segment created
+	 * @throws IllegalArgumentException in case payload doesn't fit into an empty segment
+	 */
+	synchronized Record append(PayloadWriter writer) throws IOException {
+
+		int length = write(active, writer);
+		if (length < 0) {
+			Assert.isTrue(active.position > 0, "Message too large for mail spool, segment size: " + segmentSize + " bytes!");
+
+			active.seal();
+			active = newSegment(active.id + 1);
+
+			length = write(active, writer);
+			Assert.isTrue(length >= 0, "Message too large for mail spool, segment size: " + segmentSize + " bytes!");
+		}
+
+		int position = active.position;
+		MappedByteBuffer buffer = active.buffer;
+
+		CRC32 crc = new CRC32();
+		crc.update(slice(buffer, position, length));
+
+		buffer.put(position + STATE_OFFSET, PENDING);
+		buffer.putInt(position + CRC_OFFSET, (int) crc.getValue());
+		buffer.putInt(position, length); // written last ... record is complete
+
+		active.position += HEADER_SIZE + length;
+		active.pending.incrementAndGet();
+		active.dirty = true;
+
+		return new Record(active, position, length, ++appended);
+	}
+
+	/**
+	 * Appends payload in place of given record and completes the record, delivery attempts are carried over
+	 *
+	 * @param record to replace
+	 * @param writer of payload
+	 * @return appended record
+	 * @throws IOException in case payload could not be written or segment created
+	 */
+	Record replace(Record record, PayloadWriter writer) throws IOException {
+
+		Record replacement = append(writer);
+		replacement.attempts = record.attempts;
+
+		complete(record);
+		return replacement;
+	}
+
+	/**
+	 * Payload of record (read only), backed by segment so it is not copied
+	 *
+	 * @param record to read
+	 * @return payload
+	 */
+	ByteBuffer read(Record record) {
+
+		return slice(record.segment.buffer, record.position, record.length).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Marks record as completed (delivered or dropped), segment is deleted once all records are completed
+	 *
+	 * @param record to complete
+	 */
+	void complete(Record record) {
+
+		Segment segment = record.segment;
+		segment.buffer.put(record.position + STATE_OFFSET, DONE);
+		segment.dirty = true;
+
+		if (segment.pending.decrementAndGet() == 0 && segment.sealed) {
+			delete(segment);
+		}
+	}
+
+	/**
+	 * Flushes all changed segments to disk
+	 *
+	 * @return sequence of last record flushed to disk
+	 */
+	long sync() {
+
+		long sequence;
+		synchronized (this) {
+			sequence = appended;
+		}
+
+		for (Segment segment : segments.values()) {
+			if (segment.dirty) {
+				segment.dirty = false;
+				segment.buffer.force();
+			}
+		}
+
+		synced = sequence;
+		return sequence;
+	}
+
+	/**
+	 * @return sequence of last record flushed to disk
+	 */
+	long getSynced() {
+		return synced;
+	}
+
+	/**
+	 * @return number of segment files
+	 */
+	int getSegments() {
+		return segments.size();
+	}
+
+	@Override
+	public void close() {
+
+		sync();
+		segments.clear();
+	}
+
+	/**
+	 * @return length of payload written after end of segment or -1 if payload doesn't fit
+	 */
+	private static int write(Segment segment, PayloadWriter writer) throws IOException {
+
+		int start = segment.position + HEADER_SIZE;
+		if (start >= segment.capacity) {
+			return -1;
+		}
+
+		ByteBuffer view = segment.buffer.duplicate();
+		view.position(start);
+
+		try {
+			writer.write(view);
+		}
+		catch (BufferOverflowException e) {
+			return -1;
+		}
+
+		int length = view.position() - start;
+		Assert.isTrue(length > 0, "Missing payload!");
+		return length;
+	}
+
+	/**
+	 * @return payload of record at given position
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+
+		ByteBuffer view = buffer.duplicate();
+		view.position(position + HEADER_SIZE);
+		view.limit(position + HEADER_SIZE + length);
+		return view.slice();
+	}
+
+	private Segment newSegment(long id) throws IOException {
+
+		Path file = directory.resolve(String.format("%s%020d%s", PREFIX, id, SUFFIX));
+		Segment segment = new Segment(id, file, segmentSize);
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private void delete(Segment segment) {
+
+		segments.remove(segment.id);
+
+		try {
+			Files.deleteIfExists(segment.file);
+		}
+		catch (IOException e) {
+			log.warn("Failed to delete mail spool segment: {}", segment.file, e);
+		}
+	}
+
+	private static long getId(Path file) {
+
+		String name = file.getFileName().toString();
+		try {
+			return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Memory mapped segment file
+	 */
+	private final class Segment {
+
+		private final long id;
+
+		private final Path file;
+
+		private final MappedByteBuffer buffer;
+
+		private final int capacity;
+
+		private final AtomicInteger pending = new AtomicInteger();
+
+		/**
+		 * Append position, guarded by journal
+		 */
+		private int position;
+
+		private volatile boolean sealed;
+
+		private volatile boolean dirty;
+
+		private Segment(long id, Path file, int size) throws IOException {
+
+			this.id = id;
+			this.file = file;
+
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+
+			capacity = size;
+		}
+
+		/**
+		 * Scans segment for pending records and sets append position after last valid record
+		 */
+		private void recover(List<Record> records) {
+
+			int offset = 0;
+			while (offset + HEADER_SIZE <= capacity) {
+
+				int length = buffer.getInt(offset);
+				if (length <= 0 || offset + HEADER_SIZE + length > capacity) {
+					break;
+				}
+
+				CRC32 crc = new CRC32();
+				crc.update(slice(buffer, offset, length));
+				if ((int) crc.getValue() != buffer.getInt(offset + CRC_OFFSET)) {
+					log.warn("Corrupted record in mail spool segment: {} at: {}, ignoring rest of segment", file, offset);
+					break;
+				}
+
+				if (buffer.get(offset + STATE_OFFSET) == PENDING) {
+					pending.incrementAndGet();
+					records.add(new Record(this, offset, length, ++appended));
+				}
+
+				offset += HEADER_SIZE + length;
+			}
+
+			position = offset;
+
+			// clear any torn record so it is not mistaken for a valid one after new appends
+			if (offset + 4 <= capacity) {
+				buffer.putInt(offset, 0);
+			}
+		}
+
+		private void seal() {
+
+			sealed = true;
+			if (pending.get() == 0) {
+				delete(this);
+			}
+		}
+	}
+
+	/**
+	 * Writes record payload straight into segment
+	 */
+	@FunctionalInterface
+	interface PayloadWriter {
+
+		/**
+		 * Writes payload from buffer position on, buffer overflows in case payload doesn't fit
+		 *
+		 * @param buffer to write payload into
+		 * @throws IOException in case payload could not be written
+		 */
+		void write(ByteBuffer buffer) throws IOException;
+	}
+
+	/**
+	 * Journal record
+	 */
+	static final class Record {
+
+		private final Segment segment;
+
+		private final int position;
+
+		private final int length;
+
+		private final long sequence;
+
+		/**
+		 * Number of delivery attempts, kept in memory only
+		 */
+		private int attempts;
+
+		private Record(Segment segment, int position, int length, long sequence) {
+
+			this.segment = segment;
+			this.position = position;
+			this.length = length;
+			this.sequence = sequence;
+		}
+
+		long getSequence() {
+			return sequence;
+		}
+
+		int attempt() {
+			return ++attempts;
+		}
+
+		String getId() {
+			return segment.id + ":" + position;
+		}
+	}
+}
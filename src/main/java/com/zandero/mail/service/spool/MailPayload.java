@@ -0,0 +1,203 @@
+package com.zandero.mail.service.spool;
+
+import com.zandero.mail.AttachmentSource;
+import com.zandero.mail.MailAttachment;
+import com.zandero.mail.MailMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spooled message written straight into journal segment and read back without copying it
+ *
+ * Payload layout: object stream length (int), object stream, content of each attachment source (length (int), content).
+ * Attachment content is referenced from object stream and read back as a slice of the segment,
+ * file sources are copied as well so file doesn't need to exist once message is spooled.
+ */
+final class MailPayload {
+
+	private static final int LENGTH_SIZE = 4;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private MailPayload() {
+		// hide constructor
+	}
+
+	/**
+	 * Writes message from buffer position on
+	 *
+	 * @param message to write
+	 * @param buffer  to write into
+	 * @throws IOException                      in case message could not be serialized or attachment read
+	 * @throws java.nio.BufferOverflowException in case payload doesn't fit into buffer
+	 */
+	static void write(MailMessage message, ByteBuffer buffer) throws IOException {
+
+		List<AttachmentSource> contents = new ArrayList<>();
+
+		int start = buffer.position();
+		buffer.position(start + LENGTH_SIZE);
+		try (StoringOutputStream stream = new StoringOutputStream(new BufferOutputStream(buffer), contents)) {
+			stream.writeObject(message);
+		}
+
+		buffer.putInt(start, buffer.position() - start - LENGTH_SIZE);
+
+		// copied in chunks ... content is never held in memory as a whole
+		byte[] chunk = new byte[BUFFER_SIZE];
+		for (AttachmentSource source : contents) {
+
+			int position = buffer.position();
+			buffer.position(position + LENGTH_SIZE);
+
+			try (InputStream in = source.open()) {
+				int read;
+				while ((read = in.read(chunk)) != -1) {
+					buffer.put(chunk, 0, read);
+				}
+			}
+
+			buffer.putInt(position, buffer.position() - position - LENGTH_SIZE);
+		}
+	}
+
+	/**
+	 * Reads message, attachments are given back as sources over slices of payload
+	 *
+	 * @param payload written with {@link #write(MailMessage, ByteBuffer)}
+	 * @return message
+	 * @throws IOException            in case payload is invalid
+	 * @throws ClassNotFoundException in case payload holds unknown classes
+	 */
+	static MailMessage read(ByteBuffer payload) throws IOException, ClassNotFoundException {
+
+		int length = payload.getInt(0);
+		ByteBuffer stream = slice(payload, LENGTH_SIZE, length);
+
+		List<ByteBuffer> contents = new ArrayList<>();
+		int offset = LENGTH_SIZE + length;
+		while (offset + LENGTH_SIZE <= payload.limit()) {
+
+			int size = payload.getInt(offset);
+			contents.add(slice(payload, offset + LENGTH_SIZE, size));
+			offset += LENGTH_SIZE + size;
+		}
+
+		try (ResolvingInputStream in = new ResolvingInputStream(AttachmentSource.of(stream).open(), contents)) {
+			return (MailMessage) in.readObject();
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) throws StreamCorruptedException {
+
+		if (length < 0 || offset + length > buffer.limit()) {
+			throw new StreamCorruptedException("Invalid spooled message, length: " + length + " at: " + offset);
+		}
+
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice();
+	}
+
+	/**
+	 * Reference to attachment content following object stream
+	 */
+	private static final class ContentReference implements Serializable {
+
+		private static final long serialVersionUID = 6049376527162413708L;
+
+		private final int index;
+
+		private ContentReference(int index) {
+
+			this.index = index;
+		}
+	}
+
+	/**
+	 * Collects attachment sources to be written after object stream
+	 */
+	private static final class StoringOutputStream extends ObjectOutputStream implements MailAttachment.ContentStore {
+
+		private final List<AttachmentSource> contents;
+
+		private StoringOutputStream(OutputStream out, List<AttachmentSource> sources) throws IOException {
+
+			super(out);
+			contents = sources;
+		}
+
+		@Override
+		public Serializable store(AttachmentSource source) {
+
+			contents.add(source);
+			return new ContentReference(contents.size() - 1);
+		}
+	}
+
+	/**
+	 * Resolves attachment content references into sources over payload slices
+	 */
+	private static final class ResolvingInputStream extends ObjectInputStream {
+
+		private final List<ByteBuffer> contents;
+
+		private ResolvingInputStream(InputStream in, List<ByteBuffer> slices) throws IOException {
+
+			super(in);
+			contents = slices;
+			enableResolveObject(true);
+		}
+
+		@Override
+		protected Object resolveObject(Object object) throws IOException {
+
+			if (!(object instanceof ContentReference)) {
+				return object;
+			}
+
+			int index = ((ContentReference) object).index;
+			if (index < 0 || index >= contents.size()) {
+				throw new InvalidObjectException("Missing attachment content: " + index);
+			}
+
+			return AttachmentSource.of(contents.get(index));
+		}
+	}
+
+	/**
+	 * Writes into buffer, overflows if buffer is full
+	 */
+	private static final class BufferOutputStream extends OutputStream {
+
+		private final ByteBuffer buffer;
+
+		private BufferOutputStream(ByteBuffer target) {
+
+			buffer = target;
+		}
+
+		@Override
+		public void write(int value) {
+
+			buffer.put((byte) value);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+
+			buffer.put(bytes, offset, length);
+		}
+	}
+}
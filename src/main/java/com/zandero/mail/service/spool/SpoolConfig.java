@@ -0,0 +1,177 @@
+package com.zandero.mail.service.spool;
+
+import com.zandero.utils.Assert;
+
+import java.time.Duration;
+
+/**
+ * Mail spool (journal and delivery workers) settings
+ */
+public class SpoolConfig {
+
+	/**
+	 * Default number of workers delivering spooled messages
+	 */
+	public static final int DEFAULT_WORKERS = 4;
+
+	/**
+	 * Default size of a single journal segment file
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Default interval in which journal is flushed to disk
+	 */
+	public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(10);
+
+	/**
+	 * Default delay before failed message is delivered again
+	 */
+	public static final Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(30);
+
+	/**
+	 * Default number of delivery attempts before message is dropped
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+	private int workers = DEFAULT_WORKERS;
+
+	private int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+	private Duration syncInterval = DEFAULT_SYNC_INTERVAL;
+
+	private boolean awaitSync = false;
+
+	private Duration retryDelay = DEFAULT_RETRY_DELAY;
+
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	/**
+	 * Spool settings with defaults
+	 */
+	public SpoolConfig() {
+	}
+
+	/**
+	 * Sets number of workers delivering messages in parallel
+	 *
+	 * @param value number of workers, must be greater than 0
+	 * @return config (self)
+	 */
+	public SpoolConfig workers(int value) {
+
+		Assert.isTrue(value > 0, "Number of workers must be greater than 0!");
+		workers = value;
+		return this;
+	}
+
+	/**
+	 * Sets size of journal segment file, a single message must fit into a segment
+	 *
+	 * @param value segment size in bytes, must be at least 64KB
+	 * @return config (self)
+	 */
+	public SpoolConfig segmentSize(int value) {
+
+		Assert.isTrue(value >= 64 * 1024, "Segment size must be at least 64KB!");
+		segmentSize = value;
+		return this;
+	}
+
+	/**
+	 * Sets interval in which appended messages are flushed (fsync) to disk in a single batch
+	 *
+	 * @param value sync interval, must be greater than 0
+	 * @return config (self)
+	 */
+	public SpoolConfig syncInterval(Duration value) {
+
+		Assert.notNull(value, "Missing sync interval!");
+		Assert.isTrue(!value.isNegative() && !value.isZero(), "Sync interval must be greater than 0!");
+		syncInterval = value;
+		return this;
+	}
+
+	/**
+	 * When set send waits until message is flushed to disk by next batched sync,
+	 * otherwise send returns once message is written to the (memory mapped) journal,
+	 * this survives a crash of the process but not of the operating system
+	 *
+	 * @param value true to wait for sync, false to return immediately
+	 * @return config (self)
+	 */
+	public SpoolConfig awaitSync(boolean value) {
+
+		awaitSync = value;
+		return this;
+	}
+
+	/**
+	 * Sets delay before a failed delivery is attempted again
+	 *
+	 * @param value retry delay, must not be negative
+	 * @return config (self)
+	 */
+	public SpoolConfig retryDelay(Duration value) {
+
+		Assert.notNull(value, "Missing retry delay!");
+		Assert.isFalse(value.isNegative(), "Retry delay must not be negative!");
+		retryDelay = value;
+		return this;
+	}
+
+	/**
+	 * Sets number of delivery attempts before message is dropped from spool
+	 *
+	 * @param value max attempts, must be greater than 0
+	 * @return config (self)
+	 */
+	public SpoolConfig maxAttempts(int value) {
+
+		Assert.isTrue(value > 0, "Max attempts must be greater than 0!");
+		maxAttempts = value;
+		return this;
+	}
+
+	/**
+	 * @return number of delivery workers
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * @return size of journal segment in bytes
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * @return interval of batched journal syncs
+	 */
+	public Duration getSyncInterval() {
+		return syncInterval;
+	}
+
+	/**
+	 * @return true if send waits for journal sync
+	 */
+	public boolean isAwaitSync() {
+		return awaitSync;
+	}
+
+	/**
+	 * @return delay before failed delivery is retried
+	 */
+	public Duration getRetryDelay() {
+		return retryDelay;
+	}
+
+	/**
+	 * @return max number of delivery attempts
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+}
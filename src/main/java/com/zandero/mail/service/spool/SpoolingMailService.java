@@ -0,0 +1,314 @@
+package com.zandero.mail.service.spool;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.MailExecutors;
+import com.zandero.mail.service.MailSendResult;
+import com.zandero.mail.service.MailService;
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mail service decorator spooling messages to a local disk journal,
+ * spooled messages are delivered to the underlying service by background workers
+ *
+ * Send returns as soon as message is appended to the journal (with result holding the spool id),
+ * messages pending when service is closed or the process crashes are delivered once the spool is opened again.
+ * Delivery is at least once: a message delivered right before a crash might be delivered again.
+ * Transient and throttled failures are redelivered (waiting as long as provider asked for), permanent failures are dropped.
+ * In case underlying service excluded recipients it delivered to before failing (i.e. direct delivery to some of the domains),
+ * message is spooled again with them excluded, so redelivery doesn't reach them again.
+ *
+ * Message is serialized straight into the journal with attachment content copied next to it (also content of attachment files,
+ * so files can be removed once message is spooled). Spooled attachments are delivered as sources backed by the journal, not copied into memory.
+ */
+public class SpoolingMailService implements MailService {
+
+	private static final Logger log = LoggerFactory.getLogger(SpoolingMailService.class);
+
+	private static final long POLL_MILLIS = 100;
+
+	private final MailService service;
+
+	private final SpoolConfig config;
+
+	private final MailJournal journal;
+
+	private final BlockingQueue<MailJournal.Record> queue = new LinkedBlockingQueue<>();
+
+	private final ScheduledExecutorService scheduler;
+
+	private final List<Thread> workers;
+
+	private final Object syncMonitor = new Object();
+
+	private volatile boolean running = true;
+
+	/**
+	 * Spools messages in given directory with default settings
+	 *
+	 * @param mailService to deliver spooled messages with
+	 * @param directory   to store journal in
+	 * @throws IllegalArgumentException in case journal could not be opened
+	 */
+	public SpoolingMailService(MailService mailService, Path directory) {
+
+		this(mailService, directory, new SpoolConfig());
+	}
+
+	/**
+	 * Spools messages in given directory
+	 *
+	 * @param mailService to deliver spooled messages with
+	 * @param directory   to store journal in
+	 * @param spoolConfig spool settings
+	 * @throws IllegalArgumentException in case journal could not be opened
+	 */
+	public SpoolingMailService(MailService mailService, Path directory, SpoolConfig spoolConfig) {
+
+		Assert.notNull(mailService, "Missing mail service!");
+		Assert.notNull(directory, "Missing spool directory!");
+		Assert.notNull(spoolConfig, "Missing spool config!");
+
+		service = mailService;
+		config = spoolConfig;
+
+		try {
+			journal = new MailJournal(directory, config.getSegmentSize());
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Failed to open mail spool: " + directory + ", " + e.getMessage(), e);
+		}
+
+		queue.addAll(journal.getRecovered());
+
+		scheduler = new ScheduledThreadPoolExecutor(1, MailExecutors.newThreadFactory("mail-spool-sync"));
+		long interval = config.getSyncInterval().toNanos();
+		scheduler.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.NANOSECONDS);
+
+		ThreadFactory factory = MailExecutors.newThreadFactory("mail-spool");
+		workers = new ArrayList<>(config.getWorkers());
+		for (int i = 0; i < config.getWorkers(); i++) {
+			Thread worker = factory.newThread(this::work);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Appends message to spool
+	 *
+	 * @param message to be send
+	 * @return successful result with spool id once message is spooled, or failure in case message could not be spooled
+	 */
+	@Override
+	public MailSendResult send(MailMessage message) {
+
+		Assert.notNull(message, "Missing mail message!");
+		Assert.isTrue(running, "Mail spool is closed!");
+
+		try {
+			MailJournal.Record record = journal.append(buffer -> MailPayload.write(message, buffer));
+
+			if (config.isAwaitSync()) {
+				awaitSync(record.getSequence());
+			}
+
+			queue.offer(record);
+			return MailSendResult.ok(record.getId());
+		}
+		catch (IOException | IllegalArgumentException e) {
+			log.error("Failed to spool mail!", e);
+			return MailSendResult.fail(e.getMessage());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return MailSendResult.fail("Interrupted while waiting for mail spool sync");
+		}
+	}
+
+	/**
+	 * Appending to spool doesn't block, message is spooled on calling thread
+	 *
+	 * @param message  to be send
+	 * @param executor not used
+	 * @return completed future with spool result
+	 */
+	@Override
+	public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+		return CompletableFuture.completedFuture(send(message));
+	}
+
+	/**
+	 * @return number of spooled messages waiting for delivery
+	 */
+	public int getQueued() {
+
+		return queue.size();
+	}
+
+	/**
+	 * Stops delivery workers and closes journal, pending messages are delivered once spool is opened again
+	 * underlying mail service is closed as well
+	 */
+	@Override
+	public void close() {
+
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		scheduler.shutdownNow();
+
+		for (Thread worker : workers) {
+			try {
+				worker.join(TimeUnit.SECONDS.toMillis(10));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		journal.close();
+		service.close();
+	}
+
+	private void work() {
+
+		while (running) {
+			try {
+				MailJournal.Record record = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (record != null && running) {
+					deliver(record);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (RuntimeException e) {
+				log.error("Mail spool worker failed!", e);
+			}
+		}
+	}
+
+	private void deliver(MailJournal.Record record) {
+
+		MailMessage message;
+		try {
+			message = MailPayload.read(journal.read(record));
+		}
+		catch (IOException | ClassNotFoundException e) {
+			log.error("Failed to read spooled mail: {}, dropping it!", record.getId(), e);
+			journal.complete(record);
+			return;
+		}
+
+		int attempt = record.attempt();
+		int excluded = size(message.getExcludedEmails());
+
+		MailSendResult result;
+		try {
+			result = service.send(message);
+		}
+		catch (RuntimeException e) {
+			result = MailSendResult.fail(e.getMessage());
+		}
+
+		if (result.isSuccessful()) {
+			journal.complete(record);
+			return;
+		}
+
+		if (!result.isTransient() && !result.isThrottled()) {
+			log.error("Failed to deliver spooled mail: {}, permanent failure, dropping it: {}", record.getId(), result);
+			journal.complete(record);
+			return;
+		}
+
+		if (attempt >= config.getMaxAttempts()) {
+			log.error("Failed to deliver spooled mail: {} after {} attempts, dropping it: {}", record.getId(), attempt, result);
+			journal.complete(record);
+			return;
+		}
+
+		// message was delivered to some recipients ... spool it again without them
+		MailJournal.Record next = size(message.getExcludedEmails()) > excluded ? rewrite(record, message) : record;
+
+		// wait at least as long as provider asked for
+		long delay = config.getRetryDelay().toNanos();
+		if (result.getRetryAfter() != null) {
+			delay = Math.max(delay, result.getRetryAfter().toNanos());
+		}
+
+		log.warn("Failed to deliver spooled mail: {}, attempt {}: {}, redelivering in: {} ms", next.getId(), attempt, result,
+		         TimeUnit.NANOSECONDS.toMillis(delay));
+		try {
+			scheduler.schedule(() -> queue.offer(next), delay, TimeUnit.NANOSECONDS);
+		}
+		catch (RuntimeException e) {
+			// spool is closing ... record stays pending in journal
+			log.debug("Failed to schedule redelivery of spooled mail: {}", next.getId());
+		}
+	}
+
+	/**
+	 * Replaces record with message holding recipients excluded while delivering
+	 *
+	 * @return replacement record or given record in case message could not be spooled again
+	 */
+	private MailJournal.Record rewrite(MailJournal.Record record, MailMessage message) {
+
+		try {
+			return journal.replace(record, buffer -> MailPayload.write(message, buffer));
+		}
+		catch (IOException | IllegalArgumentException e) {
+			log.error("Failed to spool partially delivered mail: {}, it will be redelivered to all recipients!", record.getId(), e);
+			return record;
+		}
+	}
+
+	private static int size(List<String> emails) {
+
+		return emails == null ? 0 : emails.size();
+	}
+
+	private void sync() {
+
+		try {
+			journal.sync();
+		}
+		catch (RuntimeException e) {
+			log.error("Failed to sync mail spool!", e);
+		}
+
+		synchronized (syncMonitor) {
+			syncMonitor.notifyAll();
+		}
+	}
+
+	private void awaitSync(long sequence) throws InterruptedException {
+
+		synchronized (syncMonitor) {
+			while (running && journal.getSynced() < sequence) {
+				syncMonitor.wait(config.getSyncInterval().toMillis() + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package com.zandero.mail.service.suppression;
+
+import com.zandero.mail.Exclusions;
+import com.zandero.utils.Assert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable compact index of suppressed addresses: sorted array of 64-bit hashes of normalized addresses (8 bytes per address)
+ * either held in memory or memory mapped from a snapshot file. Lookups narrow the search to a bucket by the top bits of the hash
+ * (hashes are uniformly distributed) and binary search the few hashes in it.
+ *
+ * Addresses are not stored, two different addresses share a hash with probability of about n^2 / 2^65
+ * (less than one in ten million for a million addresses).
+ *
+ * Snapshot format: magic (4 bytes), version (4 bytes), number of hashes (8 bytes), sorted hashes (8 bytes each), big endian.
+ */
+public final class SuppressionIndex {
+
+	/**
+	 * Snapshot file magic "MSUP"
+	 */
+	static final int MAGIC = 0x4D535550;
+
+	static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 16;
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Max number of hash bits used to select a bucket (65536 buckets, 256kB)
+	 */
+	private static final int MAX_BUCKET_BITS = 16;
+
+	private static final SuppressionIndex EMPTY = new SuppressionIndex(LongBuffer.wrap(new long[0]));
+
+	/**
+	 * Sorted unique hashes
+	 */
+	private final LongBuffer hashes;
+
+	/**
+	 * Start of each bucket in hashes, bucket i spans [buckets[i], buckets[i + 1])
+	 */
+	private final int[] buckets;
+
+	private final int bucketShift;
+
+	private SuppressionIndex(LongBuffer sortedHashes) {
+
+		hashes = sortedHashes;
+
+		// about 4 hashes per bucket
+		int bits = Math.max(1, Math.min(MAX_BUCKET_BITS, 32 - Integer.numberOfLeadingZeros(hashes.limit() >>> 2)));
+		bucketShift = Long.SIZE - bits;
+		buckets = new int[(1 << bits) + 1];
+
+		int bucket = 0;
+		for (int index = 0; index < hashes.limit(); index++) {
+			int current = bucket(hashes.get(index));
+			while (bucket < current) {
+				buckets[++bucket] = index;
+			}
+		}
+
+		while (bucket < buckets.length - 1) {
+			buckets[++bucket] = hashes.limit();
+		}
+	}
+
+	/**
+	 * @return empty index
+	 */
+	public static SuppressionIndex empty() {
+
+		return EMPTY;
+	}
+
+	/**
+	 * Builds index of given addresses, empty addresses are skipped
+	 *
+	 * @param emails addresses to index
+	 * @return index
+	 */
+	public static SuppressionIndex of(Collection<String> emails) {
+
+		Assert.notNull(emails, "Missing emails!");
+
+		long[] values = new long[emails.size()];
+		int size = 0;
+		for (String email : emails) {
+			if (email != null && email.trim().length() > 0) {
+				values[size++] = hash(email);
+			}
+		}
+
+		return of(values, size);
+	}
+
+	/**
+	 * Builds index of given hashes (array is sorted in place and might be returned as part of the index)
+	 *
+	 * @param values hashes
+	 * @param size   number of hashes in array
+	 * @return index
+	 */
+	static SuppressionIndex of(long[] values, int size) {
+
+		Arrays.sort(values, 0, size);
+
+		int unique = 0;
+		for (int index = 0; index < size; index++) {
+			if (unique == 0 || values[unique - 1] != values[index]) {
+				values[unique++] = values[index];
+			}
+		}
+
+		return unique == 0 ? EMPTY : new SuppressionIndex(LongBuffer.wrap(values, 0, unique).slice());
+	}
+
+	/**
+	 * Memory maps snapshot file, index is ready to use right away (pages are loaded by OS on first lookup)
+	 *
+	 * @param file snapshot
+	 * @return index backed by file
+	 * @throws IOException in case file could not be read or is not a valid snapshot
+	 */
+	public static SuppressionIndex open(Path file) throws IOException {
+
+		Assert.notNull(file, "Missing snapshot file!");
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+			long length = channel.size();
+			if (length < HEADER_SIZE) {
+				throw new IOException("Invalid suppression snapshot: " + file + ", file too short!");
+			}
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.BIG_ENDIAN);
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException("Invalid suppression snapshot: " + file + ", unknown format!");
+			}
+
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException("Unsupported suppression snapshot version: " + buffer.getInt(4) + " in: " + file);
+			}
+
+			long count = buffer.getLong(8);
+			if (count < 0 || HEADER_SIZE + count * Long.BYTES != length) {
+				throw new IOException("Invalid suppression snapshot: " + file + ", expected: " + count + " entries!");
+			}
+
+			buffer.position(HEADER_SIZE);
+			return count == 0 ? EMPTY : new SuppressionIndex(buffer.slice().order(ByteOrder.BIG_ENDIAN).asLongBuffer());
+		}
+	}
+
+	/**
+	 * Writes index to snapshot file, file is replaced atomically (written to temporary file first)
+	 *
+	 * @param file snapshot
+	 * @throws IOException in case file could not be written
+	 */
+	public void write(Path file) throws IOException {
+
+		Assert.notNull(file, "Missing snapshot file!");
+
+		Path directory = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+				ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+				buffer.putInt(MAGIC).putInt(VERSION).putLong(size());
+
+				for (int index = 0; index < size(); index++) {
+					if (buffer.remaining() < Long.BYTES) {
+						flush(channel, buffer);
+					}
+
+					buffer.putLong(hashes.get(index));
+				}
+
+				flush(channel, buffer);
+				channel.force(true);
+			}
+
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * @param email address
+	 * @return true if address is in index
+	 */
+	public boolean contains(String email) {
+
+		return email != null && contains(hash(email));
+	}
+
+	/**
+	 * @return number of addresses in index
+	 */
+	public int size() {
+
+		return hashes.limit();
+	}
+
+	boolean contains(long hash) {
+
+		int bucket = bucket(hash);
+		int low = buckets[bucket];
+		int high = buckets[bucket + 1] - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long value = hashes.get(middle);
+
+			if (value < hash) {
+				low = middle + 1;
+			}
+			else if (value > hash) {
+				high = middle - 1;
+			}
+			else {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Top bits of hash with sign bit flipped, so buckets follow signed order of sorted hashes
+	 */
+	private int bucket(long hash) {
+
+		return (int) ((hash ^ Long.MIN_VALUE) >>> bucketShift);
+	}
+
+	long get(int index) {
+
+		return hashes.get(index);
+	}
+
+	/**
+	 * 64-bit hash of normalized address (FNV-1a over characters with a final avalanche mix)
+	 *
+	 * @param email address
+	 * @return hash
+	 */
+	static long hash(String email) {
+
+		String normalized = Exclusions.normalize(email);
+
+		long hash = 0xcbf29ce484222325L;
+		for (int index = 0; index < normalized.length(); index++) {
+			hash ^= normalized.charAt(index);
+			hash *= 0x100000001b3L;
+		}
+
+		// murmur3 finalizer
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+}
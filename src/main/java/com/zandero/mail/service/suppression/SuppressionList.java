@@ -0,0 +1,279 @@
+package com.zandero.mail.service.suppression;
+
+import com.zandero.mail.Exclusions;
+import com.zandero.mail.MailMessage;
+import com.zandero.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Application wide list of suppressed (bounced, unsubscribed) addresses consulted before sending
+ *
+ * Addresses are held in a compact immutable {@link SuppressionIndex} (i.e. memory mapped from last snapshot)
+ * with incremental changes kept in small hash sets on top of it. Once changes outgrow the compact threshold
+ * they are merged into a new index. Lookups are lock free, changes are serialized.
+ *
+ * Register list with {@link #register()} so every message (and thus every mail service) consults it.
+ */
+public class SuppressionList implements Exclusions {
+
+	private static final Logger log = LoggerFactory.getLogger(SuppressionList.class);
+
+	/**
+	 * Default number of changes kept on top of index before they are merged into a new index
+	 */
+	public static final int DEFAULT_COMPACT_THRESHOLD = 10_000;
+
+	private final int compactThreshold;
+
+	private volatile State state;
+
+	/**
+	 * Empty list
+	 */
+	public SuppressionList() {
+
+		this(SuppressionIndex.empty(), DEFAULT_COMPACT_THRESHOLD);
+	}
+
+	/**
+	 * List on top of given index
+	 *
+	 * @param index            initial index
+	 * @param compactThreshold number of changes merged into new index at once, must be greater than 0
+	 */
+	public SuppressionList(SuppressionIndex index, int compactThreshold) {
+
+		Assert.notNull(index, "Missing suppression index!");
+		Assert.isTrue(compactThreshold > 0, "Compact threshold must be greater than 0!");
+
+		this.compactThreshold = compactThreshold;
+		state = new State(index);
+	}
+
+	/**
+	 * Opens list from snapshot (memory mapped), or an empty list if snapshot does not exist
+	 *
+	 * @param snapshot file
+	 * @return list
+	 * @throws IOException in case snapshot could not be read
+	 */
+	public static SuppressionList open(Path snapshot) throws IOException {
+
+		Assert.notNull(snapshot, "Missing snapshot file!");
+
+		if (!Files.exists(snapshot)) {
+			return new SuppressionList();
+		}
+
+		SuppressionIndex index = SuppressionIndex.open(snapshot);
+		log.info("Opened suppression list: {} with: {} addresses", snapshot, index.size());
+		return new SuppressionList(index, DEFAULT_COMPACT_THRESHOLD);
+	}
+
+	/**
+	 * Makes all messages consult this list ({@link MailMessage#setDefaultExclusions(Exclusions)})
+	 *
+	 * @return list (self)
+	 */
+	public SuppressionList register() {
+
+		MailMessage.setDefaultExclusions(this);
+		return this;
+	}
+
+	/**
+	 * @param email address
+	 * @return true if address is suppressed
+	 */
+	@Override
+	public boolean contains(String email) {
+
+		if (email == null) {
+			return false;
+		}
+
+		long hash = SuppressionIndex.hash(email);
+		State current = state;
+
+		// sets are checked only when not empty ... no boxing once changes are merged into index
+		if (!current.removed.isEmpty() && current.removed.contains(hash)) {
+			return false;
+		}
+
+		return (!current.added.isEmpty() && current.added.contains(hash)) || current.index.contains(hash);
+	}
+
+	/**
+	 * Suppresses address
+	 *
+	 * @param email address
+	 * @return list (self)
+	 */
+	public SuppressionList add(String email) {
+
+		Assert.notNullOrEmptyTrimmed(email, "Missing suppressed email address!");
+
+		synchronized (this) {
+			put(SuppressionIndex.hash(email));
+			compactIfNeeded();
+		}
+
+		return this;
+	}
+
+	/**
+	 * Suppresses addresses in bulk, addresses are not validated and empty ones are skipped
+	 *
+	 * @param emails addresses
+	 * @return list (self)
+	 */
+	public SuppressionList addAll(Collection<String> emails) {
+
+		if (emails == null || emails.isEmpty()) {
+			return this;
+		}
+
+		synchronized (this) {
+			for (String email : emails) {
+				if (email != null && email.trim().length() > 0) {
+					put(SuppressionIndex.hash(email));
+				}
+			}
+
+			compactIfNeeded();
+		}
+
+		return this;
+	}
+
+	/**
+	 * Removes address from list
+	 *
+	 * @param email address
+	 * @return list (self)
+	 */
+	public SuppressionList remove(String email) {
+
+		Assert.notNullOrEmptyTrimmed(email, "Missing suppressed email address!");
+
+		long hash = SuppressionIndex.hash(email);
+		synchronized (this) {
+			State current = state;
+			current.added.remove(hash);
+			if (current.index.contains(hash)) {
+				current.removed.add(hash);
+			}
+
+			compactIfNeeded();
+		}
+
+		return this;
+	}
+
+	/**
+	 * @return number of suppressed addresses
+	 */
+	public int size() {
+
+		State current = state;
+		return current.index.size() + current.added.size() - current.removed.size();
+	}
+
+	/**
+	 * @return number of changes not yet merged into index
+	 */
+	public int getPendingChanges() {
+
+		State current = state;
+		return current.added.size() + current.removed.size();
+	}
+
+	/**
+	 * Merges changes into a new index
+	 */
+	public synchronized void compact() {
+
+		State current = state;
+		if (current.added.isEmpty() && current.removed.isEmpty()) {
+			return;
+		}
+
+		SuppressionIndex index = current.index;
+		long[] values = new long[index.size() + current.added.size()];
+
+		int size = 0;
+		for (int position = 0; position < index.size(); position++) {
+			long hash = index.get(position);
+			if (!current.removed.contains(hash)) {
+				values[size++] = hash;
+			}
+		}
+
+		for (Long hash : current.added) {
+			values[size++] = hash;
+		}
+
+		// readers see either old or new state ... both consistent
+		state = new State(SuppressionIndex.of(values, size));
+	}
+
+	/**
+	 * Merges changes and writes snapshot, list keeps using in memory index
+	 *
+	 * @param snapshot file to write
+	 * @throws IOException in case snapshot could not be written
+	 */
+	public synchronized void save(Path snapshot) throws IOException {
+
+		compact();
+		state.index.write(snapshot);
+	}
+
+	/**
+	 * @return current index (without pending changes)
+	 */
+	public SuppressionIndex getIndex() {
+
+		return state.index;
+	}
+
+	private void put(long hash) {
+
+		State current = state;
+		if (!current.removed.remove(hash) && !current.index.contains(hash)) {
+			current.added.add(hash);
+		}
+	}
+
+	private void compactIfNeeded() {
+
+		if (getPendingChanges() >= compactThreshold) {
+			compact();
+		}
+	}
+
+	/**
+	 * Index with changes on top of it
+	 */
+	private static final class State {
+
+		private final SuppressionIndex index;
+
+		private final Set<Long> added = ConcurrentHashMap.newKeySet();
+
+		private final Set<Long> removed = ConcurrentHashMap.newKeySet();
+
+		private State(SuppressionIndex suppressionIndex) {
+
+			index = suppressionIndex;
+		}
+	}
+}
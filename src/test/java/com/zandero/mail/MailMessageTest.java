@@ -1,6 +1,7 @@
 package com.zandero.mail;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import javax.mail.Message;
 import javax.mail.MessagingException;
@@ -10,8 +11,16 @@ import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.SharedByteArrayInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -800,6 +809,18 @@ public class MailMessageTest {
 		assertTrue(message.excluded("b@email.com"));
 	}
 
+	@Test
+	void recipientCount() {
+
+		MailMessage message = new MailMessage();
+		assertEquals(0, message.getRecipientCount());
+
+		message.to("a@email.com").cc("b@email.com").bcc("c@email.com").exclude("a@email.com");
+
+		assertEquals(3, message.getRecipientCount());
+		assertTrue(message.getToEmails().isEmpty());
+	}
+
 	@Test
 	void exclude_fail() {
 
@@ -1047,6 +1068,72 @@ public class MailMessageTest {
 		assertEquals("txt/html; name=some.file", part.getContentType());
 	}
 
+	@Test
+	void getMessage_attachmentFile(@TempDir Path dir) throws MessagingException, IOException {
+
+		Path file = dir.resolve("invoice.pdf");
+		Files.write(file, new byte[] {0, 1, 2, (byte) 0xFF});
+
+		MailMessage message = new MailMessage();
+		message.from("from@email.com")
+			   .to("some@guy.com")
+			   .subject("Hello")
+			   .content("Test")
+			   .attachment(file, null, "application/pdf");
+
+		assertTrue(message.getAttachments().get(0).isStreamed());
+		assertEquals(4, message.getAttachments().get(0).getLength());
+
+		MimeMessage mime = message.getMessage(getSession());
+		MimeMultipart multipart = (MimeMultipart) mime.getContent();
+		MimeBodyPart part = (MimeBodyPart) multipart.getBodyPart(1);
+
+		assertEquals("application/pdf; name=invoice.pdf", part.getContentType());
+		assertEquals("base64", part.getEncoding());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		mime.writeTo(out);
+		assertTrue(out.toString().contains("AAEC/w=="));
+	}
+
+	@Test
+	void getMessage_attachmentSource() throws MessagingException, IOException {
+
+		AtomicInteger opened = new AtomicInteger();
+		AttachmentSource source = () -> {
+			opened.incrementAndGet();
+			return new ByteArrayInputStream("Hello".getBytes(StandardCharsets.UTF_8));
+		};
+
+		MailMessage message = new MailMessage();
+		message.from("from@email.com")
+			   .to("some@guy.com")
+			   .subject("Hello")
+			   .content("Test")
+			   .attachment(new MailAttachment("application/octet-stream", source, "hello.bin"))
+			   .attachment(new MailAttachment("application/octet-stream", ByteBuffer.wrap("World".getBytes(StandardCharsets.UTF_8)), "world.bin"));
+
+		MimeMessage mime = message.getMessage(getSession());
+		assertEquals(0, opened.get()); // content is not read while message is build
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		mime.writeTo(out);
+		assertEquals(1, opened.get());
+
+		String output = out.toString();
+		assertTrue(output.contains("SGVsbG8=")); // Hello
+		assertTrue(output.contains("V29ybGQ=")); // World
+	}
+
+	@Test
+	void attachment_missingFile(@TempDir Path dir) {
+
+		MailMessage message = new MailMessage();
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+		                                          () -> message.attachment(dir.resolve("missing.pdf"), null, "application/pdf"));
+		assertTrue(e.getMessage().startsWith("Attachment file is not readable: "));
+	}
+
 	@Test
 	void getMessage_missingAll() {
 
@@ -1112,4 +1199,241 @@ public class MailMessageTest {
 		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> message.getMessage(getSession()));
 		assertEquals("Missing email content!", e.getMessage());
 	}
-}
\ No newline at end of file
+
+	@Test
+	void getTemplate() throws MessagingException, IOException {
+
+		MailMessage message = new MailMessage();
+		message.from("from@email.com", "from")
+			   .subject("Hello")
+			   .content("Test")
+			   .html("<a>Test</a>")
+			   .headers("one", "two")
+			   .attachment("AAA", "some.file", "txt/html");
+
+		MailTemplate template = message.getTemplate(getSession());
+
+		MimeMessage one = template.getMessage("one@one.com", "one");
+		MimeMessage two = template.getMessage(new MailMessage().to("two@two.com").cc("three@three.com").bcc("four@four.com"));
+
+		assertEquals("from <from@email.com>", one.getFrom()[0].toString());
+		assertEquals("one <one@one.com>", one.getRecipients(Message.RecipientType.TO)[0].toString());
+		assertNull(one.getRecipients(Message.RecipientType.CC));
+
+		assertEquals("\"two@two.com\" <two@two.com>", two.getRecipients(Message.RecipientType.TO)[0].toString());
+		assertEquals("\"three@three.com\" <three@three.com>", two.getRecipients(Message.RecipientType.CC)[0].toString());
+		assertEquals("\"four@four.com\" <four@four.com>", two.getRecipients(Message.RecipientType.BCC)[0].toString());
+
+		assertNotNull(one.getMessageID());
+		assertNotEquals(one.getMessageID(), two.getMessageID());
+		assertNotNull(one.getSentDate());
+
+		for (MimeMessage mime : Arrays.asList(one, two)) {
+			assertEquals("Hello", mime.getSubject());
+			assertEquals("two", mime.getHeader("one")[0]);
+
+			MimeMultipart multipart = (MimeMultipart) mime.getContent();
+			assertEquals(3, multipart.getCount());
+			assertEquals("Test", multipart.getBodyPart(0).getContent());
+			assertEquals("<a>Test</a>", multipart.getBodyPart(1).getContent());
+			assertEquals("some.file", multipart.getBodyPart(2).getFileName());
+		}
+
+		// rendered message holds recipient headers and pre-rendered body
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		one.writeTo(out);
+		String rendered = out.toString("UTF-8");
+		assertTrue(rendered.contains("To: one <one@one.com>"));
+		assertTrue(rendered.contains("Content-Type: multipart/mixed"));
+		assertTrue(rendered.contains("filename=some.file"));
+	}
+
+	@Test
+	void getTemplate_missingRecipients() {
+
+		MailMessage message = new MailMessage();
+		message.from("from@email.com")
+			   .subject("Hello")
+			   .content("Test");
+
+		MailTemplate template = message.getTemplate(getSession());
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> template.getMessage(new MailMessage().cc("cc@email.com")));
+		assertEquals("Missing to email address(es)!", e.getMessage());
+	}
+
+	@Test
+	void recipientViews() {
+
+		MailMessage message = new MailMessage();
+		for (int i = 0; i < 100; i++) {
+			message.to("to" + i + "@email.com", "To " + i);
+		}
+
+		message.cc("to1@email.com", "Copy")
+		       .bcc("bcc@email.com")
+		       .to("TO1@email.com", "Renamed");
+
+		Map<String, String> to = message.getToEmails();
+		assertEquals(100, to.size());
+		assertEquals("Renamed", to.get("to1@email.com"));
+		assertEquals("to0@email.com", to.keySet().iterator().next()); // insertion order is kept
+
+		// same address as other type of recipient
+		assertEquals("Copy", message.getCcEmails().get("to1@email.com"));
+		assertEquals(1, message.getCcEmails().size());
+		assertTrue(message.getBccEmails().containsKey("bcc@email.com"));
+		assertNull(message.getBccEmails().get("bcc@email.com"));
+
+		// views are read-only
+		assertThrows(UnsupportedOperationException.class, () -> to.put("other@email.com", null));
+		assertThrows(UnsupportedOperationException.class, () -> to.remove("to0@email.com"));
+
+		// exclusion is applied to views
+		message.exclude("to0@email.com");
+		assertEquals(99, to.size());
+		assertFalse(to.containsKey("to0@email.com"));
+		assertTrue(message.emails.get(Message.RecipientType.TO).containsKey("to0@email.com"));
+
+		List<String> iterated = new ArrayList<>();
+		message.forEachRecipient(Message.RecipientType.TO, (email, name) -> iterated.add(email));
+		assertEquals(99, iterated.size());
+		assertEquals("to1@email.com", iterated.get(0));
+
+		message.exclude("bcc@email.com");
+		assertTrue(message.getBccEmails().isEmpty());
+	}
+
+	@Test
+	void recipientsSerialization() throws IOException, ClassNotFoundException {
+
+		MailMessage message = new MailMessage().to("to@email.com", "To")
+		                                       .cc("cc@email.com")
+		                                       .exclude("cc@email.com");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectOutputStream stream = new ObjectOutputStream(out)) {
+			stream.writeObject(message);
+		}
+
+		MailMessage copy;
+		try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			copy = (MailMessage) stream.readObject();
+		}
+
+		assertEquals("To", copy.getToEmails().get("to@email.com"));
+		assertTrue(copy.getCcEmails().isEmpty());
+		assertTrue(copy.emails.get(Message.RecipientType.CC).containsKey("cc@email.com"));
+
+		copy.to("other@email.com");
+		assertEquals(2, copy.getToEmails().size());
+	}
+
+	@Test
+	void exclude_bulk() {
+
+		MailMessage message = new MailMessage().to("a@email.com")
+		                                       .to("b@email.com")
+		                                       .to("c@email.com");
+
+		message.exclude(Arrays.asList(" A@Email.com ", "", null, "b@email.com", "a@email.com"));
+
+		assertEquals(Arrays.asList("a@email.com", "b@email.com"), message.getExcludedEmails());
+		assertEquals(Collections.singleton("c@email.com"), message.getToEmails().keySet());
+		assertThrows(UnsupportedOperationException.class, () -> message.getExcludedEmails().add("d@email.com"));
+	}
+
+	@Test
+	void exclude_sharedList(@TempDir Path dir) throws IOException {
+
+		Path file = dir.resolve("suppressed.txt");
+		Files.write(file, Arrays.asList("# bounced", "One@Email.com", "", "  two@email.com  "), StandardCharsets.UTF_8);
+
+		ExclusionList shared = ExclusionList.load(file);
+		assertEquals(2, shared.size());
+		assertTrue(shared.contains("ONE@email.com"));
+
+		MailMessage first = new MailMessage().to("one@email.com").to("three@email.com").exclude(shared);
+		MailMessage second = new MailMessage().to("two@email.com").to("four@email.com").exclude(shared).exclude(shared);
+
+		assertEquals(Collections.singleton("three@email.com"), first.getToEmails().keySet());
+		assertEquals(Collections.singleton("four@email.com"), second.getToEmails().keySet());
+		assertNull(first.getExcludedEmails()); // shared list is not copied into message
+
+		// changes to shared list apply to all messages
+		shared.add("three@email.com");
+		assertTrue(first.excluded("three@email.com"));
+		assertTrue(first.getToEmails().isEmpty());
+
+		assertTrue(shared.remove("THREE@email.com"));
+		assertFalse(first.excluded("three@email.com"));
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> shared.add("invalid"));
+		assertEquals("Invalid excluded email address: 'invalid'!", e.getMessage());
+	}
+
+	@Test
+	void emailAddress_valid() {
+
+		for (String email : Arrays.asList("a@b.co", "first.last@sub.domain.com", "user+tag@email.com", "o'hara@email.ie",
+		                                  "!#$%&'*+-/=?^_`{|}~@email.com", "\"john doe\"@email.com", "\"a@b\"@email.com",
+		                                  "user@[127.0.0.1]", "user@email.xn--p1ai", "user@xn--bcher-kva.de", "user@bücher.de")) {
+			assertTrue(EmailAddress.isValid(email), email);
+		}
+
+		for (String email : Arrays.asList("", "plain", "@email.com", "user@", "user@email", ".user@email.com", "user.@email.com",
+		                                  "us..er@email.com", "us er@email.com", "user@-email.com", "user@email-.com", "user@email..com",
+		                                  "user@email.c", "user@email.c0m", "user@email.com.", "user@em_ail.com", "user@[256.0.0.1]",
+		                                  "user@[1.2.3]", "\"unclosed@email.com", "úser@email.com", "a@b@email.com")) {
+			assertFalse(EmailAddress.isValid(email), email);
+		}
+
+		String local = String.join("", Collections.nCopies(65, "a"));
+		assertFalse(EmailAddress.isValid(local + "@email.com"));
+		assertTrue(EmailAddress.isValid(local.substring(1) + "@email.com"));
+
+		String label = String.join("", Collections.nCopies(64, "a"));
+		assertFalse(EmailAddress.isValid("user@" + label + ".com"));
+		assertTrue(EmailAddress.isValid("user@" + label.substring(1) + ".com"));
+	}
+
+	@Test
+	void emailAddress_normalize() {
+
+		// normalized address is returned as it is
+		String email = "user@email.com";
+		assertSame(email, EmailAddress.normalize(email));
+
+		assertEquals("user@email.com", EmailAddress.normalize("  User@EMAIL.com\t"));
+		assertEquals("user@xn--bcher-kva.de", EmailAddress.normalize("User@Bücher.DE"));
+		assertNull(EmailAddress.normalize("invalid"));
+		assertNull(EmailAddress.normalize(null));
+
+		MailMessage message = new MailMessage().from(" From@Email.com ").to("To@bücher.de").exclude("TO@BÜCHER.de");
+		assertEquals("from@email.com", message.getFromEmail());
+		assertTrue(message.excluded("to@xn--bcher-kva.de"));
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> message.cc("user@email"));
+		assertEquals("Invalid cc email address: 'user@email'!", e.getMessage());
+	}
+
+	@Test
+	void emailAddress_cache() {
+
+		try {
+			EmailAddress.setCacheSize(1000);
+			assertEquals(1024, EmailAddress.getCacheSize());
+
+			String first = EmailAddress.normalize(" User@Email.com ");
+			assertEquals("user@email.com", first);
+			assertSame(first, EmailAddress.normalize(" User@Email.com "));
+			assertNull(EmailAddress.normalize("invalid"));
+
+			EmailAddress.setCacheSize(0);
+			assertEquals(0, EmailAddress.getCacheSize());
+			assertNotSame(first, EmailAddress.normalize(" User@Email.com "));
+		}
+		finally {
+			EmailAddress.setCacheSize(0);
+		}
+	}
+}
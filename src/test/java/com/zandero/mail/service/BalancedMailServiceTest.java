@@ -0,0 +1,247 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.balance.BalanceConfig;
+import com.zandero.mail.service.balance.BalancedMailService;
+import com.zandero.mail.service.balance.CircuitBreaker;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.zandero.mail.service.TestMessages.message;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class BalancedMailServiceTest {
+
+	/**
+	 * Backend counting sends, failing with a transient failure while down
+	 */
+	private static class Backend implements MailService {
+
+		private final AtomicInteger sent = new AtomicInteger();
+
+		private final AtomicBoolean down = new AtomicBoolean();
+
+		private final AtomicBoolean broken = new AtomicBoolean();
+
+		private final long delay;
+
+		Backend() {
+			this(0);
+		}
+
+		Backend(long delayMillis) {
+			delay = delayMillis;
+		}
+
+		@Override
+		public MailSendResult send(MailMessage message) {
+
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			if (broken.get()) {
+				throw new IllegalStateException("Broken");
+			}
+
+			if (down.get()) {
+				return MailSendResult.unavailable("Down");
+			}
+
+			sent.incrementAndGet();
+			return MailSendResult.ok();
+		}
+	}
+
+	@Test
+	void weightedRoundRobin() {
+
+		Backend one = new Backend();
+		Backend two = new Backend();
+
+		try (BalancedMailService service = new BalancedMailService().add(one, 3).add(two, 1)) {
+
+			for (int i = 0; i < 40; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			assertEquals(30, one.sent.get());
+			assertEquals(10, two.sent.get());
+		}
+	}
+
+	@Test
+	void leastOutstanding() {
+
+		Backend fast = new Backend();
+		Backend slow = new Backend(50);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		BalanceConfig config = new BalanceConfig().strategy(BalanceConfig.Strategy.LEAST_OUTSTANDING);
+		try (BalancedMailService service = new BalancedMailService(config).add(slow).add(fast)) {
+
+			List<CompletableFuture<MailSendResult>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				futures.add(service.sendAsync(message("to" + i + "@email.com"), executor));
+				Thread.sleep(5);
+			}
+
+			futures.forEach(future -> assertTrue(future.join().isSuccessful()));
+			assertTrue(fast.sent.get() > slow.sent.get(), "fast: " + fast.sent.get() + ", slow: " + slow.sent.get());
+		}
+		catch (InterruptedException e) {
+			fail(e);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void failoverAndTrip() {
+
+		Backend one = new Backend();
+		Backend two = new Backend();
+		one.down.set(true);
+
+		BalanceConfig config = new BalanceConfig().windowSize(10).minCalls(4).openDuration(Duration.ofMillis(200));
+		try (BalancedMailService service = new BalancedMailService(config).add(one).add(two)) {
+
+			for (int i = 0; i < 20; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			assertEquals(20, two.sent.get());
+			assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker(one).getState());
+			assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker(two).getState());
+
+			// recovered ... trial send closes breaker
+			one.down.set(false);
+			Thread.sleep(250);
+			assertEquals(CircuitBreaker.State.HALF_OPEN, service.getCircuitBreaker(one).getState());
+
+			for (int i = 0; i < 10; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker(one).getState());
+			assertTrue(one.sent.get() > 0);
+		}
+		catch (InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void failoverOnException() {
+
+		Backend one = new Backend();
+		Backend two = new Backend();
+		one.broken.set(true);
+
+		BalanceConfig config = new BalanceConfig().windowSize(10).minCalls(4).openDuration(Duration.ofMillis(200));
+		try (BalancedMailService service = new BalancedMailService(config).add(one).add(two)) {
+
+			for (int i = 0; i < 10; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker(one).getState());
+
+			// failed trial send opens breaker again ... instead of leaving it half open
+			Thread.sleep(250);
+			assertEquals(CircuitBreaker.State.HALF_OPEN, service.getCircuitBreaker(one).getState());
+
+			for (int i = 0; i < 4; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker(one).getState());
+			assertEquals(0, one.sent.get());
+		}
+		catch (InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void exceptionWithoutFailover() {
+
+		Backend one = new Backend();
+		one.broken.set(true);
+
+		BalanceConfig config = new BalanceConfig().failover(false);
+		try (BalancedMailService service = new BalancedMailService(config).add(one)) {
+			assertThrows(IllegalStateException.class, () -> service.send(message("to@email.com")));
+		}
+	}
+
+	@Test
+	void tripOnLatency() {
+
+		Backend slow = new Backend(20);
+		Backend fast = new Backend();
+
+		BalanceConfig config = new BalanceConfig().windowSize(10).minCalls(2).latency(0.9, Duration.ofMillis(10));
+		try (BalancedMailService service = new BalancedMailService(config).add(slow).add(fast)) {
+
+			for (int i = 0; i < 10; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker(slow).getState());
+			assertTrue(fast.sent.get() >= 8);
+		}
+	}
+
+	@Test
+	void noBackendAvailable() {
+
+		Backend one = new Backend();
+		one.down.set(true);
+
+		try (BalancedMailService service = new BalancedMailService().add(one)) {
+
+			MailSendResult result = service.send(message("to@email.com"));
+			assertFalse(result.isSuccessful());
+			assertTrue(result.isTransient());
+		}
+	}
+
+	@Test
+	void sendAllFailover() {
+
+		Backend one = new Backend();
+		Backend two = new Backend();
+		one.down.set(true);
+
+		try (BalancedMailService service = new BalancedMailService().add(one).add(two)) {
+
+			List<MailMessage> messages = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				messages.add(message("to" + i + "@email.com"));
+			}
+
+			List<MailSendResult> results = service.sendAll(messages);
+			assertEquals(5, results.size());
+			results.forEach(result -> assertTrue(result.isSuccessful()));
+			assertEquals(5, two.sent.get());
+		}
+	}
+}
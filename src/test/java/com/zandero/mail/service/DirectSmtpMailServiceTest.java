@@ -0,0 +1,481 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.smtp.CachingMxResolver;
+import com.zandero.mail.service.smtp.DirectSmtpMailService;
+import com.zandero.mail.service.smtp.DnsMxResolver;
+import com.zandero.mail.service.smtp.DomainThrottle;
+import com.zandero.mail.service.smtp.DomainThrottleConfig;
+import com.zandero.mail.service.smtp.MxRecord;
+import com.zandero.mail.service.smtp.MxResolver;
+import com.zandero.mail.service.smtp.SmtpPoolConfig;
+import com.zandero.mail.service.smtp.SmtpTlsConfig;
+import com.zandero.mail.service.spool.SpoolConfig;
+import com.zandero.mail.service.spool.SpoolingMailService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Direct delivery against local test servers standing in for mail exchangers
+ */
+class DirectSmtpMailServiceTest {
+
+	private static final Duration TTL = Duration.ofHours(1);
+
+	/**
+	 * Stand-in resolver counting lookups
+	 */
+	private static class TestResolver implements MxResolver {
+
+		private final Map<String, List<MxRecord>> records = new HashMap<>();
+
+		private final AtomicInteger lookups = new AtomicInteger();
+
+		TestResolver add(String domain, MxRecord... mx) {
+			records.put(domain, Arrays.asList(mx));
+			return this;
+		}
+
+		@Override
+		public List<MxRecord> resolve(String domain) throws IOException {
+
+			lookups.incrementAndGet();
+			if ("timeout.com".equals(domain)) {
+				throw new IOException("Timed out");
+			}
+
+			return records.getOrDefault(domain, Collections.emptyList());
+		}
+	}
+
+	private static MxRecord mx(SmtpTestServer server, int priority) {
+
+		return new MxRecord("localhost", server.getPort(), priority, TTL);
+	}
+
+	private static DirectSmtpMailService service(MxResolver resolver) {
+
+		return new DirectSmtpMailService("mail.sender.test", resolver, new SmtpPoolConfig().size(2), new SmtpTlsConfig());
+	}
+
+	@Test
+	void sendPerDomain() throws IOException {
+
+		try (SmtpTestServer one = new SmtpTestServer();
+		     SmtpTestServer two = new SmtpTestServer("PIPELINING")) {
+
+			TestResolver resolver = new TestResolver().add("one.com", mx(one, 10))
+			                                          .add("two.com", mx(two, 10));
+
+			try (DirectSmtpMailService service = service(new CachingMxResolver(resolver))) {
+
+				for (int i = 0; i < 3; i++) {
+					MailMessage message = new MailMessage().from("from@sender.com")
+					                                       .to("a@one.com")
+					                                       .to("c@TWO.com")
+					                                       .cc("b@one.com")
+					                                       .bcc("d@two.com")
+					                                       .subject("Hello")
+					                                       .content("Test");
+
+					assertTrue(service.send(message).isSuccessful());
+				}
+
+				// single transaction per domain and message, connections reused
+				assertEquals(3, one.getMessages().size());
+				assertEquals(3, two.getMessages().size());
+				assertEquals(1, one.getConnections());
+				assertEquals(1, two.getConnections());
+
+				assertEquals(Arrays.asList("a@one.com", "b@one.com"), one.getRecipients().subList(0, 2));
+				assertEquals(Arrays.asList("c@two.com", "d@two.com"), two.getRecipients().subList(0, 2));
+
+				// bcc is not disclosed
+				assertFalse(two.getMessages().get(0).contains("d@two.com"));
+
+				// records are cached
+				assertEquals(2, resolver.lookups.get());
+				assertEquals(2, service.getConnections().size());
+				assertEquals(1, service.getConnections().get("localhost:" + one.getPort()).getIdle());
+			}
+		}
+	}
+
+	@Test
+	void fallbackToNextMx() throws IOException {
+
+		int closed;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			closed = socket.getLocalPort();
+		}
+
+		try (SmtpTestServer backup = new SmtpTestServer()) {
+
+			TestResolver resolver = new TestResolver().add("one.com", mx(backup, 20), new MxRecord("localhost", closed, 10, TTL));
+
+			try (DirectSmtpMailService service = service(resolver)) {
+
+				MailMessage message = new MailMessage().from("from@sender.com").to("a@one.com").subject("Hello").content("Test");
+				assertTrue(service.send(message).isSuccessful());
+				assertEquals(1, backup.getMessages().size());
+			}
+		}
+	}
+
+	@Test
+	void partialFailure() throws IOException {
+
+		try (SmtpTestServer one = new SmtpTestServer();
+		     SmtpTestServer two = new SmtpTestServer()) {
+
+			TestResolver resolver = new TestResolver().add("one.com", mx(one, 10))
+			                                          .add("two.com", mx(two, 10));
+
+			try (DirectSmtpMailService service = service(resolver)) {
+
+				MailMessage message = new MailMessage().from("from@sender.com")
+				                                       .to("a@one.com")
+				                                       .to("defer@two.com")
+				                                       .subject("Hello")
+				                                       .content("Test");
+
+				MailSendResult result = service.send(message);
+				assertFalse(result.isSuccessful());
+				assertTrue(result.isTransient());
+				assertTrue(result.getMessage().startsWith("Delivery failed for: two.com"), result.getMessage());
+
+				// delivered recipients are not send to again
+				assertEquals(Collections.singletonList("a@one.com"), message.getExcludedEmails());
+				assertFalse(service.send(message).isSuccessful());
+				assertEquals(1, one.getMessages().size());
+			}
+		}
+	}
+
+	@Test
+	void spoolPartialFailure(@TempDir Path dir) throws Exception {
+
+		try (SmtpTestServer one = new SmtpTestServer();
+		     SmtpTestServer two = new SmtpTestServer()) {
+
+			TestResolver resolver = new TestResolver().add("one.com", mx(one, 10))
+			                                          .add("two.com", mx(two, 10));
+
+			try (DirectSmtpMailService service = service(resolver)) {
+
+				AtomicInteger attempts = new AtomicInteger();
+				MailService delivery = message -> {
+					attempts.incrementAndGet();
+					return service.send(message);
+				};
+
+				// first attempt reaches one.com only ... spool is closed before redelivery
+				SpoolConfig config = new SpoolConfig().retryDelay(Duration.ofMinutes(10)).awaitSync(true);
+				try (SpoolingMailService spool = new SpoolingMailService(delivery, dir, config)) {
+
+					MailMessage message = new MailMessage().from("from@sender.com")
+					                                       .to("a@one.com")
+					                                       .to("defer@two.com")
+					                                       .subject("Hello")
+					                                       .content("Test");
+
+					assertTrue(spool.send(message).isSuccessful());
+					await(() -> attempts.get() == 1);
+				}
+
+				// recovered message excludes delivered recipients
+				config = new SpoolConfig().retryDelay(Duration.ZERO).maxAttempts(2);
+				try (SpoolingMailService spool = new SpoolingMailService(delivery, dir, config)) {
+					await(() -> attempts.get() == 3);
+				}
+
+				assertEquals(1, one.getMessages().size());
+				assertEquals(Collections.singletonList("a@one.com"), one.getRecipients());
+			}
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < end, "Timed out waiting for condition");
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	void failures() throws IOException {
+
+		try (SmtpTestServer one = new SmtpTestServer()) {
+
+			TestResolver resolver = new TestResolver().add("one.com", mx(one, 10));
+
+			try (DirectSmtpMailService service = service(resolver)) {
+
+				// rejected permanently
+				MailSendResult result = service.send(new MailMessage().from("from@sender.com").to("reject@one.com").subject("Hello").content("Test"));
+				assertFalse(result.isSuccessful());
+				assertFalse(result.isTransient());
+
+				// domain without mail exchanger
+				result = service.send(new MailMessage().from("from@sender.com").to("a@nowhere.com").subject("Hello").content("Test"));
+				assertFalse(result.isSuccessful());
+				assertFalse(result.isTransient());
+				assertEquals("Delivery failed for: nowhere.com (Domain does not accept mail)", result.getMessage());
+
+				// lookup failed
+				result = service.send(new MailMessage().from("from@sender.com").to("a@timeout.com").subject("Hello").content("Test"));
+				assertTrue(result.isTransient());
+
+				assertEquals(0, one.getMessages().size());
+			}
+		}
+	}
+
+	@Test
+	void cacheRespectsTtl() throws IOException {
+
+		TestResolver resolver = new TestResolver().add("short.test", new MxRecord("mx.short.test", 10, Duration.ZERO))
+		                                          .add("long.test", new MxRecord("mx.long.test", 10, TTL));
+
+		CachingMxResolver cache = new CachingMxResolver(resolver, Duration.ZERO, Duration.ofDays(1), Duration.ofMinutes(5), 100);
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals("mx.short.test", cache.resolve("short.test").get(0).getHost());
+			assertEquals("mx.long.test", cache.resolve("LONG.test").get(0).getHost());
+			assertTrue(cache.resolve("missing.test").isEmpty());
+		}
+
+		// expired on each lookup, cached, negatively cached
+		assertEquals(3 + 1 + 1, resolver.lookups.get());
+
+		cache.invalidate("long.test");
+		cache.resolve("long.test");
+		assertEquals(6, resolver.lookups.get());
+
+		// failed lookups are not cached
+		assertThrows(IOException.class, () -> cache.resolve("timeout.com"));
+		assertThrows(IOException.class, () -> cache.resolve("timeout.com"));
+		assertEquals(8, resolver.lookups.get());
+	}
+
+	@Test
+	void throttleRate() throws IOException {
+
+		try (SmtpTestServer one = new SmtpTestServer()) {
+
+			TestResolver resolver = new TestResolver().add("one.com", mx(one, 10));
+			DomainThrottleConfig config = new DomainThrottleConfig().rate(20).burst(1);
+
+			try (DirectSmtpMailService service = new DirectSmtpMailService(null, resolver, new SmtpPoolConfig(), new SmtpTlsConfig(), config)) {
+
+				long start = System.nanoTime();
+				for (int i = 0; i < 6; i++) {
+					assertTrue(service.send(new MailMessage().from("from@sender.com").to("a@one.com").subject("Hello").content("Test")).isSuccessful());
+				}
+
+				// first send right away, others 50 ms apart
+				assertTrue(System.nanoTime() - start >= Duration.ofMillis(240).toNanos());
+				assertEquals(6, one.getMessages().size());
+				assertEquals(0, service.getThrottle().getInFlight("one.com"));
+			}
+		}
+	}
+
+	@Test
+	void throttleBackoff() throws IOException {
+
+		try (SmtpTestServer one = new SmtpTestServer();
+		     SmtpTestServer two = new SmtpTestServer()) {
+
+			TestResolver resolver = new TestResolver().add("one.com", mx(one, 10))
+			                                          .add("two.com", mx(two, 10));
+
+			DomainThrottleConfig config = new DomainThrottleConfig().rate(8)
+			                                                        .acquireTimeout(Duration.ZERO)
+			                                                        .backoff(Duration.ofMinutes(1), Duration.ofMinutes(10));
+
+			try (DirectSmtpMailService service = new DirectSmtpMailService(null, resolver, new SmtpPoolConfig(), new SmtpTlsConfig(), config)) {
+
+				// deferred with 451
+				assertTrue(service.send(new MailMessage().from("from@sender.com").to("defer@two.com").subject("Hello").content("Test")).isTransient());
+				assertEquals(4, service.getThrottle().getRate("two.com"));
+
+				// paused without connecting
+				MailSendResult result = service.send(new MailMessage().from("from@sender.com").to("a@two.com").subject("Hello").content("Test"));
+				assertTrue(result.isThrottled());
+				assertTrue(result.getRetryAfter().compareTo(Duration.ofSeconds(50)) > 0);
+				assertEquals(1, two.getConnections());
+
+				// other domains are not affected
+				assertTrue(service.send(new MailMessage().from("from@sender.com").to("a@one.com").subject("Hello").content("Test")).isSuccessful());
+				assertEquals(8, service.getThrottle().getRate("one.com"));
+			}
+		}
+	}
+
+	@Test
+	void throttleWarmUpAndConcurrency() throws InterruptedException {
+
+		DomainThrottleConfig config = new DomainThrottleConfig().rate(100)
+		                                                        .warmUp(Duration.ofHours(1), 1, 10)
+		                                                        .domain("big.com", new DomainThrottleConfig().rate(50)
+		                                                                                                     .maxConcurrency(1)
+		                                                                                                     .acquireTimeout(Duration.ZERO))
+		                                                        .domain("old.com", new DomainThrottleConfig().rate(100)
+		                                                                                                     .warmUp(Duration.ofHours(1), 1, 10)
+		                                                                                                     .warmUpStart(Instant.now().minus(Duration.ofMinutes(90))));
+
+		DomainThrottle throttle = new DomainThrottle(config);
+
+		// first step, second step, warmed up
+		assertEquals(1, throttle.getRate("new.com"));
+		assertEquals(10, throttle.getRate("old.com"));
+		assertEquals(50, throttle.getRate("BIG.com"));
+
+		assertNull(throttle.acquire("big.com"));
+		assertNotNull(throttle.acquire("big.com"));
+		assertEquals(1, throttle.getInFlight("big.com"));
+
+		throttle.release("big.com", 250);
+		assertNull(throttle.acquire("big.com"));
+	}
+
+	@Test
+	void throttleRefundOnConcurrency() throws InterruptedException {
+
+		DomainThrottleConfig config = new DomainThrottleConfig().rate(0.01)
+		                                                        .burst(2)
+		                                                        .maxConcurrency(1)
+		                                                        .acquireTimeout(Duration.ofMillis(50));
+		DomainThrottle throttle = new DomainThrottle(config);
+
+		assertNull(throttle.acquire("email.com"));
+		assertNotNull(throttle.acquire("email.com")); // no permit ... token is given back
+
+		throttle.release("email.com", 250);
+		assertNull(throttle.acquire("email.com"));
+	}
+
+	@Test
+	void throttleEvictIdle() throws InterruptedException {
+
+		DomainThrottleConfig config = new DomainThrottleConfig().idleTimeout(Duration.ofMillis(50));
+		DomainThrottle throttle = new DomainThrottle(config);
+
+		assertNull(throttle.acquire("idle.com"));
+		throttle.release("idle.com", 250);
+
+		assertNull(throttle.acquire("deferring.com"));
+		throttle.release("deferring.com", 421);
+
+		assertNull(throttle.acquire("busy.com")); // permit is held
+
+		Thread.sleep(100);
+		assertNull(throttle.acquire("new.com"));
+
+		assertEquals(3, throttle.getDomainCount());
+		assertEquals(1, throttle.getInFlight("busy.com"));
+		assertTrue(throttle.getRate("deferring.com") < DomainThrottleConfig.DEFAULT_RATE);
+	}
+
+	@Test
+	void dnsResolver() throws Exception {
+
+		try (DatagramSocket dns = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+
+			Thread server = new Thread(() -> answer(dns));
+			server.setDaemon(true);
+			server.start();
+
+			DnsMxResolver resolver = new DnsMxResolver(Collections.singletonList(new InetSocketAddress(InetAddress.getLoopbackAddress(), dns.getLocalPort())),
+			                                           Duration.ofSeconds(2));
+
+			List<MxRecord> records = resolver.resolve("Example.test");
+			assertEquals(2, records.size());
+			assertEquals("mx1.example.test", records.get(0).getHost());
+			assertEquals(10, records.get(0).getPriority());
+			assertEquals(Duration.ofSeconds(3600), records.get(0).getTtl());
+			assertEquals("mx2.example.test", records.get(1).getHost());
+			assertEquals(20, records.get(1).getPriority());
+			assertEquals(25, records.get(1).getPort());
+
+			// no MX records, domain is its own mail exchanger
+			records = resolver.resolve("implicit.test");
+			assertEquals(Collections.singletonList(new MxRecord("implicit.test", 0, DnsMxResolver.IMPLICIT_MX_TTL)), records);
+
+			// domain does not exist
+			assertTrue(resolver.resolve("missing.test").isEmpty());
+		}
+	}
+
+	/**
+	 * Answers MX queries: example.test with two compressed records, implicit.test with none and others with name error
+	 */
+	private static void answer(DatagramSocket dns) {
+
+		byte[] buffer = new byte[512];
+		while (!dns.isClosed()) {
+			try {
+				DatagramPacket query = new DatagramPacket(buffer, buffer.length);
+				dns.receive(query);
+
+				// question name starts at 12, length prefixed labels
+				String domain = new String(buffer, 13, buffer[12]);
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.write(buffer, 0, 2); // id
+				out.writeShort("missing".equals(domain) ? 0x8183 : 0x8180);
+				out.writeShort(1);
+				out.writeShort("example".equals(domain) ? 2 : 0);
+				out.writeShort(0);
+				out.writeShort(0);
+				out.write(buffer, 12, query.getLength() - 12); // question
+
+				if ("example".equals(domain)) {
+					for (int i = 1; i <= 2; i++) {
+						out.writeShort(0xC00C); // pointer to question name
+						out.writeShort(15);
+						out.writeShort(1);
+						out.writeInt(3600 * i);
+						out.writeShort(2 + 4 + 2);
+						out.writeShort(10 * i);
+						out.writeByte(3);
+						out.writeBytes("mx" + i);
+						out.writeShort(0xC00C);
+					}
+				}
+
+				byte[] answer = bytes.toByteArray();
+				dns.send(new DatagramPacket(answer, answer.length, query.getSocketAddress()));
+			}
+			catch (IOException e) {
+				// closed
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package com.zandero.mail.service;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zandero.http.Http;
+import com.zandero.mail.service.http.HttpClientTransport;
+import com.zandero.mail.service.http.HttpTransport;
+import com.zandero.mail.service.http.HttpTransportConfig;
+import com.zandero.mail.service.http.RequestBody;
+import com.zandero.mail.service.http.RequestContext;
+import com.zandero.mail.service.http.UrlConnectionTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class HttpTransportTest {
+
+	private HttpServer server;
+
+	private volatile byte[] received;
+
+	private volatile String contentType;
+
+	@BeforeEach
+	void start() throws IOException {
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/send", exchange -> {
+			try (InputStream in = exchange.getRequestBody()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				in.transferTo(out);
+				received = out.toByteArray();
+			}
+
+			contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+
+			byte[] response = "{\"id\":\"1\"}".getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("X-RateLimit-Remaining", "10");
+			exchange.sendResponseHeaders(202, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+
+		server.start();
+	}
+
+	@AfterEach
+	void stop() {
+		server.stop(0);
+	}
+
+	@Test
+	void postStreamed() throws IOException {
+
+		HttpTransport transport = new HttpClientTransport(new HttpTransportConfig().version(HttpClient.Version.HTTP_1_1));
+
+		byte[] content = content(100_000);
+		MailSendStats stats = new MailSendStats();
+		Http.Response response = transport.post(getUrl(), streamed(content), null, stats);
+
+		assertEquals(202, response.getCode());
+		assertEquals("{\"id\":\"1\"}", response.getResponse());
+		assertEquals("10", response.getHeader("x-ratelimit-remaining"));
+
+		assertArrayEquals(content, received);
+		assertEquals("text/plain", contentType);
+
+		assertEquals(202, stats.getProviderStatus());
+		assertEquals(100_000, stats.getBytesSent());
+		assertTrue(stats.getSerializationTime().toNanos() > 0);
+	}
+
+	@Test
+	void postHttp2() throws IOException {
+
+		// server does not support HTTP/2 ... client falls back to HTTP/1.1
+		HttpTransport transport = new HttpClientTransport();
+
+		byte[] content = content(50_000);
+		for (int i = 0; i < 3; i++) { // connection is reused
+			Http.Response response = transport.post(getUrl(), streamed(content), Collections.singletonMap("Content-Type", "application/json"), null);
+			assertEquals(202, response.getCode());
+			assertArrayEquals(content, received);
+			assertEquals("application/json", contentType);
+		}
+	}
+
+	@Test
+	void postAsync() throws InterruptedException, ExecutionException, TimeoutException {
+
+		try (HttpTransport transport = new HttpClientTransport()) {
+
+			byte[] content = "{\"to\":\"test@email.com\"}".getBytes(StandardCharsets.UTF_8);
+			CompletableFuture<Http.Response> future = transport.postAsync(getUrl(), RequestBody.of(content, "application/json"), null, Runnable::run);
+
+			assertEquals(202, future.get(10, TimeUnit.SECONDS).getCode());
+			assertArrayEquals(content, received);
+			assertEquals("application/json", contentType);
+
+			// streamed body ... stats are recorded once response is received
+			MailSendStats stats = new MailSendStats();
+			RequestContext context = new RequestContext(getUrl(), null, "application/json");
+			RequestBody streamed = new RequestBody() {
+				@Override
+				public String getContentType() {
+					return "application/json";
+				}
+
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write(content);
+				}
+			};
+
+			assertEquals(202, transport.postAsync(context, streamed, stats, Runnable::run).get(10, TimeUnit.SECONDS).getCode());
+			assertArrayEquals(content, received);
+			assertEquals(content.length, stats.getBytesSent());
+			assertEquals(202, stats.getProviderStatus());
+		}
+	}
+
+	@Test
+	void postFallback() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		HttpTransport transport = new UrlConnectionTransport(new HttpTransportConfig().readTimeout(Duration.ofSeconds(5)));
+
+		byte[] content = content(10_000);
+		MailSendStats stats = new MailSendStats();
+		assertEquals(202, transport.post(getUrl(), streamed(content), null, stats).getCode());
+		assertArrayEquals(content, received);
+		assertEquals(10_000, stats.getBytesSent());
+
+		CompletableFuture<Http.Response> future = transport.postAsync(getUrl(), RequestBody.of(content, "text/plain"), null, MailExecutors.getDefault());
+		assertEquals(202, future.get(10, TimeUnit.SECONDS).getCode());
+	}
+
+	@Test
+	void postConnectionRefused() throws IOException {
+
+		HttpTransport transport = new HttpClientTransport(new HttpTransportConfig().connectTimeout(Duration.ofSeconds(1)));
+		server.stop(0);
+
+		IOException e = assertThrows(IOException.class, () -> transport.post(getUrl(), streamed(content(10)), null, null));
+		assertTrue(MailFailures.isTransient(e));
+	}
+
+	private String getUrl() {
+
+		return "http://localhost:" + server.getAddress().getPort() + "/send";
+	}
+
+	private static byte[] content(int size) {
+
+		byte[] content = new byte[size];
+		Arrays.fill(content, (byte) 'a');
+		content[size - 1] = 'z';
+		return content;
+	}
+
+	private static RequestBody streamed(byte[] content) {
+
+		return new RequestBody() {
+			@Override
+			public String getContentType() {
+				return "text/plain";
+			}
+
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				// odd sized writes to cross chunk boundaries
+				for (int off = 0; off < content.length; off += 1000) {
+					out.write(content, off, Math.min(1000, content.length - off));
+				}
+			}
+		};
+	}
+}
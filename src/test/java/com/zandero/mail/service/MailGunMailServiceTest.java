@@ -2,19 +2,28 @@ package com.zandero.mail.service;
 
 import com.zandero.http.Http;
 import com.zandero.http.TrustAnyTrustManager;
+import com.zandero.mail.MailAttachment;
 import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.http.HttpTransport;
+import com.zandero.mail.service.http.MultipartBody;
+import com.zandero.mail.service.http.RequestBody;
 import com.zandero.mail.service.mailgun.MailGunMailService;
 import com.zandero.utils.InstantTimeUtils;
 import com.zandero.utils.ResourceUtils;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -68,4 +77,79 @@ class MailGunMailServiceTest extends MailServiceTest {
 
 		assertEquals("Fri, 29 Aug 2014 21:41:53 +0000", InstantTimeUtils.format(Instant.ofEpochSecond(1409348513L), MailGunMailService.SEND_AT_FORMAT));
 	}
+
+	@Test
+	void multipartBody() throws IOException {
+
+		MultipartBody body = new MultipartBody().field("subject", "Ünicode \"test\"")
+		                                        .field("skipped", null)
+		                                        .file("attachment", new MailAttachment("application/pdf", ByteBuffer.wrap(new byte[] {1, 2, 3}), "in\"voice.pdf"));
+
+		assertEquals("multipart/form-data; boundary=" + body.getBoundary(), body.getContentType());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		body.writeTo(out);
+
+		String boundary = body.getBoundary();
+		String expected = "--" + boundary + "\r\n" +
+		                  "Content-Disposition: form-data; name=\"subject\"\r\n" +
+		                  "Content-Type: text/plain; charset=UTF-8\r\n\r\n" +
+		                  "Ünicode \"test\"\r\n" +
+		                  "--" + boundary + "\r\n" +
+		                  "Content-Disposition: form-data; name=\"attachment\"; filename=\"in%22voice.pdf\"\r\n" +
+		                  "Content-Type: application/pdf\r\n\r\n" +
+		                  "\u0001\u0002\u0003\r\n" +
+		                  "--" + boundary + "--\r\n";
+
+		assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void requestContext() {
+
+		List<String> urls = new ArrayList<>();
+		List<Map<String, String>> headers = new ArrayList<>();
+		List<String> contentTypes = new ArrayList<>();
+		List<String> calls = new ArrayList<>();
+
+		HttpTransport transport = new HttpTransport() {
+			@Override
+			public Http.Response post(String url, RequestBody body, Map<String, String> requestHeaders, MailSendStats stats) {
+				calls.add("post");
+				urls.add(url);
+				headers.add(requestHeaders);
+				contentTypes.add(body.getContentType());
+				return new Http.Response(200, "{\"id\":\"<1@zandero.com>\",\"message\":\"Queued\"}", Collections.emptyMap());
+			}
+
+			@Override
+			public CompletableFuture<Http.Response> postAsync(String url, RequestBody body, Map<String, String> requestHeaders, Executor executor) {
+				calls.add("postAsync");
+				urls.add(url);
+				headers.add(requestHeaders);
+				contentTypes.add(body.getContentType());
+				return CompletableFuture.completedFuture(new Http.Response(200, "{\"id\":\"<1@zandero.com>\",\"message\":\"Queued\"}", Collections.emptyMap()));
+			}
+		};
+
+		MailGunMailService service = new MailGunMailService("key-test", "zandero.com", "sender@zandero.com", "Sender", transport);
+
+		MailMessage message = new MailMessage().to("to@zandero.com").subject("Test").content("Hello!");
+		assertTrue(service.send(message).isSuccessful());
+		assertTrue(service.sendAsync(message, Runnable::run).join().isSuccessful());
+
+		message.attachment(new MailAttachment("application/pdf", ByteBuffer.wrap(new byte[] {1, 2, 3}), "invoice.pdf"));
+		assertTrue(service.sendAsync(message, Runnable::run).join().isSuccessful());
+
+		// async sends are posted without blocking, with or without attachments
+		assertEquals(Arrays.asList("post", "postAsync", "postAsync"), calls);
+		assertEquals(Collections.nCopies(3, "https://api.mailgun.net/v3/zandero.com/messages"), urls);
+
+		// headers are computed once and shared by all sends
+		assertSame(headers.get(0), headers.get(1));
+		assertEquals("Basic " + Base64.getEncoder().encodeToString("api:key-test".getBytes(StandardCharsets.UTF_8)), headers.get(0).get("Authorization"));
+		assertThrows(UnsupportedOperationException.class, () -> headers.get(0).put("Authorization", "none"));
+
+		contentTypes.forEach(type -> assertTrue(type.startsWith("multipart/form-data; boundary="), type));
+	}
 }
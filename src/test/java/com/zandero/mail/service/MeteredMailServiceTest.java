@@ -0,0 +1,145 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.metrics.Histogram;
+import com.zandero.mail.service.metrics.JmxMailMetrics;
+import com.zandero.mail.service.metrics.MeteredMailService;
+import com.zandero.mail.service.metrics.ProviderMetricsMXBean;
+import com.zandero.mail.service.smtp.SmtpMailService;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.zandero.mail.service.TestMessages.message;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class MeteredMailServiceTest {
+
+	@Test
+	void recordOutcomes() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MailService delivery = message -> {
+			switch (calls.incrementAndGet() % 4) {
+				case 1:
+					return MailSendResult.ok().withStats(new MailSendStats().bytesSent(1000));
+				case 2:
+					return MailSendResult.throttled("Slow down", null);
+				case 3:
+					return MailSendResult.unavailable("Timeout");
+				default:
+					return MailSendResult.fail("Invalid");
+			}
+		};
+
+		JmxMailMetrics metrics = new JmxMailMetrics(Duration.ofMinutes(1), false);
+		try (MeteredMailService service = new MeteredMailService(delivery, "test", metrics)) {
+
+			for (int i = 0; i < 8; i++) {
+				service.send(message("to" + i + "@email.com"));
+			}
+
+			ProviderMetricsMXBean stats = metrics.get("test");
+			assertEquals(8, stats.getSent());
+			assertEquals(2, stats.getSucceeded());
+			assertEquals(2, stats.getThrottled());
+			assertEquals(2, stats.getTransientFailures());
+			assertEquals(2, stats.getPermanentFailures());
+			assertEquals(0.75, stats.getFailureRate(), 0.001);
+			assertEquals(2000, stats.getBytesSent());
+			assertEquals(1000, stats.getPayloadMean(), 0.001);
+			assertTrue(stats.getSendRate() > 0);
+			assertEquals(0.0, stats.getGauges().get(MeteredMailService.IN_FLIGHT));
+		}
+
+		assertNull(metrics.get("test"));
+	}
+
+	@Test
+	void recordBatchPerMessage() {
+
+		MailService delivery = new MailService() {
+			@Override
+			public MailSendResult send(MailMessage message) {
+				return MailSendResult.ok();
+			}
+
+			@Override
+			public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+				// two requests: three messages batched together and one on its own
+				MailSendResult batched = MailSendResult.ok().withStats(new MailSendStats().bytesSent(3000).totalTime(30_000_000L));
+				MailSendResult single = MailSendResult.fail("Invalid").withStats(new MailSendStats().bytesSent(1000).totalTime(10_000_000L));
+				return Arrays.asList(batched, batched, batched, single);
+			}
+		};
+
+		JmxMailMetrics metrics = new JmxMailMetrics(Duration.ofMinutes(1), false);
+		try (MeteredMailService service = new MeteredMailService(delivery, "batch", metrics)) {
+
+			service.sendAll(Arrays.asList(message("to1@email.com"), message("to2@email.com"), message("to3@email.com"), message("to4@email.com")));
+
+			ProviderMetricsMXBean stats = metrics.get("batch");
+			assertEquals(4, stats.getSent());
+			assertEquals(3, stats.getSucceeded());
+			assertEquals(1, stats.getPermanentFailures());
+			assertEquals(4000, stats.getBytesSent());
+			assertEquals(30, stats.getLatencyMax(), 10);
+		}
+	}
+
+	@Test
+	void registerMBean() throws Exception {
+
+		try (SmtpTestServer server = new SmtpTestServer();
+		     MeteredMailService service = new MeteredMailService(new SmtpMailService("localhost", server.getPort(), null, null), "smtp-test")) {
+
+			assertTrue(service.send(message("to@email.com")).isSuccessful());
+
+			MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("com.zandero.mail:type=MailService,provider=\"smtp-test\"");
+
+			assertEquals(1L, mbeans.getAttribute(name, "Sent"));
+			assertEquals(1L, mbeans.getAttribute(name, "Succeeded"));
+			assertTrue((Double) mbeans.getAttribute(name, "LatencyP99") > 0);
+			assertTrue((Long) mbeans.getAttribute(name, "BytesSent") > 0);
+
+			ProviderMetricsMXBean stats = JmxMailMetrics.getDefault().get("smtp-test");
+			assertEquals(1.0, stats.getGauges().get(MeteredMailService.POOL_IDLE));
+			assertEquals(0.0, stats.getGauges().get(MeteredMailService.POOL_UTILIZATION));
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void histogramPercentiles() {
+
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500.5, histogram.getMean(), 0.001);
+
+		// log-linear buckets ... within 25%
+		assertEquals(500, histogram.getPercentile(0.5), 125);
+		assertEquals(990, histogram.getPercentile(0.99), 250);
+		assertEquals(1000, histogram.getPercentile(1));
+		assertTrue(histogram.getPercentile(0.5) >= 500);
+	}
+}
@@ -0,0 +1,291 @@
+package com.zandero.mail.service;
+
+import com.zandero.http.Http;
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.http.RateLimitHeaders;
+import com.zandero.mail.service.limit.RateLimitConfig;
+import com.zandero.mail.service.limit.RateLimitedMailService;
+import com.zandero.mail.service.limit.TokenBucket;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.zandero.mail.service.TestMessages.message;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class RateLimitedMailServiceTest {
+
+	@Test
+	void tokenBucket() {
+
+		TokenBucket bucket = new TokenBucket(10, 2);
+		assertEquals(0, bucket.reserve());
+		assertEquals(0, bucket.reserve());
+
+		long wait = bucket.reserve(); // no tokens left ... next one in 100ms
+		assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(50) && wait <= TimeUnit.MILLISECONDS.toNanos(100), "Wait: " + wait);
+
+		bucket.refund();
+		bucket.pause(Duration.ofSeconds(1));
+		assertTrue(bucket.reserve() > TimeUnit.MILLISECONDS.toNanos(900));
+	}
+
+	@Test
+	void limitRate() {
+
+		List<Long> sent = new CopyOnWriteArrayList<>();
+		MailService delivery = message -> {
+			sent.add(System.nanoTime());
+			return MailSendResult.ok();
+		};
+
+		RateLimitConfig config = new RateLimitConfig().rate(20).burst(1);
+		try (RateLimitedMailService service = new RateLimitedMailService(delivery, config)) {
+
+			long start = System.nanoTime();
+			for (int i = 0; i < 6; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			// first one immediately, then one every 50ms
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(240));
+			assertEquals(6, sent.size());
+		}
+	}
+
+	@Test
+	void limitInFlight() {
+
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger max = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		MailService delivery = new MailService() {
+			@Override
+			public MailSendResult send(MailMessage message) {
+				return MailSendResult.ok();
+			}
+
+			@Override
+			public CompletableFuture<MailSendResult> sendAsync(MailMessage message, java.util.concurrent.Executor executor) {
+
+				max.accumulateAndGet(active.incrementAndGet(), Math::max);
+				return CompletableFuture.supplyAsync(() -> {
+					try {
+						Thread.sleep(20);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+
+					active.decrementAndGet();
+					return MailSendResult.ok();
+				}, executor);
+			}
+		};
+
+		RateLimitConfig config = new RateLimitConfig().rate(1000).burst(100).maxInFlight(2);
+		try (RateLimitedMailService service = new RateLimitedMailService(delivery, config)) {
+
+			List<CompletableFuture<MailSendResult>> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(service.sendAsync(message("to" + i + "@email.com"), executor));
+			}
+
+			for (CompletableFuture<MailSendResult> future : futures) {
+				assertTrue(future.join().isSuccessful());
+			}
+
+			assertEquals(2, max.get());
+			assertEquals(0, service.getInFlight());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void limitRateOfBatch() {
+
+		List<MailMessage> sent = new CopyOnWriteArrayList<>();
+		MailService delivery = message -> {
+			sent.add(message);
+			return MailSendResult.ok();
+		};
+
+		RateLimitConfig config = new RateLimitConfig().rate(20).burst(1);
+		try (RateLimitedMailService service = new RateLimitedMailService(delivery, config)) {
+
+			List<MailMessage> messages = new ArrayList<>();
+			for (int i = 0; i < 6; i++) {
+				messages.add(message("to" + i + "@email.com"));
+			}
+
+			// provider sends each message on its own ... each takes a token
+			long start = System.nanoTime();
+			List<MailSendResult> results = service.sendAll(messages);
+
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(240));
+			assertEquals(6, results.size());
+			assertTrue(results.stream().allMatch(MailSendResult::isSuccessful));
+			assertEquals(6, sent.size());
+		}
+	}
+
+	@Test
+	void rejectAsyncAfterInFlightTimeout() {
+
+		CompletableFuture<MailSendResult> pending = new CompletableFuture<>();
+		MailService delivery = new MailService() {
+			@Override
+			public MailSendResult send(MailMessage message) {
+				return MailSendResult.ok();
+			}
+
+			@Override
+			public CompletableFuture<MailSendResult> sendAsync(MailMessage message, java.util.concurrent.Executor executor) {
+				return pending;
+			}
+		};
+
+		RateLimitConfig config = new RateLimitConfig().rate(1000).burst(10).maxInFlight(1).acquireTimeout(Duration.ofMillis(50));
+		try (RateLimitedMailService service = new RateLimitedMailService(delivery, config)) {
+
+			CompletableFuture<MailSendResult> first = service.sendAsync(message("one@email.com"));
+			MailSendResult second = service.sendAsync(message("two@email.com")).join();
+
+			assertTrue(second.isThrottled());
+			assertEquals(1, service.getInFlight());
+
+			pending.complete(MailSendResult.ok());
+			assertTrue(first.join().isSuccessful());
+			assertEquals(0, service.getInFlight());
+		}
+	}
+
+	@Test
+	void asyncFailureKeepsClassification() {
+
+		MailService delivery = new MailService() {
+			@Override
+			public MailSendResult send(MailMessage message) {
+				return MailSendResult.ok();
+			}
+
+			@Override
+			public CompletableFuture<MailSendResult> sendAsync(MailMessage message, java.util.concurrent.Executor executor) {
+				CompletableFuture<MailSendResult> future = new CompletableFuture<>();
+				future.completeExceptionally(new SocketTimeoutException("Read timed out"));
+				return future;
+			}
+		};
+
+		try (RateLimitedMailService service = new RateLimitedMailService(delivery, new RateLimitConfig())) {
+
+			MailSendResult result = service.sendAsync(message("one@email.com")).join();
+			assertFalse(result.isSuccessful());
+			assertTrue(result.isTransient());
+			assertEquals(0, service.getInFlight());
+		}
+	}
+
+	@Test
+	void refundTokenWhenInterrupted() {
+
+		RateLimitConfig config = new RateLimitConfig().rate(1).burst(1).acquireTimeout(Duration.ofMillis(1500));
+		try (RateLimitedMailService service = new RateLimitedMailService(message -> MailSendResult.ok(), config)) {
+
+			assertTrue(service.send(message("one@email.com")).isSuccessful());
+
+			Thread.currentThread().interrupt();
+			assertFalse(service.send(message("two@email.com")).isSuccessful());
+			assertTrue(Thread.interrupted());
+
+			// token of interrupted send was given back ... next one waits a single refill
+			assertTrue(service.send(message("three@email.com")).isSuccessful());
+		}
+	}
+
+	@Test
+	void adaptToThrottling() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MailService delivery = message -> calls.incrementAndGet() == 1 ?
+		                                  MailSendResult.throttled("Too many requests", Duration.ofMillis(200)) :
+		                                  MailSendResult.ok();
+
+		RateLimitConfig config = new RateLimitConfig().rate(100).burst(10);
+		try (RateLimitedMailService service = new RateLimitedMailService(delivery, config)) {
+
+			MailSendResult result = service.send(message("one@email.com"));
+			assertTrue(result.isThrottled());
+			assertEquals(Duration.ofMillis(200), result.getRetryAfter());
+			assertEquals(50, service.getRate(), 0.001);
+
+			long start = System.nanoTime();
+			assertTrue(service.send(message("two@email.com")).isSuccessful());
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+
+			// rate recovers on success
+			assertTrue(service.getRate() > 50);
+		}
+	}
+
+	@Test
+	void rejectAfterAcquireTimeout() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MailService delivery = message -> {
+			calls.incrementAndGet();
+			return MailSendResult.ok();
+		};
+
+		RateLimitConfig config = new RateLimitConfig().rate(1).burst(1).acquireTimeout(Duration.ofMillis(100));
+		try (RateLimitedMailService service = new RateLimitedMailService(delivery, config)) {
+
+			assertTrue(service.send(message("one@email.com")).isSuccessful());
+
+			MailSendResult result = service.send(message("two@email.com"));
+			assertTrue(result.isThrottled());
+			assertFalse(result.isSuccessful());
+			assertNotNull(result.getRetryAfter());
+			assertEquals(1, calls.get());
+		}
+	}
+
+	@Test
+	void rateLimitHeaders() {
+
+		Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		headers.put("Retry-After", Collections.singletonList("5"));
+		Http.Response response = new Http.Response(429, "", headers);
+
+		assertTrue(RateLimitHeaders.isThrottled(response));
+		assertEquals(Duration.ofSeconds(5), RateLimitHeaders.getRetryAfter(response));
+
+		headers.clear();
+		headers.put("X-RateLimit-Remaining", Collections.singletonList("0"));
+		headers.put("X-RateLimit-Reset", Collections.singletonList(Long.toString(Instant.now().getEpochSecond() + 60)));
+		response = new Http.Response(202, "", headers);
+
+		assertFalse(RateLimitHeaders.isThrottled(response));
+		Duration wait = RateLimitHeaders.getRetryAfter(response);
+		assertNotNull(wait);
+		assertTrue(wait.getSeconds() >= 58 && wait.getSeconds() <= 60);
+
+		headers.put("X-RateLimit-Remaining", Collections.singletonList("10"));
+		assertNull(RateLimitHeaders.getRetryAfter(new Http.Response(202, "", headers)));
+	}
+}
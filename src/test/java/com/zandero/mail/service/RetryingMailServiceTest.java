@@ -0,0 +1,217 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.retry.RetryConfig;
+import com.zandero.mail.service.retry.RetryingMailService;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.zandero.mail.service.TestMessages.message;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class RetryingMailServiceTest {
+
+	private static final RetryConfig FAST = new RetryConfig().maxAttempts(3)
+	                                                         .initialDelay(Duration.ofMillis(10))
+	                                                         .maxDelay(Duration.ofMillis(100));
+
+	@Test
+	void retryTransientFailure() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MailService delivery = message -> calls.incrementAndGet() < 3 ? MailSendResult.unavailable("Connection reset") : MailSendResult.ok("id");
+
+		try (RetryingMailService service = new RetryingMailService(delivery, FAST)) {
+
+			MailSendResult result = service.send(message("to@email.com"));
+			assertTrue(result.isSuccessful());
+			assertEquals("id", result.getMessage());
+			assertEquals(3, result.getAttempts());
+			assertEquals(3, calls.get());
+		}
+	}
+
+	@Test
+	void doNotRetryPermanentFailure() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MailService delivery = message -> {
+			calls.incrementAndGet();
+			return MailSendResult.fail("Invalid recipient");
+		};
+
+		try (RetryingMailService service = new RetryingMailService(delivery, FAST)) {
+
+			MailSendResult result = service.send(message("to@email.com"));
+			assertFalse(result.isSuccessful());
+			assertFalse(result.isTransient());
+			assertEquals(1, result.getAttempts());
+			assertEquals(1, calls.get());
+		}
+	}
+
+	@Test
+	void giveUpAfterMaxAttempts() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MailService delivery = message -> {
+			calls.incrementAndGet();
+			return new MailSendResult(502, "Bad gateway");
+		};
+
+		try (RetryingMailService service = new RetryingMailService(delivery, FAST)) {
+
+			MailSendResult result = service.send(message("to@email.com"));
+			assertTrue(result.isTransient());
+			assertEquals(502, result.getStatus());
+			assertEquals(3, result.getAttempts());
+			assertEquals(3, calls.get());
+		}
+	}
+
+	@Test
+	void respectRetryAfter() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MailService delivery = message -> {
+			calls.incrementAndGet();
+			return MailSendResult.throttled("Slow down", Duration.ofHours(1));
+		};
+
+		try (RetryingMailService service = new RetryingMailService(delivery, FAST)) {
+
+			// provider asks to wait longer than max delay ... not retried
+			MailSendResult result = service.send(message("to@email.com"));
+			assertTrue(result.isThrottled());
+			assertEquals(1, calls.get());
+		}
+	}
+
+	@Test
+	void retryAsync() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MailService delivery = new MailService() {
+			@Override
+			public MailSendResult send(MailMessage message) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public CompletableFuture<MailSendResult> sendAsync(MailMessage message, Executor executor) {
+
+				CompletableFuture<MailSendResult> future = new CompletableFuture<>();
+				if (calls.incrementAndGet() == 1) {
+					future.completeExceptionally(new CompletionException(new SocketTimeoutException("Read timed out")));
+				}
+				else {
+					future.complete(MailSendResult.ok());
+				}
+
+				return future;
+			}
+		};
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (RetryingMailService service = new RetryingMailService(delivery, FAST)) {
+
+			MailSendResult result = service.sendAsync(message("to@email.com"), executor).join();
+			assertTrue(result.isSuccessful());
+			assertEquals(2, result.getAttempts());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void retryFailedPartOfBatch() {
+
+		List<Integer> batches = new ArrayList<>();
+		MailService delivery = new MailService() {
+			@Override
+			public MailSendResult send(MailMessage message) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public List<MailSendResult> sendAll(Collection<MailMessage> messages) {
+
+				batches.add(messages.size());
+
+				List<MailSendResult> results = new ArrayList<>();
+				for (MailMessage message : messages) {
+					boolean odd = message.getToEmails().keySet().iterator().next().startsWith("odd");
+					results.add(odd && batches.size() == 1 ? MailSendResult.unavailable("Busy") : MailSendResult.ok());
+				}
+
+				return results;
+			}
+		};
+
+		try (RetryingMailService service = new RetryingMailService(delivery, FAST)) {
+
+			List<MailMessage> messages = new ArrayList<>();
+			for (int i = 0; i < 6; i++) {
+				messages.add(message((i % 2 == 1 ? "odd" : "even") + i + "@email.com"));
+			}
+
+			List<MailSendResult> results = service.sendAll(messages);
+			assertEquals(6, results.size());
+			for (int i = 0; i < results.size(); i++) {
+				assertTrue(results.get(i).isSuccessful());
+				assertEquals(i % 2 == 1 ? 2 : 1, results.get(i).getAttempts());
+			}
+
+			assertEquals(2, batches.size());
+			assertEquals(3, batches.get(1));
+		}
+	}
+
+	@Test
+	void classifyFailures() {
+
+		assertTrue(MailFailures.isTransient(429));
+		assertTrue(MailFailures.isTransient(408));
+		assertTrue(MailFailures.isTransient(503));
+		assertFalse(MailFailures.isTransient(501));
+		assertFalse(MailFailures.isTransient(400));
+		assertFalse(MailFailures.isTransient(401));
+
+		assertTrue(MailFailures.isTransient(new IllegalStateException(new SocketTimeoutException())));
+		assertTrue(MailFailures.isTransient(new IOException("Connection reset")));
+		assertFalse(MailFailures.isTransient(new IllegalArgumentException("Missing from")));
+		assertTrue(MailFailures.isTransient(new ConnectException("Connection refused")));
+		assertTrue(MailFailures.isTransient(new UncheckedIOException(new UnknownHostException("api.sendgrid.com"))));
+
+		// failures to build message are permanent
+		assertFalse(MailFailures.isTransient(new NoSuchFileException("invoice.pdf")));
+		assertFalse(MailFailures.isTransient(new FileNotFoundException("invoice.pdf")));
+		assertFalse(MailFailures.isTransient(new IllegalStateException(new UnsupportedEncodingException("UTF-9"))));
+		assertFalse(MailFailures.getFailure(new NoSuchFileException("invoice.pdf")).isTransient());
+
+		assertTrue(MailFailures.getFailure(new IOException("Connection reset")).isTransient());
+		assertFalse(MailFailures.getFailure(400, "Bad request").isTransient());
+	}
+}
@@ -1,22 +1,32 @@
 package com.zandero.mail.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.zandero.http.Http;
 import com.zandero.http.TrustAnyTrustManager;
+import com.zandero.mail.MailAttachment;
 import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.sendgrid.Mail;
+import com.zandero.mail.service.sendgrid.MailBody;
+import com.zandero.mail.service.http.HttpTransport;
+import com.zandero.mail.service.http.RequestBody;
 import com.zandero.mail.service.sendgrid.SendGridMailService;
 import com.zandero.utils.ResourceUtils;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  *
@@ -60,4 +70,116 @@ class SendGridMailServiceTest extends MailServiceTest {
 		assertTrue(response.isSuccessful());
 		assertNotNull(response.getMessage());
 	}
+
+	@Test
+	void batchPersonalizations() {
+
+		List<MailMessage> messages = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			messages.add(new MailMessage().from("from@email.com").to("to" + i + "@email.com", "To " + i).subject("Test").html("Hello!"));
+		}
+		messages.add(new MailMessage().from("from@email.com").to("other@email.com").subject("Other").html("Hello!"));
+
+		List<List<Integer>> groups = MailBatches.group(messages, SendGridMailService.MAX_PERSONALIZATIONS, null);
+		assertEquals(2, groups.size());
+		assertEquals(Arrays.asList(0, 1, 2), groups.get(0));
+		assertEquals(Collections.singletonList(3), groups.get(1));
+
+		List<MailMessage> batch = messages.subList(0, 3);
+		Mail mail = new Mail(batch);
+
+		assertEquals("Test", mail.getSubject());
+		assertEquals(1, mail.getContent().size());
+		assertEquals(3, mail.getPersonalization().size());
+		assertEquals("to1@email.com", mail.getPersonalization().get(1).getTos().get(0).getEmail());
+		assertEquals("To 1", mail.getPersonalization().get(1).getTos().get(0).getName());
+	}
+
+	@Test
+	void batchRecipients() {
+
+		// 400 messages with 3 recipients each ... 1000 recipients per request at most
+		List<MailMessage> messages = new ArrayList<>();
+		for (int i = 0; i < 400; i++) {
+			messages.add(new MailMessage().from("from@email.com")
+			                              .to("to" + i + "@email.com")
+			                              .cc("cc" + i + "@email.com")
+			                              .bcc("bcc" + i + "@email.com")
+			                              .subject("Test").html("Hello!"));
+		}
+
+		List<List<Integer>> groups = MailBatches.group(messages, SendGridMailService.MAX_RECIPIENTS, message -> 3, null);
+		assertEquals(2, groups.size());
+		assertEquals(333, groups.get(0).size());
+		assertEquals(67, groups.get(1).size());
+	}
+
+	@Test
+	void streamBody() throws IOException {
+
+		byte[] pdf = new byte[100_000];
+		new Random(1).nextBytes(pdf);
+
+		MailMessage message = new MailMessage().from("from@email.com")
+		                                       .to("to@email.com", "To")
+		                                       .subject("Invoice")
+		                                       .html("Hello!")
+		                                       .attachment(new MailAttachment("application/pdf", ByteBuffer.wrap(pdf), "invoice.pdf"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MailBody body = new MailBody(message);
+		body.writeTo(out);
+
+		assertEquals("application/json", body.getContentType());
+
+		JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+		assertEquals("Invoice", json.get("subject").asText());
+		assertEquals("to@email.com", json.get("personalizations").get(0).get("to").get(0).get("email").asText());
+
+		JsonNode attachment = json.get("attachments").get(0);
+		assertEquals("application/pdf", attachment.get("type").asText());
+		assertEquals("invoice.pdf", attachment.get("filename").asText());
+		assertArrayEquals(pdf, Base64.getDecoder().decode(attachment.get("content").asText()));
+	}
+
+	@Test
+	void streamAsync() throws IOException {
+
+		List<String> calls = new ArrayList<>();
+		List<RequestBody> bodies = new ArrayList<>();
+
+		HttpTransport transport = new HttpTransport() {
+			@Override
+			public Http.Response post(String url, RequestBody body, Map<String, String> headers, MailSendStats stats) {
+				calls.add("post");
+				return new Http.Response(202, "", Collections.emptyMap());
+			}
+
+			@Override
+			public CompletableFuture<Http.Response> postAsync(String url, RequestBody body, Map<String, String> headers, Executor executor) {
+				calls.add("postAsync");
+				bodies.add(body);
+				return CompletableFuture.completedFuture(new Http.Response(202, "", Collections.emptyMap()));
+			}
+		};
+
+		SendGridMailService service = new SendGridMailService("key", "from@email.com", null, transport);
+
+		MailMessage plain = new MailMessage().to("to@email.com").subject("Hello").html("Hello!");
+		MailMessage attached = new MailMessage().to("to@email.com").subject("Invoice").html("Hello!")
+		                                        .attachment(new MailAttachment("application/pdf", ByteBuffer.wrap(new byte[] {1, 2, 3}), "invoice.pdf"));
+
+		assertTrue(service.sendAsync(plain, Runnable::run).join().isSuccessful());
+		assertTrue(service.sendAsync(attached, Runnable::run).join().isSuccessful());
+
+		// both are posted without blocking as streaming JSON body
+		assertEquals(Arrays.asList("postAsync", "postAsync"), calls);
+		assertTrue(bodies.stream().allMatch(body -> body instanceof MailBody));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bodies.get(1).writeTo(out);
+		JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+		assertEquals("from@email.com", json.get("from").get("email").asText());
+		assertEquals("invoice.pdf", json.get("attachments").get(0).get("filename").asText());
+	}
 }
@@ -0,0 +1,456 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.smtp.SmtpMailService;
+import com.zandero.mail.service.smtp.SmtpPoolConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.zandero.mail.service.TestMessages.message;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class SmtpMailServiceTest {
+
+	private SmtpTestServer server;
+
+	@BeforeEach
+	void start() throws IOException {
+		server = new SmtpTestServer();
+	}
+
+	@AfterEach
+	void stop() throws IOException {
+		server.close();
+	}
+
+	@Test
+	void reuseConnection() {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null)) {
+
+			for (int i = 0; i < 5; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			assertEquals(1, server.getConnections());
+			assertEquals(5, server.getMessages().size());
+			assertEquals(1, service.getPool().getIdle());
+			assertEquals(0, service.getPool().getActive());
+		}
+	}
+
+	@Test
+	void sendStats() {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null)) {
+
+			MailSendStats stats = service.send(message("to@email.com")).getStats();
+
+			assertEquals(250, stats.getProviderStatus());
+			assertTrue(stats.getBytesSent() > 0);
+			assertTrue(stats.getConnectTime().toNanos() > 0);
+			assertTrue(stats.getSerializationTime().toNanos() > 0);
+			assertTrue(stats.getResponseTime().toNanos() > 0);
+
+			long parts = stats.getBuildTime().toNanos() + stats.getConnectTime().toNanos() +
+			             stats.getSerializationTime().toNanos() + stats.getResponseTime().toNanos();
+			assertTrue(stats.getTotalTime().toNanos() >= parts);
+		}
+	}
+
+	@Test
+	void trace() {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null)) {
+
+			service.getTrace().detail(MailTrace.Detail.HEADERS).sampleRate(0.5);
+			assertEquals(MailTrace.Detail.HEADERS, service.getTrace().getDetail());
+
+			for (int i = 0; i < 4; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com").bcc("hidden@email.com")).isSuccessful());
+			}
+
+			service.getTrace().enabled(false);
+			assertFalse(service.getTrace().isEnabled());
+			assertTrue(service.send(message("to@email.com")).isSuccessful());
+		}
+
+		assertEquals("j***@email.com", MailTrace.maskEmail("john.doe@email.com"));
+		assertEquals("***", MailTrace.maskEmail("invalid"));
+		assertNull(MailTrace.maskEmail(null));
+	}
+
+	@Test
+	void recycleAfterMaxMessages() {
+
+		SmtpPoolConfig config = new SmtpPoolConfig().maxMessages(2);
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null, config)) {
+
+			for (int i = 0; i < 5; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+
+			assertEquals(3, server.getConnections());
+			assertEquals(5, server.getMessages().size());
+		}
+	}
+
+	@Test
+	void evictDroppedConnection() throws IOException {
+
+		SmtpPoolConfig config = new SmtpPoolConfig().healthCheckAfter(Duration.ZERO);
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null, config)) {
+
+			assertTrue(service.send(message("one@email.com")).isSuccessful());
+			server.dropConnections();
+
+			// health check detects dropped connection and opens a new one
+			assertTrue(service.send(message("two@email.com")).isSuccessful());
+			assertEquals(2, server.getConnections());
+			assertEquals(2, server.getMessages().size());
+		}
+	}
+
+	@Test
+	void evictIdleConnection() {
+
+		SmtpPoolConfig config = new SmtpPoolConfig().idleTimeout(Duration.ZERO);
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null, config)) {
+
+			assertTrue(service.send(message("one@email.com")).isSuccessful());
+			assertTrue(service.send(message("two@email.com")).isSuccessful());
+			assertEquals(2, server.getConnections());
+		}
+	}
+
+	@Test
+	void evictIdleConnectionOfUnusedPool() throws InterruptedException {
+
+		SmtpPoolConfig config = new SmtpPoolConfig().idleTimeout(Duration.ZERO);
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null, config)) {
+
+			assertTrue(service.send(message("one@email.com")).isSuccessful());
+
+			// closed by periodic eviction without further sends
+			long deadline = System.currentTimeMillis() + 5000;
+			while (service.getPool().getIdle() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+
+			assertEquals(0, service.getPool().getIdle());
+		}
+	}
+
+	@Test
+	void keepConnectionAfterRejectedRecipient() {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null)) {
+
+			MailSendResult rejected = service.send(message("reject@email.com"));
+			assertFalse(rejected.isSuccessful());
+			assertFalse(rejected.isTransient());
+
+			assertTrue(service.send(message("to@email.com")).isSuccessful());
+			assertEquals(1, server.getConnections());
+			assertEquals(1, server.getMessages().size());
+		}
+	}
+
+	@Test
+	void sendAsync() {
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null)) {
+
+			List<CompletableFuture<MailSendResult>> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(service.sendAsync(message("to" + i + "@email.com"), executor));
+			}
+
+			for (CompletableFuture<MailSendResult> future : futures) {
+				assertTrue(future.join().isSuccessful());
+			}
+
+			assertEquals(10, server.getMessages().size());
+			assertTrue(server.getConnections() <= 2);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void sendAsync_executorFull() throws InterruptedException {
+
+		ExecutorService executor = MailExecutors.newBoundedExecutor(1, 1);
+		CountDownLatch latch = new CountDownLatch(1);
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null)) {
+
+			// single thread busy and queue full
+			executor.execute(() -> {
+				try {
+					latch.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			executor.execute(() -> {});
+
+			// rejected send is not run on calling thread
+			MailSendResult result = service.sendAsync(message("to@email.com"), executor).join();
+			assertTrue(result.isThrottled());
+			assertEquals(0, server.getMessages().size());
+		}
+		finally {
+			latch.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void sendAsync_invalidMessage() {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null)) {
+
+			MailSendResult result = service.sendAsync(new MailMessage().to("to@email.com")).join();
+			assertFalse(result.isSuccessful());
+			assertEquals(0, server.getConnections());
+		}
+	}
+
+	@Test
+	void send_serverDown() throws IOException {
+
+		int port = server.getPort();
+		server.close();
+
+		try (SmtpMailService service = new SmtpMailService("localhost", port, null, null)) {
+
+			MailSendResult result = service.send(message("to@email.com"));
+			assertFalse(result.isSuccessful());
+			assertTrue(result.isTransient()); // connection refused ... might be retried
+		}
+	}
+
+	@Test
+	void sendAll() {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null)) {
+
+			List<MailMessage> messages = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				messages.add(message("to" + i + "@email.com"));
+			}
+			messages.add(5, new MailMessage().to("invalid@email.com")); // missing from, subject ...
+
+			List<MailSendResult> results = service.sendAll(messages);
+			assertEquals(11, results.size());
+
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(i != 5, results.get(i).isSuccessful());
+			}
+
+			assertEquals(1, server.getConnections());
+			assertEquals(10, server.getMessages().size());
+		}
+	}
+
+	private static SmtpPoolConfig nio() {
+
+		return new SmtpPoolConfig().engine(SmtpPoolConfig.Engine.NIO);
+	}
+
+	@Test
+	void nio_send() {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null, nio())) {
+
+			for (int i = 0; i < 3; i++) {
+				MailSendResult result = service.send(message("to" + i + "@email.com").content(".leading dot\r\n.."));
+				assertTrue(result.isSuccessful());
+				assertEquals(250, result.getStats().getProviderStatus());
+				assertTrue(result.getStats().getBytesSent() > 0);
+			}
+
+			assertEquals(1, server.getConnections());
+			assertEquals(3, server.getMessages().size());
+			assertTrue(server.getMessages().get(0).contains("\r\n.leading dot\r\n..\r\n"));
+			assertEquals(0, server.getPipelined()); // server does not support pipelining
+			assertEquals(1, service.getConnections().getIdle());
+			assertEquals(0, service.getConnections().getActive());
+		}
+	}
+
+	@Test
+	void nio_pipeliningChunking() throws IOException {
+
+		try (SmtpTestServer esmtp = new SmtpTestServer("PIPELINING", "CHUNKING", "AUTH PLAIN LOGIN");
+		     SmtpMailService service = new SmtpMailService("localhost", esmtp.getPort(), "user", "password", nio())) {
+
+			MailSendResult result = service.send(message("one@email.com").to("two@email.com").cc("three@email.com")
+			                                                              .content(".not stuffed"));
+			assertTrue(result.isSuccessful());
+
+			assertEquals(1, esmtp.getMessages().size());
+			assertEquals(1, esmtp.getChunks());
+			assertTrue(esmtp.getMessages().get(0).contains("\r\n.not stuffed"));
+			assertTrue(esmtp.getPipelined() >= 3); // MAIL and RCPTs written at once
+		}
+	}
+
+	@Test
+	void nio_streamChunks() throws IOException {
+
+		// lines starting with a dot end up on chunk boundaries
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 40_000; i++) {
+			content.append(".\r\n");
+		}
+
+		content.append("end");
+
+		try (SmtpTestServer chunking = new SmtpTestServer("CHUNKING");
+		     SmtpTestServer pipelining = new SmtpTestServer("PIPELINING", "CHUNKING")) {
+
+			for (SmtpTestServer smtp : Arrays.asList(server, chunking, pipelining)) {
+				try (SmtpMailService service = new SmtpMailService("localhost", smtp.getPort(), null, null, nio())) {
+
+					for (int i = 0; i < 3; i++) {
+						MailSendResult result = service.send(message("to@email.com").subject("Hello" + "!".repeat(i))
+						                                                            .content(content.toString()));
+						assertTrue(result.isSuccessful());
+
+						// size is announced up front and matches send data
+						long size = result.getStats().getBytesSent();
+						assertTrue(size > content.length());
+						assertTrue(smtp.getSenders().get(i).endsWith(" SIZE=" + size), smtp.getSenders().get(i));
+						assertTrue(smtp.getMessages().get(i).contains("\r\n\r\n" + content), "Message data changed");
+					}
+				}
+			}
+
+			// message is send in multiple chunks, last one ends transaction
+			assertEquals(0, server.getChunks());
+			assertTrue(chunking.getChunks() >= 3 * 4, "Chunks: " + chunking.getChunks());
+			assertEquals(chunking.getChunks(), pipelining.getChunks());
+		}
+	}
+
+	@Test
+	void nio_concurrent() throws IOException {
+
+		try (SmtpTestServer esmtp = new SmtpTestServer("PIPELINING", "CHUNKING");
+		     SmtpMailService service = new SmtpMailService("localhost", esmtp.getPort(), null, null, nio().size(20))) {
+
+			List<CompletableFuture<MailSendResult>> futures = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				futures.add(service.sendAsync(message("to" + i + "@email.com")));
+			}
+
+			for (CompletableFuture<MailSendResult> future : futures) {
+				assertTrue(future.join().isSuccessful());
+			}
+
+			assertEquals(200, esmtp.getMessages().size());
+			assertTrue(esmtp.getConnections() <= 20);
+		}
+	}
+
+	@Test
+	void nio_rejectedRecipients() throws IOException {
+
+		try (SmtpTestServer esmtp = new SmtpTestServer("PIPELINING");
+		     SmtpMailService service = new SmtpMailService("localhost", esmtp.getPort(), null, null, nio())) {
+
+			// rejected recipient is skipped
+			assertTrue(service.send(message("to@email.com").to("reject@email.com")).isSuccessful());
+
+			MailSendResult rejected = service.send(message("reject@email.com"));
+			assertFalse(rejected.isSuccessful());
+			assertFalse(rejected.isTransient());
+			assertEquals(550, rejected.getStats().getProviderStatus());
+
+			MailSendResult deferred = service.send(message("defer@email.com"));
+			assertFalse(deferred.isSuccessful());
+			assertTrue(deferred.isTransient());
+
+			assertTrue(service.send(message("to@email.com")).isSuccessful());
+			assertEquals(2, esmtp.getMessages().size());
+		}
+	}
+
+	@Test
+	void nio_droppedConnection() throws IOException, InterruptedException {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null, nio().maxMessages(2))) {
+
+			assertTrue(service.send(message("one@email.com")).isSuccessful());
+			server.dropConnections();
+			Thread.sleep(100);
+
+			// closed connection is detected and replaced
+			assertTrue(service.send(message("two@email.com")).isSuccessful());
+			assertTrue(service.send(message("three@email.com")).isSuccessful());
+			assertTrue(service.send(message("four@email.com")).isSuccessful());
+
+			assertEquals(3, server.getConnections()); // recycled after max messages
+			assertEquals(4, server.getMessages().size());
+		}
+	}
+
+	@Test
+	void nio_serverDown() throws IOException {
+
+		int port = server.getPort();
+		server.close();
+
+		try (SmtpMailService service = new SmtpMailService("localhost", port, null, null, nio())) {
+
+			MailSendResult result = service.send(message("to@email.com"));
+			assertFalse(result.isSuccessful());
+			assertTrue(result.isTransient());
+
+			List<MailSendResult> results = service.sendAll(Arrays.asList(message("one@email.com"), message("two@email.com")));
+			assertFalse(results.get(0).isSuccessful());
+			assertFalse(results.get(1).isSuccessful());
+		}
+	}
+
+	@Test
+	void nio_sendAll() {
+
+		try (SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null, nio().size(2))) {
+
+			List<MailMessage> messages = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				messages.add(message("to" + i + "@email.com"));
+			}
+			messages.add(5, new MailMessage().to("invalid@email.com")); // missing from, subject ...
+
+			List<MailSendResult> results = service.sendAll(messages);
+			assertEquals(11, results.size());
+
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(i != 5, results.get(i).isSuccessful());
+			}
+
+			assertEquals(10, server.getMessages().size());
+			assertTrue(server.getConnections() <= 2);
+		}
+	}
+}
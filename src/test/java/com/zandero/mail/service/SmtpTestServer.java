@@ -0,0 +1,327 @@
+package com.zandero.mail.service;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local SMTP stand-in used to test SMTP delivery without a real relay
+ */
+public class SmtpTestServer implements AutoCloseable {
+
+	private final ServerSocket server;
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "smtp-test-server");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger commands = new AtomicInteger();
+	private final AtomicInteger pipelined = new AtomicInteger();
+	private final AtomicInteger chunks = new AtomicInteger();
+	private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> accepted = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> senders = Collections.synchronizedList(new ArrayList<>());
+	private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> tlsSessions = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Context to secure connections with (STARTTLS or implicit TLS) or null for plain text only
+	 */
+	private final SSLContext sslContext;
+
+	/**
+	 * Advertised ESMTP extensions (i.e. PIPELINING, CHUNKING, AUTH PLAIN)
+	 */
+	private final List<String> extensions;
+
+	public SmtpTestServer(String... extensions) throws IOException {
+
+		this(null, false, extensions);
+	}
+
+	/**
+	 * @param sslContext server context, STARTTLS must be given as extension unless TLS is implicit
+	 * @param implicit   true to accept TLS connections only (SMTPS)
+	 * @param extensions advertised extensions
+	 */
+	public SmtpTestServer(SSLContext sslContext, boolean implicit, String... extensions) throws IOException {
+
+		this.sslContext = sslContext;
+		this.extensions = Arrays.asList(extensions);
+		server = implicit ? sslContext.getServerSocketFactory().createServerSocket(0) : new ServerSocket(0);
+		executor.execute(this::accept);
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * @return number of accepted connections
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * @return number of received commands (all connections)
+	 */
+	public int getCommands() {
+		return commands.get();
+	}
+
+	/**
+	 * @return number of commands received while further commands were already waiting (pipelined)
+	 */
+	public int getPipelined() {
+		return pipelined.get();
+	}
+
+	/**
+	 * @return number of received BDAT chunks
+	 */
+	public int getChunks() {
+		return chunks.get();
+	}
+
+	/**
+	 * @return ids of TLS sessions of secured connections, resumed sessions share id (TLS 1.2)
+	 */
+	public List<String> getTlsSessions() {
+		return tlsSessions;
+	}
+
+	/**
+	 * @return received message bodies
+	 */
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	/**
+	 * @return accepted recipient addresses of all transactions
+	 */
+	public List<String> getRecipients() {
+		return accepted;
+	}
+
+	/**
+	 * @return MAIL FROM commands of all transactions (with parameters)
+	 */
+	public List<String> getSenders() {
+		return senders;
+	}
+
+	/**
+	 * Drops all open client connections without a reply
+	 */
+	public void dropConnections() throws IOException {
+
+		synchronized (sockets) {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+			sockets.clear();
+		}
+	}
+
+	private void accept() {
+
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				connections.incrementAndGet();
+				sockets.add(socket);
+				executor.execute(() -> handle(socket));
+			}
+			catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	/**
+	 * Recipients containing "reject" are rejected permanently, containing "defer" temporarily
+	 */
+	private void handle(Socket socket) {
+
+		Socket client = socket;
+		try {
+			if (client instanceof SSLSocket) {
+				secured((SSLSocket) client);
+			}
+
+			InputStream in = new BufferedInputStream(client.getInputStream());
+			Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8);
+
+			reply(out, "220 localhost ESMTP test");
+
+			StringBuilder chunk = new StringBuilder();
+			int recipients = 0;
+			String line;
+			while ((line = readLine(in)) != null) {
+				commands.incrementAndGet();
+				String command = line.toUpperCase();
+
+				if (in.available() > 0 && (command.startsWith("MAIL") || command.startsWith("RCPT"))) {
+					pipelined.incrementAndGet();
+				}
+
+				if (command.startsWith("EHLO")) {
+					StringBuilder ehlo = new StringBuilder("250-localhost\r\n250-8BITMIME\r\n");
+					for (String extension : extensions) {
+						ehlo.append("250-").append(extension).append("\r\n");
+					}
+					reply(out, ehlo.append("250 SIZE 10485760").toString());
+				}
+				else if (command.startsWith("MAIL")) {
+					recipients = 0;
+					senders.add(line);
+					reply(out, "250 OK");
+				}
+				else if (command.startsWith("RCPT") && command.contains("REJECT")) {
+					reply(out, "550 5.1.1 Unknown user");
+				}
+				else if (command.startsWith("RCPT") && command.contains("DEFER")) {
+					reply(out, "451 4.7.1 Try again later");
+				}
+				else if (command.startsWith("STARTTLS") && sslContext != null) {
+					reply(out, "220 2.0.0 Ready to start TLS");
+
+					SSLSocket secured = (SSLSocket) sslContext.getSocketFactory().createSocket(client, null, client.getPort(), true);
+					secured.setUseClientMode(false);
+					secured(secured);
+
+					client = secured;
+					in = new BufferedInputStream(client.getInputStream());
+					out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8);
+				}
+				else if (command.startsWith("AUTH")) {
+					reply(out, "235 2.7.0 Authentication successful");
+				}
+				else if (command.startsWith("RCPT")) {
+					recipients++;
+					accepted.add(line.substring(line.indexOf('<') + 1, line.lastIndexOf('>')));
+					reply(out, "250 OK");
+				}
+				else if (command.startsWith("HELO") || command.startsWith("RSET") || command.startsWith("NOOP")) {
+					reply(out, "250 OK");
+				}
+				else if (command.startsWith("BDAT")) {
+					String[] parts = line.split(" ");
+					byte[] data = in.readNBytes(Integer.parseInt(parts[1]));
+					chunk.append(new String(data, StandardCharsets.UTF_8));
+					chunks.incrementAndGet();
+
+					if (recipients == 0) {
+						chunk.setLength(0);
+						reply(out, "554 5.5.1 No valid recipients");
+					}
+					else {
+						if (parts.length > 2 && "LAST".equalsIgnoreCase(parts[2])) {
+							messages.add(chunk.toString());
+							chunk.setLength(0);
+						}
+						reply(out, "250 OK chunk");
+					}
+				}
+				else if (command.startsWith("DATA") && recipients == 0) {
+					reply(out, "554 5.5.1 No valid recipients");
+				}
+				else if (command.startsWith("DATA")) {
+					reply(out, "354 End data with <CR><LF>.<CR><LF>");
+					StringBuilder data = new StringBuilder();
+					while ((line = readLine(in)) != null && !".".equals(line)) {
+						data.append(line.startsWith(".") ? line.substring(1) : line).append("\r\n");
+					}
+					messages.add(data.toString());
+					reply(out, "250 OK queued");
+				}
+				else if (command.startsWith("QUIT")) {
+					reply(out, "221 Bye");
+					break;
+				}
+				else {
+					reply(out, "502 Command not implemented");
+				}
+			}
+		}
+		catch (SocketException e) {
+			// dropped
+		}
+		catch (SSLException e) {
+			// handshake rejected by client
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			sockets.remove(socket);
+			try {
+				client.close();
+			}
+			catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	private void secured(SSLSocket socket) throws IOException {
+
+		socket.startHandshake();
+
+		StringBuilder id = new StringBuilder();
+		for (byte value : socket.getSession().getId()) {
+			id.append(String.format("%02x", value));
+		}
+		tlsSessions.add(id.toString());
+	}
+
+	/**
+	 * Reads line terminated with LF (CR is dropped), byte by byte so BDAT data can be read exactly
+	 */
+	private static String readLine(InputStream in) throws IOException {
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int read;
+		while ((read = in.read()) != -1) {
+			if (read == '\n') {
+				byte[] bytes = line.toByteArray();
+				int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+				return new String(bytes, 0, length, StandardCharsets.UTF_8);
+			}
+			line.write(read);
+		}
+
+		return null;
+	}
+
+	private static void reply(Writer out, String text) throws IOException {
+
+		out.write(text);
+		out.write("\r\n");
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		server.close();
+		dropConnections();
+		executor.shutdownNow();
+	}
+}
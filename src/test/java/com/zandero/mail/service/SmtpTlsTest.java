@@ -0,0 +1,158 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.service.smtp.SmtpMailService;
+import com.zandero.mail.service.smtp.SmtpPoolConfig;
+import com.zandero.mail.service.smtp.SmtpTlsConfig;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.HashSet;
+
+import static com.zandero.mail.service.TestMessages.message;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SMTP over TLS against local test server with self signed certificate
+ */
+class SmtpTlsTest {
+
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	private static SSLContext serverContext;
+
+	private static SSLContext clientContext;
+
+	@BeforeAll
+	static void createCertificate(@TempDir Path dir) throws Exception {
+
+		Path keyStore = dir.resolve("smtp.p12");
+		String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "smtp", "-keyalg", "EC", "-groupname", "secp256r1",
+		                                     "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2",
+		                                     "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+		                                     "-storepass", "changeit", "-keypass", "changeit")
+			                  .redirectErrorStream(true)
+			                  .start();
+		process.getInputStream().readAllBytes();
+		assertEquals(0, process.waitFor());
+
+		KeyStore store = KeyStore.getInstance("PKCS12");
+		try (InputStream in = Files.newInputStream(keyStore)) {
+			store.load(in, PASSWORD);
+		}
+
+		KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keys.init(store, PASSWORD);
+		serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(keys.getKeyManagers(), null, null);
+
+		TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(store);
+		clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trust.getTrustManagers(), null);
+	}
+
+	private static SmtpTlsConfig tls(SmtpTlsConfig.Mode mode) {
+
+		return new SmtpTlsConfig().mode(mode).sslContext(clientContext);
+	}
+
+	@Test
+	void startTls() throws IOException {
+
+		for (SmtpPoolConfig.Engine engine : SmtpPoolConfig.Engine.values()) {
+			try (SmtpTestServer server = new SmtpTestServer(serverContext, false, "STARTTLS", "PIPELINING");
+			     SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null,
+			                                                   new SmtpPoolConfig().engine(engine), tls(SmtpTlsConfig.Mode.STARTTLS))) {
+
+				for (int i = 0; i < 3; i++) {
+					assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful(), engine.name());
+				}
+
+				assertEquals(1, server.getConnections(), engine.name());
+				assertEquals(1, server.getTlsSessions().size(), engine.name());
+				assertEquals(3, server.getMessages().size(), engine.name());
+			}
+		}
+	}
+
+	@Test
+	void smtps() throws IOException {
+
+		for (SmtpPoolConfig.Engine engine : SmtpPoolConfig.Engine.values()) {
+			try (SmtpTestServer server = new SmtpTestServer(serverContext, true, "CHUNKING");
+			     SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null,
+			                                                   new SmtpPoolConfig().engine(engine), tls(SmtpTlsConfig.Mode.SMTPS))) {
+
+				assertTrue(service.send(message("to@email.com")).isSuccessful(), engine.name());
+				assertEquals(1, server.getTlsSessions().size(), engine.name());
+				assertEquals(1, server.getMessages().size(), engine.name());
+			}
+		}
+	}
+
+	@Test
+	void sessionResumption() throws IOException {
+
+		for (SmtpPoolConfig.Engine engine : SmtpPoolConfig.Engine.values()) {
+			SmtpTlsConfig config = tls(SmtpTlsConfig.Mode.STARTTLS).protocols("TLSv1.2");
+
+			try (SmtpTestServer server = new SmtpTestServer(serverContext, false, "STARTTLS");
+			     SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null,
+			                                                   new SmtpPoolConfig().engine(engine).maxMessages(1), config)) {
+
+				// new connection for each message
+				for (int i = 0; i < 3; i++) {
+					assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful(), engine.name());
+				}
+
+				assertEquals(3, server.getConnections(), engine.name());
+				assertEquals(3, server.getTlsSessions().size(), engine.name());
+
+				// all connections resumed the first session
+				assertEquals(1, new HashSet<>(server.getTlsSessions()).size(), engine.name());
+			}
+		}
+	}
+
+	@Test
+	void startTls_notSupported() throws IOException {
+
+		for (SmtpPoolConfig.Engine engine : SmtpPoolConfig.Engine.values()) {
+			try (SmtpTestServer server = new SmtpTestServer();
+			     SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null,
+			                                                   new SmtpPoolConfig().engine(engine), tls(SmtpTlsConfig.Mode.STARTTLS))) {
+
+				assertFalse(service.send(message("to@email.com")).isSuccessful(), engine.name());
+				assertEquals(0, server.getMessages().size(), engine.name());
+			}
+		}
+	}
+
+	@Test
+	void untrustedCertificate() throws IOException {
+
+		for (SmtpPoolConfig.Engine engine : SmtpPoolConfig.Engine.values()) {
+			try (SmtpTestServer server = new SmtpTestServer(serverContext, true);
+			     SmtpMailService service = new SmtpMailService("localhost", server.getPort(), null, null,
+			                                                   new SmtpPoolConfig().engine(engine),
+			                                                   new SmtpTlsConfig().mode(SmtpTlsConfig.Mode.SMTPS))) {
+
+				// JVM default trust store does not trust self signed certificate
+				assertFalse(service.send(message("to@email.com")).isSuccessful(), engine.name());
+				assertEquals(0, server.getMessages().size(), engine.name());
+			}
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.ExclusionList;
+import com.zandero.mail.MailAttachment;
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.spool.SpoolConfig;
+import com.zandero.mail.service.spool.SpoolingMailService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.zandero.mail.service.TestMessages.message;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class SpoolingMailServiceTest {
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < end, "Timed out waiting for condition");
+			Thread.sleep(10);
+		}
+	}
+
+	private static List<Path> segments(Path dir) throws IOException {
+
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	void deliverSpooled(@TempDir Path dir) throws Exception {
+
+		List<MailMessage> delivered = new CopyOnWriteArrayList<>();
+		MailService delivery = message -> {
+			delivered.add(message);
+			return MailSendResult.ok();
+		};
+
+		try (SpoolingMailService service = new SpoolingMailService(delivery, dir, new SpoolConfig().workers(2))) {
+
+			for (int i = 0; i < 20; i++) {
+				MailSendResult result = service.send(message("to" + i + "@email.com"));
+				assertTrue(result.isSuccessful());
+				assertNotNull(result.getMessage()); // spool id
+			}
+
+			MailMessage withAttachment = message("attachment@email.com")
+				.attachment(new MailAttachment("application/pdf", ByteBuffer.wrap(new byte[] {1, 2, 3}), "invoice.pdf"));
+			assertTrue(service.send(withAttachment).isSuccessful());
+
+			await(() -> delivered.size() == 21);
+		}
+
+		MailMessage attachment = delivered.stream().filter(item -> item.getToEmails().containsKey("attachment@email.com")).findFirst().orElse(null);
+		assertNotNull(attachment);
+		assertEquals("invoice.pdf", attachment.getAttachments().get(0).fileName);
+		assertEquals(3, attachment.getAttachments().get(0).getLength());
+	}
+
+	@Test
+	void recoverAfterRestart(@TempDir Path dir) throws Exception {
+
+		SpoolConfig config = new SpoolConfig().retryDelay(Duration.ofMinutes(10)).awaitSync(true);
+
+		// provider down ... messages stay in spool
+		try (SpoolingMailService service = new SpoolingMailService(message -> MailSendResult.unavailable("down"), dir, config)) {
+			for (int i = 0; i < 3; i++) {
+				assertTrue(service.send(message("to" + i + "@email.com")).isSuccessful());
+			}
+		}
+
+		List<MailMessage> delivered = new CopyOnWriteArrayList<>();
+		try (SpoolingMailService service = new SpoolingMailService(message -> {
+			delivered.add(message);
+			return MailSendResult.ok();
+		}, dir, config)) {
+
+			await(() -> delivered.size() == 3);
+		}
+
+		assertEquals(3, delivered.stream().map(message -> message.getToEmails().keySet().iterator().next()).distinct().count());
+	}
+
+	@Test
+	void dropAfterMaxAttempts(@TempDir Path dir) throws Exception {
+
+		SpoolConfig config = new SpoolConfig().retryDelay(Duration.ZERO).maxAttempts(3);
+
+		List<MailMessage> attempts = new CopyOnWriteArrayList<>();
+		try (SpoolingMailService service = new SpoolingMailService(message -> {
+			attempts.add(message);
+			return MailSendResult.unavailable("down");
+		}, dir, config)) {
+
+			assertTrue(service.send(message("to@email.com")).isSuccessful());
+			await(() -> attempts.size() == 3);
+		}
+
+		// reopened spool has nothing to deliver
+		List<MailMessage> delivered = new CopyOnWriteArrayList<>();
+		try (SpoolingMailService service = new SpoolingMailService(message -> {
+			delivered.add(message);
+			return MailSendResult.ok();
+		}, dir, config)) {
+
+			Thread.sleep(200);
+			assertEquals(0, service.getQueued());
+		}
+
+		assertEquals(0, delivered.size());
+	}
+
+	@Test
+	void dropPermanentFailure(@TempDir Path dir) throws Exception {
+
+		SpoolConfig config = new SpoolConfig().retryDelay(Duration.ZERO).maxAttempts(10);
+
+		List<MailMessage> attempts = new CopyOnWriteArrayList<>();
+		try (SpoolingMailService service = new SpoolingMailService(message -> {
+			attempts.add(message);
+			return MailSendResult.fail("rejected");
+		}, dir, config)) {
+
+			assertTrue(service.send(message("to@email.com")).isSuccessful());
+			await(() -> attempts.size() == 1);
+
+			Thread.sleep(200);
+			assertEquals(1, attempts.size());
+			assertEquals(0, service.getQueued());
+		}
+	}
+
+	@Test
+	void redeliverAfterRetryAfter(@TempDir Path dir) throws Exception {
+
+		SpoolConfig config = new SpoolConfig().retryDelay(Duration.ZERO);
+
+		List<MailMessage> attempts = new CopyOnWriteArrayList<>();
+		try (SpoolingMailService service = new SpoolingMailService(message -> {
+			attempts.add(message);
+			return MailSendResult.throttled("slow down", Duration.ofMinutes(10));
+		}, dir, config)) {
+
+			assertTrue(service.send(message("to@email.com")).isSuccessful());
+			await(() -> attempts.size() == 1);
+
+			// provider asked to wait longer than retry delay
+			Thread.sleep(200);
+			assertEquals(1, attempts.size());
+		}
+	}
+
+	@Test
+	void spoolAttachmentContent(@TempDir Path dir, @TempDir Path files) throws Exception {
+
+		byte[] pdf = new byte[40_000];
+		new Random(1).nextBytes(pdf);
+
+		byte[] image = new byte[20_000];
+		new Random(2).nextBytes(image);
+
+		Path file = files.resolve("invoice.pdf");
+		Files.write(file, pdf);
+
+		CountDownLatch removed = new CountDownLatch(1);
+		List<byte[]> delivered = new CopyOnWriteArrayList<>();
+		MailService delivery = message -> {
+			try {
+				removed.await();
+				for (MailAttachment attachment : message.getAttachments()) {
+					try (InputStream in = attachment.getSource().open()) {
+						delivered.add(in.readAllBytes());
+					}
+				}
+
+				return MailSendResult.ok();
+			}
+			catch (InterruptedException | IOException e) {
+				return MailSendResult.fail(e.getMessage());
+			}
+		};
+
+		// second message doesn't fit into first segment, third doesn't fit into any
+		SpoolConfig config = new SpoolConfig().segmentSize(64 * 1024).workers(1);
+		try (SpoolingMailService service = new SpoolingMailService(delivery, dir, config)) {
+
+			MailMessage message = message("one@email.com").attachment(new MailAttachment("application/pdf", file, null))
+			                                             .attachment(new MailAttachment("image/png", ByteBuffer.wrap(image), "image.png"));
+
+			assertTrue(service.send(message).isSuccessful());
+			assertTrue(service.send(message).isSuccessful());
+
+			MailSendResult tooLarge = service.send(message("two@email.com").attachment(new MailAttachment("application/pdf", ByteBuffer.wrap(new byte[70_000]), "large.pdf")));
+			assertFalse(tooLarge.isSuccessful());
+			assertTrue(tooLarge.getMessage().startsWith("Message too large for mail spool"), tooLarge.getMessage());
+
+			// file content is spooled ... file is not needed once message is spooled
+			Files.delete(file);
+			removed.countDown();
+
+			await(() -> delivered.size() == 4);
+		}
+
+		assertArrayEquals(pdf, delivered.get(0));
+		assertArrayEquals(image, delivered.get(1));
+		assertArrayEquals(pdf, delivered.get(2));
+		assertArrayEquals(image, delivered.get(3));
+	}
+
+	@Test
+	void keepSharedExclusions(@TempDir Path dir) throws Exception {
+
+		ExclusionList suppressed = new ExclusionList().add("two@email.com");
+
+		List<MailMessage> delivered = new CopyOnWriteArrayList<>();
+		try (SpoolingMailService service = new SpoolingMailService(message -> {
+			delivered.add(message);
+			return MailSendResult.ok();
+		}, dir, new SpoolConfig())) {
+
+			assertTrue(service.send(message("one@email.com").to("two@email.com").exclude(suppressed)).isSuccessful());
+			await(() -> delivered.size() == 1);
+		}
+
+		// shared list is not serialized, recipients it excluded are
+		assertEquals(1, delivered.get(0).getToEmails().size());
+		assertTrue(delivered.get(0).getToEmails().containsKey("one@email.com"));
+		assertEquals(Collections.singletonList("two@email.com"), delivered.get(0).getExcludedEmails());
+	}
+
+	@Test
+	void ignoreCorruptedRecord(@TempDir Path dir) throws Exception {
+
+		SpoolConfig config = new SpoolConfig().retryDelay(Duration.ofMinutes(10));
+		try (SpoolingMailService service = new SpoolingMailService(message -> MailSendResult.unavailable("down"), dir, config)) {
+			assertTrue(service.send(message("one@email.com")).isSuccessful());
+			assertTrue(service.send(message("two@email.com")).isSuccessful());
+		}
+
+		// corrupt payload of second record (torn write)
+		List<Path> files = segments(dir);
+		assertEquals(1, files.size());
+		try (RandomAccessFile file = new RandomAccessFile(files.get(0).toFile(), "rw")) {
+			int length = file.readInt();
+			file.seek(9 + length + 9 + 10);
+			file.write(0xFF);
+		}
+
+		List<MailMessage> delivered = new CopyOnWriteArrayList<>();
+		try (SpoolingMailService service = new SpoolingMailService(message -> {
+			delivered.add(message);
+			return MailSendResult.ok();
+		}, dir, config)) {
+
+			await(() -> delivered.size() == 1);
+			Thread.sleep(200);
+		}
+
+		assertEquals(1, delivered.size());
+		assertTrue(delivered.get(0).getToEmails().containsKey("one@email.com"));
+	}
+}
@@ -0,0 +1,85 @@
+package com.zandero.mail.service;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zandero.http.Http;
+import com.zandero.mail.service.http.RequestBody;
+import com.zandero.mail.service.http.StreamingHttp;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class StreamingHttpTest {
+
+	private HttpServer server;
+
+	private volatile int received;
+
+	@BeforeEach
+	void start() throws IOException {
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/send", exchange -> {
+			try (InputStream in = exchange.getRequestBody()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				in.transferTo(out);
+				received = out.size();
+			}
+
+			byte[] response = "{\"id\":\"1\"}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(202, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+
+		server.start();
+	}
+
+	@AfterEach
+	void stop() {
+		server.stop(0);
+	}
+
+	@Test
+	void postStats() throws IOException {
+
+		byte[] content = new byte[100_000];
+		Arrays.fill(content, (byte) 'a');
+
+		RequestBody body = new RequestBody() {
+			@Override
+			public String getContentType() {
+				return "text/plain";
+			}
+
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				out.write(content);
+			}
+		};
+
+		MailSendStats stats = new MailSendStats();
+		Http.Response response = StreamingHttp.post("http://localhost:" + server.getAddress().getPort() + "/send", body, null, stats);
+
+		assertEquals(202, response.getCode());
+		assertEquals(100_000, received);
+
+		assertEquals(202, stats.getProviderStatus());
+		assertEquals(100_000, stats.getBytesSent());
+		assertTrue(stats.getSerializationTime().toNanos() > 0);
+		assertTrue(stats.getResponseTime().toNanos() > 0);
+	}
+}
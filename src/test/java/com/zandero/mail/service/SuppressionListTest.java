@@ -0,0 +1,159 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+import com.zandero.mail.service.sendgrid.SendGridMailService;
+import com.zandero.mail.service.suppression.SuppressionIndex;
+import com.zandero.mail.service.suppression.SuppressionList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.mail.Message;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+class SuppressionListTest {
+
+	@AfterEach
+	void reset() {
+
+		MailMessage.setDefaultExclusions(null);
+	}
+
+	@Test
+	void addRemove() {
+
+		SuppressionList list = new SuppressionList();
+		list.add("Bounced@Test.com")
+		    .addAll(Arrays.asList("one@test.com", "two@test.com", "", null));
+
+		assertEquals(3, list.size());
+		assertTrue(list.contains("bounced@test.com"));
+		assertTrue(list.contains(" BOUNCED@test.com "));
+		assertTrue(list.contains("two@test.com"));
+		assertFalse(list.contains("three@test.com"));
+		assertFalse(list.contains(null));
+
+		list.remove("bounced@test.com");
+		assertFalse(list.contains("bounced@test.com"));
+		assertEquals(2, list.size());
+
+		assertThrows(IllegalArgumentException.class, () -> list.add(" "));
+	}
+
+	@Test
+	void compact() {
+
+		SuppressionList list = new SuppressionList(SuppressionIndex.empty(), 3);
+		list.add("one@test.com").add("two@test.com");
+		assertEquals(2, list.getPendingChanges());
+
+		list.add("three@test.com"); // reaches threshold
+		assertEquals(0, list.getPendingChanges());
+		assertEquals(3, list.getIndex().size());
+
+		list.remove("two@test.com");
+		assertEquals(1, list.getPendingChanges());
+		assertFalse(list.contains("two@test.com"));
+
+		list.add("two@test.com"); // cancels out removal
+		assertEquals(0, list.getPendingChanges());
+		assertTrue(list.contains("two@test.com"));
+
+		list.remove("one@test.com");
+		list.compact();
+		assertEquals(0, list.getPendingChanges());
+		assertEquals(2, list.size());
+		assertFalse(list.contains("one@test.com"));
+		assertTrue(list.contains("three@test.com"));
+	}
+
+	@Test
+	void snapshot(@TempDir Path dir) throws IOException {
+
+		Path file = dir.resolve("suppressed.idx");
+
+		SuppressionList empty = SuppressionList.open(file);
+		assertEquals(0, empty.size());
+
+		List<String> emails = new ArrayList<>();
+		for (int index = 0; index < 10_000; index++) {
+			emails.add("user" + index + "@test.com");
+		}
+
+		SuppressionList list = new SuppressionList();
+		list.addAll(emails);
+		list.save(file);
+
+		SuppressionList opened = SuppressionList.open(file);
+		assertEquals(10_000, opened.size());
+		assertEquals(0, opened.getPendingChanges());
+
+		for (String email : emails) {
+			assertTrue(opened.contains(email));
+		}
+
+		assertFalse(opened.contains("user10000@test.com"));
+
+		// incremental updates on top of mapped snapshot
+		opened.add("new@test.com").remove("user1@test.com");
+		assertTrue(opened.contains("new@test.com"));
+		assertFalse(opened.contains("user1@test.com"));
+		assertEquals(10_000, opened.size());
+
+		opened.save(file);
+		SuppressionList reopened = SuppressionList.open(file);
+		assertTrue(reopened.contains("new@test.com"));
+		assertFalse(reopened.contains("user1@test.com"));
+		assertEquals(10_000, reopened.size());
+	}
+
+	@Test
+	void snapshot_invalid(@TempDir Path dir) throws IOException {
+
+		Path file = dir.resolve("invalid.idx");
+		Files.write(file, "not a suppression index".getBytes());
+
+		assertThrows(IOException.class, () -> SuppressionList.open(file));
+	}
+
+	@Test
+	void defaultExclusions() {
+
+		new SuppressionList().add("suppressed@test.com").register();
+
+		MailMessage message = new MailMessage()
+			                      .to("suppressed@test.com")
+			                      .to("other@test.com")
+			                      .bcc("SUPPRESSED@test.com");
+
+		assertEquals(1, message.getToEmails().size());
+		assertTrue(message.getToEmails().containsKey("other@test.com"));
+		assertTrue(message.getBccEmails().isEmpty());
+		assertEquals("other@test.com", message.getEmailsAsString(Message.RecipientType.TO));
+		assertNull(message.getEmailsAsString(Message.RecipientType.BCC));
+	}
+
+	@Test
+	void allRecipientsSuppressed() {
+
+		new SuppressionList().add("suppressed@test.com").register();
+
+		MailMessage message = new MailMessage().from("from@test.com").to("suppressed@test.com").subject("Hi").content("Hi");
+		assertTrue(MailFailures.allExcluded(message));
+
+		MailService service = new SendGridMailService("key", "from@test.com", "From");
+		MailSendResult result = service.send(message);
+		assertFalse(result.isSuccessful());
+		assertFalse(result.isTransient());
+	}
+}
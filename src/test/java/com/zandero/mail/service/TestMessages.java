@@ -0,0 +1,25 @@
+package com.zandero.mail.service;
+
+import com.zandero.mail.MailMessage;
+
+/**
+ * Mail messages shared by mail service tests
+ */
+public final class TestMessages {
+
+	private TestMessages() {
+		// hide constructor
+	}
+
+	/**
+	 * @param to recipient
+	 * @return plain text message from from@email.com to given recipient
+	 */
+	public static MailMessage message(String to) {
+
+		return new MailMessage().from("from@email.com")
+		                        .to(to)
+		                        .subject("Hello")
+		                        .content("Test");
+	}
+}